@@ -36,6 +36,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
@@ -52,8 +53,11 @@ import org.apache.kafka.common.requests.ApiError;
 import org.apache.kafka.common.requests.CreateTopicsRequest;
 import org.apache.kafka.common.requests.DescribeConfigsResponse;
 import org.apache.kafka.common.requests.MetadataResponse;
+import org.apache.pulsar.broker.PulsarService;
 import org.apache.pulsar.client.admin.PulsarAdmin;
 import org.apache.pulsar.client.admin.PulsarAdminException;
+import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.common.util.FutureUtil;
 
 @Slf4j
 public class AdminManager {
@@ -65,6 +69,8 @@ public class AdminManager {
                     .build();
 
     private final PulsarAdmin admin;
+    @Getter
+    private final PartitionedTopicService partitionedTopicService;
     private final int defaultNumPartitions;
 
     private volatile Map<String, Set<Node>> brokersCache = Maps.newHashMap();
@@ -74,8 +80,9 @@ public class AdminManager {
     private volatile Map<String, Integer> controllerId = Maps.newHashMap();
 
 
-    public AdminManager(PulsarAdmin admin, KafkaServiceConfiguration conf) {
+    public AdminManager(PulsarAdmin admin, PulsarService pulsar, KafkaServiceConfiguration conf) {
         this.admin = admin;
+        this.partitionedTopicService = new PartitionedTopicService(pulsar);
         this.defaultNumPartitions = conf.getDefaultNumPartitions();
     }
 
@@ -132,7 +139,8 @@ public class AdminManager {
                 }
                 return;
             }
-            admin.topics().createPartitionedTopicAsync(kopTopic.getFullName(), numPartitions)
+            final TopicName topicName = TopicName.get(kopTopic.getFullName());
+            partitionedTopicService.createPartitionedTopicAsync(topicName, numPartitions)
                     .whenComplete((ignored, e) -> {
                         if (e == null) {
                             if (log.isDebugEnabled()) {
@@ -143,11 +151,11 @@ public class AdminManager {
                         }
                         if (e == null) {
                             errorFuture.complete(ApiError.NONE);
-                        } else if (e instanceof PulsarAdminException.ConflictException) {
+                        } else if (FutureUtil.unwrapCompletionException(e) instanceof TopicExistsException) {
                             errorFuture.complete(ApiError.fromThrowable(
                                     new TopicExistsException("Topic '" + topic + "' already exists.")));
                         } else {
-                            errorFuture.complete(ApiError.fromThrowable(e));
+                            errorFuture.complete(ApiError.fromThrowable(FutureUtil.unwrapCompletionException(e)));
                         }
                         if (numTopics.decrementAndGet() == 0) {
                             complete.run();
@@ -186,20 +194,18 @@ public class AdminManager {
                         switch (resource.type()) {
                             case TOPIC:
                                 KopTopic kopTopic = new KopTopic(resource.name(), namespacePrefix);
-                                admin.topics().getPartitionedTopicMetadataAsync(kopTopic.getFullName())
-                                        .whenComplete((metadata, e) -> {
+                                partitionedTopicService.getNumPartitionsAsync(TopicName.get(kopTopic.getFullName()))
+                                        .whenComplete((numPartitions, e) -> {
                                             if (e != null) {
-                                                if (e instanceof PulsarAdminException.NotFoundException) {
-                                                    final ApiError error = new ApiError(
-                                                            Errors.UNKNOWN_TOPIC_OR_PARTITION,
-                                                            "Topic " + kopTopic.getOriginalName() + " doesn't exist");
-                                                    future.complete(new DescribeConfigsResponse.Config(
-                                                            error, Collections.emptyList()));
-                                                } else {
-                                                    future.complete(new DescribeConfigsResponse.Config(
-                                                            ApiError.fromThrowable(e), Collections.emptyList()));
-                                                }
-                                            } else if (metadata.partitions > 0) {
+                                                future.complete(new DescribeConfigsResponse.Config(
+                                                        ApiError.fromThrowable(e), Collections.emptyList()));
+                                            } else if (!numPartitions.isPresent()) {
+                                                final ApiError error = new ApiError(
+                                                        Errors.UNKNOWN_TOPIC_OR_PARTITION,
+                                                        "Topic " + kopTopic.getOriginalName() + " doesn't exist");
+                                                future.complete(new DescribeConfigsResponse.Config(
+                                                        error, Collections.emptyList()));
+                                            } else if (numPartitions.get() > 0) {
                                                 future.complete(defaultTopicConfig);
                                             } else {
                                                 final ApiError error = new ApiError(Errors.INVALID_TOPIC_EXCEPTION,
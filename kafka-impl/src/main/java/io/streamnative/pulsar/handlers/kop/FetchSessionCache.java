@@ -0,0 +1,359 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.requests.FetchMetadata;
+import org.apache.kafka.common.requests.FetchRequest;
+import org.apache.kafka.common.requests.FetchResponse;
+
+/**
+ * The cache of the incremental fetch sessions introduced by KIP-227, which is similar to Kafka's FetchSessionCache.
+ *
+ * A fetch session caches the partitions of the previous FETCH requests so that an incremental FETCH request only
+ * contains the partitions whose fetch states are changed, and the incremental FETCH response only contains the
+ * partitions that have new records or whose metadata are changed. The partitions that have been authorized in a
+ * session are not authorized again until the session is closed or evicted.
+ *
+ * A session is bound to the connection that created it. When the number of sessions exceeds the limit, the least
+ * recently used session is evicted.
+ */
+@Slf4j
+public class FetchSessionCache {
+
+    private final int maxSessions;
+    // The access-ordered map from the session id to the session, whose eldest entry is the least recently used one
+    private final LinkedHashMap<Integer, FetchSession> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    @Getter
+    private final LongAdder numEvictions = new LongAdder();
+
+    public FetchSessionCache(final int maxSessions) {
+        this.maxSessions = Math.max(maxSessions, 0);
+    }
+
+    /**
+     * Create the context to handle a FETCH request.
+     *
+     * @param request the FETCH request
+     * @param owner the owner of the session, i.e. the connection that sends the FETCH request
+     */
+    public FetchContext newContext(final FetchRequest request, final Object owner) {
+        final FetchMetadata metadata = request.metadata();
+        if (metadata.isFull()) {
+            if (metadata.sessionId() != FetchMetadata.INVALID_SESSION_ID) {
+                // A full FETCH request closes the existing session
+                remove(metadata.sessionId(), owner);
+            }
+            final boolean createSession = maxSessions > 0 && metadata.epoch() == FetchMetadata.INITIAL_EPOCH;
+            return new FullFetchContext(request.fetchData(), createSession ? owner : null);
+        }
+
+        final FetchSession session;
+        synchronized (this) {
+            session = sessions.get(metadata.sessionId());
+        }
+        if (session == null || session.owner != owner) {
+            if (log.isDebugEnabled()) {
+                log.debug("Fetch session {} is not found", metadata.sessionId());
+            }
+            return new SessionErrorContext(Errors.FETCH_SESSION_ID_NOT_FOUND);
+        }
+        synchronized (session) {
+            if (session.epoch != metadata.epoch()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Fetch session {} expected epoch {}, but got {}",
+                            session.id, session.epoch, metadata.epoch());
+                }
+                return new SessionErrorContext(Errors.INVALID_FETCH_SESSION_EPOCH);
+            }
+            request.fetchData().forEach(session::update);
+            request.toForget().forEach(session.partitions::remove);
+            session.epoch = FetchMetadata.nextEpoch(session.epoch);
+            return new IncrementalFetchContext(session);
+        }
+    }
+
+    /**
+     * Remove all sessions of a closed connection.
+     */
+    public synchronized void removeByOwner(final Object owner) {
+        sessions.values().removeIf(session -> session.owner == owner);
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    private synchronized void remove(final int sessionId, final Object owner) {
+        final FetchSession session = sessions.get(sessionId);
+        if (session != null && session.owner == owner) {
+            sessions.remove(sessionId);
+        }
+    }
+
+    private synchronized int add(final FetchSession session) {
+        if (sessions.size() >= maxSessions) {
+            final Integer eldestSessionId = sessions.keySet().iterator().next();
+            sessions.remove(eldestSessionId);
+            numEvictions.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("Evict fetch session {} because the cache is full", eldestSessionId);
+            }
+        }
+        int sessionId;
+        do {
+            sessionId = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+        } while (sessions.containsKey(sessionId));
+        session.id = sessionId;
+        sessions.put(sessionId, session);
+        return sessionId;
+    }
+
+    private static final class CachedPartition {
+
+        private FetchRequest.PartitionData fetchData;
+        private boolean authorized = false;
+        private long highWatermark = FetchResponse.INVALID_HIGHWATERMARK;
+        private long lastStableOffset = FetchResponse.INVALID_LAST_STABLE_OFFSET;
+        private long logStartOffset = FetchResponse.INVALID_LOG_START_OFFSET;
+
+        CachedPartition(final FetchRequest.PartitionData fetchData) {
+            this.fetchData = fetchData;
+        }
+
+        /**
+         * Update the partition with the response data.
+         *
+         * @return whether the response data should be returned in the incremental FETCH response
+         */
+        boolean update(final FetchResponse.PartitionData<Records> data, final boolean authorized) {
+            this.authorized = authorized;
+            boolean changed = data.error() != Errors.NONE
+                    || (data.records() != null && data.records().sizeInBytes() > 0);
+            if (highWatermark != data.highWatermark()) {
+                highWatermark = data.highWatermark();
+                changed = true;
+            }
+            if (lastStableOffset != data.lastStableOffset()) {
+                lastStableOffset = data.lastStableOffset();
+                changed = true;
+            }
+            if (logStartOffset != data.logStartOffset()) {
+                logStartOffset = data.logStartOffset();
+                changed = true;
+            }
+            return changed;
+        }
+    }
+
+    private static final class FetchSession {
+
+        private final Object owner;
+        private final LinkedHashMap<TopicPartition, CachedPartition> partitions = new LinkedHashMap<>();
+        private volatile int id = FetchMetadata.INVALID_SESSION_ID;
+        private int epoch = FetchMetadata.nextEpoch(FetchMetadata.INITIAL_EPOCH);
+
+        FetchSession(final Object owner) {
+            this.owner = owner;
+        }
+
+        void update(final TopicPartition topicPartition, final FetchRequest.PartitionData fetchData) {
+            final CachedPartition partition = partitions.get(topicPartition);
+            if (partition == null) {
+                partitions.put(topicPartition, new CachedPartition(fetchData));
+            } else {
+                partition.fetchData = fetchData;
+            }
+        }
+    }
+
+    /**
+     * The context to handle a FETCH request.
+     */
+    public abstract static class FetchContext {
+
+        /**
+         * @return the error of the fetch session, the request should be answered with {@link #errorResponse} if
+         *   it's not {@link Errors#NONE}
+         */
+        public Errors error() {
+            return Errors.NONE;
+        }
+
+        /**
+         * @return the partitions to fetch in order
+         */
+        public abstract Map<TopicPartition, FetchRequest.PartitionData> partitionsToFetch();
+
+        /**
+         * @return whether the partition has been authorized in the fetch session
+         */
+        public boolean isAuthorized(TopicPartition topicPartition) {
+            return false;
+        }
+
+        /**
+         * Update the fetch session and generate the FETCH response.
+         *
+         * @param responseData the response data of all partitions to fetch
+         * @param authorizedPartitions the partitions that are authorized
+         * @param throttleTimeMs the throttle time in milliseconds
+         */
+        public abstract FetchResponse<Records> updateAndGenerateResponse(
+                LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> responseData,
+                Set<TopicPartition> authorizedPartitions,
+                int throttleTimeMs);
+
+        public FetchResponse<Records> errorResponse(final int throttleTimeMs) {
+            return new FetchResponse<>(error(), new LinkedHashMap<>(), throttleTimeMs,
+                    FetchMetadata.INVALID_SESSION_ID);
+        }
+    }
+
+    private final class FullFetchContext extends FetchContext {
+
+        private final Map<TopicPartition, FetchRequest.PartitionData> fetchData;
+        // The owner of the new session, or null if no session should be created
+        private final Object owner;
+
+        FullFetchContext(final Map<TopicPartition, FetchRequest.PartitionData> fetchData, final Object owner) {
+            this.fetchData = fetchData;
+            this.owner = owner;
+        }
+
+        @Override
+        public Map<TopicPartition, FetchRequest.PartitionData> partitionsToFetch() {
+            return fetchData;
+        }
+
+        @Override
+        public FetchResponse<Records> updateAndGenerateResponse(
+                final LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> responseData,
+                final Set<TopicPartition> authorizedPartitions,
+                final int throttleTimeMs) {
+            int sessionId = FetchMetadata.INVALID_SESSION_ID;
+            if (owner != null) {
+                final FetchSession session = new FetchSession(owner);
+                synchronized (session) {
+                    fetchData.forEach(session::update);
+                    responseData.forEach((topicPartition, data) -> {
+                        final CachedPartition partition = session.partitions.get(topicPartition);
+                        if (partition != null) {
+                            partition.update(data, authorizedPartitions.contains(topicPartition));
+                        }
+                    });
+                }
+                sessionId = add(session);
+                if (log.isDebugEnabled()) {
+                    log.debug("Created fetch session {} with {} partitions", sessionId, session.partitions.size());
+                }
+            }
+            return new FetchResponse<>(Errors.NONE, responseData, throttleTimeMs, sessionId);
+        }
+    }
+
+    private static final class IncrementalFetchContext extends FetchContext {
+
+        private final FetchSession session;
+        private final Map<TopicPartition, FetchRequest.PartitionData> partitionsToFetch = new LinkedHashMap<>();
+        private final Set<TopicPartition> authorizedPartitions;
+
+        // It must be called when the session is locked
+        IncrementalFetchContext(final FetchSession session) {
+            this.session = session;
+            final Set<TopicPartition> authorizedPartitions = new HashSet<>();
+            session.partitions.forEach((topicPartition, partition) -> {
+                partitionsToFetch.put(topicPartition, partition.fetchData);
+                if (partition.authorized) {
+                    authorizedPartitions.add(topicPartition);
+                }
+            });
+            this.authorizedPartitions = Collections.unmodifiableSet(authorizedPartitions);
+        }
+
+        @Override
+        public Map<TopicPartition, FetchRequest.PartitionData> partitionsToFetch() {
+            return partitionsToFetch;
+        }
+
+        @Override
+        public boolean isAuthorized(final TopicPartition topicPartition) {
+            return authorizedPartitions.contains(topicPartition);
+        }
+
+        @Override
+        public FetchResponse<Records> updateAndGenerateResponse(
+                final LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> responseData,
+                final Set<TopicPartition> authorizedPartitions,
+                final int throttleTimeMs) {
+            final LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> changedData =
+                    new LinkedHashMap<>();
+            synchronized (session) {
+                responseData.forEach((topicPartition, data) -> {
+                    final CachedPartition partition = session.partitions.get(topicPartition);
+                    // The partition might be removed by a concurrent FETCH request
+                    if (partition == null
+                            || partition.update(data, authorizedPartitions.contains(topicPartition))) {
+                        changedData.put(topicPartition, data);
+                    }
+                });
+            }
+            return new FetchResponse<>(Errors.NONE, changedData, throttleTimeMs, session.id);
+        }
+    }
+
+    private static final class SessionErrorContext extends FetchContext {
+
+        private final Errors error;
+
+        SessionErrorContext(final Errors error) {
+            this.error = error;
+        }
+
+        @Override
+        public Errors error() {
+            return error;
+        }
+
+        @Override
+        public Map<TopicPartition, FetchRequest.PartitionData> partitionsToFetch() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public FetchResponse<Records> updateAndGenerateResponse(
+                final LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> responseData,
+                final Set<TopicPartition> authorizedPartitions,
+                final int throttleTimeMs) {
+            return errorResponse(throttleTimeMs);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized boolean contains(final int sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+}
@@ -22,12 +22,13 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
+import io.streamnative.pulsar.handlers.kop.utils.SpscRingBuffer;
 import java.io.Closeable;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
@@ -36,6 +37,7 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.common.util.SafeRunnable;
 import org.apache.kafka.common.errors.ApiException;
 import org.apache.kafka.common.errors.AuthenticationException;
 import org.apache.kafka.common.protocol.ApiKeys;
@@ -59,8 +61,16 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
     protected SocketAddress remoteAddress;
     @Getter
     protected AtomicBoolean isActive = new AtomicBoolean(false);
-    // Queue to make response get responseFuture in order and limit the max request size
-    private final LinkedBlockingQueue<ResponseAndRequest> requestQueue;
+    // Queue to make response get responseFuture in order and limit the max request size. The requests are only added
+    // by the event loop thread and the responses are only removed by the response thread, see executeInResponseThread.
+    private final SpscRingBuffer<ResponseAndRequest> requestQueue;
+    // Whether writeAndFlushResponseToClient is scheduled but not started yet
+    private final AtomicBoolean responseWriteScheduled = new AtomicBoolean(false);
+    // The requests that are read when the request queue is full, they are only accessed by the event loop thread
+    private final ArrayDeque<ByteBuf> pendingRequests = new ArrayDeque<>();
+    // Whether the auto read is disabled because the request queue is full
+    private volatile boolean readPaused = false;
+    private final AtomicBoolean resumeReadScheduled = new AtomicBoolean(false);
     @Getter
     @Setter
     protected volatile RequestStats requestStats;
@@ -69,12 +79,24 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
 
     private final OrderedScheduler sendResponseScheduler;
 
+    // Update parse request latency metrics
+    private final BiConsumer<Long, Throwable> registerRequestParseLatency = (timeBeforeParse, throwable) -> {
+        requestStats.getRequestParseLatencyStats().registerSuccessfulEvent(
+                MathUtils.elapsedNanos(timeBeforeParse), TimeUnit.NANOSECONDS);
+    };
+
+    // Update handle request latency metrics
+    private final BiConsumer<ApiKeys, Long> registerRequestLatency = (apiKey, startProcessTime) -> {
+        requestStats.getRequestStatsLogger(apiKey, KopServerStats.REQUEST_LATENCY)
+                .registerSuccessfulEvent(MathUtils.elapsedNanos(startProcessTime), TimeUnit.NANOSECONDS);
+    };
+
     public KafkaCommandDecoder(RequestStats requestStats,
                                KafkaServiceConfiguration kafkaConfig,
                                OrderedScheduler sendResponseScheduler) {
         this.requestStats = requestStats;
         this.kafkaConfig = kafkaConfig;
-        this.requestQueue = new LinkedBlockingQueue<>(kafkaConfig.getMaxQueuedRequests());
+        this.requestQueue = new SpscRingBuffer<>(kafkaConfig.getMaxQueuedRequests());
         this.sendResponseScheduler = sendResponseScheduler;
     }
 
@@ -107,9 +129,36 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
         close();
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releasePendingRequests();
+        super.channelInactive(ctx);
+    }
+
     protected void close() {
-        // Clear the request queue
+        // Clear the request queue in the thread that removes the responses, so that it still has a single consumer
         log.info("close channel {} with {} pending responses", ctx.channel(), requestQueue.size());
+        final Channel channel = ctx.channel();
+        executeInResponseThread(channel, this::cancelQueuedRequests);
+        ctx.close();
+    }
+
+    private void executeInResponseThread(Channel channel, SafeRunnable task) {
+        if (kafkaConfig.isSendResponseOnEventLoop()) {
+            channel.eventLoop().execute(task);
+        } else {
+            sendResponseScheduler.executeOrdered(channel.remoteAddress().hashCode(), task);
+        }
+    }
+
+    private void scheduleResponseWrite(Channel channel) {
+        // The responses that are completed before the scheduled task starts are written by the same task
+        if (responseWriteScheduled.compareAndSet(false, true)) {
+            executeInResponseThread(channel, () -> writeAndFlushResponseToClient(channel));
+        }
+    }
+
+    private void cancelQueuedRequests() {
         while (true) {
             final ResponseAndRequest responseAndRequest = requestQueue.poll();
             if (responseAndRequest != null) {
@@ -123,7 +172,13 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
             // update request queue size stat
             RequestStats.REQUEST_QUEUE_SIZE_INSTANCE.decrementAndGet();
         }
-        ctx.close();
+    }
+
+    private void releasePendingRequests() {
+        ByteBuf buffer;
+        while ((buffer = pendingRequests.poll()) != null) {
+            buffer.release();
+        }
     }
 
     @Override
@@ -158,6 +213,12 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
     }
 
     protected static ByteBuf responseToByteBuf(AbstractResponse response, KafkaHeaderAndRequest request) {
+        return responseToByteBuf(response, request, false);
+    }
+
+    protected static ByteBuf responseToByteBuf(AbstractResponse response,
+                                               KafkaHeaderAndRequest request,
+                                               boolean withoutCopy) {
         try (KafkaHeaderAndResponse kafkaHeaderAndResponse =
                  KafkaHeaderAndResponse.responseForRequest(request, response)) {
             // Lowering Client API_VERSION request to the oldest API_VERSION KoP supports, this is to make \
@@ -169,6 +230,13 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
                     apiVersion = ApiKeys.API_VERSIONS.oldestVersion();
                 }
             }
+            if (withoutCopy) {
+                return KopResponseUtils.serializeResponseWithoutCopy(
+                    apiVersion,
+                    kafkaHeaderAndResponse.getHeader(),
+                    kafkaHeaderAndResponse.getResponse()
+                );
+            }
             return KopResponseUtils.serializeResponse(
                 apiVersion,
                 kafkaHeaderAndResponse.getHeader(),
@@ -190,18 +258,6 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
         ByteBuf buffer = (ByteBuf) msg;
         requestStats.getNetworkTotalBytesIn().add(buffer.readableBytes());
 
-        // Update parse request latency metrics
-        final BiConsumer<Long, Throwable> registerRequestParseLatency = (timeBeforeParse, throwable) -> {
-            requestStats.getRequestParseLatencyStats().registerSuccessfulEvent(
-                    MathUtils.elapsedNanos(timeBeforeParse), TimeUnit.NANOSECONDS);
-        };
-
-        // Update handle request latency metrics
-        final BiConsumer<ApiKeys, Long> registerRequestLatency = (apiKey, startProcessTime) -> {
-            requestStats.getRequestStatsLogger(apiKey, KopServerStats.REQUEST_LATENCY)
-                    .registerSuccessfulEvent(MathUtils.elapsedNanos(startProcessTime), TimeUnit.NANOSECONDS);
-        };
-
         // If kop is enabled for authentication and the client
         // has not completed the handshake authentication,
         // execute channelPrepare to complete authentication
@@ -218,6 +274,17 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
             }
         }
 
+        if (!pendingRequests.isEmpty() || requestQueue.isFull()) {
+            // Stop reading from the channel instead of blocking the event loop, the request will be handled once the
+            // request queue has room for it
+            pendingRequests.add(buffer);
+            pauseRead();
+            return;
+        }
+        handleRequest(ctx, buffer);
+    }
+
+    private void handleRequest(ChannelHandlerContext ctx, ByteBuf buffer) {
         Channel channel = ctx.channel();
         SocketAddress remoteAddress = null;
         if (null != channel) {
@@ -226,7 +293,6 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
 
         final long timeBeforeParse = MathUtils.nowInNano();
         KafkaHeaderAndRequest kafkaHeaderAndRequest = byteBufToRequest(buffer, remoteAddress);
-        // potentially blocking until there is room in the queue for the request.
         registerRequestParseLatency.accept(timeBeforeParse, null);
 
         try {
@@ -252,13 +318,14 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
                 registerRequestLatency.accept(kafkaHeaderAndRequest.getHeader().apiKey(),
                         startProcessRequestTimestamp);
 
-                sendResponseScheduler.executeOrdered(channel.remoteAddress().hashCode(), () -> {
-                    writeAndFlushResponseToClient(channel);
-                });
+                scheduleResponseWrite(channel);
             });
-            // potentially blocking until there is room in the queue for the request.
-            requestQueue.put(ResponseAndRequest.of(responseFuture, kafkaHeaderAndRequest));
+            // There is always room in the queue because only this thread adds requests to it
+            requestQueue.offer(ResponseAndRequest.of(responseFuture, kafkaHeaderAndRequest));
             RequestStats.REQUEST_QUEUE_SIZE_INSTANCE.incrementAndGet();
+            if (requestQueue.isFull()) {
+                pauseRead();
+            }
 
             if (!isActive.get()) {
                 handleInactive(kafkaHeaderAndRequest, responseFuture);
@@ -366,9 +433,80 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
         }
     }
 
-    // Write and flush continuously completed request back through channel.
+    // Disable the auto read of the channel, it must be called in the event loop thread
+    private void pauseRead() {
+        if (!readPaused) {
+            readPaused = true;
+            ctx.channel().config().setAutoRead(false);
+            requestStats.getRequestReadPausedTimes().inc();
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Pause reading because {} requests are in flight", ctx.channel(), requestQueue.size());
+            }
+        }
+        // The queue might have been drained before readPaused was set
+        if (!requestQueue.isFull()) {
+            scheduleResumeRead();
+        }
+    }
+
+    private void scheduleResumeRead() {
+        if (resumeReadScheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(this::resumeRead);
+        }
+    }
+
+    // Handle the pending requests and enable the auto read again, it must be called in the event loop thread
+    private void resumeRead() {
+        resumeReadScheduled.set(false);
+        if (!readPaused) {
+            return;
+        }
+        if (!isActive.get()) {
+            releasePendingRequests();
+            return;
+        }
+        while (!pendingRequests.isEmpty() && !requestQueue.isFull()) {
+            final ByteBuf buffer = pendingRequests.poll();
+            try {
+                handleRequest(ctx, buffer);
+            } catch (Exception e) {
+                exceptionCaught(ctx, e);
+                return;
+            }
+        }
+        if (pendingRequests.isEmpty() && !requestQueue.isFull()) {
+            readPaused = false;
+            if (!isReadThrottled()) {
+                ctx.channel().config().setAutoRead(true);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Resume reading with {} requests in flight", ctx.channel(), requestQueue.size());
+            }
+        }
+    }
+
+    /**
+     * Whether the auto read is disabled because the request queue is full.
+     */
+    protected boolean isReadPaused() {
+        return readPaused;
+    }
+
+    /**
+     * Whether the auto read is disabled for other reasons, e.g. the publish buffer limiting, in which case the auto
+     * read won't be enabled when the request queue has room again.
+     */
+    protected boolean isReadThrottled() {
+        return false;
+    }
+
+    // Write continuously completed request back through channel and flush them once.
     // This is to make sure request get responseFuture in the same order.
     protected void writeAndFlushResponseToClient(Channel channel) {
+        // Reset it before checking the responses, so that the responses completed after this point will schedule
+        // another write
+        responseWriteScheduled.set(false);
+        int numWrittenResponses = 0;
         // loop from first responseFuture.
         while (isActive.get()) {
             final ResponseAndRequest responseAndRequest = requestQueue.peek();
@@ -391,10 +529,10 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
                 }
                 break;
             } else {
-                if (requestQueue.remove(responseAndRequest)) {
-                    RequestStats.REQUEST_QUEUE_SIZE_INSTANCE.decrementAndGet();
-                } else { // it has been removed by another thread, skip this element
-                    continue;
+                requestQueue.poll();
+                RequestStats.REQUEST_QUEUE_SIZE_INSTANCE.decrementAndGet();
+                if (readPaused) {
+                    scheduleResumeRead();
                 }
             }
 
@@ -415,6 +553,7 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
                             .registerFailedEvent(nanoSecondsSinceCreated, TimeUnit.NANOSECONDS);
                     return null;
                 }); // send exception to client?
+                numWrittenResponses++;
                 continue;
             }
 
@@ -435,9 +574,12 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
                                 request, response);
                     }
 
-                    final ByteBuf result = responseToByteBuf(response, request);
+                    // The FETCH response's records are released by ResponseCallbackWrapper after the write is done,
+                    // so it's safe to reference them in the result buffer
+                    final ByteBuf result = responseToByteBuf(response, request,
+                            apiKey == ApiKeys.FETCH && kafkaConfig.isKopZeroCopyFetchEnabled());
                     final int resultSize = result.readableBytes();
-                    channel.writeAndFlush(result).addListener(future -> {
+                    channel.write(result).addListener(future -> {
                         if (response instanceof ResponseCallbackWrapper) {
                             ((ResponseCallbackWrapper) response).responseComplete();
                         }
@@ -450,6 +592,7 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
                     requestStats.getRequestStatsLogger(apiKey, KopServerStats.REQUEST_QUEUED_LATENCY)
                             .registerSuccessfulEvent(nanoSecondsSinceCreated, TimeUnit.NANOSECONDS);
                 });
+                numWrittenResponses++;
                 continue;
             }
 
@@ -461,14 +604,23 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
                 sendErrorResponse(request, channel, new ApiException("request is expired from server side"));
                 requestStats.getRequestStatsLogger(apiKey, KopServerStats.REQUEST_QUEUED_LATENCY)
                         .registerFailedEvent(nanoSecondsSinceCreated, TimeUnit.NANOSECONDS);
+                numWrittenResponses++;
             }
         }
+        if (numWrittenResponses > 0) {
+            channel.flush();
+        }
+        if (!isActive.get()) {
+            // The requests that are added after the channel is closed won't be written
+            cancelQueuedRequests();
+        }
     }
 
     private void sendErrorResponse(KafkaHeaderAndRequest request, Channel channel, Throwable customError) {
         ByteBuf result = request.createErrorResponse(customError);
         final int resultSize = result.readableBytes();
-        channel.writeAndFlush(result).addListener(future -> {
+        // It's flushed by writeAndFlushResponseToClient with other responses
+        channel.write(result).addListener(future -> {
             if (future.isSuccess()) {
                 requestStats.getNetworkTotalBytesOut().add(resultSize);
             }
@@ -23,8 +23,10 @@ import io.netty.channel.socket.SocketChannel;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupConfig;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupCoordinator;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.OffsetConfig;
+import io.streamnative.pulsar.handlers.kop.coordinator.group.OffsetsTopicLocalWriter;
 import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionConfig;
 import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionCoordinator;
+import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionMarkerLocalWriter;
 import io.streamnative.pulsar.handlers.kop.http.HttpChannelInitializer;
 import io.streamnative.pulsar.handlers.kop.migration.MigrationManager;
 import io.streamnative.pulsar.handlers.kop.schemaregistry.SchemaRegistryChannelInitializer;
@@ -192,11 +194,12 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
             KopVersion.getBuildTime());
 
         brokerService = service;
-        kafkaTopicManagerSharedState = new KafkaTopicManagerSharedState(brokerService);
+        kafkaTopicManagerSharedState =
+                new KafkaTopicManagerSharedState(brokerService, kafkaConfig, requestStats.getStatsLogger());
         PulsarAdmin pulsarAdmin;
         try {
             pulsarAdmin = brokerService.getPulsar().getAdminClient();
-            adminManager = new AdminManager(pulsarAdmin, kafkaConfig);
+            adminManager = new AdminManager(pulsarAdmin, brokerService.getPulsar(), kafkaConfig);
         } catch (PulsarServerException e) {
             log.error("Failed to get pulsarAdmin", e);
             throw new IllegalStateException(e);
@@ -261,7 +264,8 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
                 brokerService.getPulsar().getLocalMetadataStore(),
                 requestStats.getStatsLogger(),
                 kafkaConfig,
-                groupCoordinatorsByTenant);
+                groupCoordinatorsByTenant,
+                kafkaTopicManagerSharedState.getTopicMetadataCache());
         kopEventManager.start();
 
         if (kafkaConfig.isKafkaTransactionCoordinatorEnabled() && kafkaConfig.isKafkaManageSystemNamespaces()) {
@@ -414,10 +418,14 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
         producePurgatory = DelayedOperationPurgatory.builder()
                 .purgatoryName("produce")
                 .timeoutTimer(SystemTimer.builder().executorName("produce").build())
+                .shards(kafkaConfig.getKopPurgatoryShards())
+                .statsLogger(requestStats.getStatsLogger())
                 .build();
         fetchPurgatory = DelayedOperationPurgatory.builder()
                 .purgatoryName("fetch")
                 .timeoutTimer(SystemTimer.builder().executorName("fetch").build())
+                .shards(kafkaConfig.getKopPurgatoryShards())
+                .statsLogger(requestStats.getStatsLogger())
                 .build();
 
         replicaManager = new ReplicaManager(
@@ -519,6 +527,8 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
             .maxMetadataSize(kafkaConfig.getOffsetMetadataMaxSize())
             .offsetsRetentionCheckIntervalMs(kafkaConfig.getOffsetsRetentionCheckIntervalMs())
             .offsetsRetentionMs(TimeUnit.MINUTES.toMillis(kafkaConfig.getOffsetsRetentionMinutes()))
+            .groupMetadataSnapshotIntervalMs(kafkaConfig.getKopGroupMetadataSnapshotIntervalMs())
+            .maxMessageSize(kafkaConfig.getMaxMessageSize())
             .build();
 
         GroupCoordinator groupCoordinator = GroupCoordinator.of(
@@ -530,7 +540,12 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
             SystemTimer.builder()
                 .executorName("group-coordinator-timer")
                 .build(),
-            Time.SYSTEM
+            Time.SYSTEM,
+            kafkaConfig.getGroupCoordinatorNumThreads(),
+            kafkaConfig.isKopOffsetsTopicLocalWriteEnabled()
+                ? new OffsetsTopicLocalWriter(brokerService, kafkaConfig.getKopOffsetsTopicBatchDelayMs(),
+                    kafkaConfig.getKopOffsetsTopicBatchMaxBytes(), requestStats.getStatsLogger())
+                : null
         );
         // always enable metadata expiration
         groupCoordinator.startup(true);
@@ -565,7 +580,12 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
                         .name("transaction-log-manager-" + tenant)
                         .numThreads(1)
                         .build(),
-                Time.SYSTEM);
+                Time.SYSTEM,
+                kafkaConfig.isKafkaTxnMarkerLocalWriteEnabled()
+                    ? new TransactionMarkerLocalWriter(brokerService, this::getReplicaManager,
+                        kafkaConfig.getKafkaMetadataNamespace(), kafkaConfig.getRequestTimeoutMs())
+                    : null,
+                requestStats.forTenant(tenant).getStatsLogger());
 
         transactionCoordinator.startup(kafkaConfig.isKafkaTransactionalIdExpirationEnable()).get();
 
@@ -27,17 +27,21 @@ import io.netty.channel.ChannelHandlerContext;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupCoordinator;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadata.GroupOverview;
 import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionCoordinator;
+import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionMarkerLocalWriter;
 import io.streamnative.pulsar.handlers.kop.exceptions.KoPTopicException;
 import io.streamnative.pulsar.handlers.kop.offset.OffsetAndMetadata;
 import io.streamnative.pulsar.handlers.kop.offset.OffsetMetadata;
 import io.streamnative.pulsar.handlers.kop.security.SaslAuthenticator;
 import io.streamnative.pulsar.handlers.kop.security.Session;
+import io.streamnative.pulsar.handlers.kop.security.auth.AuthorizationCache;
 import io.streamnative.pulsar.handlers.kop.security.auth.Authorizer;
+import io.streamnative.pulsar.handlers.kop.security.auth.CachedAuthorizer;
 import io.streamnative.pulsar.handlers.kop.security.auth.Resource;
 import io.streamnative.pulsar.handlers.kop.security.auth.ResourceType;
 import io.streamnative.pulsar.handlers.kop.security.auth.SimpleAclAuthorizer;
 import io.streamnative.pulsar.handlers.kop.storage.AppendRecordsContext;
 import io.streamnative.pulsar.handlers.kop.storage.PartitionLog;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionOffsetIndex;
 import io.streamnative.pulsar.handlers.kop.storage.ReplicaManager;
 import io.streamnative.pulsar.handlers.kop.utils.CoreUtils;
 import io.streamnative.pulsar.handlers.kop.utils.GroupIdUtils;
@@ -78,11 +82,10 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.util.OrderedScheduler;
-import org.apache.bookkeeper.mledger.AsyncCallbacks;
-import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
@@ -98,6 +101,7 @@ import org.apache.kafka.common.config.ConfigResource;
 import org.apache.kafka.common.errors.ApiException;
 import org.apache.kafka.common.errors.AuthenticationException;
 import org.apache.kafka.common.errors.LeaderNotAvailableException;
+import org.apache.kafka.common.errors.TopicExistsException;
 import org.apache.kafka.common.message.AddOffsetsToTxnRequestData;
 import org.apache.kafka.common.message.AddOffsetsToTxnResponseData;
 import org.apache.kafka.common.message.AddPartitionsToTxnRequestData;
@@ -126,8 +130,6 @@ import org.apache.kafka.common.message.SyncGroupRequestData;
 import org.apache.kafka.common.message.TxnOffsetCommitRequestData;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
-import org.apache.kafka.common.record.ControlRecordType;
-import org.apache.kafka.common.record.EndTransactionMarker;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.RecordBatch;
@@ -190,7 +192,6 @@ import org.apache.kafka.common.utils.Time;
 import org.apache.pulsar.broker.PulsarService;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.client.admin.PulsarAdmin;
-import org.apache.pulsar.client.admin.PulsarAdminException;
 import org.apache.pulsar.common.naming.NamespaceName;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.schema.KeyValue;
@@ -330,7 +331,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                 : null;
         final boolean authorizationEnabled = pulsarService.getBrokerService().isAuthorizationEnabled();
         this.authorizer = authorizationEnabled && authenticationEnabled
-                ? new SimpleAclAuthorizer(pulsarService)
+                ? newAuthorizer(pulsarService, kafkaTopicManagerSharedState.getAuthorizationCache())
                 : null;
         this.adminManager = adminManager;
         this.producePurgatory = producePurgatory;
@@ -515,66 +516,79 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         resultFuture.complete(apiResponse);
     }
 
-    // Leverage pulsar admin to get partitioned topic metadata
     // NOTE: the returned future never completes exceptionally
     private CompletableFuture<Integer> getPartitionedTopicMetadataAsync(String topicName,
                                                                         boolean allowAutoTopicCreation) {
+        final TopicMetadataCache topicMetadataCache = kafkaTopicManagerSharedState.getTopicMetadataCache();
+        if (topicMetadataCache == null) {
+            return loadPartitionedTopicMetadataAsync(topicName, allowAutoTopicCreation);
+        }
+        return topicMetadataCache.getNumPartitions(topicName,
+                () -> loadPartitionedTopicMetadataAsync(topicName, allowAutoTopicCreation));
+    }
+
+    // NOTE: the returned future never completes exceptionally
+    private CompletableFuture<Integer> loadPartitionedTopicMetadataAsync(String topicName,
+                                                                         boolean allowAutoTopicCreation) {
         final CompletableFuture<Integer> future = new CompletableFuture<>();
-        admin.topics().getPartitionedTopicMetadataAsync(topicName).whenComplete((metadata, e) -> {
-            if (e == null) {
-                if (metadata.partitions > 0) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Topic {} has {} partitions", topicName, metadata.partitions);
-                    }
-                    future.complete(metadata.partitions);
-                } else {
-                    future.complete(TopicAndMetadata.NON_PARTITIONED_NUMBER);
-                }
-            } else if (e instanceof PulsarAdminException.NotFoundException) {
-                if (allowAutoTopicCreation) {
-                    String namespace = TopicName.get(topicName).getNamespace();
-                    admin.namespaces().getPoliciesAsync(namespace).whenComplete((policies, err) -> {
-                        if (err != null || policies == null) {
-                            log.error("[{}] Cannot get policies for namespace {}", ctx.channel(), namespace, err);
-                            future.complete(TopicAndMetadata.INVALID_PARTITIONS);
-                        } else {
-                            boolean allowed = kafkaConfig.isAllowAutoTopicCreation();
-                            if (policies.autoTopicCreationOverride != null) {
-                                allowed = policies.autoTopicCreationOverride.isAllowAutoTopicCreation();
-                            }
-                            if (!allowed) {
-                                log.error("[{}] Topic {} doesn't exist and it's not allowed "
-                                                 + "to auto create partitioned topic", ctx.channel(), topicName);
-                                future.complete(TopicAndMetadata.INVALID_PARTITIONS);
-                            } else {
-                                log.info("[{}] Topic {} doesn't exist, auto create it with {} partitions",
-                                        ctx.channel(), topicName, defaultNumPartitions);
-                                admin.topics().createPartitionedTopicAsync(topicName, defaultNumPartitions)
-                                        .whenComplete((__, createException) -> {
-                                            if (createException == null) {
-                                                future.complete(defaultNumPartitions);
-                                            } else {
-                                                log.warn("[{}] Failed to create partitioned topic {}: {}",
-                                                        ctx.channel(), topicName, createException.getMessage());
-                                                future.complete(TopicAndMetadata.INVALID_PARTITIONS);
-                                            }
-                                        });
-                            }
-                        }
-                    });
-                } else {
-                    log.error("[{}] Topic {} doesn't exist and it's not allowed to auto create partitioned topic",
-                            ctx.channel(), topicName, e);
-                    future.complete(TopicAndMetadata.INVALID_PARTITIONS);
+        final PartitionedTopicService partitionedTopicService = adminManager.getPartitionedTopicService();
+        partitionedTopicService.getNumPartitionsAsync(TopicName.get(topicName)).whenComplete((numPartitions, e) -> {
+            if (e != null) {
+                log.error("[{}] Failed to get partitioned topic {}", ctx.channel(), topicName, e);
+                future.complete(TopicAndMetadata.INVALID_PARTITIONS);
+            } else if (numPartitions.isPresent()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Topic {} has {} partitions", topicName, numPartitions.get());
                 }
+                future.complete(numPartitions.get());
+            } else if (allowAutoTopicCreation) {
+                autoCreatePartitionedTopicAsync(partitionedTopicService, topicName, future);
             } else {
-                log.error("[{}] Failed to get partitioned topic {}", ctx.channel(), topicName, e);
+                log.error("[{}] Topic {} doesn't exist and it's not allowed to auto create partitioned topic",
+                        ctx.channel(), topicName);
                 future.complete(TopicAndMetadata.INVALID_PARTITIONS);
             }
         });
         return future;
     }
 
+    private void autoCreatePartitionedTopicAsync(PartitionedTopicService partitionedTopicService,
+                                                 String topicName,
+                                                 CompletableFuture<Integer> future) {
+        final TopicName topic = TopicName.get(topicName);
+        partitionedTopicService.isAllowAutoTopicCreationAsync(topic.getNamespaceObject(),
+                kafkaConfig.isAllowAutoTopicCreation()
+        ).whenComplete((allowed, err) -> {
+            if (err != null) {
+                log.error("[{}] Cannot get policies for namespace {}", ctx.channel(), topic.getNamespace(), err);
+                future.complete(TopicAndMetadata.INVALID_PARTITIONS);
+            } else if (!allowed) {
+                log.error("[{}] Topic {} doesn't exist and it's not allowed "
+                        + "to auto create partitioned topic", ctx.channel(), topicName);
+                future.complete(TopicAndMetadata.INVALID_PARTITIONS);
+            } else {
+                log.info("[{}] Topic {} doesn't exist, auto create it with {} partitions",
+                        ctx.channel(), topicName, defaultNumPartitions);
+                partitionedTopicService.createPartitionedTopicAsync(topic, defaultNumPartitions)
+                        .whenComplete((__, createException) -> {
+                            if (createException == null) {
+                                future.complete(defaultNumPartitions);
+                            } else if (FutureUtil.unwrapCompletionException(createException)
+                                    instanceof TopicExistsException) {
+                                // The topic has been created concurrently, e.g. by another connection
+                                partitionedTopicService.getNumPartitionsAsync(topic).whenComplete((n, e) ->
+                                        future.complete((e == null && n.isPresent())
+                                                ? n.get() : TopicAndMetadata.INVALID_PARTITIONS));
+                            } else {
+                                log.warn("[{}] Failed to create partitioned topic {}: {}",
+                                        ctx.channel(), topicName, createException.getMessage());
+                                future.complete(TopicAndMetadata.INVALID_PARTITIONS);
+                            }
+                        });
+            }
+        });
+    }
+
     private CompletableFuture<Set<String>> expandAllowedNamespaces(Set<String> allowedNamespaces) {
         String currentTenant = getCurrentTenant(kafkaConfig.getKafkaTenant());
         return expandAllowedNamespaces(allowedNamespaces, currentTenant, pulsarService);
@@ -708,6 +722,9 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         if ((request.topics() == null) || (request.topics().isEmpty() && request.version() == 0)) {
             // clean all cache when get all metadata for librdkafka(<1.0.0).
             KopBrokerLookupManager.clear();
+            if (kafkaTopicManagerSharedState.getTopicMetadataCache() != null) {
+                kafkaTopicManagerSharedState.getTopicMetadataCache().invalidateLeaders();
+            }
             return expandAllowedNamespaces(kafkaConfig.getKopAllowedNamespaces())
                     .thenCompose(namespaces -> authorizeNamespacesAsync(namespaces, AclOperation.DESCRIBE))
                     .thenCompose(this::listAllTopicsFromNamespacesAsync)
@@ -776,6 +793,11 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         });
     }
 
+    @Override
+    protected boolean isReadThrottled() {
+        return autoReadDisabledPublishBufferLimiting;
+    }
+
     private void disableCnxAutoRead() {
         if (ctx != null && ctx.channel().config().isAutoRead()) {
             ctx.channel().config().setAutoRead(false);
@@ -787,7 +809,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
 
     private void enableCnxAutoRead() {
         if (ctx != null && !ctx.channel().config().isAutoRead()
-                && !autoReadDisabledPublishBufferLimiting) {
+                && !autoReadDisabledPublishBufferLimiting && !isReadPaused()) {
             // Resume reading from socket if pending-request is not reached to threshold
             ctx.channel().config().setAutoRead(true);
             // triggers channel read
@@ -1129,7 +1151,9 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         });
     }
 
-    private CompletableFuture<Pair<Errors, Long>> fetchOffset(String topicName, long timestamp) {
+    private CompletableFuture<Pair<Errors, Long>> fetchOffset(TopicPartition topicPartition,
+                                                              String topicName,
+                                                              long timestamp) {
         CompletableFuture<Pair<Errors, Long>> partitionData = new CompletableFuture<>();
 
         topicManager.getTopic(topicName).thenAccept((perTopicOpt) -> {
@@ -1186,7 +1210,10 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                             });
                 }
             } else {
-                fetchOffsetByTimestamp(partitionData, managedLedger, lac, timestamp, perTopic.getName());
+                final PartitionOffsetIndex offsetIndex = getReplicaManager()
+                        .getPartitionLog(topicPartition, currentNamespacePrefix())
+                        .getOffsetIndex(managedLedger);
+                fetchOffsetByTimestamp(partitionData, managedLedger, offsetIndex, lac, timestamp, perTopic.getName());
             }
         }).exceptionally(e -> {
             Throwable throwable = FutureUtil.unwrapCompletionException(e);
@@ -1200,58 +1227,56 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
 
     private void fetchOffsetByTimestamp(CompletableFuture<Pair<Errors, Long>> partitionData,
                                         ManagedLedgerImpl managedLedger,
+                                        @Nullable PartitionOffsetIndex offsetIndex,
                                         PositionImpl lac,
                                         long timestamp,
                                         String topic) {
-        // find with real wanted timestamp
-        OffsetFinder offsetFinder = new OffsetFinder(managedLedger);
+        // find with real wanted timestamp, the time index only narrows down the range of entries to read
+        final CompletableFuture<Position> positionFuture = (offsetIndex != null)
+                ? offsetIndex.asyncFindPositionByTimestamp(timestamp)
+                : new OffsetFinder(managedLedger).findMessages(timestamp);
 
-        offsetFinder.findMessages(timestamp, new AsyncCallbacks.FindEntryCallback() {
-            @Override
-            public void findEntryComplete(Position position, Object ctx) {
-                PositionImpl finalPosition;
-                if (position == null) {
-                    finalPosition = OffsetFinder.getFirstValidPosition(managedLedger);
-                    if (finalPosition == null) {
-                        log.warn("Unable to find position for topic {} time {}. get NULL position",
-                                topic, timestamp);
-                        partitionData.complete(Pair.of(Errors.UNKNOWN_SERVER_ERROR, null));
-                        return;
-                    }
-                } else {
-                    finalPosition = (PositionImpl) position;
+        positionFuture.whenComplete((position, e) -> {
+            if (e != null) {
+                log.warn("Unable to find position for topic {} time {}. Exception:",
+                        topic, timestamp, FutureUtil.unwrapCompletionException(e));
+                partitionData.complete(Pair.of(Errors.UNKNOWN_SERVER_ERROR, null));
+                return;
+            }
+            PositionImpl finalPosition;
+            if (position == null) {
+                finalPosition = OffsetFinder.getFirstValidPosition(managedLedger);
+                if (finalPosition == null) {
+                    log.warn("Unable to find position for topic {} time {}. get NULL position",
+                            topic, timestamp);
+                    partitionData.complete(Pair.of(Errors.UNKNOWN_SERVER_ERROR, null));
+                    return;
                 }
+            } else {
+                finalPosition = (PositionImpl) position;
+            }
 
 
-                if (log.isDebugEnabled()) {
-                    log.debug("Find position for topic {} time {}. position: {}",
-                            topic, timestamp, finalPosition);
-                }
-
-                if (finalPosition.compareTo(lac) > 0 || MessageMetadataUtils.getCurrentOffset(managedLedger) < 0) {
-                    long offset = Math.max(0, MessageMetadataUtils.getCurrentOffset(managedLedger));
-                    partitionData.complete(Pair.of(Errors.NONE, offset));
-                } else {
-                    MessageMetadataUtils.getOffsetOfPosition(managedLedger, finalPosition, true,
-                            timestamp, skipMessagesWithoutIndex)
-                            .whenComplete((offset, throwable) -> {
-                                if (throwable != null) {
-                                    log.error("[{}] Failed to get offset for position {}",
-                                            topic, finalPosition, throwable);
-                                    partitionData.complete(Pair.of(Errors.UNKNOWN_SERVER_ERROR, null));
-                                    return;
-                                }
-                                partitionData.complete(Pair.of(Errors.NONE, offset));
-                            });
-                }
+            if (log.isDebugEnabled()) {
+                log.debug("Find position for topic {} time {}. position: {}",
+                        topic, timestamp, finalPosition);
             }
 
-            @Override
-            public void findEntryFailed(ManagedLedgerException exception,
-                                        Optional<Position> position, Object ctx) {
-                log.warn("Unable to find position for topic {} time {}. Exception:",
-                        topic, timestamp, exception);
-                partitionData.complete(Pair.of(Errors.UNKNOWN_SERVER_ERROR, null));
+            if (finalPosition.compareTo(lac) > 0 || MessageMetadataUtils.getCurrentOffset(managedLedger) < 0) {
+                long offset = Math.max(0, MessageMetadataUtils.getCurrentOffset(managedLedger));
+                partitionData.complete(Pair.of(Errors.NONE, offset));
+            } else {
+                MessageMetadataUtils.getOffsetOfPosition(managedLedger, finalPosition, true,
+                        timestamp, skipMessagesWithoutIndex)
+                        .whenComplete((offset, throwable) -> {
+                            if (throwable != null) {
+                                log.error("[{}] Failed to get offset for position {}",
+                                        topic, finalPosition, throwable);
+                                partitionData.complete(Pair.of(Errors.UNKNOWN_SERVER_ERROR, null));
+                                return;
+                            }
+                            partitionData.complete(Pair.of(Errors.NONE, offset));
+                        });
             }
         });
     }
@@ -1309,7 +1334,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                                     completeOne.run();
                                     return;
                                 }
-                                responseData.put(topic, fetchOffset(fullPartitionName, times.timestamp()));
+                                responseData.put(topic, fetchOffset(topic, fullPartitionName, times.timestamp()));
                                 completeOne.run();
                             }
                     );
@@ -1372,7 +1397,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                             partitionData.complete(Pair.of(Errors.UNKNOWN_SERVER_ERROR, null));
                         }
 
-                        partitionData = fetchOffset(fullPartitionName, times);
+                        partitionData = fetchOffset(topic, fullPartitionName, times);
                         responseData.put(topic, partitionData);
                         completeOne.run();
                     });
@@ -1601,12 +1626,16 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
             });
         }
 
-        if (request.fetchData().isEmpty()) {
-            resultFuture.complete(new FetchResponse<>(
-                    Errors.NONE,
-                    new LinkedHashMap<>(),
-                    THROTTLE_TIME_MS,
-                    request.metadata().sessionId()));
+        final FetchSessionCache.FetchContext fetchContext =
+                getKafkaTopicManagerSharedState().getFetchSessionCache().newContext(request, this);
+        if (fetchContext.error() != Errors.NONE) {
+            resultFuture.complete(fetchContext.errorResponse(THROTTLE_TIME_MS));
+            return;
+        }
+        final Map<TopicPartition, FetchRequest.PartitionData> fetchData = fetchContext.partitionsToFetch();
+        if (fetchData.isEmpty()) {
+            resultFuture.complete(fetchContext.updateAndGenerateResponse(
+                    new LinkedHashMap<>(), Collections.emptySet(), THROTTLE_TIME_MS));
             return;
         }
 
@@ -1615,7 +1644,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         ConcurrentHashMap<TopicPartition, FetchRequest.PartitionData> interesting =
                 new ConcurrentHashMap<>();
 
-        AtomicInteger unfinishedAuthorizationCount = new AtomicInteger(request.fetchData().size());
+        AtomicInteger unfinishedAuthorizationCount = new AtomicInteger(fetchData.size());
         Runnable completeOne = () -> {
             if (unfinishedAuthorizationCount.decrementAndGet() == 0) {
                 TransactionCoordinator transactionCoordinator = null;
@@ -1628,13 +1657,10 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                 int fetchMinBytes = Math.min(request.minBytes(), fetchMaxBytes);
                 if (interesting.isEmpty()) {
                     if (log.isDebugEnabled()) {
-                        log.debug("Fetch interesting is empty. Partitions: [{}]", request.fetchData());
+                        log.debug("Fetch interesting is empty. Partitions: [{}]", fetchData);
                     }
-                    resultFuture.complete(new FetchResponse<>(
-                            Errors.NONE,
-                            new LinkedHashMap<>(erroneous),
-                            THROTTLE_TIME_MS,
-                            request.metadata().sessionId()));
+                    resultFuture.complete(fetchContext.updateAndGenerateResponse(
+                            new LinkedHashMap<>(erroneous), Collections.emptySet(), THROTTLE_TIME_MS));
                 } else {
                     MessageFetchContext context = MessageFetchContext
                             .get(this, transactionCoordinator, maxReadEntriesNum, namespacePrefix,
@@ -1654,11 +1680,8 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                         });
                         partitions.putAll(erroneous);
                         boolean triggeredCompletion = resultFuture.complete(new ResponseCallbackWrapper(
-                                new FetchResponse<>(
-                                    Errors.NONE,
-                                    partitions,
-                                    THROTTLE_TIME_MS,
-                                    request.metadata().sessionId()),
+                                fetchContext.updateAndGenerateResponse(
+                                        partitions, interesting.keySet(), THROTTLE_TIME_MS),
                                 () -> resultMap.forEach((__, readRecordsResult) -> {
                                     readRecordsResult.recycle();
                                 })
@@ -1675,7 +1698,13 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         };
 
         // Regular Kafka consumers need READ permission on each partition they are fetching.
-        request.fetchData().forEach((topicPartition, partitionData) -> {
+        // The partitions that have been authorized in the fetch session are not authorized again.
+        fetchData.forEach((topicPartition, partitionData) -> {
+            if (fetchContext.isAuthorized(topicPartition)) {
+                interesting.put(topicPartition, partitionData);
+                completeOne.run();
+                return;
+            }
             final String fullTopicName = KopTopic.toString(topicPartition, this.currentNamespacePrefix());
             authorize(AclOperation.READ, Resource.of(ResourceType.TOPIC, fullTopicName))
                     .whenComplete((isAuthorized, ex) -> {
@@ -2365,7 +2394,8 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         for (WriteTxnMarkersRequest.TxnMarkerEntry marker : markers) {
             long producerId = marker.producerId();
             TransactionResult transactionResult = marker.transactionResult();
-            Map<TopicPartition, MemoryRecords> controlRecords = generateTxnMarkerRecords(marker);
+            Map<TopicPartition, MemoryRecords> controlRecords =
+                    TransactionMarkerLocalWriter.generateTxnMarkerRecords(marker);
             AppendRecordsContext appendRecordsContext = AppendRecordsContext.get(
                     topicManager,
                     this::startSendOperationForThrottling,
@@ -2429,21 +2459,6 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         }
     }
 
-    private Map<TopicPartition, MemoryRecords> generateTxnMarkerRecords(WriteTxnMarkersRequest.TxnMarkerEntry marker) {
-        Map<TopicPartition, MemoryRecords> txnMarkerRecordsMap = Maps.newHashMap();
-
-        ControlRecordType controlRecordType = marker.transactionResult().equals(TransactionResult.COMMIT)
-                ? ControlRecordType.COMMIT : ControlRecordType.ABORT;
-        EndTransactionMarker endTransactionMarker = new EndTransactionMarker(
-                controlRecordType, marker.coordinatorEpoch());
-        for (TopicPartition topicPartition : marker.partitions()) {
-            MemoryRecords memoryRecords = MemoryRecords.withEndTransactionMarker(
-                    marker.producerId(), marker.producerEpoch(), endTransactionMarker);
-            txnMarkerRecordsMap.put(topicPartition, memoryRecords);
-        }
-        return txnMarkerRecordsMap;
-    }
-
     @Override
     protected void handleDeleteTopics(KafkaHeaderAndRequest deleteTopics,
                                       CompletableFuture<AbstractResponse> resultFuture) {
@@ -2651,7 +2666,13 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
     }
 
     public CompletableFuture<PartitionMetadata> lookup(TopicName topic) {
-        return findBroker(topic).thenApply(KafkaResponseUtils.BrokerLookupResult::toPartitionMetadata);
+        final TopicMetadataCache topicMetadataCache = kafkaTopicManagerSharedState.getTopicMetadataCache();
+        if (topicMetadataCache == null) {
+            return findBroker(topic).thenApply(KafkaResponseUtils.BrokerLookupResult::toPartitionMetadata);
+        }
+        return topicMetadataCache.getLeader(topic.toString(),
+                (advertisedEndPoint != null) ? advertisedEndPoint.getListenerName() : null,
+                () -> findBroker(topic).thenApply(KafkaResponseUtils.BrokerLookupResult::toPartitionMetadata));
     }
 
     // The returned future never completes exceptionally
@@ -2715,6 +2736,11 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         }
     }
 
+    private static Authorizer newAuthorizer(PulsarService pulsarService, AuthorizationCache authorizationCache) {
+        final Authorizer authorizer = new SimpleAclAuthorizer(pulsarService);
+        return (authorizationCache != null) ? new CachedAuthorizer(authorizer, authorizationCache) : authorizer;
+    }
+
     @VisibleForTesting
     protected CompletableFuture<Boolean> authorize(AclOperation operation, Resource resource) {
         Session session = authenticator != null ? authenticator.session() : null;
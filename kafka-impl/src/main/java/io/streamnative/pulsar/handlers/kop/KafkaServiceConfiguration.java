@@ -194,6 +194,47 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private long offsetsRetentionCheckIntervalMs = OffsetConfig.DefaultOffsetsRetentionCheckIntervalMs;
 
+    @FieldContext(
+        category = CATEGORY_KOP,
+        doc = "The number of threads of the group coordinator. The requests of the groups that belong to the same"
+            + " partition of the offsets topic are always handled by the same thread, so the different partitions can"
+            + " be handled in parallel. Default: 1"
+    )
+    private int groupCoordinatorNumThreads = 1;
+
+    @FieldContext(
+        category = CATEGORY_KOP,
+        doc = "Whether to append the messages of the offsets topic, e.g. the committed offsets, to the managed ledger"
+            + " directly when the partition is owned by this broker. Otherwise, the messages are always sent by the"
+            + " Pulsar producer. Default: true"
+    )
+    private boolean kopOffsetsTopicLocalWriteEnabled = true;
+
+    @FieldContext(
+        category = CATEGORY_KOP,
+        doc = "The max time in milliseconds that a message of the offsets topic, e.g. an offset commit, waits to be"
+            + " batched with the messages of other groups in the same partition when it's written locally."
+            + " 0 means each message is written as a single entry. Default: 1"
+    )
+    private long kopOffsetsTopicBatchDelayMs = 1;
+
+    @FieldContext(
+        category = CATEGORY_KOP,
+        doc = "The max size in bytes of the messages batched into a single entry of the offsets topic, the batched"
+            + " messages are written immediately once it's reached. Default: 131072"
+    )
+    private int kopOffsetsTopicBatchMaxBytes = 128 * 1024;
+
+    @FieldContext(
+        category = CATEGORY_KOP,
+        doc = "The interval in milliseconds to take a snapshot of the groups and offsets of each owned partition of"
+            + " the offsets topic if it has been written since the last snapshot. When the partition is loaded by"
+            + " another broker, only the messages after the snapshot are replayed. It only works when"
+            + " kopOffsetsTopicLocalWriteEnabled is true. The snapshot is skipped if it's larger than maxMessageSize."
+            + " 0 means the snapshot is disabled. Default: 0"
+    )
+    private long kopGroupMetadataSnapshotIntervalMs = 0L;
+
     @FieldContext(
             category = CATEGORY_KOP,
             doc = "send queue size of system client to produce system topic."
@@ -241,9 +282,19 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
             category = CATEGORY_KOP,
             doc = "limit the queue size for request, \n"
                 + "like queued.max.requests in kafka.\n"
+                + "It's the max number of in-flight requests of a connection. When it's reached, KoP stops reading"
+                + " from the connection until a response is sent.\n"
     )
     private int maxQueuedRequests = 500;
 
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "Whether to write the responses of a connection in its own event loop thread instead of the shared"
+                    + " response scheduler threads. In both cases, all consecutive completed responses are written"
+                    + " with a single flush. Default: false"
+    )
+    private boolean sendResponseOnEventLoop = false;
+
     @FieldContext(
             category = CATEGORY_KOP,
             doc = "The largest record batch size allowed by Kop, \n"
@@ -395,6 +446,163 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private String entryFormat = "pulsar";
 
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "Whether to build the FETCH response from the entries' buffers without copying them. When it's"
+                    + " enabled, the Kafka records are not copied into an intermediate buffer while decoding and the"
+                    + " response is sent as a composite buffer that references them. Default: false"
+    )
+    private boolean kopZeroCopyFetchEnabled = false;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max bytes of the down-converted records that are cached in the broker's direct memory, so"
+                    + " that the same entries are not down-converted again for each FETCH request of old version"
+                    + " consumers. 0 means the down conversion cache is disabled. Default: 0"
+    )
+    private long kopDownConversionCacheMaxBytes = 0L;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max bytes of the Kafka records decoded from Pulsar entries that are cached in the broker's"
+                    + " direct memory, so that an entry written by Pulsar producers is decoded only once for all"
+                    + " consumer groups. 0 means the Pulsar decode cache is disabled. Default: 0"
+    )
+    private long kopPulsarDecodeCacheMaxBytes = 0L;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The interval in bytes with which KoP adds an entry to the sparse offset index of a partition."
+                    + " The index maps offsets to positions so that a FETCH request whose offset has no cached cursor"
+                    + " only searches the entries between two adjacent index entries. It also maps publish timestamps"
+                    + " to offsets for the LIST_OFFSETS request with a timestamp. 0 means the index is disabled"
+                    + " and the whole managed ledger is searched. Default: 0"
+    )
+    private int kopOffsetIndexIntervalBytes = 0;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max number of entries of the sparse offset index of a partition in memory. When it's"
+                    + " exceeded, half of the index entries are removed and the index interval is doubled."
+                    + " Default: 1024"
+    )
+    private int kopOffsetIndexMaxEntries = 1024;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max number of the sparse offset index entries of a partition that are persisted in the"
+                    + " managed ledger's properties, which are stored in the metadata store. If the index has more"
+                    + " entries, evenly spaced entries including the first and the last ones are persisted so that"
+                    + " the persisted index still covers the whole managed ledger. Each persisted entry takes about"
+                    + " 16 bytes of the managed ledger's metadata, including its time index entry. Default: 128"
+    )
+    private int kopOffsetIndexMaxPersistedEntries = 128;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The min interval in milliseconds between two updates of the persisted sparse offset index of a"
+                    + " partition. Each update rewrites the managed ledger's metadata in the metadata store, so the"
+                    + " index is only persisted when the managed ledger rolls over to a new ledger or this interval"
+                    + " has elapsed since the previous update. 0 means the index is only persisted when the managed"
+                    + " ledger rolls over. Default: 60000"
+    )
+    private long kopOffsetIndexPersistIntervalMs = 60000L;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "Whether to share the cursors of a partition among all connections. When it's enabled, a cursor"
+                    + " that has read to an offset can be reused by any connection that fetches from that offset,"
+                    + " instead of each connection creating its own cursors. Default: false"
+    )
+    private boolean kopSharedCursorsEnabled = false;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max number of incremental fetch sessions (KIP-227) cached in the broker. When it's exceeded,"
+                    + " the least recently used session is evicted. The partitions of a session are not authorized"
+                    + " again by the following FETCH requests of the session. 0 means the incremental fetch session"
+                    + " is disabled and each FETCH request contains all partitions. Default: 0"
+    )
+    private int kopMaxIncrementalFetchSessions = 0;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The time in milliseconds that an authorization decision is cached in the broker. The cached"
+                    + " decisions of a tenant or a namespace are also invalidated when its policies are changed."
+                    + " Since the invalidation is asynchronous, a revoked permission might still be granted for a short"
+                    + " while. 0 means the authorization cache is disabled. Default: 0"
+    )
+    private long kopAuthorizationCacheRefreshMs = 0L;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max number of authorization decisions cached in the broker. Default: 100000"
+    )
+    private long kopAuthorizationCacheMaxCount = 100000L;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The time in milliseconds that the number of partitions of a topic and the leaders of its"
+                    + " partitions are cached in the broker to serve the METADATA requests. The cached metadata is"
+                    + " also invalidated when the topic or the ownership of its namespace bundle is changed."
+                    + " 0 means the topic metadata cache is disabled. Default: 0"
+    )
+    private long kopTopicMetadataCacheTtlMs = 0L;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max number of topics and the max number of partitions whose metadata are cached in the"
+                    + " broker. Default: 100000"
+    )
+    private long kopTopicMetadataCacheMaxCount = 100000L;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The number of shards of the watcher lists in the produce and fetch purgatories. The delayed"
+                    + " operations are watched by the shard of their keys, so that the operations of different"
+                    + " partitions don't contend for the same lock and the completed operations are purged shard"
+                    + " by shard. Default: 16"
+    )
+    private int kopPurgatoryShards = 16;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The min interval in milliseconds between two snapshots of the producer state of a partition, which"
+                    + " includes the idempotent producers, the ongoing transactions and the aborted transactions. The"
+                    + " snapshot is persisted in the managed ledger's properties. After the partition is loaded, the"
+                    + " producer state is recovered from the snapshot and the entries after it. 0 means the snapshot"
+                    + " is disabled and the producer state is lost after the partition is unloaded. Default: 0"
+    )
+    private long kopProducerStateSnapshotIntervalMs = 0L;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max size in bytes of the producer state snapshot of a partition, which is stored in the"
+                    + " managed ledger's properties in the metadata store after the base64 encoding. Each producer"
+                    + " takes 40 bytes and each aborted transaction takes about 45 bytes. The producers that have no"
+                    + " ongoing transaction expire after kafkaTransactionalIdExpirationMs before taking a snapshot. If"
+                    + " the snapshot still exceeds this size, it's skipped with a warning and the previous snapshot is"
+                    + " kept. Default: 65536"
+    )
+    private int kopProducerStateSnapshotMaxBytes = 65536;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max time in milliseconds that a produce request of a partition waits to be coalesced with the"
+                    + " concurrent produce requests of the same partition into a single entry. Only the"
+                    + " non-idempotent and non-transactional records of magic v2 are coalesced and only when the"
+                    + " entry format is kafka. 0 means the coalescing is disabled. Default: 0"
+    )
+    private int kopAppendCoalesceDelayMs = 0;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max size in bytes of the records coalesced into a single entry, the coalesced produce requests"
+                    + " are published immediately once it's reached. It should be less than the max message size of"
+                    + " Pulsar. Default: 1048576"
+    )
+    private int kopAppendCoalesceMaxBytes = 1024 * 1024;
+
     @FieldContext(
         category = CATEGORY_KOP,
         doc = "The broker id, default is 1"
@@ -445,6 +653,30 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     private long kafkaTransactionsRemoveExpiredTransactionalIdCleanupIntervalMs =
             DefaultRemoveExpiredTransactionalIdsIntervalMs;
 
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "Whether the transaction coordinator appends the transaction markers to the partitions owned by this"
+                    + " broker directly. Otherwise, the markers are always sent by WRITE_TXN_MARKERS requests, even"
+                    + " if the partition is owned by this broker. Default: true"
+    )
+    private boolean kafkaTxnMarkerLocalWriteEnabled = true;
+
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "The max number of in-flight requests that the transaction coordinator sends the transaction markers"
+                    + " to a broker with. The markers are sent once they are queued unless the limit is reached. A"
+                    + " request that is not responded within requestTimeoutMs fails, and its markers are sent again"
+                    + " after the partition owners are looked up again. Default: 5"
+    )
+    private int kafkaTxnMarkerMaxInFlightRequestsPerBroker = 5;
+
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "The max number of transaction markers, each of which is for a transaction, in a request that the"
+                    + " transaction coordinator sends to a broker. Default: 1000"
+    )
+    private int kafkaTxnMarkerMaxEntriesPerRequest = 1000;
+
     @FieldContext(
             category = CATEGORY_KOP,
             doc = "The fully qualified name of a SASL server callback handler class that implements the "
@@ -518,6 +750,22 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private String kafkaCompressionType = "none";
 
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "Whether to validate each record of a compressed batch. Only used for entryFormat=mixed_kafka.\n"
+                    + "If it's false, a magic v2 batch that is not recompressed is validated by its header, and its"
+                    + " offsets are assigned by rewriting the header without decompressing the records. Otherwise,"
+                    + " the records are always decompressed to be validated. Default: false"
+    )
+    private boolean kafkaCompressedRecordsStrictValidation = false;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The compression type of the Pulsar batch in each entry. Only used for entryFormat=pulsar.\n"
+                    + "The supported compression types are: [\"none\", \"lz4\", \"zlib\", \"zstd\", \"snappy\"]"
+    )
+    private String kopPulsarEntryCompressionType = "none";
+
     @FieldContext(
             category = CATEGORY_KOP,
             doc = "Whether to skip messages without the index (Kafka offset).\n"
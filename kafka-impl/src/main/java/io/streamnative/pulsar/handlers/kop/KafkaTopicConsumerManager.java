@@ -16,6 +16,7 @@ package io.streamnative.pulsar.handlers.kop;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.annotations.VisibleForTesting;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionOffsetIndex;
 import io.streamnative.pulsar.handlers.kop.utils.MessageMetadataUtils;
 import java.io.Closeable;
 import java.util.ArrayList;
@@ -26,6 +27,7 @@ import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteCursorCallback;
@@ -43,12 +45,16 @@ import org.apache.pulsar.common.util.FutureUtil;
 /**
  * KafkaTopicConsumerManager manages a topic and its related offset cursor.
  * Each cursor is trying to track the read from a consumer client.
+ *
+ * If it's shared by all channels, the cursors form a pool keyed by the next offset to read, so any consumer that
+ * fetches from an offset can borrow the cursor that was returned by another consumer after reading to that offset.
  */
 @Slf4j
 public class KafkaTopicConsumerManager implements Closeable {
 
     private final PersistentTopic topic;
-    private final KafkaRequestHandler requestHandler;
+    // The channel that owns this TCM, or "shared" if it's shared by all channels. It's only used for logging.
+    private final Object owner;
 
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
@@ -68,11 +74,19 @@ public class KafkaTopicConsumerManager implements Closeable {
     private final boolean skipMessagesWithoutIndex;
 
     KafkaTopicConsumerManager(KafkaRequestHandler requestHandler, PersistentTopic topic) {
+        this(requestHandler, topic, false);
+    }
+
+    /**
+     * @param shared whether the TCM is shared by all channels, in this case, the cursors are not bound to the
+     *               lifetime of the channel that creates the TCM
+     */
+    KafkaTopicConsumerManager(KafkaRequestHandler requestHandler, PersistentTopic topic, boolean shared) {
         this.topic = topic;
         this.cursors = new ConcurrentHashMap<>();
         this.createdCursors = new ConcurrentHashMap<>();
         this.lastAccessTimes = new ConcurrentHashMap<>();
-        this.requestHandler = requestHandler;
+        this.owner = shared ? "shared" : requestHandler.ctx.channel();
         this.skipMessagesWithoutIndex = requestHandler.isSkipMessagesWithoutIndex();
     }
 
@@ -96,7 +110,7 @@ public class KafkaTopicConsumerManager implements Closeable {
         if (cursorFuture != null) {
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Cursor timed out for offset: {}, cursors cache size: {}",
-                        requestHandler.ctx.channel(), offset, cursors.size());
+                        owner, offset, cursors.size());
             }
 
             // TODO: Should we just cancel this future?
@@ -118,14 +132,14 @@ public class KafkaTopicConsumerManager implements Closeable {
                 public void deleteCursorComplete(Object ctx) {
                     if (log.isDebugEnabled()) {
                         log.debug("[{}] Cursor {} for topic {} deleted successfully for reason: {}.",
-                            requestHandler.ctx.channel(), cursor.getName(), topic.getName(), reason);
+                            owner, cursor.getName(), topic.getName(), reason);
                     }
                 }
 
                 @Override
                 public void deleteCursorFailed(ManagedLedgerException exception, Object ctx) {
                     log.warn("[{}] Error deleting cursor {} for topic {} for reason: {}.",
-                        requestHandler.ctx.channel(), cursor.getName(), topic.getName(), reason, exception);
+                        owner, cursor.getName(), topic.getName(), reason, exception);
                 }
             }, null);
             createdCursors.remove(cursor.getName());
@@ -136,6 +150,17 @@ public class KafkaTopicConsumerManager implements Closeable {
     // remove from cache, so another same offset read could happen.
     // each success remove should have a following add.
     public CompletableFuture<Pair<ManagedCursor, Long>> removeCursorFuture(long offset) {
+        return removeCursorFuture(offset, null);
+    }
+
+    /**
+     * Get one cursor offset pair like {@link #removeCursorFuture(long)}.
+     *
+     * @param offset the offset to read
+     * @param offsetIndex the offset index that is used to find the position if the cursor doesn't exist
+     */
+    public CompletableFuture<Pair<ManagedCursor, Long>> removeCursorFuture(long offset,
+                                                                           @Nullable PartitionOffsetIndex offsetIndex) {
         if (closed.get()) {
             return null;
         }
@@ -143,21 +168,22 @@ public class KafkaTopicConsumerManager implements Closeable {
         lastAccessTimes.remove(offset);
         final CompletableFuture<Pair<ManagedCursor, Long>> cursorFuture = cursors.remove(offset);
         if (cursorFuture == null) {
-            return asyncCreateCursorIfNotExists(offset);
+            return asyncCreateCursorIfNotExists(offset, offsetIndex);
         }
 
         if (log.isDebugEnabled()) {
             log.debug("[{}] Get cursor for offset: {} in cache. cache size: {}",
-                    requestHandler.ctx.channel(), offset, cursors.size());
+                    owner, offset, cursors.size());
         }
         return cursorFuture;
     }
 
-    private CompletableFuture<Pair<ManagedCursor, Long>> asyncCreateCursorIfNotExists(long offset) {
+    private CompletableFuture<Pair<ManagedCursor, Long>> asyncCreateCursorIfNotExists(
+            long offset, @Nullable PartitionOffsetIndex offsetIndex) {
         if (closed.get()) {
             return null;
         }
-        cursors.putIfAbsent(offset, asyncGetCursorByOffset(offset));
+        cursors.putIfAbsent(offset, asyncGetCursorByOffset(offset, offsetIndex));
 
         // notice:  above would add a <offset, null-Pair>
         lastAccessTimes.remove(offset);
@@ -182,7 +208,7 @@ public class KafkaTopicConsumerManager implements Closeable {
 
         if (log.isDebugEnabled()) {
             log.debug("[{}] Add cursor back {} for offset: {}",
-                    requestHandler.ctx.channel(), pair.getLeft().getName(), offset);
+                    owner, pair.getLeft().getName(), offset);
         }
     }
 
@@ -194,7 +220,7 @@ public class KafkaTopicConsumerManager implements Closeable {
         }
         if (log.isDebugEnabled()) {
             log.debug("[{}] Close TCM for topic {}.",
-                requestHandler.ctx.channel(), topic.getName());
+                owner, topic.getName());
         }
         final List<CompletableFuture<Pair<ManagedCursor, Long>>> cursorFuturesToClose = new ArrayList<>();
         cursors.forEach((ignored, cursorFuture) -> cursorFuturesToClose.add(cursorFuture));
@@ -221,7 +247,8 @@ public class KafkaTopicConsumerManager implements Closeable {
         cursorsToClose.clear();
     }
 
-    private CompletableFuture<Pair<ManagedCursor, Long>> asyncGetCursorByOffset(long offset) {
+    private CompletableFuture<Pair<ManagedCursor, Long>> asyncGetCursorByOffset(
+            long offset, @Nullable PartitionOffsetIndex offsetIndex) {
         if (closed.get()) {
             // return a null completed future instead of null because the returned value will be put into a Map
             return CompletableFuture.completedFuture(null);
@@ -231,14 +258,17 @@ public class KafkaTopicConsumerManager implements Closeable {
         if (((ManagedLedgerImpl) ledger).getState() == ManagedLedgerImpl.State.Closed) {
             log.error("[{}] Async get cursor for offset {} for topic {} failed, "
                             + "because current managedLedger has been closed",
-                    requestHandler.ctx.channel(), offset, topic.getName());
+                    owner, offset, topic.getName());
             CompletableFuture<Pair<ManagedCursor, Long>> future = new CompletableFuture<>();
             future.completeExceptionally(new Exception("Current managedLedger for "
                     + topic.getName() + " has been closed."));
             return future;
         }
 
-        return MessageMetadataUtils.asyncFindPosition(ledger, offset, skipMessagesWithoutIndex).thenApply(position -> {
+        final CompletableFuture<Position> positionFuture = (offsetIndex != null)
+                ? offsetIndex.asyncFindPosition(offset, skipMessagesWithoutIndex)
+                : MessageMetadataUtils.asyncFindPosition(ledger, offset, skipMessagesWithoutIndex);
+        return positionFuture.thenApply(position -> {
             if (position == null) {
                 return null;
             }
@@ -250,7 +280,7 @@ public class KafkaTopicConsumerManager implements Closeable {
             final PositionImpl previous = ((ManagedLedgerImpl) ledger).getPreviousPosition((PositionImpl) position);
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Create cursor {} for offset: {}. position: {}, previousPosition: {}",
-                        requestHandler.ctx.channel(), cursorName, offset, position, previous);
+                        owner, cursorName, offset, position, previous);
             }
             try {
                 final ManagedCursor newCursor = ledger.newNonDurableCursor(previous, cursorName);
@@ -259,7 +289,7 @@ public class KafkaTopicConsumerManager implements Closeable {
                 return Pair.of(newCursor, offset);
             } catch (ManagedLedgerException e) {
                 log.error("[{}] Error new cursor for topic {} at offset {} - {}. will cause fetch data error.",
-                        requestHandler.ctx.channel(), topic.getName(), offset, previous, e);
+                        owner, topic.getName(), offset, previous, e);
                 return null;
             }
         });
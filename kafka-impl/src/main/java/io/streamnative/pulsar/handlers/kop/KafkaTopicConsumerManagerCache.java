@@ -28,6 +28,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
@@ -43,12 +44,33 @@ public class KafkaTopicConsumerManagerCache {
     private final Map<String, Map<SocketAddress, CompletableFuture<KafkaTopicConsumerManager>>>
             cache = new ConcurrentHashMap<>();
 
+    // The key of the TCM that is shared by all remote addresses, which won't be removed when a connection is closed
+    @VisibleForTesting
+    static final SocketAddress SHARED_ADDRESS = new SocketAddress() {
+        @Override
+        public String toString() {
+            return "shared";
+        }
+    };
+
+    // Whether all consumers of a topic share the same TCM so that a cursor can be reused by different consumers
+    @Getter
+    private final boolean shared;
+
+    public KafkaTopicConsumerManagerCache() {
+        this(false);
+    }
+
+    public KafkaTopicConsumerManagerCache(final boolean shared) {
+        this.shared = shared;
+    }
+
     public CompletableFuture<KafkaTopicConsumerManager> computeIfAbsent(
             final String fullTopicName,
             final SocketAddress remoteAddress,
             final Supplier<CompletableFuture<KafkaTopicConsumerManager>> mappingFunction) {
         return cache.computeIfAbsent(fullTopicName, ignored -> new ConcurrentHashMap<>())
-                .computeIfAbsent(remoteAddress, ignored -> mappingFunction.get());
+                .computeIfAbsent(shared ? SHARED_ADDRESS : remoteAddress, ignored -> mappingFunction.get());
     }
 
     public void forEach(final Consumer<CompletableFuture<KafkaTopicConsumerManager>> action) {
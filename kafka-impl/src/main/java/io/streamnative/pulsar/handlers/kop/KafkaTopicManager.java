@@ -71,7 +71,9 @@ public class KafkaTopicManager {
                     requestHandler.ctx.channel(), topicName);
             return CompletableFuture.completedFuture(null);
         }
-        return requestHandler.getKafkaTopicManagerSharedState().getKafkaTopicConsumerManagerCache().computeIfAbsent(
+        final KafkaTopicConsumerManagerCache tcmCache =
+                requestHandler.getKafkaTopicManagerSharedState().getKafkaTopicConsumerManagerCache();
+        return tcmCache.computeIfAbsent(
             topicName,
             remoteAddress,
             () -> {
@@ -82,7 +84,8 @@ public class KafkaTopicManager {
                             log.debug("[{}] Call getTopicConsumerManager for {}, and create TCM for {}.",
                                     requestHandler.ctx.channel(), topicName, persistentTopic);
                         }
-                        tcmFuture.complete(new KafkaTopicConsumerManager(requestHandler, persistentTopic.get()));
+                        tcmFuture.complete(new KafkaTopicConsumerManager(
+                                requestHandler, persistentTopic.get(), tcmCache.isShared()));
                     } else {
                         if (throwable != null) {
                             log.error("[{}] Failed to getTopicConsumerManager caused by getTopic '{}' throws {}",
@@ -13,6 +13,9 @@
  */
 package io.streamnative.pulsar.handlers.kop;
 
+import io.streamnative.pulsar.handlers.kop.security.auth.AuthorizationCache;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import java.net.SocketAddress;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -22,6 +25,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.broker.PulsarService;
 import org.apache.pulsar.broker.service.BrokerService;
 import org.apache.pulsar.broker.service.Producer;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
@@ -30,8 +34,18 @@ import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 public final class KafkaTopicManagerSharedState {
 
     @Getter
-    private final KafkaTopicConsumerManagerCache kafkaTopicConsumerManagerCache =
-            new KafkaTopicConsumerManagerCache();
+    private final KafkaTopicConsumerManagerCache kafkaTopicConsumerManagerCache;
+
+    @Getter
+    private final FetchSessionCache fetchSessionCache;
+
+    // the cache of the authorization decisions, it's null if it's disabled
+    @Getter
+    private final AuthorizationCache authorizationCache;
+
+    // the cache of the topic metadata for METADATA requests, it's null if it's disabled
+    @Getter
+    private final TopicMetadataCache topicMetadataCache;
 
     // every 1 min, check if the KafkaTopicConsumerManagers have expired cursors.
     // remove expired cursors, so backlog can be cleared.
@@ -50,9 +64,55 @@ public final class KafkaTopicManagerSharedState {
 
 
     public KafkaTopicManagerSharedState(BrokerService brokerService) {
+        this(brokerService, new KafkaServiceConfiguration());
+    }
+
+    public KafkaTopicManagerSharedState(BrokerService brokerService, KafkaServiceConfiguration kafkaConfig) {
+        this(brokerService, kafkaConfig, NullStatsLogger.INSTANCE);
+    }
+
+    public KafkaTopicManagerSharedState(BrokerService brokerService,
+                                        KafkaServiceConfiguration kafkaConfig,
+                                        StatsLogger statsLogger) {
+        this.kafkaTopicConsumerManagerCache =
+                new KafkaTopicConsumerManagerCache(kafkaConfig.isKopSharedCursorsEnabled());
+        this.fetchSessionCache = new FetchSessionCache(kafkaConfig.getKopMaxIncrementalFetchSessions());
+        this.authorizationCache = createAuthorizationCache(brokerService, kafkaConfig, statsLogger);
+        this.topicMetadataCache = createTopicMetadataCache(brokerService, kafkaConfig);
         initializeCursorExpireTask(brokerService.executor());
     }
 
+    private static AuthorizationCache createAuthorizationCache(BrokerService brokerService,
+                                                               KafkaServiceConfiguration kafkaConfig,
+                                                               StatsLogger statsLogger) {
+        if (kafkaConfig.getKopAuthorizationCacheRefreshMs() <= 0 || !brokerService.isAuthorizationEnabled()) {
+            return null;
+        }
+        final AuthorizationCache cache = new AuthorizationCache(kafkaConfig.getKopAuthorizationCacheRefreshMs(),
+                kafkaConfig.getKopAuthorizationCacheMaxCount(), statsLogger);
+        final PulsarService pulsar = brokerService.getPulsar();
+        if (pulsar != null && pulsar.getConfigurationMetadataStore() != null) {
+            pulsar.getConfigurationMetadataStore().registerListener(cache::onPolicyChanged);
+        }
+        return cache;
+    }
+
+    private static TopicMetadataCache createTopicMetadataCache(BrokerService brokerService,
+                                                               KafkaServiceConfiguration kafkaConfig) {
+        if (kafkaConfig.getKopTopicMetadataCacheTtlMs() <= 0) {
+            return null;
+        }
+        final TopicMetadataCache cache = new TopicMetadataCache(kafkaConfig.getKopTopicMetadataCacheTtlMs(),
+                kafkaConfig.getKopTopicMetadataCacheMaxCount());
+        final PulsarService pulsar = brokerService.getPulsar();
+        // The notifications of the local metadata store are forwarded by the KopEventManager
+        if (pulsar != null && pulsar.getConfigurationMetadataStore() != null
+                && pulsar.getConfigurationMetadataStore() != pulsar.getLocalMetadataStore()) {
+            pulsar.getConfigurationMetadataStore().registerListener(cache::onMetadataChanged);
+        }
+        return cache;
+    }
+
 
     private void initializeCursorExpireTask(final ScheduledExecutorService executor) {
         if (executor == null) {
@@ -114,6 +174,7 @@ public final class KafkaTopicManagerSharedState {
     public void handlerKafkaRequestHandlerClosed(SocketAddress remoteAddress, KafkaRequestHandler requestHandler) {
         try {
             kafkaTopicConsumerManagerCache.removeAndCloseByAddress(remoteAddress);
+            fetchSessionCache.removeByOwner(requestHandler);
 
             topics.keySet().forEach(topicName -> {
                 if (log.isDebugEnabled()) {
@@ -131,6 +192,9 @@ public final class KafkaTopicManagerSharedState {
     public void deReference(String topicName) {
         try {
             KopBrokerLookupManager.removeTopicManagerCache(topicName);
+            if (topicMetadataCache != null) {
+                topicMetadataCache.invalidateLeader(topicName);
+            }
             kafkaTopicConsumerManagerCache.removeAndCloseByTopic(topicName);
             removePersistentTopicAndReferenceProducer(topicName);
         } catch (Exception e) {
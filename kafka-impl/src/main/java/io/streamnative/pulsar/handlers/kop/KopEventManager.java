@@ -40,6 +40,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.util.MathUtils;
@@ -63,6 +64,8 @@ public class KopEventManager {
     private final DeletionTopicsHandler deletionTopicsHandler;
     private final BrokersChangeHandler brokersChangeHandler;
     private final MetadataStore metadataStore;
+    // the cache of the topic metadata for METADATA requests, it's null if it's disabled
+    private final TopicMetadataCache topicMetadataCache;
     private KopEventManagerStats eventManagerStats;
     public BiConsumer<String, Long> registerEventLatency = (eventName, createdTime) -> {
         this.eventManagerStats.getStatsLogger()
@@ -76,7 +79,8 @@ public class KopEventManager {
                            MetadataStore metadataStore,
                            StatsLogger statsLogger,
                            KafkaServiceConfiguration kafkaConfig,
-                           Map<String, GroupCoordinator> groupCoordinatorsByTenant) {
+                           Map<String, GroupCoordinator> groupCoordinatorsByTenant,
+                           @Nullable TopicMetadataCache topicMetadataCache) {
         this.adminManager = adminManager;
         this.deletionTopicsHandler = new DeletionTopicsHandler(this);
         this.brokersChangeHandler = new BrokersChangeHandler(this);
@@ -84,6 +88,7 @@ public class KopEventManager {
         this.kafkaConfig = kafkaConfig;
         this.eventManagerStats = new KopEventManagerStats(statsLogger, queue);
         this.groupCoordinatorsByTenant = groupCoordinatorsByTenant;
+        this.topicMetadataCache = topicMetadataCache;
     }
 
     public void start() {
@@ -168,6 +173,9 @@ public class KopEventManager {
         } else if (notification.getPath().equals(getDeleteTopicsPath())) {
             this.deletionTopicsHandler.handleChildChange();
         }
+        if (topicMetadataCache != null) {
+            topicMetadataCache.onMetadataChanged(notification);
+        }
     }
 
     private void getBrokers(List<String> pulsarBrokers,
@@ -217,6 +225,10 @@ public class KopEventManager {
                         if (pendingBrokers.decrementAndGet() == 0) {
                             Map<String, Set<Node>> oldKopBrokers = adminManager.getAllBrokers();
                             adminManager.setBrokers(kopBrokersMap);
+                            if (topicMetadataCache != null) {
+                                // the advertised listeners of the leaders might be changed
+                                topicMetadataCache.invalidateLeaders();
+                            }
                             if (registerEventLatency != null) {
                                 registerEventLatency.accept(name, startProcessTime);
                             }
@@ -308,6 +320,9 @@ public class KopEventManager {
                                     namespacePrefix);
                             kopTopicsSet.add(kopTopic);
                             topicsFullNameDeletionsSets.add(kopTopic.getFullName());
+                            if (topicMetadataCache != null) {
+                                topicMetadataCache.invalidateTopic(kopTopic.getFullName());
+                            }
                         });
 
                         Iterable<GroupMetadata> groupMetadataIterable = groupCoordinator
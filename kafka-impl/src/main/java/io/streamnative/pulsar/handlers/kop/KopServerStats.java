@@ -37,6 +37,7 @@ public interface KopServerStats {
     String REQUEST_QUEUED_LATENCY = "REQUEST_QUEUED_LATENCY";
     String REQUEST_PARSE_LATENCY = "REQUEST_PARSE_LATENCY";
     String REQUEST_LATENCY = "REQUEST_LATENCY";
+    String REQUEST_READ_PAUSED_TIMES = "REQUEST_READ_PAUSED_TIMES";
 
     /**
      * Channel stats.
@@ -89,6 +90,43 @@ public interface KopServerStats {
     String CONSUME_MESSAGE_CONVERSIONS = "CONSUME_MESSAGE_CONVERSIONS";
     String CONSUME_MESSAGE_CONVERSIONS_TIME_NANOS = "CONSUME_MESSAGE_CONVERSIONS_TIME_NANOS";
 
+    /**
+     * Entry conversion cache stats, which are labeled by the conversion.
+     */
+    String CONVERSION_SCOPE = "conversion";
+    String ENTRY_CONVERSION_CACHE_HITS = "ENTRY_CONVERSION_CACHE_HITS";
+    String ENTRY_CONVERSION_CACHE_MISSES = "ENTRY_CONVERSION_CACHE_MISSES";
+    String ENTRY_CONVERSION_CACHE_BYTES = "ENTRY_CONVERSION_CACHE_BYTES";
+
+    /**
+     * Delayed operation purgatory stats, which are labeled by the purgatory name and the shard index.
+     */
+    String PURGATORY_SCOPE = "purgatory";
+    String SHARD_SCOPE = "shard";
+    String PURGATORY_WATCHED_OPERATIONS = "PURGATORY_WATCHED_OPERATIONS";
+    String PURGATORY_WATCHED_KEYS = "PURGATORY_WATCHED_KEYS";
+    String PURGATORY_PURGED_OPERATIONS = "PURGATORY_PURGED_OPERATIONS";
+
+    /**
+     * Offsets topic stats.
+     */
+    String OFFSETS_TOPIC_BATCH_SIZE = "OFFSETS_TOPIC_BATCH_SIZE";
+    String OFFSETS_TOPIC_BATCH_LINGER = "OFFSETS_TOPIC_BATCH_LINGER";
+
+    /**
+     * Transaction marker stats, which are labeled by the destination broker.
+     */
+    String TXN_MARKER_BROKER_SCOPE = "broker";
+    String TXN_MARKER_QUEUE_SIZE = "TXN_MARKER_QUEUE_SIZE";
+    String TXN_MARKER_IN_FLIGHT_REQUESTS = "TXN_MARKER_IN_FLIGHT_REQUESTS";
+    String TXN_MARKER_REQUEST_LATENCY = "TXN_MARKER_REQUEST_LATENCY";
+
+    /**
+     * Authorization stats.
+     */
+    String AUTHORIZATION_CACHE_HITS = "AUTHORIZATION_CACHE_HITS";
+    String AUTHORIZATION_CACHE_MISSES = "AUTHORIZATION_CACHE_MISSES";
+
     /**
      * Kop event queue stats.
      */
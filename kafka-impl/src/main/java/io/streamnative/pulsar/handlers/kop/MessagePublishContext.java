@@ -17,6 +17,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.streamnative.pulsar.handlers.kop.exceptions.MetadataCorruptedException;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionOffsetIndex;
 import io.streamnative.pulsar.handlers.kop.utils.MessageMetadataUtils;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
@@ -46,6 +47,9 @@ public final class MessagePublishContext implements PublishContext {
     private long highestSequenceId;
     private String producerName;
     private boolean enableDeduplication;
+    private PartitionOffsetIndex offsetIndex;
+    private int entrySize;
+    private long publishTime;
 
     /**
      * On Pulsar side, the replicator marker message will skip the deduplication check,
@@ -73,11 +77,20 @@ public final class MessagePublishContext implements PublishContext {
 
     @Override
     public void setMetadataFromEntryData(ByteBuf entryData) {
+        entrySize = entryData.readableBytes();
         try {
             baseOffset = MessageMetadataUtils.peekBaseOffset(entryData, numberOfMessages);
         } catch (MetadataCorruptedException e) {
             peekOffsetError = e;
         }
+        if (offsetIndex != null) {
+            try {
+                publishTime = MessageMetadataUtils.getPublishTime(entryData);
+            } catch (MetadataCorruptedException e) {
+                // The entry won't be added to the time index
+                publishTime = -1L;
+            }
+        }
     }
 
     /**
@@ -121,6 +134,8 @@ public final class MessagePublishContext implements PublishContext {
             if (baseOffset == DEFAULT_OFFSET) {
                 log.error("[{}] Failed to get offset for ({}, {}): {}",
                         topic, ledgerId, entryId, peekOffsetError.getMessage());
+            } else if (offsetIndex != null) {
+                offsetIndex.onAppend(baseOffset + numberOfMessages - 1, ledgerId, entryId, entrySize, publishTime);
             }
 
             offsetFuture.complete(baseOffset);
@@ -137,7 +152,8 @@ public final class MessagePublishContext implements PublishContext {
                                             long sequenceId,
                                             long highestSequenceId,
                                             int numberOfMessages,
-                                            long startTimeNs) {
+                                            long startTimeNs,
+                                            PartitionOffsetIndex offsetIndex) {
         MessagePublishContext callback = RECYCLER.get();
         callback.offsetFuture = offsetFuture;
         callback.topic = topic;
@@ -149,6 +165,9 @@ public final class MessagePublishContext implements PublishContext {
         callback.highestSequenceId = highestSequenceId;
         callback.peekOffsetError = null;
         callback.enableDeduplication = enableDeduplication;
+        callback.offsetIndex = offsetIndex;
+        callback.entrySize = 0;
+        callback.publishTime = -1L;
         return callback;
     }
 
@@ -185,6 +204,9 @@ public final class MessagePublishContext implements PublishContext {
         highestSequenceId = -1;
         peekOffsetError = null;
         enableDeduplication = false;
+        offsetIndex = null;
+        entrySize = 0;
+        publishTime = -1L;
         recyclerHandle.recycle(this);
     }
 }
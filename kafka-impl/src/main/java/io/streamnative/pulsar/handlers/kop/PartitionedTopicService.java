@@ -0,0 +1,207 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.errors.InvalidPartitionsException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.apache.kafka.common.errors.PolicyViolationException;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.resources.NamespaceResources;
+import org.apache.pulsar.broker.resources.TopicResources;
+import org.apache.pulsar.common.naming.NamespaceName;
+import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.common.partition.PartitionedTopicMetadata;
+import org.apache.pulsar.common.policies.data.Policies;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.pulsar.metadata.api.MetadataStoreException;
+
+/**
+ * The in-process access to the partitioned topic metadata, which replaces the admin requests to the broker itself.
+ *
+ * <p>It reads the metadata from the broker's metadata caches and writes it to the metadata store directly, so there
+ * is no HTTP request, JSON encoding or authentication on the METADATA and CREATE_TOPICS paths. The concurrent lookups
+ * of the same topic share the same future.
+ */
+@Slf4j
+public class PartitionedTopicService {
+
+    private final PulsarService pulsar;
+    private final ConcurrentHashMap<TopicName, CompletableFuture<Optional<Integer>>> pendingLookups =
+            new ConcurrentHashMap<>();
+
+    public PartitionedTopicService(PulsarService pulsar) {
+        this.pulsar = pulsar;
+    }
+
+    /**
+     * Get the number of partitions of a topic.
+     *
+     * @param topicName the topic name without the partition suffix
+     * @return the future of the number of partitions, which is 0 for a non-partitioned topic and empty if the topic
+     *   doesn't exist
+     */
+    public CompletableFuture<Optional<Integer>> getNumPartitionsAsync(TopicName topicName) {
+        final CompletableFuture<Optional<Integer>> future = new CompletableFuture<>();
+        final CompletableFuture<Optional<Integer>> pendingFuture = pendingLookups.putIfAbsent(topicName, future);
+        if (pendingFuture != null) {
+            return pendingFuture;
+        }
+        pulsar.getBrokerService().fetchPartitionedTopicMetadataAsync(topicName).thenCompose(metadata -> {
+            if (metadata.partitions > 0) {
+                return CompletableFuture.completedFuture(Optional.of(metadata.partitions));
+            }
+            return pulsar.getNamespaceService().checkTopicExists(topicName)
+                    .thenApply(exists -> exists ? Optional.of(0) : Optional.<Integer>empty());
+        }).whenComplete((numPartitions, e) -> {
+            pendingLookups.remove(topicName, future);
+            if (e == null) {
+                future.complete(numPartitions);
+            } else {
+                future.completeExceptionally(FutureUtil.unwrapCompletionException(e));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Check whether the topics of a namespace can be created automatically.
+     *
+     * @param namespaceName the namespace
+     * @param defaultAllowed whether it's allowed if the namespace policies don't override it
+     * @return the future of the result, it fails with {@link MetadataStoreException.NotFoundException} if the
+     *   namespace doesn't exist
+     */
+    public CompletableFuture<Boolean> isAllowAutoTopicCreationAsync(NamespaceName namespaceName,
+                                                                    boolean defaultAllowed) {
+        return getNamespaceResources().getPoliciesAsync(namespaceName).thenApply(optPolicies -> {
+            if (!optPolicies.isPresent()) {
+                throw FutureUtil.wrapToCompletionException(
+                        new MetadataStoreException.NotFoundException("Namespace " + namespaceName + " not found"));
+            }
+            if (optPolicies.get().autoTopicCreationOverride != null) {
+                return optPolicies.get().autoTopicCreationOverride.isAllowAutoTopicCreation();
+            }
+            return defaultAllowed;
+        });
+    }
+
+    /**
+     * Create a partitioned topic and its partitions.
+     *
+     * @param topicName the topic name without the partition suffix
+     * @param numPartitions the number of partitions
+     * @return the future of the creation, it fails with {@link TopicExistsException} if the topic already exists and
+     *   {@link PolicyViolationException} if the namespace would exceed the max number of topics
+     */
+    public CompletableFuture<Void> createPartitionedTopicAsync(TopicName topicName, int numPartitions) {
+        if (numPartitions <= 0) {
+            return FutureUtil.failedFuture(
+                    new InvalidPartitionsException("Number of partitions should be more than 0"));
+        }
+        final int maxNumPartitions = pulsar.getConfiguration().getMaxNumPartitionsPerPartitionedTopic();
+        if (maxNumPartitions > 0 && numPartitions > maxNumPartitions) {
+            return FutureUtil.failedFuture(new InvalidPartitionsException(
+                    "Number of partitions should be less than or equal to " + maxNumPartitions));
+        }
+        final TopicResources topicResources = pulsar.getPulsarResources().getTopicResources();
+        return getNamespaceResources().getPoliciesAsync(topicName.getNamespaceObject()).thenCompose(optPolicies -> {
+            if (!optPolicies.isPresent()) {
+                throw FutureUtil.wrapToCompletionException(new InvalidRequestException(
+                        "Namespace " + topicName.getNamespace() + " does not exist"));
+            }
+            return checkMaxTopicsPerNamespaceAsync(topicName, numPartitions, optPolicies.get());
+        }).thenCompose(__ -> topicResources.persistentTopicExists(topicName)).thenCompose(nonPartitionedTopicExists -> {
+            if (nonPartitionedTopicExists) {
+                throw FutureUtil.wrapToCompletionException(
+                        new TopicExistsException("Non-partitioned topic " + topicName + " already exists"));
+            }
+            return getNamespaceResources().getPartitionedTopicResources()
+                    .createPartitionedTopicAsync(topicName, new PartitionedTopicMetadata(numPartitions));
+        }).exceptionally(e -> {
+            final Throwable cause = FutureUtil.unwrapCompletionException(e);
+            if (cause instanceof MetadataStoreException.AlreadyExistsException) {
+                throw FutureUtil.wrapToCompletionException(
+                        new TopicExistsException("Partitioned topic " + topicName + " already exists"));
+            }
+            throw FutureUtil.wrapToCompletionException(cause);
+        }).thenCompose(__ -> createPartitionsAsync(topicResources, topicName, numPartitions));
+    }
+
+    /**
+     * The same check as the admin API does before creating a partitioned topic, the limit of the namespace policies
+     * overrides the broker's maxTopicsPerNamespace and each partition counts as a topic.
+     */
+    private CompletableFuture<Void> checkMaxTopicsPerNamespaceAsync(TopicName topicName,
+                                                                    int numPartitions,
+                                                                    Policies policies) {
+        final int maxTopicsPerNamespace = (policies.max_topics_per_namespace != null)
+                ? policies.max_topics_per_namespace
+                : pulsar.getConfiguration().getMaxTopicsPerNamespace();
+        if (maxTopicsPerNamespace <= 0 || pulsar.getBrokerService().isSystemTopic(topicName)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return pulsar.getNamespaceService().getListOfPersistentTopics(topicName.getNamespaceObject())
+                .thenAccept(topics -> {
+                    final long numTopics = topics.stream()
+                            .filter(topic -> !pulsar.getBrokerService().isSystemTopic(topic))
+                            .count();
+                    if (numTopics + numPartitions > maxTopicsPerNamespace) {
+                        log.warn("Failed to create partitioned topic {}, exceed maximum number of topics {} in"
+                                + " namespace", topicName, maxTopicsPerNamespace);
+                        throw FutureUtil.wrapToCompletionException(new PolicyViolationException(
+                                "Exceed maximum number of topics in namespace " + topicName.getNamespace()));
+                    }
+                });
+    }
+
+    private CompletableFuture<Void> createPartitionsAsync(TopicResources topicResources,
+                                                          TopicName topicName,
+                                                          int numPartitions) {
+        final List<CompletableFuture<Void>> futures = IntStream.range(0, numPartitions)
+                .mapToObj(i -> topicResources.createPersistentTopicAsync(topicName.getPartition(i))
+                        .exceptionally(e -> {
+                            if (FutureUtil.unwrapCompletionException(e)
+                                    instanceof MetadataStoreException.AlreadyExistsException) {
+                                return null;
+                            }
+                            throw FutureUtil.wrapToCompletionException(e);
+                        }))
+                .collect(Collectors.toList());
+        return FutureUtil.waitForAll(futures).whenComplete((__, e) -> {
+            if (e != null) {
+                log.warn("Failed to create the partitions of {}: {}", topicName, e.getMessage());
+            } else if (log.isDebugEnabled()) {
+                log.debug("Created partitioned topic {} with {} partitions", topicName, numPartitions);
+            }
+        });
+    }
+
+    private NamespaceResources getNamespaceResources() {
+        return pulsar.getPulsarResources().getNamespaceResources();
+    }
+
+    @VisibleForTesting
+    int numPendingLookups() {
+        return pendingLookups.size();
+    }
+}
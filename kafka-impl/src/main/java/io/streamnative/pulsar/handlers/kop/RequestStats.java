@@ -30,6 +30,7 @@ import static io.streamnative.pulsar.handlers.kop.KopServerStats.PREPARE_METADAT
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCE_ENCODE;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.REQUEST_PARSE_LATENCY;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.REQUEST_QUEUE_SIZE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.REQUEST_READ_PAUSED_TIMES;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.RESPONSE_BLOCKED_LATENCY;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.RESPONSE_BLOCKED_TIMES;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
@@ -89,6 +90,12 @@ public class RequestStats {
     )
     private final OpStatsLogger requestParseLatencyStats;
 
+    @StatsDoc(
+            name = REQUEST_READ_PAUSED_TIMES,
+            help = "the times that a channel stops reading because its request queue is full"
+    )
+    private final Counter requestReadPausedTimes;
+
     @StatsDoc(
             name = RESPONSE_BLOCKED_TIMES,
             help = "response blocked times"
@@ -167,6 +174,7 @@ public class RequestStats {
         this.statsLogger = statsLogger;
 
         this.requestParseLatencyStats = statsLogger.getOpStatsLogger(REQUEST_PARSE_LATENCY);
+        this.requestReadPausedTimes = statsLogger.getCounter(REQUEST_READ_PAUSED_TIMES);
 
         this.responseBlockedLatency = statsLogger.getOpStatsLogger(RESPONSE_BLOCKED_LATENCY);
         this.responseBlockedTimes = statsLogger.getCounter(RESPONSE_BLOCKED_TIMES);
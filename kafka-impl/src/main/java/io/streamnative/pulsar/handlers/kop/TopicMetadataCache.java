@@ -0,0 +1,215 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static org.apache.kafka.common.requests.MetadataResponse.PartitionMetadata;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.pulsar.common.naming.NamespaceName;
+import org.apache.pulsar.common.naming.TopicDomain;
+import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.common.util.Codec;
+import org.apache.pulsar.metadata.api.Notification;
+
+/**
+ * The broker level cache of the topic metadata that is used to serve the METADATA requests, which is shared by all
+ * connections.
+ *
+ * <p>It caches the number of partitions of each topic and the leader of each partition for each listener, so that
+ * the METADATA request of unchanged topics doesn't need any admin or lookup request. The cached entries are
+ * invalidated when:
+ * <ul>
+ *   <li>the partitioned topic metadata is changed in the metadata store, which includes the topic deletion;</li>
+ *   <li>the ownership of a namespace bundle is changed in the metadata store;</li>
+ *   <li>the topic is loaded or unloaded by this broker;</li>
+ *   <li>the KoP brokers are changed.</li>
+ * </ul>
+ * All entries also expire after the TTL. Only the successful results are cached.
+ */
+@Slf4j
+public class TopicMetadataCache {
+
+    private static final String PARTITIONED_TOPICS_PATH_PREFIX = "/admin/partitioned-topics/";
+    private static final String NAMESPACE_OWNERSHIP_PATH_PREFIX = "/namespace/";
+
+    // <topic, number of partitions>
+    private final Cache<String, Integer> partitionsCache;
+    // <partition, <listener name, partition metadata>>
+    private final Cache<String, Map<String, PartitionMetadata>> leaderCache;
+    // increased by each invalidation, a result that is loaded across an invalidation is not cached
+    private final AtomicLong generation = new AtomicLong(0L);
+
+    public TopicMetadataCache(long ttlMs, long maxSize) {
+        this.partitionsCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(maxSize)
+                .build();
+        this.leaderCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    /**
+     * Get the cached number of partitions of a topic, or load it and cache it if it's not cached.
+     *
+     * @param topic the full topic name without the partition suffix
+     * @param loader the loader of the number of partitions, see {@link TopicAndMetadata} for the negative values
+     * @return the future of the number of partitions
+     */
+    public CompletableFuture<Integer> getNumPartitions(String topic, Supplier<CompletableFuture<Integer>> loader) {
+        final Integer numPartitions = partitionsCache.getIfPresent(topic);
+        if (numPartitions != null) {
+            return CompletableFuture.completedFuture(numPartitions);
+        }
+        final long loadGeneration = generation.get();
+        return loader.get().thenApply(loadedNumPartitions -> {
+            if (loadedNumPartitions != null && loadedNumPartitions >= 0 && generation.get() == loadGeneration) {
+                partitionsCache.put(topic, loadedNumPartitions);
+            }
+            return loadedNumPartitions;
+        });
+    }
+
+    /**
+     * Get the cached leader of a partition, or load it and cache it if it's not cached.
+     *
+     * @param partition the full partition name
+     * @param listenerName the listener name of the connection, it could be null
+     * @param loader the loader of the partition metadata
+     * @return the future of the partition metadata
+     */
+    public CompletableFuture<PartitionMetadata> getLeader(String partition,
+                                                         String listenerName,
+                                                         Supplier<CompletableFuture<PartitionMetadata>> loader) {
+        final String listener = (listenerName != null) ? listenerName : "";
+        final Map<String, PartitionMetadata> leaders = leaderCache.getIfPresent(partition);
+        final PartitionMetadata partitionMetadata = (leaders != null) ? leaders.get(listener) : null;
+        if (partitionMetadata != null) {
+            return CompletableFuture.completedFuture(partitionMetadata);
+        }
+        final long loadGeneration = generation.get();
+        return loader.get().thenApply(loadedPartitionMetadata -> {
+            if (loadedPartitionMetadata != null && loadedPartitionMetadata.error == Errors.NONE
+                    && generation.get() == loadGeneration) {
+                try {
+                    leaderCache.get(partition, ConcurrentHashMap::new).put(listener, loadedPartitionMetadata);
+                } catch (ExecutionException e) {
+                    // It should never happen because the loader never fails
+                    log.warn("Failed to cache the leader of {}", partition, e);
+                }
+            }
+            return loadedPartitionMetadata;
+        });
+    }
+
+    /**
+     * Invalidate the number of partitions of a topic and the leaders of all its partitions.
+     *
+     * @param topic the full topic name, the partition suffix is ignored
+     */
+    public void invalidateTopic(String topic) {
+        final String partitionedTopicName = TopicName.get(topic).getPartitionedTopicName();
+        final String partitionPrefix = partitionedTopicName + TopicName.PARTITIONED_TOPIC_SUFFIX;
+        generation.incrementAndGet();
+        partitionsCache.invalidate(partitionedTopicName);
+        leaderCache.asMap().keySet().removeIf(partition ->
+                partition.equals(partitionedTopicName) || partition.startsWith(partitionPrefix));
+    }
+
+    /**
+     * Invalidate the leader of a partition.
+     *
+     * @param partition the full partition name
+     */
+    public void invalidateLeader(String partition) {
+        generation.incrementAndGet();
+        leaderCache.invalidate(partition);
+    }
+
+    public void invalidateLeaders() {
+        generation.incrementAndGet();
+        leaderCache.invalidateAll();
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        partitionsCache.invalidateAll();
+        leaderCache.invalidateAll();
+    }
+
+    /**
+     * Invalidate the cached entries that are affected by the change of the metadata store.
+     */
+    public void onMetadataChanged(Notification notification) {
+        final String path = notification.getPath();
+        if (path.startsWith(PARTITIONED_TOPICS_PATH_PREFIX)) {
+            // The path is "/admin/partitioned-topics/<tenant>/<namespace>/<domain>/<encoded-topic>"
+            final String[] tokens = path.substring(PARTITIONED_TOPICS_PATH_PREFIX.length()).split("/");
+            if (tokens.length != 4) {
+                return;
+            }
+            final String topic;
+            try {
+                topic = TopicName.get(TopicDomain.getEnum(tokens[2]).value(),
+                        NamespaceName.get(tokens[0], tokens[1]), Codec.decode(tokens[3])).toString();
+            } catch (IllegalArgumentException e) {
+                log.warn("Failed to parse the topic from the partitioned topic metadata path {}", path);
+                return;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Invalidate the topic metadata cache of {} for {}", topic, notification.getType());
+            }
+            invalidateTopic(topic);
+        } else if (path.startsWith(NAMESPACE_OWNERSHIP_PATH_PREFIX)) {
+            // The path is "/namespace/<tenant>/<namespace>/<bundle>"
+            final String[] tokens = path.substring(NAMESPACE_OWNERSHIP_PATH_PREFIX.length()).split("/");
+            if (tokens.length != 3) {
+                return;
+            }
+            final String namespace = tokens[0] + "/" + tokens[1];
+            if (log.isDebugEnabled()) {
+                log.debug("Invalidate the leaders of namespace {} for {}", namespace, notification.getType());
+            }
+            invalidateLeaders(partition -> namespace.equals(TopicName.get(partition).getNamespace()));
+        }
+    }
+
+    private void invalidateLeaders(Predicate<String> predicate) {
+        generation.incrementAndGet();
+        leaderCache.asMap().keySet().removeIf(predicate);
+    }
+
+    @VisibleForTesting
+    long numCachedTopics() {
+        return partitionsCache.size();
+    }
+
+    @VisibleForTesting
+    long numCachedPartitions() {
+        return leaderCache.size();
+    }
+}
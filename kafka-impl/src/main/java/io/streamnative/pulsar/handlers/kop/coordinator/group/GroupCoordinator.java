@@ -46,7 +46,6 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.Supplier;
@@ -79,11 +78,14 @@ public class GroupCoordinator {
         OffsetConfig offsetConfig,
         String namespacePrefixForMetadata,
         Timer timer,
-        Time time
+        Time time,
+        int numThreads,
+        OffsetsTopicLocalWriter localWriter
     ) {
-        ScheduledExecutorService coordinatorExecutor = OrderedScheduler.newSchedulerBuilder()
+        // The tasks of an offsets topic partition are executed in the same thread, see GroupMetadataManager#executorFor
+        OrderedScheduler coordinatorExecutor = OrderedScheduler.newSchedulerBuilder()
                 .name("group-coordinator-executor")
-                .numThreads(1)
+                .numThreads(Math.max(1, numThreads))
                 .build();
 
         GroupMetadataManager metadataManager = new GroupMetadataManager(
@@ -92,7 +94,8 @@ public class GroupCoordinator {
             client.newReaderBuilder(),
             coordinatorExecutor,
             namespacePrefixForMetadata,
-            time
+            time,
+            localWriter
         );
 
         DelayedOperationPurgatory<DelayedJoin> joinPurgatory = DelayedOperationPurgatory.<DelayedJoin>builder()
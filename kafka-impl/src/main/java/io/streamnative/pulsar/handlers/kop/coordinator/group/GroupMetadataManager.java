@@ -61,7 +61,14 @@ import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.mledger.AsyncCallbacks;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.protocol.Errors;
@@ -77,6 +84,7 @@ import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.OffsetCommitRequest;
 import org.apache.kafka.common.requests.OffsetFetchResponse.PartitionData;
 import org.apache.kafka.common.utils.Time;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.Producer;
@@ -117,8 +125,11 @@ public class GroupMetadataManager {
     private final ConcurrentMap<Integer, CompletableFuture<Reader<ByteBuffer>>> offsetsReaders =
             new ConcurrentHashMap<>();
 
-    /* single-thread scheduler to handle offset/group metadata cache loading and unloading */
-    private final ScheduledExecutorService scheduler;
+    /*
+     * scheduler to handle offset/group metadata cache loading and unloading, the tasks of the same offsets topic
+     * partition are always executed in the same thread, see {@link #executorFor(int)}
+     */
+    private final OrderedScheduler scheduler;
     /**
      * The groups with open transactional offsets commits per producer. We need this because when the commit or abort
      * marker comes in for a transaction, it is for a particular partition on the offsets topic and a particular
@@ -130,6 +141,12 @@ public class GroupMetadataManager {
     private final ProducerBuilder<ByteBuffer> metadataTopicProducerBuilder;
     private final ReaderBuilder<ByteBuffer> metadataTopicReaderBuilder;
     private final Time time;
+    /* the writer to append messages to the owned partitions directly, it's null if it's disabled */
+    private final OffsetsTopicLocalWriter localWriter;
+    /* the last message sent by the producer of each partition if the local writer is enabled */
+    private final ConcurrentMap<Integer, CompletableFuture<MessageId>> lastProducerWrites = new ConcurrentHashMap<>();
+    /* the partitions that have been written or loaded since their last snapshots */
+    private final Set<Integer> dirtyPartitions = ConcurrentHashMap.newKeySet();
 
     /**
      * The key interface.
@@ -203,9 +220,20 @@ public class GroupMetadataManager {
     public GroupMetadataManager(OffsetConfig offsetConfig,
                                 ProducerBuilder<ByteBuffer> metadataTopicProducerBuilder,
                                 ReaderBuilder<ByteBuffer> metadataTopicReaderBuilder,
-                                ScheduledExecutorService scheduler,
+                                OrderedScheduler scheduler,
                                 String namespacePrefixForMetadata,
                                 Time time) {
+        this(offsetConfig, metadataTopicProducerBuilder, metadataTopicReaderBuilder, scheduler,
+            namespacePrefixForMetadata, time, null);
+    }
+
+    public GroupMetadataManager(OffsetConfig offsetConfig,
+                                ProducerBuilder<ByteBuffer> metadataTopicProducerBuilder,
+                                ReaderBuilder<ByteBuffer> metadataTopicReaderBuilder,
+                                OrderedScheduler scheduler,
+                                String namespacePrefixForMetadata,
+                                Time time,
+                                OffsetsTopicLocalWriter localWriter) {
         this.offsetConfig = offsetConfig;
         this.compressionType = offsetConfig.offsetsTopicCompressionType();
         this.metadataTopicProducerBuilder = metadataTopicProducerBuilder;
@@ -213,13 +241,38 @@ public class GroupMetadataManager {
         this.scheduler = scheduler;
         this.namespacePrefix = namespacePrefixForMetadata;
         this.time = time;
+        this.localWriter = localWriter;
     }
 
     public static int getPartitionId(String groupId, int offsetsTopicNumPartitions) {
         return MathUtils.signSafeMod(groupId.hashCode(), offsetsTopicNumPartitions);
     }
 
+    /**
+     * Get the executor of an offsets topic partition.
+     *
+     * <p>All the tasks of the groups that belong to the same partition are executed in the same thread so that they
+     * are ordered, while the tasks of different partitions can be executed in parallel.
+     */
+    ScheduledExecutorService executorFor(int offsetsPartition) {
+        // OrderedScheduler drops the lowest bit of the ordering key, shift it so that the adjacent partitions are
+        // assigned to different threads
+        return scheduler.chooseThread(((long) offsetsPartition) << 1);
+    }
+
+    ScheduledExecutorService executorFor(String groupId) {
+        return executorFor(partitionFor(groupId));
+    }
+
     public void startup(boolean enableMetadataExpiration) {
+        if (localWriter != null && offsetConfig.groupMetadataSnapshotIntervalMs() > 0) {
+            scheduler.scheduleAtFixedRate(
+                this::takeSnapshots,
+                offsetConfig.groupMetadataSnapshotIntervalMs(),
+                offsetConfig.groupMetadataSnapshotIntervalMs(),
+                TimeUnit.MILLISECONDS
+            );
+        }
         if (enableMetadataExpiration) {
             scheduler.scheduleAtFixedRate(
                 this::cleanupGroupMetadata,
@@ -373,12 +426,7 @@ public class GroupMetadataManager {
         recordsBuilder.append(timestamp, key, value);
         MemoryRecords records = recordsBuilder.build();
 
-        return getOffsetsTopicProducer(group.groupId())
-            .thenComposeAsync(f -> f.newMessage()
-                    .keyBytes(key)
-                    .value(records.buffer())
-                    .eventTime(timestamp).sendAsync()
-                , scheduler)
+        return writeMessage(partitionFor(group.groupId()), key, records.buffer(), timestamp)
             .thenApplyAsync(msgId -> {
                 if (!isGroupLocal(group.groupId())) {
                     if (log.isDebugEnabled()) {
@@ -388,7 +436,7 @@ public class GroupMetadataManager {
                     addPartitionOwnership(partitionFor(group.groupId()));
                 }
                 return Errors.NONE;
-            }, scheduler)
+            }, executorFor(group.groupId()))
             .exceptionally(cause -> Errors.COORDINATOR_NOT_AVAILABLE);
     }
 
@@ -397,12 +445,56 @@ public class GroupMetadataManager {
                                                     byte[] key,
                                                     ByteBuffer buffer,
                                                     long timestamp) {
-        return getOffsetsTopicProducer(groupId)
+        return writeMessage(partitionFor(groupId), key, buffer, timestamp);
+    }
+
+    /**
+     * Write a message to the partition of the offsets topic.
+     *
+     * <p>If the local writer is enabled and the partition is owned by this broker, the message is appended to the
+     * managed ledger directly. Otherwise, or if the topic is being unloaded, it's sent by the producer. The producer is
+     * also used when there is a pending message of the producer so that the messages are not reordered.
+     */
+    CompletableFuture<MessageId> writeMessage(int partition, byte[] key, ByteBuffer value, long timestamp) {
+        dirtyPartitions.add(partition);
+        if (localWriter == null) {
+            return sendByProducer(partition, key, value, timestamp);
+        }
+        final CompletableFuture<MessageId> lastProducerWrite = lastProducerWrites.get(partition);
+        if (lastProducerWrite != null && !lastProducerWrite.isDone()) {
+            return sendByProducer(partition, key, value, timestamp);
+        }
+        return localWriter.write(getTopicPartitionName(partition), partition, key, value, timestamp)
+            .map(future -> future.handle((messageId, cause) -> {
+                if (cause == null) {
+                    return CompletableFuture.completedFuture(messageId);
+                } else if (OffsetsTopicLocalWriter.isTopicUnavailable(cause)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Failed to write to {} locally, fallback to the producer: {}",
+                            getTopicPartitionName(partition), cause.getMessage());
+                    }
+                    return sendByProducer(partition, key, value, timestamp);
+                } else {
+                    return FutureUtil.<MessageId>failedFuture(cause);
+                }
+            }).thenCompose(f -> f))
+            .orElseGet(() -> sendByProducer(partition, key, value, timestamp));
+    }
+
+    private CompletableFuture<MessageId> sendByProducer(int partition,
+                                                        byte[] key,
+                                                        ByteBuffer value,
+                                                        long timestamp) {
+        final CompletableFuture<MessageId> future = getOffsetsTopicProducer(partition)
             .thenComposeAsync(f -> f.newMessage()
                     .keyBytes(key)
-                    .value(buffer)
+                    .value(value)
                     .eventTime(timestamp).sendAsync()
-                , scheduler);
+                , executorFor(partition));
+        if (localWriter != null) {
+            lastProducerWrites.put(partition, future);
+        }
+        return future;
     }
 
     public CompletableFuture<Map<TopicPartition, Errors>> storeOffsets(
@@ -520,7 +612,7 @@ public class GroupMetadataManager {
                     });
                 }
                 return Errors.NONE;
-            }, scheduler)
+            }, executorFor(group.groupId()))
             .exceptionally(cause -> {
                 if (!group.is(GroupState.Dead)) {
                     if (!group.hasPendingOffsetCommitsFromProducer(producerId)) {
@@ -556,7 +648,7 @@ public class GroupMetadataManager {
                             return Errors.OFFSET_METADATA_TOO_LARGE;
                         }
                     }
-                )), scheduler);
+                )), executorFor(group.groupId()));
     }
 
     /**
@@ -669,25 +761,151 @@ public class GroupMetadataManager {
         return metadata == null || metadata.length() <= offsetConfig.maxMetadataSize();
     }
 
+    private void takeSnapshots() {
+        final List<Integer> partitions = inLock(partitionLock, () -> new ArrayList<>(ownedPartitions));
+        partitions.stream().filter(dirtyPartitions::remove).forEach(partition ->
+            executorFor(partition).execute(() -> takeSnapshot(partition).exceptionally(cause -> {
+                dirtyPartitions.add(partition);
+                log.warn("Failed to take the snapshot of {}: {}", getTopicPartitionName(partition), cause.getMessage());
+                return null;
+            })));
+    }
+
+    /**
+     * Take a snapshot of the groups and offsets of a partition that is written locally.
+     *
+     * <p>A barrier message is written before the snapshot is built in the executor of the partition. Since the cache
+     * updates of the previous messages are executed in the same executor before the barrier is completed, the
+     * snapshot contains all the messages before the barrier. It might also contain some messages after the barrier,
+     * which is fine because replaying them again doesn't change the result.
+     */
+    @VisibleForTesting
+    CompletableFuture<Void> takeSnapshot(int partition) {
+        final String partitionName = getTopicPartitionName(partition);
+        final CompletableFuture<MessageId> lastProducerWrite = lastProducerWrites.get(partition);
+        final Optional<PersistentTopic> topic = localWriter.getLocalTopic(partitionName);
+        if (!topic.isPresent() || (lastProducerWrite != null && !lastProducerWrite.isDone())) {
+            // The messages sent by the producer might be persisted before the barrier but not be applied yet
+            return CompletableFuture.completedFuture(null);
+        }
+        final ScheduledExecutorService executor = executorFor(partition);
+        return localWriter.writeUnbatched(partitionName, partition, null, ByteBuffer.allocate(0), time.milliseconds())
+            .orElseGet(() -> FutureUtil.failedFuture(new IllegalStateException(partitionName + " is not loaded")))
+            .thenComposeAsync(barrierId -> {
+                final ByteBuffer snapshot = buildSnapshot(partition);
+                if (snapshot == null) {
+                    dirtyPartitions.add(partition);
+                    return CompletableFuture.completedFuture(null);
+                }
+                if (snapshot.remaining() > offsetConfig.maxMessageSize()) {
+                    log.warn("[{}] Skip the group metadata snapshot because its size {} exceeds maxMessageSize {}",
+                        partitionName, snapshot.remaining(), offsetConfig.maxMessageSize());
+                    return CompletableFuture.completedFuture(null);
+                }
+                return localWriter.writeUnbatched(partitionName, partition, GroupMetadataSnapshot.SNAPSHOT_KEY,
+                        snapshot, time.milliseconds())
+                    .orElseGet(() -> FutureUtil.failedFuture(
+                        new IllegalStateException(partitionName + " is not loaded")))
+                    .thenCompose(snapshotId -> persistSnapshot(topic.get().getManagedLedger(),
+                        new GroupMetadataSnapshot(toPosition(barrierId), toPosition(snapshotId))));
+            }, executor);
+    }
+
+    private static PositionImpl toPosition(MessageId messageId) {
+        final MessageIdImpl messageIdImpl = (MessageIdImpl) messageId;
+        return PositionImpl.get(messageIdImpl.getLedgerId(), messageIdImpl.getEntryId());
+    }
+
+    /**
+     * Build the snapshot of the groups and offsets of a partition in the format of the messages of the offsets topic.
+     *
+     * @return the snapshot, or null if any group is rebalancing or has pending transactional offset commits because
+     *   its state in the cache is not the same as the state that is replayed from the offsets topic
+     */
+    @VisibleForTesting
+    ByteBuffer buildSnapshot(int partition) {
+        final long timestamp = time.milliseconds();
+        final List<SimpleRecord> records = new ArrayList<>();
+        for (GroupMetadata group : groupMetadataCache.values()) {
+            if (partitionFor(group.groupId()) != partition) {
+                continue;
+            }
+            final boolean consistent = group.inLock(() -> {
+                if (group.is(GroupState.PreparingRebalance) || group.is(GroupState.CompletingRebalance)
+                    || !group.activeProducers().isEmpty()) {
+                    return false;
+                }
+                if (group.is(GroupState.Dead)) {
+                    return true;
+                }
+                if (group.generationId() > 0) {
+                    final Map<String, byte[]> assignment = group.allMemberMetadata().stream()
+                        .collect(Collectors.toMap(MemberMetadata::memberId, MemberMetadata::assignment));
+                    records.add(new SimpleRecord(timestamp, groupMetadataKey(group.groupId()),
+                        groupMetadataValue(group, assignment, CURRENT_GROUP_VALUE_SCHEMA_VERSION)));
+                }
+                group.allOffsets().forEach((topicPartition, offsetAndMetadata) ->
+                    records.add(new SimpleRecord(timestamp,
+                        offsetCommitKey(group.groupId(), topicPartition, namespacePrefix),
+                        offsetCommitValue(offsetAndMetadata))));
+                return true;
+            });
+            if (!consistent) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Skip the snapshot of {} because group {} is {}",
+                        getTopicPartitionName(partition), group.groupId(), group.currentState());
+                }
+                return null;
+            }
+        }
+        if (records.isEmpty()) {
+            return ByteBuffer.allocate(0);
+        }
+        return MemoryRecords.withRecords(magicValue, 0L, compressionType, TimestampType.CREATE_TIME,
+            records.toArray(new SimpleRecord[0])).buffer();
+    }
+
+    private CompletableFuture<Void> persistSnapshot(ManagedLedger managedLedger, GroupMetadataSnapshot snapshot) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        managedLedger.asyncSetProperty(GroupMetadataSnapshot.PROPERTY_KEY, snapshot.toProperty(),
+            new AsyncCallbacks.UpdatePropertiesCallback() {
+                @Override
+                public void updatePropertiesComplete(Map<String, String> properties, Object ctx) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Persisted the group metadata snapshot {}",
+                            managedLedger.getName(), snapshot.toProperty());
+                    }
+                    future.complete(null);
+                }
+
+                @Override
+                public void updatePropertiesFailed(ManagedLedgerException exception, Object ctx) {
+                    future.completeExceptionally(exception);
+                }
+            }, null);
+        return future;
+    }
+
     public CompletableFuture<Void> scheduleLoadGroupAndOffsets(int offsetsPartition,
                                                                Consumer<GroupMetadata> onGroupLoaded) {
         final String topicPartition = getTopicPartitionName(offsetsPartition);
         if (addLoadingPartition(offsetsPartition)) {
             log.info("Scheduling loading of offsets and group metadata from {}", topicPartition);
             long startMs = time.milliseconds();
+            final ScheduledExecutorService executor = executorFor(offsetsPartition);
             return getOffsetsTopicProducer(offsetsPartition)
                 .thenComposeAsync(f -> f.newMessage()
                         .value(ByteBuffer.allocate(0))
                         .eventTime(time.milliseconds()).sendAsync()
-                    , scheduler)
+                    , executor)
                 .thenComposeAsync(lastMessageId -> {
                     if (log.isTraceEnabled()) {
                         log.trace("Successfully write a placeholder record into {} @ {}",
                             topicPartition, lastMessageId);
                     }
-                    return doLoadGroupsAndOffsets(getOffsetsTopicReader(offsetsPartition),
-                        lastMessageId, onGroupLoaded);
-                }, scheduler)
+                    return doLoadGroupsAndOffsets(offsetsPartition, getOffsetsTopicReader(offsetsPartition),
+                        lastMessageId, onGroupLoaded, executor);
+                }, executor)
                 .whenCompleteAsync((ignored, cause) -> {
                     inLock(partitionLock, () -> {
                         ownedPartitions.add(offsetsPartition);
@@ -698,9 +916,11 @@ public class GroupMetadataManager {
                         log.error("Error loading offsets from {}", topicPartition, cause);
                         return;
                     }
+                    // take a snapshot next time so that the next load doesn't need to replay the same messages
+                    dirtyPartitions.add(offsetsPartition);
                     log.info("Finished loading offsets and group metadata from {} in {} milliseconds",
                         topicPartition, time.milliseconds() - startMs);
-                }, scheduler);
+                }, executor);
         } else {
             log.info("Already loading offsets and group metadata from {}", topicPartition);
             return CompletableFuture.completedFuture(null);
@@ -708,9 +928,11 @@ public class GroupMetadataManager {
     }
 
     private CompletableFuture<Void> doLoadGroupsAndOffsets(
+        int offsetsPartition,
         CompletableFuture<Reader<ByteBuffer>> metadataConsumer,
         MessageId endMessageId,
-        Consumer<GroupMetadata> onGroupLoaded
+        Consumer<GroupMetadata> onGroupLoaded,
+        ScheduledExecutorService executor
     ) {
         final Map<GroupTopicPartition, CommitRecordMetadataAndOffset> loadedOffsets = new HashMap<>();
         final Map<Long, Map<GroupTopicPartition, CommitRecordMetadataAndOffset>> pendingOffsets = new HashMap<>();
@@ -718,19 +940,98 @@ public class GroupMetadataManager {
         final Set<String> removedGroups = new HashSet<>();
         final CompletableFuture<Void> resultFuture = new CompletableFuture<>();
 
-        loadNextMetadataMessage(
-            metadataConsumer,
-            endMessageId,
-            resultFuture,
-            onGroupLoaded,
-            loadedOffsets,
-            pendingOffsets,
-            loadedGroups,
-            removedGroups);
+        // If there is a snapshot, apply it first and then only replay the messages since its barrier
+        readSnapshot(offsetsPartition).thenComposeAsync(optSnapshot -> optSnapshot
+            .map(snapshot -> metadataConsumer
+                .thenCompose(reader -> reader.seekAsync(snapshot.getLeft()))
+                .thenRunAsync(() -> applyMetadataRecords(
+                    snapshot.getRight(),
+                    getTopicPartitionName(offsetsPartition),
+                    loadedOffsets,
+                    pendingOffsets,
+                    loadedGroups,
+                    removedGroups
+                ), executor))
+            .orElseGet(() -> CompletableFuture.completedFuture(null)), executor
+        ).whenCompleteAsync((ignored, cause) -> {
+            if (cause != null) {
+                resultFuture.completeExceptionally(cause);
+                return;
+            }
+            loadNextMetadataMessage(
+                metadataConsumer,
+                endMessageId,
+                resultFuture,
+                onGroupLoaded,
+                loadedOffsets,
+                pendingOffsets,
+                loadedGroups,
+                removedGroups,
+                executor);
+        }, executor);
 
         return resultFuture;
     }
 
+    /**
+     * Read the latest snapshot of the partition, which is only available if the partition is written locally.
+     *
+     * @return the future of the barrier and the records of the snapshot, or empty if there is no valid snapshot
+     */
+    private CompletableFuture<Optional<Pair<MessageId, MemoryRecords>>> readSnapshot(int offsetsPartition) {
+        if (localWriter == null || offsetConfig.groupMetadataSnapshotIntervalMs() <= 0) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        final String partitionName = getTopicPartitionName(offsetsPartition);
+        final ManagedLedger managedLedger = localWriter.getLocalTopic(partitionName)
+            .map(PersistentTopic::getManagedLedger)
+            .orElse(null);
+        final String property = (managedLedger != null)
+            ? managedLedger.getProperties().get(GroupMetadataSnapshot.PROPERTY_KEY)
+            : null;
+        if (!(managedLedger instanceof ManagedLedgerImpl) || property == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        final GroupMetadataSnapshot snapshot;
+        try {
+            snapshot = GroupMetadataSnapshot.fromProperty(property);
+        } catch (IllegalArgumentException e) {
+            log.warn("[{}] Ignore the invalid group metadata snapshot: {}", partitionName, e.getMessage());
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        final CompletableFuture<Optional<Pair<MessageId, MemoryRecords>>> future = new CompletableFuture<>();
+        ((ManagedLedgerImpl) managedLedger).asyncReadEntry(snapshot.snapshotPosition(),
+            new AsyncCallbacks.ReadEntryCallback() {
+                @Override
+                public void readEntryComplete(Entry entry, Object ctx) {
+                    try {
+                        final MemoryRecords records =
+                            MemoryRecords.readableRecords(GroupMetadataSnapshot.parseEntry(entry.getDataBuffer()));
+                        final MessageId barrierId = new MessageIdImpl(snapshot.barrierPosition().getLedgerId(),
+                            snapshot.barrierPosition().getEntryId(), offsetsPartition);
+                        log.info("[{}] Loading group metadata snapshot ({} bytes) at {}, replay from {}",
+                            partitionName, records.sizeInBytes(), snapshot.snapshotPosition(), barrierId);
+                        future.complete(Optional.of(Pair.of(barrierId, records)));
+                    } catch (RuntimeException e) {
+                        log.warn("[{}] Ignore the invalid group metadata snapshot at {}: {}",
+                            partitionName, snapshot.snapshotPosition(), e.getMessage());
+                        future.complete(Optional.empty());
+                    } finally {
+                        entry.release();
+                    }
+                }
+
+                @Override
+                public void readEntryFailed(ManagedLedgerException exception, Object ctx) {
+                    log.warn("[{}] Failed to read the group metadata snapshot at {}, replay the whole partition: {}",
+                        partitionName, snapshot.snapshotPosition(), exception.getMessage());
+                    future.complete(Optional.empty());
+                }
+            }, null);
+        return future;
+    }
+
     private void loadNextMetadataMessage(CompletableFuture<Reader<ByteBuffer>> metadataConsumer,
                                          MessageId endMessageId,
                                          CompletableFuture<Void> resultFuture,
@@ -739,7 +1040,8 @@ public class GroupMetadataManager {
                                          Map<Long, Map<GroupTopicPartition, CommitRecordMetadataAndOffset>>
                                              pendingOffsets,
                                          Map<String, GroupMetadata> loadedGroups,
-                                         Set<String> removedGroups) {
+                                         Set<String> removedGroups,
+                                         ScheduledExecutorService executor) {
         try {
             unsafeLoadNextMetadataMessage(
                 metadataConsumer,
@@ -749,7 +1051,8 @@ public class GroupMetadataManager {
                 loadedOffsets,
                 pendingOffsets,
                 loadedGroups,
-                removedGroups
+                removedGroups,
+                executor
             );
         } catch (Throwable cause) {
             log.error("Unknown exception caught when loading group and offsets from topic",
@@ -766,7 +1069,8 @@ public class GroupMetadataManager {
                                                Map<Long, Map<GroupTopicPartition, CommitRecordMetadataAndOffset>>
                                                    pendingOffsets,
                                                Map<String, GroupMetadata> loadedGroups,
-                                               Set<String> removedGroups) {
+                                               Set<String> removedGroups,
+                                               ScheduledExecutorService executor) {
         if (shuttingDown.get()) {
             resultFuture.completeExceptionally(
                 new Exception("Group metadata manager is shutting down"));
@@ -802,8 +1106,8 @@ public class GroupMetadataManager {
                 return;
             }
 
-            if (!message.hasKey()) {
-                // the messages without key are placeholders
+            if (!message.hasKey() || GroupMetadataSnapshot.isSnapshotKey(message.getKeyBytes())) {
+                // the messages without key are placeholders, and the snapshots are only read by their positions
                 loadNextMetadataMessage(
                     metadataConsumer,
                     endMessageId,
@@ -812,102 +1116,20 @@ public class GroupMetadataManager {
                     loadedOffsets,
                     pendingOffsets,
                     loadedGroups,
-                    removedGroups
+                    removedGroups,
+                    executor
                 );
                 return;
             }
 
-            ByteBuffer buffer = message.getValue();
-            MemoryRecords memRecords = MemoryRecords.readableRecords(buffer);
-
-            memRecords.batches().forEach(batch -> {
-                boolean isTxnOffsetCommit = batch.isTransactional();
-                if (batch.isControlBatch()) {
-                    Iterator<Record> recordIterator = batch.iterator();
-                    if (recordIterator.hasNext()) {
-                        Record record = recordIterator.next();
-                        ControlRecordType controlRecord = ControlRecordType.parse(record.key());
-                        if (controlRecord == ControlRecordType.COMMIT) {
-                            pendingOffsets.getOrDefault(batch.producerId(), Collections.emptyMap())
-                                .forEach((groupTopicPartition, commitRecordMetadataAndOffset) -> {
-                                    if (!loadedOffsets.containsKey(groupTopicPartition)
-                                        || loadedOffsets.get(groupTopicPartition)
-                                        .olderThan(commitRecordMetadataAndOffset)) {
-                                        loadedOffsets.put(groupTopicPartition, commitRecordMetadataAndOffset);
-                                    }
-                                });
-                        }
-                        pendingOffsets.remove(batch.producerId());
-                    }
-                } else {
-                    Optional<PositionImpl> batchBaseOffset = Optional.empty();
-                    for (Record record : batch) {
-                        checkArgument(record.hasKey(), "Group metadata/offset entry key should not be null");
-                        if (!batchBaseOffset.isPresent()) {
-                            batchBaseOffset = Optional.of(new PositionImpl(0, record.offset()));
-                        }
-                        BaseKey bk = readMessageKey(record.key());
-
-                        if (log.isTraceEnabled()) {
-                            log.trace("Applying metadata record {} received from {}",
-                                bk, metadataConsumer.join().getTopic());
-                        }
-
-                        if (bk instanceof OffsetKey) {
-                            OffsetKey offsetKey = (OffsetKey) bk;
-                            if (isTxnOffsetCommit && !pendingOffsets.containsKey(batch.producerId())) {
-                                pendingOffsets.put(
-                                    batch.producerId(),
-                                    new HashMap<>()
-                                );
-                            }
-                            // load offset
-                            GroupTopicPartition groupTopicPartition = offsetKey.key();
-                            if (!record.hasValue()) {
-                                if (isTxnOffsetCommit) {
-                                    pendingOffsets.get(batch.producerId()).remove(groupTopicPartition);
-                                } else {
-                                    loadedOffsets.remove(groupTopicPartition);
-                                }
-                            } else {
-                                OffsetAndMetadata offsetAndMetadata = readOffsetMessageValue(record.value());
-                                CommitRecordMetadataAndOffset commitRecordMetadataAndOffset =
-                                    new CommitRecordMetadataAndOffset(
-                                        batchBaseOffset,
-                                        offsetAndMetadata
-                                    );
-                                if (isTxnOffsetCommit) {
-                                    pendingOffsets.get(batch.producerId()).put(
-                                        groupTopicPartition,
-                                        commitRecordMetadataAndOffset);
-                                } else {
-                                    loadedOffsets.put(
-                                        groupTopicPartition,
-                                        commitRecordMetadataAndOffset
-                                    );
-                                }
-                            }
-                        } else if (bk instanceof GroupMetadataKey) {
-                            GroupMetadataKey groupMetadataKey = (GroupMetadataKey) bk;
-                            String gid = groupMetadataKey.key();
-                            GroupMetadata gm = readGroupMessageValue(gid, record.value());
-                            if (gm != null) {
-                                removedGroups.remove(gid);
-                                loadedGroups.put(gid, gm);
-                            } else {
-                                loadedGroups.remove(gid);
-                                removedGroups.add(gid);
-                            }
-                        } else {
-                            resultFuture.completeExceptionally(
-                                new IllegalStateException(
-                                    "Unexpected message key " + bk + " while loading offsets and group metadata"));
-                            return;
-                        }
-                    }
-                }
-
-            });
+            applyMetadataRecords(
+                MemoryRecords.readableRecords(message.getValue()),
+                metadataConsumer.join().getTopic(),
+                loadedOffsets,
+                pendingOffsets,
+                loadedGroups,
+                removedGroups
+            );
 
             loadNextMetadataMessage(
                 metadataConsumer,
@@ -917,7 +1139,8 @@ public class GroupMetadataManager {
                 loadedOffsets,
                 pendingOffsets,
                 loadedGroups,
-                removedGroups
+                removedGroups,
+                executor
             );
         };
 
@@ -929,7 +1152,102 @@ public class GroupMetadataManager {
                     metadataConsumer.join().getTopic(), completeCause);
                 resultFuture.completeExceptionally(completeCause);
             }
-        }, scheduler);
+        }, executor);
+    }
+
+    private void applyMetadataRecords(MemoryRecords memRecords,
+                                      String topic,
+                                      Map<GroupTopicPartition, CommitRecordMetadataAndOffset> loadedOffsets,
+                                      Map<Long, Map<GroupTopicPartition, CommitRecordMetadataAndOffset>>
+                                          pendingOffsets,
+                                      Map<String, GroupMetadata> loadedGroups,
+                                      Set<String> removedGroups) {
+        memRecords.batches().forEach(batch -> {
+            boolean isTxnOffsetCommit = batch.isTransactional();
+            if (batch.isControlBatch()) {
+                Iterator<Record> recordIterator = batch.iterator();
+                if (recordIterator.hasNext()) {
+                    Record record = recordIterator.next();
+                    ControlRecordType controlRecord = ControlRecordType.parse(record.key());
+                    if (controlRecord == ControlRecordType.COMMIT) {
+                        pendingOffsets.getOrDefault(batch.producerId(), Collections.emptyMap())
+                            .forEach((groupTopicPartition, commitRecordMetadataAndOffset) -> {
+                                if (!loadedOffsets.containsKey(groupTopicPartition)
+                                    || loadedOffsets.get(groupTopicPartition)
+                                    .olderThan(commitRecordMetadataAndOffset)) {
+                                    loadedOffsets.put(groupTopicPartition, commitRecordMetadataAndOffset);
+                                }
+                            });
+                    }
+                    pendingOffsets.remove(batch.producerId());
+                }
+            } else {
+                Optional<PositionImpl> batchBaseOffset = Optional.empty();
+                for (Record record : batch) {
+                    checkArgument(record.hasKey(), "Group metadata/offset entry key should not be null");
+                    if (!batchBaseOffset.isPresent()) {
+                        batchBaseOffset = Optional.of(new PositionImpl(0, record.offset()));
+                    }
+                    BaseKey bk = readMessageKey(record.key());
+
+                    if (log.isTraceEnabled()) {
+                        log.trace("Applying metadata record {} received from {}",
+                            bk, topic);
+                    }
+
+                    if (bk instanceof OffsetKey) {
+                        OffsetKey offsetKey = (OffsetKey) bk;
+                        if (isTxnOffsetCommit && !pendingOffsets.containsKey(batch.producerId())) {
+                            pendingOffsets.put(
+                                batch.producerId(),
+                                new HashMap<>()
+                            );
+                        }
+                        // load offset
+                        GroupTopicPartition groupTopicPartition = offsetKey.key();
+                        if (!record.hasValue()) {
+                            if (isTxnOffsetCommit) {
+                                pendingOffsets.get(batch.producerId()).remove(groupTopicPartition);
+                            } else {
+                                loadedOffsets.remove(groupTopicPartition);
+                            }
+                        } else {
+                            OffsetAndMetadata offsetAndMetadata = readOffsetMessageValue(record.value());
+                            CommitRecordMetadataAndOffset commitRecordMetadataAndOffset =
+                                new CommitRecordMetadataAndOffset(
+                                    batchBaseOffset,
+                                    offsetAndMetadata
+                                );
+                            if (isTxnOffsetCommit) {
+                                pendingOffsets.get(batch.producerId()).put(
+                                    groupTopicPartition,
+                                    commitRecordMetadataAndOffset);
+                            } else {
+                                loadedOffsets.put(
+                                    groupTopicPartition,
+                                    commitRecordMetadataAndOffset
+                                );
+                            }
+                        }
+                    } else if (bk instanceof GroupMetadataKey) {
+                        GroupMetadataKey groupMetadataKey = (GroupMetadataKey) bk;
+                        String gid = groupMetadataKey.key();
+                        GroupMetadata gm = readGroupMessageValue(gid, record.value());
+                        if (gm != null) {
+                            removedGroups.remove(gid);
+                            loadedGroups.put(gid, gm);
+                        } else {
+                            loadedGroups.remove(gid);
+                            removedGroups.add(gid);
+                        }
+                    } else {
+                        throw new IllegalStateException(
+                            "Unexpected message key " + bk + " while loading offsets and group metadata");
+                    }
+                }
+            }
+
+        });
     }
 
     private void processLoadedAndRemovedGroups(CompletableFuture<Void> resultFuture,
@@ -1104,7 +1422,7 @@ public class GroupMetadataManager {
             GROUP_METADATA_TOPIC_NAME, offsetsPartition
         );
         log.info("Scheduling unloading of offsets and group metadata from {}", topicPartition);
-        scheduler.submit(() -> removeGroupsAndOffsets(offsetsPartition, onGroupUnloaded));
+        executorFor(offsetsPartition).submit(() -> removeGroupsAndOffsets(offsetsPartition, onGroupUnloaded));
     }
 
 
@@ -1204,12 +1522,8 @@ public class GroupMetadataManager {
                 byte[] groupKey = groupMetadataKey(
                     group.groupId()
                 );
-                return getOffsetsTopicProducer(group.groupId())
-                    .thenComposeAsync(f -> f.newMessage()
-                        .keyBytes(groupKey)
-                        .value(records.buffer())
-                        .eventTime(timestamp).sendAsync(), scheduler)
-                    .thenApplyAsync(ignored -> removedOffsets.size(), scheduler)
+                return writeMessage(partitionFor(groupId), groupKey, records.buffer(), timestamp)
+                    .thenApplyAsync(ignored -> removedOffsets.size(), executorFor(groupId))
                     .exceptionally(cause -> {
                         log.error("Failed to append {} tombstones to topic {} for expired/deleted "
                                 + "offsets and/or metadata for group {}",
@@ -1233,14 +1547,19 @@ public class GroupMetadataManager {
      * to the log. It may be invoked when a group lock is held by the caller, for instance when delayed
      * operations are completed while appending offsets for a group. Since we need to acquire one or
      * more group metadata locks to handle transaction completion, this operation is scheduled on
-     * the scheduler thread to avoid deadlocks.
+     * the scheduler thread of each partition to avoid deadlocks.
      */
     public CompletableFuture<Void> scheduleHandleTxnCompletion(long producerId,
                                                  Set<Integer> completedPartitions,
                                                  boolean isCommit) {
-        CompletableFuture<Void> completableFuture = new CompletableFuture<>();
-        scheduler.submit(() -> handleTxnCompletion(producerId, completedPartitions, isCommit, completableFuture));
-        return completableFuture;
+        List<CompletableFuture<Void>> partitionFutures = new ArrayList<>(completedPartitions.size());
+        completedPartitions.forEach(partition -> {
+            CompletableFuture<Void> completableFuture = new CompletableFuture<>();
+            partitionFutures.add(completableFuture);
+            executorFor(partition).submit(() -> handleTxnCompletion(
+                producerId, Collections.singleton(partition), isCommit, completableFuture));
+        });
+        return FutureUtil.waitForAll(partitionFutures);
     }
 
     protected void handleTxnCompletion(long producerId, Set<Integer> completedPartitions,
@@ -1337,6 +1656,8 @@ public class GroupMetadataManager {
 
     private void removeProducerAndReaderFromCache(int partition) {
         final String partitionName = getTopicPartitionName(partition);
+        lastProducerWrites.remove(partition);
+        dirtyPartitions.remove(partition);
         Optional.ofNullable(offsetsProducers.remove(partition)).ifPresent(producerFuture -> {
             producerFuture.thenApplyAsync(Producer::closeAsync).whenCompleteAsync((__, e) -> {
                 if (e != null) {
@@ -1344,7 +1665,7 @@ public class GroupMetadataManager {
                 } else if (log.isDebugEnabled()) {
                     log.debug("Closed offset producer for {}", partitionName);
                 }
-            }, scheduler);
+            }, executorFor(partition));
         });
         Optional.ofNullable(offsetsReaders.remove(partition)).ifPresent(readerFuture -> {
             readerFuture.thenApplyAsync(Reader::closeAsync).whenCompleteAsync((__, e) -> {
@@ -1353,7 +1674,7 @@ public class GroupMetadataManager {
                 } else if (log.isDebugEnabled()) {
                     log.debug("Closed offset reader for {}", partitionName);
                 }
-            }, scheduler);
+            }, executorFor(partition));
         });
     }
 }
@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+
+/**
+ * The pointer to the latest snapshot of the groups and offsets of an offsets topic partition.
+ *
+ * <p>A snapshot is a message of the offsets topic with the reserved {@link #SNAPSHOT_KEY}, whose value is a
+ * {@link org.apache.kafka.common.record.MemoryRecords} of the group metadata and offset commit records of all groups
+ * in the partition, i.e. the same records that would be replayed from the partition. Before the snapshot is taken, a
+ * barrier message is written, and the snapshot contains all the messages before the barrier. So after the snapshot is
+ * loaded, only the messages since the barrier need to be replayed.
+ *
+ * <p>The positions of the barrier and the snapshot are persisted in the managed ledger's properties with the key
+ * {@link #PROPERTY_KEY} in the format of "version:barrierLedgerId:barrierEntryId:snapshotLedgerId:snapshotEntryId".
+ */
+@Data
+@Accessors(fluent = true)
+public class GroupMetadataSnapshot {
+
+    public static final String PROPERTY_KEY = "kop.group.metadata.snapshot";
+    static final byte[] SNAPSHOT_KEY = "__kop_group_metadata_snapshot".getBytes(StandardCharsets.UTF_8);
+    private static final int VERSION = 0;
+
+    private final PositionImpl barrierPosition;
+    private final PositionImpl snapshotPosition;
+
+    static boolean isSnapshotKey(byte[] key) {
+        return Arrays.equals(SNAPSHOT_KEY, key);
+    }
+
+    public String toProperty() {
+        return VERSION + ":" + barrierPosition.getLedgerId() + ":" + barrierPosition.getEntryId()
+                + ":" + snapshotPosition.getLedgerId() + ":" + snapshotPosition.getEntryId();
+    }
+
+    /**
+     * Parse the property value of the snapshot.
+     *
+     * @throws IllegalArgumentException if the property is invalid or has an unknown version
+     */
+    public static GroupMetadataSnapshot fromProperty(String property) {
+        final String[] tokens = property.split(":");
+        if (tokens.length != 5) {
+            throw new IllegalArgumentException("Invalid group metadata snapshot: " + property);
+        }
+        try {
+            if (Integer.parseInt(tokens[0]) != VERSION) {
+                throw new IllegalArgumentException("Unknown group metadata snapshot version: " + tokens[0]);
+            }
+            return new GroupMetadataSnapshot(
+                    PositionImpl.get(Long.parseLong(tokens[1]), Long.parseLong(tokens[2])),
+                    PositionImpl.get(Long.parseLong(tokens[3]), Long.parseLong(tokens[4])));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid group metadata snapshot: " + property, e);
+        }
+    }
+
+    /**
+     * Parse the value of the snapshot message from the entry of the managed ledger.
+     *
+     * @throws IllegalArgumentException if the entry is not a snapshot message
+     */
+    public static ByteBuffer parseEntry(ByteBuf headersAndPayload) {
+        final MessageMetadata metadata = Commands.parseMessageMetadata(headersAndPayload);
+        if (metadata.hasNumMessagesInBatch() || !metadata.hasPartitionKey() || !metadata.isPartitionKeyB64Encoded()
+                || !isSnapshotKey(Base64.getDecoder().decode(metadata.getPartitionKey()))) {
+            throw new IllegalArgumentException("The entry is not a group metadata snapshot");
+        }
+        final ByteBuffer value = ByteBuffer.allocate(headersAndPayload.readableBytes());
+        headersAndPayload.readBytes(value);
+        value.flip();
+        return value;
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.OFFSETS_TOPIC_BATCH_LINGER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.OFFSETS_TOPIC_BATCH_SIZE;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.BrokerServiceException;
+import org.apache.pulsar.broker.service.Topic;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.BatchMessageIdImpl;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.common.protocol.Commands;
+
+/**
+ * The writer that appends the messages of the offsets topic to the managed ledger directly if the partition is owned
+ * by this broker, i.e. it bypasses the Pulsar client, the binary protocol and the producer queue of the loopback
+ * producer.
+ *
+ * <p>The messages are serialized in the same way as the Pulsar producer of the `ByteBuffer` schema, so that they can
+ * be read and compacted like the messages sent by the producer.
+ *
+ * <p>If the batch delay is positive, the messages of the same partition, e.g. the offset commits of different groups,
+ * are buffered until the delay since the first buffered message expires or the total size reaches the max bytes,
+ * then they are written as a single batched entry. Each message keeps its own key in the batch so that the compaction
+ * still works.
+ */
+@Slf4j
+public class OffsetsTopicLocalWriter {
+
+    // The producer name is only used to fill the message metadata because the deduplication is skipped
+    private static final String PRODUCER_NAME = "kop-offsets-local-writer";
+
+    private final BrokerService brokerService;
+    private final long batchDelayMs;
+    private final int batchMaxBytes;
+    private final OpStatsLogger batchSizeStats;
+    private final OpStatsLogger batchLingerStats;
+    private final AtomicLong sequenceId = new AtomicLong(0L);
+    private final Map<String, PartitionBatch> partitionBatches = new ConcurrentHashMap<>();
+
+    public OffsetsTopicLocalWriter(BrokerService brokerService) {
+        this(brokerService, 0L, 0, NullStatsLogger.INSTANCE);
+    }
+
+    public OffsetsTopicLocalWriter(BrokerService brokerService,
+                                   long batchDelayMs,
+                                   int batchMaxBytes,
+                                   StatsLogger statsLogger) {
+        this.brokerService = brokerService;
+        this.batchDelayMs = batchDelayMs;
+        this.batchMaxBytes = batchMaxBytes;
+        this.batchSizeStats = statsLogger.getOpStatsLogger(OFFSETS_TOPIC_BATCH_SIZE);
+        this.batchLingerStats = statsLogger.getOpStatsLogger(OFFSETS_TOPIC_BATCH_LINGER);
+    }
+
+    /**
+     * Get the topic of the partition if it's loaded in this broker.
+     */
+    Optional<PersistentTopic> getLocalTopic(String partitionName) {
+        // The topics are cached by the full names, while the offsets topic name might be a short name
+        return brokerService.getTopicReference(TopicName.get(partitionName).toString())
+                .filter(topic -> topic instanceof PersistentTopic)
+                .map(topic -> (PersistentTopic) topic);
+    }
+
+    /**
+     * Write a message to the partition if it's owned by this broker.
+     *
+     * @param partitionName the full name of the offsets topic partition
+     * @param partitionIndex the index of the partition
+     * @param key the key of the message
+     * @param value the value of the message
+     * @param eventTime the event time of the message
+     * @return the future of the message id, or empty if the partition is not owned by this broker
+     */
+    public Optional<CompletableFuture<MessageId>> write(String partitionName,
+                                                        int partitionIndex,
+                                                        byte[] key,
+                                                        ByteBuffer value,
+                                                        long eventTime) {
+        return getLocalTopic(partitionName).map(topic -> {
+            final PendingMessage message =
+                    new PendingMessage(key, value, eventTime, new CompletableFuture<>(), MathUtils.nowInNano());
+            if (batchDelayMs > 0) {
+                partitionBatches.computeIfAbsent(partitionName, PartitionBatch::new)
+                        .add(topic, partitionIndex, message);
+            } else {
+                publish(topic, partitionIndex, Collections.singletonList(message));
+            }
+            return message.future;
+        });
+    }
+
+    /**
+     * Write a message to the partition as a single entry after the buffered messages of the partition, so that the
+     * position of the message can be read or seeked directly.
+     *
+     * @see #write(String, int, byte[], ByteBuffer, long)
+     */
+    public Optional<CompletableFuture<MessageId>> writeUnbatched(String partitionName,
+                                                                 int partitionIndex,
+                                                                 byte[] key,
+                                                                 ByteBuffer value,
+                                                                 long eventTime) {
+        return getLocalTopic(partitionName).map(topic -> {
+            final PartitionBatch batch = partitionBatches.get(partitionName);
+            if (batch != null) {
+                batch.flush();
+            }
+            final PendingMessage message =
+                    new PendingMessage(key, value, eventTime, new CompletableFuture<>(), MathUtils.nowInNano());
+            publish(topic, partitionIndex, Collections.singletonList(message));
+            return message.future;
+        });
+    }
+
+    private void publish(PersistentTopic topic, int partitionIndex, List<PendingMessage> messages) {
+        final ByteBuf headersAndPayload = (messages.size() == 1)
+                ? serialize(messages.get(0))
+                : serializeBatch(messages);
+        topic.publishMessage(headersAndPayload, new LocalPublishContext(messages, partitionIndex));
+        headersAndPayload.release();
+    }
+
+    private MessageMetadata newMessageMetadata(PendingMessage message) {
+        final MessageMetadata metadata = new MessageMetadata()
+                .setProducerName(PRODUCER_NAME)
+                .setSequenceId(sequenceId.getAndIncrement())
+                .setPublishTime(System.currentTimeMillis())
+                .setEventTime(message.eventTime)
+                .setUncompressedSize(message.value.remaining());
+        if (message.key != null) {
+            metadata.setPartitionKey(Base64.getEncoder().encodeToString(message.key)).setPartitionKeyB64Encoded(true);
+        }
+        return metadata;
+    }
+
+    @VisibleForTesting
+    ByteBuf serialize(byte[] key, ByteBuffer value, long eventTime) {
+        return serialize(new PendingMessage(key, value, eventTime, null, 0L));
+    }
+
+    private ByteBuf serialize(PendingMessage message) {
+        final ByteBuf payload = Unpooled.wrappedBuffer(message.value.duplicate());
+        final ByteBuf headersAndPayload = Commands.serializeMetadataAndPayload(
+                Commands.ChecksumType.Crc32c, newMessageMetadata(message), payload);
+        payload.release();
+        return headersAndPayload;
+    }
+
+    private ByteBuf serializeBatch(List<PendingMessage> messages) {
+        final MessageMetadata batchMetadata = new MessageMetadata();
+        ByteBuf batchedPayload = PooledByteBufAllocator.DEFAULT.buffer();
+        for (PendingMessage message : messages) {
+            final MessageMetadata metadata = newMessageMetadata(message);
+            if (!batchMetadata.hasProducerName()) {
+                Commands.initBatchMessageMetadata(batchMetadata, metadata);
+            }
+            final ByteBuf payload = Unpooled.wrappedBuffer(message.value.duplicate());
+            batchedPayload = Commands.serializeSingleMessageInBatchWithPayload(metadata, payload, batchedPayload);
+            payload.release();
+        }
+        batchMetadata.setNumMessagesInBatch(messages.size());
+        batchMetadata.setUncompressedSize(batchedPayload.readableBytes());
+        final ByteBuf headersAndPayload =
+                Commands.serializeMetadataAndPayload(Commands.ChecksumType.Crc32c, batchMetadata, batchedPayload);
+        batchedPayload.release();
+        return headersAndPayload;
+    }
+
+    /**
+     * Whether the write failed because the topic is no longer served by this broker, e.g. it's being unloaded.
+     */
+    public static boolean isTopicUnavailable(Throwable throwable) {
+        return throwable instanceof BrokerServiceException.TopicClosedException
+                || throwable instanceof BrokerServiceException.TopicTerminatedException
+                || throwable instanceof BrokerServiceException.TopicFencedException;
+    }
+
+    @VisibleForTesting
+    int numPendingMessages(String partitionName) {
+        final PartitionBatch batch = partitionBatches.get(partitionName);
+        return (batch == null) ? 0 : batch.numPendingMessages();
+    }
+
+    @AllArgsConstructor
+    private static class PendingMessage {
+        private final byte[] key;
+        private final ByteBuffer value;
+        private final long eventTime;
+        private final CompletableFuture<MessageId> future;
+        private final long createdNanos;
+    }
+
+    /**
+     * The buffered messages of a partition.
+     */
+    private class PartitionBatch {
+
+        private final String partitionName;
+        private PersistentTopic topic = null;
+        private int partitionIndex = -1;
+        private List<PendingMessage> pendingMessages = new ArrayList<>();
+        private int pendingBytes = 0;
+        private ScheduledFuture<?> flushTask = null;
+
+        PartitionBatch(String partitionName) {
+            this.partitionName = partitionName;
+        }
+
+        synchronized void add(PersistentTopic topic, int partitionIndex, PendingMessage message) {
+            final int size = message.value.remaining();
+            // The topic might be reloaded, the messages of the old topic should be published first
+            if (!pendingMessages.isEmpty() && (pendingBytes + size > batchMaxBytes || this.topic != topic)) {
+                flush();
+            }
+            this.topic = topic;
+            this.partitionIndex = partitionIndex;
+            pendingMessages.add(message);
+            pendingBytes += size;
+            if (pendingBytes >= batchMaxBytes) {
+                flush();
+            } else if (flushTask == null) {
+                flushTask = brokerService.executor().schedule(this::flush, batchDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void flush() {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            if (pendingMessages.isEmpty()) {
+                return;
+            }
+            final List<PendingMessage> messages = pendingMessages;
+            pendingMessages = new ArrayList<>();
+            pendingBytes = 0;
+            batchSizeStats.registerSuccessfulValue(messages.size());
+            batchLingerStats.registerSuccessfulEvent(
+                    MathUtils.elapsedNanos(messages.get(0).createdNanos), TimeUnit.NANOSECONDS);
+            try {
+                publish(topic, partitionIndex, messages);
+            } catch (Throwable throwable) {
+                log.error("[{}] Failed to publish {} batched messages", partitionName, messages.size(), throwable);
+                messages.forEach(message -> message.future.completeExceptionally(throwable));
+            }
+        }
+
+        synchronized int numPendingMessages() {
+            return pendingMessages.size();
+        }
+    }
+
+    private static class LocalPublishContext implements Topic.PublishContext {
+
+        private final List<PendingMessage> messages;
+        private final int partitionIndex;
+
+        LocalPublishContext(List<PendingMessage> messages, int partitionIndex) {
+            this.messages = messages;
+            this.partitionIndex = partitionIndex;
+        }
+
+        /**
+         * The messages of the offsets topic are never duplicated, skip the deduplication check like KoP does for the
+         * non-idempotent Kafka producers.
+         */
+        @Override
+        public boolean isMarkerMessage() {
+            return true;
+        }
+
+        @Override
+        public long getNumberOfMessages() {
+            return messages.size();
+        }
+
+        @Override
+        public void completed(Exception exception, long ledgerId, long entryId) {
+            if (exception != null) {
+                messages.forEach(message -> message.future.completeExceptionally(exception));
+            } else if (messages.size() == 1) {
+                messages.get(0).future.complete(new MessageIdImpl(ledgerId, entryId, partitionIndex));
+            } else {
+                for (int i = 0; i < messages.size(); i++) {
+                    messages.get(i).future.complete(new BatchMessageIdImpl(ledgerId, entryId, partitionIndex, i));
+                }
+            }
+        }
+    }
+}
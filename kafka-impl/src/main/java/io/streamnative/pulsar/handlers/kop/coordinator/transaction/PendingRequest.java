@@ -58,8 +58,12 @@ public class PendingRequest {
     }
 
     public void complete(final ResponseContext responseContext) {
-        responseConsumerHandler.accept(responseContext);
-        sendFuture.complete(responseContext.getResponse());
+        try {
+            responseConsumerHandler.accept(responseContext);
+        } finally {
+            // Complete the future even if the handler fails, so that the sender won't wait for it forever
+            sendFuture.complete(responseContext.getResponse());
+        }
     }
 
     public void completeExceptionally(final Throwable throwable) {
@@ -27,6 +27,8 @@ import io.streamnative.pulsar.handlers.kop.SystemTopicClient;
 import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionMetadata.TxnTransitMetadata;
 import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionStateManager.CoordinatorEpochAndTxnMetadata;
 import io.streamnative.pulsar.handlers.kop.scala.Either;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.MetadataUtils;
 import io.streamnative.pulsar.handlers.kop.utils.ProducerIdAndEpoch;
 import java.util.HashSet;
@@ -125,6 +127,20 @@ public class TransactionCoordinator {
                                             KopBrokerLookupManager kopBrokerLookupManager,
                                             ScheduledExecutorService scheduler,
                                             Time time) throws Exception {
+        return of(tenant, kafkaConfig, transactionConfig, txnTopicClient, metadataStore, kopBrokerLookupManager,
+                scheduler, time, null, NullStatsLogger.INSTANCE);
+    }
+
+    public static TransactionCoordinator of(String tenant,
+                                            KafkaServiceConfiguration kafkaConfig,
+                                            TransactionConfig transactionConfig,
+                                            SystemTopicClient txnTopicClient,
+                                            MetadataStoreExtended metadataStore,
+                                            KopBrokerLookupManager kopBrokerLookupManager,
+                                            ScheduledExecutorService scheduler,
+                                            Time time,
+                                            TransactionMarkerLocalWriter txnMarkerLocalWriter,
+                                            StatsLogger statsLogger) throws Exception {
         String namespacePrefixForMetadata = MetadataUtils.constructMetadataNamespace(tenant, kafkaConfig);
         String namespacePrefixForUserTopics = MetadataUtils.constructUserTopicsNamespace(tenant, kafkaConfig);
         TransactionStateManager transactionStateManager =
@@ -140,7 +156,7 @@ public class TransactionCoordinator {
                 transactionConfig,
                 new TransactionMarkerChannelManager(tenant, kafkaConfig, transactionStateManager,
                         kopBrokerLookupManager, kafkaConfig.isKopTlsEnabledWithBroker(), namespacePrefixForUserTopics,
-                        scheduler),
+                        scheduler, txnMarkerLocalWriter, statsLogger),
                 scheduler,
                 producerIdManager,
                 transactionStateManager,
@@ -21,18 +21,23 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.streamnative.pulsar.handlers.kop.security.PlainSaslServer;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import javax.security.sasl.SaslException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.message.SaslAuthenticateRequestData;
 import org.apache.kafka.common.message.SaslHandshakeRequestData;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.AbstractResponse;
 import org.apache.kafka.common.requests.SaslAuthenticateRequest;
 import org.apache.kafka.common.requests.SaslAuthenticateResponse;
 import org.apache.kafka.common.requests.SaslHandshakeRequest;
@@ -84,20 +89,52 @@ public class TransactionMarkerChannelHandler extends ChannelInboundHandlerAdapte
         });
     }
 
-    public void enqueueWriteTxnMarkers(final List<TxnMarkerEntry> txnMarkerEntries,
-                                       final Consumer<ResponseContext> responseContextConsumer) {
+    /**
+     * Send a WRITE_TXN_MARKERS request.
+     *
+     * @param timeoutMs the timeout since the request is enqueued, after that the request fails and the channel is
+     *   closed, because a broker that doesn't respond would otherwise block all the following requests
+     * @return the future that completes after the response is handled by the consumer, or completes exceptionally
+     *   if the request can't be sent, the channel is closed before the response is received or the request timed out
+     */
+    public CompletableFuture<AbstractResponse> enqueueWriteTxnMarkers(
+            final List<TxnMarkerEntry> txnMarkerEntries,
+            final Consumer<ResponseContext> responseContextConsumer,
+            final long timeoutMs) {
+        final PendingRequest pendingRequest = new PendingRequest(
+                ApiKeys.WRITE_TXN_MARKERS,
+                correlationIdGenerator.next(),
+                newWriteTxnMarkers(txnMarkerEntries),
+                responseContextConsumer
+        );
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
         cnxFuture.whenComplete((cnx, e) -> {
             if (e == null) {
-                enqueueRequest(cnx, new PendingRequest(
-                        ApiKeys.WRITE_TXN_MARKERS,
-                        correlationIdGenerator.next(),
-                        newWriteTxnMarkers(txnMarkerEntries),
-                        responseContextConsumer
-                ));
+                enqueueRequest(cnx, pendingRequest);
+                final ScheduledFuture<?> timeoutFuture = cnx.executor().schedule(
+                        () -> handleRequestTimeout(cnx, pendingRequest, timeoutMs),
+                        Math.max(0L, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                pendingRequest.getSendFuture().whenComplete((__, ___) -> timeoutFuture.cancel(false));
             } else {
                 log.error("Failed to enqueue request because the channel failed", e);
+                pendingRequest.completeExceptionally(e);
             }
         });
+        return pendingRequest.getSendFuture();
+    }
+
+    private void handleRequestTimeout(ChannelHandlerContext channel, PendingRequest pendingRequest, long timeoutMs) {
+        if (!pendingRequestMap.remove(pendingRequest.getCorrelationId(), pendingRequest)) {
+            // The response has been received or the request has failed
+            return;
+        }
+        log.warn("Request ({}) to {} timed out after {} ms, close the txn marker channel",
+                pendingRequest, channel.channel().remoteAddress(), timeoutMs);
+        pendingRequest.completeExceptionally(new TimeoutException(
+                "The txn marker request timed out after " + timeoutMs + " ms"));
+        // The broker might never respond, so the channel is closed to fail the other pending requests and
+        // discard the reference to this connection
+        channel.close();
     }
 
     @Override
@@ -111,8 +148,10 @@ public class TransactionMarkerChannelHandler extends ChannelInboundHandlerAdapte
     public void channelInactive(ChannelHandlerContext channelHandlerContext) throws Exception {
         log.info("[TransactionMarkerChannelHandler] channelInactive, failing {} pending requests",
                 pendingRequestMap.size());
-        pendingRequestMap.forEach((__, pendingRequest) ->
-            log.warn("Pending request ({}) was not sent when the txn marker channel is inactive", pendingRequest));
+        pendingRequestMap.forEach((__, pendingRequest) -> {
+            log.warn("Pending request ({}) was not sent when the txn marker channel is inactive", pendingRequest);
+            pendingRequest.completeExceptionally(new IOException("The txn marker channel is inactive"));
+        });
         pendingRequestMap.clear();
         transactionMarkerChannelManager.channelFailed((InetSocketAddress) channelHandlerContext
                 .channel()
@@ -145,9 +184,11 @@ public class TransactionMarkerChannelHandler extends ChannelInboundHandlerAdapte
     @Override
     public void exceptionCaught(ChannelHandlerContext channelHandlerContext, Throwable throwable) throws Exception {
         log.error("Transaction marker channel handler caught exception.", throwable);
-        pendingRequestMap.forEach((__, pendingRequest) ->
-                log.warn("Pending request ({}) failed because the txn marker channel caught exception",
-                        pendingRequest, throwable));
+        pendingRequestMap.forEach((__, pendingRequest) -> {
+            log.warn("Pending request ({}) failed because the txn marker channel caught exception",
+                    pendingRequest, throwable);
+            pendingRequest.completeExceptionally(throwable);
+        });
         pendingRequestMap.clear();
         channelHandlerContext.close();
     }
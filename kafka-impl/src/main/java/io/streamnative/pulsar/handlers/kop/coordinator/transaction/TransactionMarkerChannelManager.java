@@ -13,6 +13,11 @@
  */
 package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
 
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_MARKER_BROKER_SCOPE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_MARKER_IN_FLIGHT_REQUESTS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_MARKER_QUEUE_SIZE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_MARKER_REQUEST_LATENCY;
+
 import com.google.common.annotations.VisibleForTesting;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.EventLoopGroup;
@@ -21,6 +26,8 @@ import io.streamnative.pulsar.handlers.kop.EndPoint;
 import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
 import io.streamnative.pulsar.handlers.kop.KopBrokerLookupManager;
 import io.streamnative.pulsar.handlers.kop.scala.Either;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.KopTopic;
 import io.streamnative.pulsar.handlers.kop.utils.ssl.SSLUtils;
 import java.io.IOException;
@@ -41,13 +48,18 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.requests.TransactionResult;
 import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry;
@@ -74,6 +86,8 @@ public class TransactionMarkerChannelManager {
     private final SslContextFactory sslContextFactory;
     private final EndPoint sslEndPoint;
     private final KopBrokerLookupManager kopBrokerLookupManager;
+    // It's null if the markers are always sent by the WRITE_TXN_MARKERS requests
+    private final TransactionMarkerLocalWriter localWriter;
 
     private final Bootstrap bootstrap;
 
@@ -86,7 +100,13 @@ public class TransactionMarkerChannelManager {
     @VisibleForTesting
     private ConcurrentHashMap<String, PendingCompleteTxn> transactionsWithPendingMarkers = new ConcurrentHashMap<>();
     private Map<InetSocketAddress, TxnMarkerQueue> markersQueuePerBroker = new ConcurrentHashMap<>();
-    private TxnMarkerQueue markersQueueForUnknownBroker = new TxnMarkerQueue(null);
+    private TxnMarkerQueue markersQueueForUnknownBroker = new TxnMarkerQueue(null, NullStatsLogger.INSTANCE);
+    // the markers of the partitions that are written by the local writer
+    private final TxnMarkerQueue markersQueueForLocalBroker;
+    private final int maxInFlightRequestsPerBroker;
+    private final int maxMarkersPerRequest;
+    private final long requestTimeoutMs;
+    private final StatsLogger statsLogger;
     private BlockingQueue<PendingCompleteTxn> txnLogAppendRetryQueue = new LinkedBlockingQueue<>();
     private volatile boolean closed;
     private final String namespacePrefixForUserTopics;
@@ -120,13 +140,83 @@ public class TransactionMarkerChannelManager {
     private static class TxnMarkerQueue {
 
         private final InetSocketAddress address;
+        private final AtomicInteger inFlightRequests = new AtomicInteger(0);
+        private final OpStatsLogger requestLatency;
 
         // keep track of the requests per txn topic partition so we can easily clear the queue
         // during partition emigration
         private final Map<Integer, BlockingQueue<TxnIdAndMarkerEntry>> markersPerPartition = new ConcurrentHashMap<>();
 
-        public TxnMarkerQueue(InetSocketAddress address) {
+        public TxnMarkerQueue(InetSocketAddress address, StatsLogger statsLogger) {
             this.address = address;
+            this.requestLatency = statsLogger.getOpStatsLogger(TXN_MARKER_REQUEST_LATENCY);
+            statsLogger.registerGauge(TXN_MARKER_QUEUE_SIZE, new Gauge<Number>() {
+                @Override
+                public Number getDefaultValue() {
+                    return 0;
+                }
+
+                @Override
+                public Number getSample() {
+                    return size();
+                }
+            });
+            statsLogger.registerGauge(TXN_MARKER_IN_FLIGHT_REQUESTS, new Gauge<Number>() {
+                @Override
+                public Number getDefaultValue() {
+                    return 0;
+                }
+
+                @Override
+                public Number getSample() {
+                    return inFlightRequests.get();
+                }
+            });
+        }
+
+        public int size() {
+            int size = 0;
+            for (BlockingQueue<TxnIdAndMarkerEntry> queue : markersPerPartition.values()) {
+                size += queue.size();
+            }
+            return size;
+        }
+
+        public boolean hasMarkers() {
+            for (BlockingQueue<TxnIdAndMarkerEntry> queue : markersPerPartition.values()) {
+                if (!queue.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public List<TxnIdAndMarkerEntry> drainMarkers(int maxMarkers) {
+            List<TxnIdAndMarkerEntry> txnIdAndMarkerEntries = new ArrayList<>();
+            for (BlockingQueue<TxnIdAndMarkerEntry> queue : markersPerPartition.values()) {
+                int remaining = maxMarkers - txnIdAndMarkerEntries.size();
+                if (remaining <= 0) {
+                    break;
+                }
+                queue.drainTo(txnIdAndMarkerEntries, remaining);
+            }
+            return txnIdAndMarkerEntries;
+        }
+
+        public boolean tryAcquireInFlightRequest(int maxInFlightRequests) {
+            while (true) {
+                int current = inFlightRequests.get();
+                if (current >= maxInFlightRequests) {
+                    return false;
+                }
+                if (inFlightRequests.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void releaseInFlightRequest() {
+            inFlightRequests.decrementAndGet();
         }
 
         public BlockingQueue<TxnIdAndMarkerEntry> removeMarkersForTxnTopicPartition(Integer partition) {
@@ -157,11 +247,31 @@ public class TransactionMarkerChannelManager {
                                            boolean enableTls,
                                            String namespacePrefixForUserTopics,
                                            ScheduledExecutorService scheduler) throws Exception {
+        this(tenant, kafkaConfig, txnStateManager, kopBrokerLookupManager, enableTls, namespacePrefixForUserTopics,
+                scheduler, null, NullStatsLogger.INSTANCE);
+    }
+
+    public TransactionMarkerChannelManager(String tenant,
+                                           KafkaServiceConfiguration kafkaConfig,
+                                           TransactionStateManager txnStateManager,
+                                           KopBrokerLookupManager kopBrokerLookupManager,
+                                           boolean enableTls,
+                                           String namespacePrefixForUserTopics,
+                                           ScheduledExecutorService scheduler,
+                                           TransactionMarkerLocalWriter localWriter,
+                                           StatsLogger statsLogger) throws Exception {
         this.tenant = tenant;
         this.kafkaConfig = kafkaConfig;
         this.namespacePrefixForUserTopics = namespacePrefixForUserTopics;
         this.txnStateManager = txnStateManager;
         this.kopBrokerLookupManager = kopBrokerLookupManager;
+        this.localWriter = localWriter;
+        this.maxInFlightRequestsPerBroker = kafkaConfig.getKafkaTxnMarkerMaxInFlightRequestsPerBroker();
+        this.maxMarkersPerRequest = kafkaConfig.getKafkaTxnMarkerMaxEntriesPerRequest();
+        this.requestTimeoutMs = kafkaConfig.getRequestTimeoutMs();
+        this.statsLogger = statsLogger;
+        this.markersQueueForLocalBroker =
+                new TxnMarkerQueue(null, statsLogger.scopeLabel(TXN_MARKER_BROKER_SCOPE, "local"));
         this.enableTls = enableTls;
         this.scheduler = scheduler;
         if (this.enableTls) {
@@ -271,6 +381,7 @@ public class TransactionMarkerChannelManager {
 
         Map<InetSocketAddress, List<TopicPartition>> addressAndPartitionMap = new ConcurrentHashMap<>();
         List<TopicPartition> unknownBrokerTopicList = new CopyOnWriteArrayList<>();
+        List<TopicPartition> localBrokerTopicList = new CopyOnWriteArrayList<>();
 
         List<CompletableFuture<Void>> addressFutureList = new ArrayList<>();
         for (TopicPartition topicPartition : topicPartitions) {
@@ -324,6 +435,12 @@ public class TransactionMarkerChannelManager {
                             return;
                         }
 
+                        if (localWriter != null && localWriter.canWrite(topicPartition, pulsarTopic)) {
+                            localBrokerTopicList.add(topicPartition);
+                            addFuture.complete(null);
+                            return;
+                        }
+
                         CompletableFuture<Optional<InetSocketAddress>> addressFuture =
                                 kopBrokerLookupManager.findBroker(pulsarTopic, sslEndPoint);
 
@@ -355,9 +472,11 @@ public class TransactionMarkerChannelManager {
             addressAndPartitionMap.forEach((address, partitions) -> {
                 TxnMarkerEntry entry = new TxnMarkerEntry(
                         producerId, producerEpoch, coordinatorEpoch, result, partitions);
-                TxnMarkerQueue markerQueue =
-                        markersQueuePerBroker.computeIfAbsent(address, key -> new TxnMarkerQueue(address));
+                TxnMarkerQueue markerQueue = markersQueuePerBroker.computeIfAbsent(address, key ->
+                        new TxnMarkerQueue(address, statsLogger.scopeLabel(TXN_MARKER_BROKER_SCOPE,
+                                address.getHostString() + ":" + address.getPort())));
                 markerQueue.addMarkers(txnTopicPartition, new TxnIdAndMarkerEntry(transactionalId, entry));
+                sendQueuedMarkers(markerQueue);
             });
             if (unknownBrokerTopicList.size() > 0) {
                 TxnMarkerEntry entry = new TxnMarkerEntry(
@@ -365,6 +484,13 @@ public class TransactionMarkerChannelManager {
                 markersQueueForUnknownBroker.addMarkers(
                         txnTopicPartition, new TxnIdAndMarkerEntry(transactionalId, entry));
             }
+            if (localBrokerTopicList.size() > 0) {
+                TxnMarkerEntry entry = new TxnMarkerEntry(
+                        producerId, producerEpoch, coordinatorEpoch, result, localBrokerTopicList);
+                markersQueueForLocalBroker.addMarkers(
+                        txnTopicPartition, new TxnIdAndMarkerEntry(transactionalId, entry));
+                sendQueuedMarkers(markersQueueForLocalBroker);
+            }
         });
     }
 
@@ -471,6 +597,14 @@ public class TransactionMarkerChannelManager {
             });
         }
 
+        BlockingQueue<TxnIdAndMarkerEntry> localBrokerMarkerEntries =
+                markersQueueForLocalBroker.removeMarkersForTxnTopicPartition(txnTopicPartitionId);
+        if (localBrokerMarkerEntries != null) {
+            localBrokerMarkerEntries.forEach(markerEntry -> {
+                removeMarkersForTxnId(markerEntry.getTransactionalId());
+            });
+        }
+
         markersQueuePerBroker.forEach((__, txnMarkerQueue) -> {
             BlockingQueue<TxnIdAndMarkerEntry> markerEntries =
                     txnMarkerQueue.removeMarkersForTxnTopicPartition(txnTopicPartitionId);
@@ -514,22 +648,102 @@ public class TransactionMarkerChannelManager {
                     txnResult, coordinatorEpoch, new HashSet<>(topicPartitions), namespacePrefixForUserTopics);
         }
 
+        // The markers are sent once they are queued, it only sends the markers that were blocked by the in-flight
+        // limit when the previous requests completed
+        sendQueuedMarkers(markersQueueForLocalBroker);
         for (TxnMarkerQueue txnMarkerQueue : markersQueuePerBroker.values()) {
-            List<TxnIdAndMarkerEntry> txnIdAndMarkerEntriesForMarker = new ArrayList<>();
-            txnMarkerQueue.forEachTxnTopicPartition((__, queue) -> queue.drainTo(txnIdAndMarkerEntriesForMarker));
-            if (!txnIdAndMarkerEntriesForMarker.isEmpty()) {
-                getChannel(txnMarkerQueue.address).whenComplete((channelHandler, throwable) -> {
-
-                    List<TxnMarkerEntry> sendEntries = new ArrayList<>();
-                    for (TxnIdAndMarkerEntry txnIdAndMarkerEntry : txnIdAndMarkerEntriesForMarker) {
-                        sendEntries.add(txnIdAndMarkerEntry.entry);
-                    }
-                    channelHandler.enqueueWriteTxnMarkers(sendEntries,
-                            new TransactionMarkerRequestCompletionHandler(txnStateManager, this,
-                                    txnIdAndMarkerEntriesForMarker, namespacePrefixForUserTopics));
-                });
+            sendQueuedMarkers(txnMarkerQueue);
+        }
+    }
+
+    /**
+     * Send the queued markers of a broker until there are no markers or the in-flight requests reach the limit, each
+     * request contains at most maxMarkersPerRequest markers.
+     */
+    private void sendQueuedMarkers(TxnMarkerQueue markerQueue) {
+        while (!closed && markerQueue.hasMarkers()
+                && markerQueue.tryAcquireInFlightRequest(maxInFlightRequestsPerBroker)) {
+            final List<TxnIdAndMarkerEntry> txnIdAndMarkerEntries = markerQueue.drainMarkers(maxMarkersPerRequest);
+            if (txnIdAndMarkerEntries.isEmpty()) {
+                // The markers are drained by another thread
+                markerQueue.releaseInFlightRequest();
+                continue;
             }
+            sendMarkers(markerQueue, txnIdAndMarkerEntries);
+        }
+    }
+
+    private void sendMarkers(TxnMarkerQueue markerQueue, List<TxnIdAndMarkerEntry> txnIdAndMarkerEntries) {
+        final long startTimeNanos = MathUtils.nowInNano();
+        final List<TxnMarkerEntry> sendEntries = new ArrayList<>(txnIdAndMarkerEntries.size());
+        for (TxnIdAndMarkerEntry txnIdAndMarkerEntry : txnIdAndMarkerEntries) {
+            sendEntries.add(txnIdAndMarkerEntry.entry);
+        }
+        final TransactionMarkerRequestCompletionHandler completionHandler =
+                new TransactionMarkerRequestCompletionHandler(txnStateManager, this,
+                        txnIdAndMarkerEntries, namespacePrefixForUserTopics);
+
+        final CompletableFuture<?> sendFuture;
+        if (markerQueue == markersQueueForLocalBroker) {
+            // Handle the result in the same way as the response of a WRITE_TXN_MARKERS request, so that the failed
+            // partitions are retried with their current owners
+            sendFuture = localWriter.writeTxnMarkers(sendEntries, namespacePrefixForUserTopics).thenAccept(response -> {
+                try {
+                    completionHandler.accept(new ResponseContext().set(
+                            null, ApiKeys.WRITE_TXN_MARKERS.latestVersion(), -1, response));
+                } catch (RuntimeException e) {
+                    log.error("Failed to handle the result of local transaction markers {}",
+                            txnIdAndMarkerEntries, e);
+                }
+            });
+        } else {
+            sendFuture = getChannel(markerQueue.address).thenCompose(channelHandler ->
+                    channelHandler.enqueueWriteTxnMarkers(sendEntries, completionHandler, requestTimeoutMs));
         }
+        sendFuture.whenComplete((__, e) -> {
+            markerQueue.releaseInFlightRequest();
+            if (e == null) {
+                markerQueue.requestLatency.registerSuccessfulEvent(
+                        MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            } else {
+                markerQueue.requestLatency.registerFailedEvent(
+                        MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                log.warn("Failed to send {} transaction markers to {}, look up the brokers again: {}",
+                        txnIdAndMarkerEntries.size(), markerQueue.address, e.getMessage());
+                if (markerQueue.address != null) {
+                    removeFailedChannel(markerQueue.address);
+                }
+                // The markers are sent again with the next drain, which looks up the partition owners again
+                for (TxnIdAndMarkerEntry txnIdAndMarkerEntry : txnIdAndMarkerEntries) {
+                    markersQueueForUnknownBroker.addMarkers(
+                            txnStateManager.partitionFor(txnIdAndMarkerEntry.getTransactionalId()),
+                            txnIdAndMarkerEntry);
+                }
+            }
+            sendQueuedMarkers(markerQueue);
+        });
+    }
+
+    @VisibleForTesting
+    int getNumQueuedMarkers(InetSocketAddress address) {
+        final TxnMarkerQueue markerQueue = markersQueuePerBroker.get(address);
+        return (markerQueue != null) ? markerQueue.size() : 0;
+    }
+
+    @VisibleForTesting
+    int getNumInFlightRequests(InetSocketAddress address) {
+        final TxnMarkerQueue markerQueue = markersQueuePerBroker.get(address);
+        return (markerQueue != null) ? markerQueue.inFlightRequests.get() : 0;
+    }
+
+    @VisibleForTesting
+    int getNumQueuedMarkersForUnknownBroker() {
+        return markersQueueForUnknownBroker.size();
+    }
+
+    private void removeFailedChannel(InetSocketAddress socketAddress) {
+        handlerMap.computeIfPresent(socketAddress, (__, value) ->
+                (value.isCompletedExceptionally() || value.isCancelled()) ? null : value);
     }
 
     private synchronized void ensureDrainQueuedTransactionMarkersActivity() {
@@ -0,0 +1,145 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
+
+import io.streamnative.pulsar.handlers.kop.PendingTopicFutures;
+import io.streamnative.pulsar.handlers.kop.storage.AppendRecordsContext;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionLog;
+import io.streamnative.pulsar.handlers.kop.storage.ReplicaManager;
+import io.streamnative.pulsar.handlers.kop.utils.KopTopic;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.ControlRecordType;
+import org.apache.kafka.common.record.EndTransactionMarker;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.requests.TransactionResult;
+import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry;
+import org.apache.kafka.common.requests.WriteTxnMarkersResponse;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.common.util.FutureUtil;
+
+/**
+ * The writer that appends the transaction markers to the partitions owned by this broker through the
+ * {@link ReplicaManager} directly, i.e. it bypasses the WRITE_TXN_MARKERS request that the transaction coordinator
+ * sends to the broker itself, including the serialization, the authentication and the loopback connection.
+ *
+ * <p>The markers of the offsets topic partitions are not written by this writer because the group coordinator of the
+ * tenant has to complete the transactional offset commits after the markers are appended, so they are still sent by
+ * the WRITE_TXN_MARKERS request.
+ */
+@Slf4j
+public class TransactionMarkerLocalWriter {
+
+    private final BrokerService brokerService;
+    // The replica manager is created after the transaction coordinator of the metadata tenant
+    private final Supplier<ReplicaManager> replicaManagerSupplier;
+    private final String metadataNamespace;
+    private final long timeoutMs;
+
+    public TransactionMarkerLocalWriter(BrokerService brokerService,
+                                        Supplier<ReplicaManager> replicaManagerSupplier,
+                                        String metadataNamespace,
+                                        long timeoutMs) {
+        this.brokerService = brokerService;
+        this.replicaManagerSupplier = replicaManagerSupplier;
+        this.metadataNamespace = metadataNamespace;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Check whether the markers of a partition can be written by this writer.
+     *
+     * @param topicPartition the partition
+     * @param fullPartitionName the full name of the partition
+     * @return true if the partition is loaded by this broker and it's not a partition of the offsets topic
+     */
+    public boolean canWrite(TopicPartition topicPartition, String fullPartitionName) {
+        return replicaManagerSupplier.get() != null
+                && !KopTopic.isGroupMetadataTopicName(topicPartition.topic(), metadataNamespace)
+                && brokerService.getTopicReference(fullPartitionName).isPresent();
+    }
+
+    /**
+     * Append the transaction markers to the local partitions.
+     *
+     * @param markers the markers whose partitions can be written by this writer
+     * @param namespacePrefix the namespace prefix of the partitions
+     * @return the future of the response as if the markers were sent by a WRITE_TXN_MARKERS request, it never
+     *   completes exceptionally
+     */
+    public CompletableFuture<WriteTxnMarkersResponse> writeTxnMarkers(List<TxnMarkerEntry> markers,
+                                                                      String namespacePrefix) {
+        final ReplicaManager replicaManager = replicaManagerSupplier.get();
+        final Map<Long, Map<TopicPartition, Errors>> errors = new ConcurrentHashMap<>();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(markers.size());
+        // The appends are only ordered within a call, so the map is discarded with the call instead of keeping an
+        // entry for each partition that ever gets a marker
+        final Map<TopicPartition, PendingTopicFutures> pendingTopicFuturesMap = new ConcurrentHashMap<>();
+        for (TxnMarkerEntry marker : markers) {
+            final Map<TopicPartition, MemoryRecords> controlRecords = generateTxnMarkerRecords(marker);
+            final AppendRecordsContext appendRecordsContext =
+                    AppendRecordsContext.getForBroker(brokerService, pendingTopicFuturesMap);
+            futures.add(replicaManager.appendRecords(
+                    timeoutMs,
+                    true,
+                    namespacePrefix,
+                    controlRecords,
+                    PartitionLog.AppendOrigin.Coordinator,
+                    appendRecordsContext
+            ).handle((result, e) -> {
+                appendRecordsContext.recycle();
+                final Map<TopicPartition, Errors> currentErrors =
+                        errors.computeIfAbsent(marker.producerId(), __ -> new ConcurrentHashMap<>());
+                if (e != null) {
+                    log.error("Append txn marker ({}) to local partitions failed.", marker, e);
+                    controlRecords.keySet().forEach(topicPartition ->
+                            currentErrors.put(topicPartition, Errors.KAFKA_STORAGE_ERROR));
+                } else {
+                    result.forEach((topicPartition, partitionResponse) -> {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Append txn marker to local topic : [{}], response: [{}].",
+                                    topicPartition, partitionResponse);
+                        }
+                        currentErrors.put(topicPartition, partitionResponse.error);
+                    });
+                }
+                return null;
+            }));
+        }
+        return FutureUtil.waitForAll(futures).thenApply(__ -> new WriteTxnMarkersResponse(errors));
+    }
+
+    public static Map<TopicPartition, MemoryRecords> generateTxnMarkerRecords(TxnMarkerEntry marker) {
+        Map<TopicPartition, MemoryRecords> txnMarkerRecordsMap = new HashMap<>();
+
+        ControlRecordType controlRecordType = marker.transactionResult().equals(TransactionResult.COMMIT)
+                ? ControlRecordType.COMMIT : ControlRecordType.ABORT;
+        EndTransactionMarker endTransactionMarker = new EndTransactionMarker(
+                controlRecordType, marker.coordinatorEpoch());
+        for (TopicPartition topicPartition : marker.partitions()) {
+            MemoryRecords memoryRecords = MemoryRecords.withEndTransactionMarker(
+                    marker.producerId(), marker.producerEpoch(), endTransactionMarker);
+            txnMarkerRecordsMap.put(topicPartition, memoryRecords);
+        }
+        return txnMarkerRecordsMap;
+    }
+}
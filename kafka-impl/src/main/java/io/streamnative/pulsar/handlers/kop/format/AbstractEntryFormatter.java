@@ -13,11 +13,14 @@
  */
 package io.streamnative.pulsar.handlers.kop.format;
 
+import static org.apache.kafka.common.record.Records.LOG_OVERHEAD;
 import static org.apache.kafka.common.record.Records.MAGIC_OFFSET;
 import static org.apache.kafka.common.record.Records.OFFSET_OFFSET;
+import static org.apache.kafka.common.record.Records.SIZE_OFFSET;
 
 import com.google.common.collect.ImmutableList;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.streamnative.pulsar.handlers.kop.exceptions.MetadataCorruptedException;
 import io.streamnative.pulsar.handlers.kop.utils.ByteBufUtils;
@@ -29,7 +32,9 @@ import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.record.ConvertedRecords;
+import org.apache.kafka.common.record.DefaultRecordBatch;
 import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.utils.Time;
 import org.apache.pulsar.broker.service.plugin.EntryFilter;
 import org.apache.pulsar.broker.service.plugin.EntryFilterWithClassLoader;
@@ -46,13 +51,28 @@ public abstract class AbstractEntryFormatter implements EntryFormatter {
     public static final String IDENTITY_VALUE = EntryFormatterFactory.EntryFormat.KAFKA.name().toLowerCase();
     private final Time time = Time.SYSTEM;
     private final ImmutableList<EntryFilterWithClassLoader> entryfilters;
+    // If it's true, the decoded records reference the entries' buffers instead of copying them
+    private final boolean zeroCopyDecode;
+    // The cache of the down-converted records, it's null if it's disabled
+    private final EntryConversionCache downConversionCache;
+    // The cache of the records decoded from Pulsar entries, it's null if it's disabled
+    private final EntryConversionCache pulsarDecodeCache;
 
-    protected AbstractEntryFormatter(ImmutableList<EntryFilterWithClassLoader> entryfilters) {
+    protected AbstractEntryFormatter(ImmutableList<EntryFilterWithClassLoader> entryfilters,
+                                     boolean zeroCopyDecode,
+                                     EntryConversionCache downConversionCache,
+                                     EntryConversionCache pulsarDecodeCache) {
         this.entryfilters = entryfilters;
+        this.zeroCopyDecode = zeroCopyDecode;
+        this.downConversionCache = downConversionCache;
+        this.pulsarDecodeCache = pulsarDecodeCache;
     }
 
     @Override
     public DecodeResult decode(List<Entry> entries, byte magic) {
+        if (zeroCopyDecode) {
+            return decodeWithoutCopy(entries, magic);
+        }
         int totalSize = 0;
         int conversionCount = 0;
         long conversionTimeNanos = 0L;
@@ -69,20 +89,23 @@ public abstract class AbstractEntryFormatter implements EntryFormatter {
                 }
                 if (isKafkaEntryFormat(metadata)) {
                     byte batchMagic = byteBuf.getByte(byteBuf.readerIndex() + MAGIC_OFFSET);
-                    byteBuf.setLong(byteBuf.readerIndex() + OFFSET_OFFSET, startOffset);
+                    setBaseOffsets(byteBuf, batchMagic, startOffset);
 
                     // batch magic greater than the magic corresponding to the version requested by the client
                     // need down converted
                     if (batchMagic > magic) {
-                        long startConversionNanos = MathUtils.nowInNano();
-                        MemoryRecords memoryRecords = MemoryRecords.readableRecords(ByteBufUtils.getNioBuffer(byteBuf));
-                        // down converted, batch magic will be set to client magic
-                        ConvertedRecords<MemoryRecords> convertedRecords =
-                                memoryRecords.downConvert(magic, startOffset, time);
-                        conversionCount += convertedRecords.recordConversionStats().numRecordsConverted();
-                        conversionTimeNanos += MathUtils.elapsedNanos(startConversionNanos);
-
-                        final ByteBuf kafkaBuffer = Unpooled.wrappedBuffer(convertedRecords.records().buffer());
+                        ByteBuf kafkaBuffer = getCachedRecords(downConversionCache, entry, magic);
+                        if (kafkaBuffer == null) {
+                            long startConversionNanos = MathUtils.nowInNano();
+                            MemoryRecords memoryRecords =
+                                    MemoryRecords.readableRecords(ByteBufUtils.getNioBuffer(byteBuf));
+                            // down converted, batch magic will be set to client magic
+                            ConvertedRecords<MemoryRecords> convertedRecords =
+                                    memoryRecords.downConvert(magic, startOffset, time);
+                            conversionCount += convertedRecords.recordConversionStats().numRecordsConverted();
+                            conversionTimeNanos += MathUtils.elapsedNanos(startConversionNanos);
+                            kafkaBuffer = cacheDownConvertedRecords(entry, magic, convertedRecords.records());
+                        }
                         totalSize += kafkaBuffer.readableBytes();
                         batchedByteBuf.writeBytes(kafkaBuffer);
                         kafkaBuffer.release();
@@ -99,14 +122,19 @@ public abstract class AbstractEntryFormatter implements EntryFormatter {
                         batchedByteBuf.writeBytes(buf);
                     }
                 } else {
-                    final DecodeResult decodeResult =
-                            ByteBufUtils.decodePulsarEntryToKafkaRecords(metadata, byteBuf, startOffset, magic);
-                    conversionCount += decodeResult.getConversionCount();
-                    conversionTimeNanos += decodeResult.getConversionTimeNanos();
-                    final ByteBuf kafkaBuffer = decodeResult.getOrCreateByteBuf();
+                    ByteBuf kafkaBuffer = getCachedRecords(pulsarDecodeCache, entry, magic);
+                    if (kafkaBuffer == null) {
+                        final DecodeResult decodeResult =
+                                ByteBufUtils.decodePulsarEntryToKafkaRecords(metadata, byteBuf, startOffset, magic);
+                        conversionCount += decodeResult.getConversionCount();
+                        conversionTimeNanos += decodeResult.getConversionTimeNanos();
+                        kafkaBuffer = decodeResult.takeByteBuf();
+                        decodeResult.recycle();
+                        cachePulsarDecodedRecords(entry, magic, kafkaBuffer);
+                    }
                     totalSize += kafkaBuffer.readableBytes();
                     batchedByteBuf.writeBytes(kafkaBuffer);
-                    decodeResult.recycle();
+                    kafkaBuffer.release();
                 }
 
                 // Almost all exceptions in Kafka inherit from KafkaException and will be captured
@@ -127,7 +155,112 @@ public abstract class AbstractEntryFormatter implements EntryFormatter {
                 conversionTimeNanos);
     }
 
-    protected static boolean isKafkaEntryFormat(final MessageMetadata messageMetadata) {
+    /**
+     * Decode the entries into a {@link ByteBufRecords} whose components are retained slices of the entries.
+     *
+     * Only the entries that need conversion (down-converted Kafka entries or Pulsar entries) are materialized into new
+     * buffers, the rest are referenced directly so that they can be sent to the client without any copy.
+     */
+    private DecodeResult decodeWithoutCopy(List<Entry> entries, byte magic) {
+        int conversionCount = 0;
+        long conversionTimeNanos = 0L;
+        // The default max number of components is 16, exceeding it would consolidate (copy) the components
+        final CompositeByteBuf batchedByteBuf = PulsarByteBufAllocator.DEFAULT.compositeDirectBuffer(Integer.MAX_VALUE);
+        for (Entry entry : entries) {
+            try {
+                long startOffset = MessageMetadataUtils.peekBaseOffsetFromEntry(entry);
+                final ByteBuf byteBuf = entry.getDataBuffer();
+                final MessageMetadata metadata = MessageMetadataUtils.parseMessageMetadata(byteBuf);
+                EntryFilter.FilterResult filterResult = filterOnlyByMsgMetadata(metadata, entry, entryfilters);
+                if (filterResult == EntryFilter.FilterResult.REJECT) {
+                    continue;
+                }
+                if (isKafkaEntryFormat(metadata)) {
+                    byte batchMagic = byteBuf.getByte(byteBuf.readerIndex() + MAGIC_OFFSET);
+                    setBaseOffsets(byteBuf, batchMagic, startOffset);
+
+                    if (batchMagic > magic) {
+                        ByteBuf kafkaBuffer = getCachedRecords(downConversionCache, entry, magic);
+                        if (kafkaBuffer == null) {
+                            long startConversionNanos = MathUtils.nowInNano();
+                            MemoryRecords memoryRecords =
+                                    MemoryRecords.readableRecords(ByteBufUtils.getNioBuffer(byteBuf));
+                            ConvertedRecords<MemoryRecords> convertedRecords =
+                                    memoryRecords.downConvert(magic, startOffset, time);
+                            conversionCount += convertedRecords.recordConversionStats().numRecordsConverted();
+                            conversionTimeNanos += MathUtils.elapsedNanos(startConversionNanos);
+                            kafkaBuffer = cacheDownConvertedRecords(entry, magic, convertedRecords.records());
+                        }
+                        // the buffer is owned by batchedByteBuf now
+                        batchedByteBuf.addComponent(true, kafkaBuffer);
+                    } else {
+                        batchedByteBuf.addComponent(true,
+                                byteBuf.retainedSlice(byteBuf.readerIndex(), byteBuf.readableBytes()));
+                    }
+                } else {
+                    ByteBuf kafkaBuffer = getCachedRecords(pulsarDecodeCache, entry, magic);
+                    if (kafkaBuffer == null) {
+                        final DecodeResult decodeResult =
+                                ByteBufUtils.decodePulsarEntryToKafkaRecords(metadata, byteBuf, startOffset, magic);
+                        conversionCount += decodeResult.getConversionCount();
+                        conversionTimeNanos += decodeResult.getConversionTimeNanos();
+                        kafkaBuffer = decodeResult.takeByteBuf();
+                        decodeResult.recycle();
+                        cachePulsarDecodedRecords(entry, magic, kafkaBuffer);
+                    }
+                    batchedByteBuf.addComponent(true, kafkaBuffer);
+                }
+            } catch (MetadataCorruptedException | IOException | KafkaException e) { // skip failed decode entry
+                log.error("[{}:{}] Failed to decode entry. ", entry.getLedgerId(), entry.getEntryId(), e);
+            } finally {
+                entry.release();
+            }
+        }
+
+        return DecodeResult.get(new ByteBufRecords(batchedByteBuf),
+                batchedByteBuf,
+                conversionCount,
+                conversionTimeNanos);
+    }
+
+    private static ByteBuf getCachedRecords(final EntryConversionCache cache, final Entry entry, final byte magic) {
+        return (cache != null) ? cache.get(entry.getLedgerId(), entry.getEntryId(), magic) : null;
+    }
+
+    private ByteBuf cacheDownConvertedRecords(final Entry entry, final byte magic, final MemoryRecords records) {
+        if (downConversionCache != null) {
+            downConversionCache.put(entry.getLedgerId(), entry.getEntryId(), magic, records.buffer());
+        }
+        return Unpooled.wrappedBuffer(records.buffer());
+    }
+
+    private void cachePulsarDecodedRecords(final Entry entry, final byte magic, final ByteBuf records) {
+        if (pulsarDecodeCache != null) {
+            pulsarDecodeCache.put(entry.getLedgerId(), entry.getEntryId(), magic, records);
+        }
+    }
+
+    /**
+     * Set the base offsets of the record batches in the payload of a Kafka entry.
+     *
+     * An entry might contain multiple batches of magic v2, e.g. the coalesced appends, in which case the base offset of
+     * each batch is the base offset of the previous batch plus its record count.
+     */
+    private static void setBaseOffsets(final ByteBuf byteBuf, final byte batchMagic, final long startOffset) {
+        int position = byteBuf.readerIndex();
+        if (batchMagic < RecordBatch.MAGIC_VALUE_V2) {
+            byteBuf.setLong(position + OFFSET_OFFSET, startOffset);
+            return;
+        }
+        long baseOffset = startOffset;
+        while (position + DefaultRecordBatch.RECORD_BATCH_OVERHEAD <= byteBuf.writerIndex()) {
+            byteBuf.setLong(position + OFFSET_OFFSET, baseOffset);
+            baseOffset += byteBuf.getInt(position + DefaultRecordBatch.LAST_OFFSET_DELTA_OFFSET) + 1;
+            position += LOG_OVERHEAD + byteBuf.getInt(position + SIZE_OFFSET);
+        }
+    }
+
+    public static boolean isKafkaEntryFormat(final MessageMetadata messageMetadata) {
         final List<KeyValue> keyValues = messageMetadata.getPropertiesList();
         for (KeyValue keyValue : keyValues) {
             if (keyValue.hasKey()
@@ -0,0 +1,94 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.format;
+
+import com.google.common.collect.Iterables;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.streamnative.pulsar.handlers.kop.utils.ByteBufUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import lombok.Getter;
+import org.apache.kafka.common.network.TransferableChannel;
+import org.apache.kafka.common.record.AbstractRecords;
+import org.apache.kafka.common.record.ConvertedRecords;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.utils.AbstractIterator;
+import org.apache.kafka.common.utils.Time;
+
+/**
+ * The Kafka records that are backed by a {@link CompositeByteBuf}.
+ *
+ * Each component of the buffer contains one or more complete record batches, e.g. a retained slice of an entry's
+ * payload. Unlike {@link MemoryRecords}, the components are never merged into a contiguous buffer, so they can be
+ * written to the channel without copying.
+ *
+ * It doesn't own the buffer, the caller is responsible for releasing it.
+ */
+public class ByteBufRecords extends AbstractRecords {
+
+    @Getter
+    private final CompositeByteBuf buffer;
+
+    public ByteBufRecords(final CompositeByteBuf buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return buffer.readableBytes();
+    }
+
+    @Override
+    public Iterable<MutableRecordBatch> batches() {
+        final int numComponents = buffer.numComponents();
+        final List<Iterable<MutableRecordBatch>> batchesList = new ArrayList<>(numComponents);
+        for (int i = 0; i < numComponents; i++) {
+            final ByteBuf component = buffer.component(i);
+            if (component.isReadable()) {
+                batchesList.add(MemoryRecords.readableRecords(ByteBufUtils.getNioBuffer(component)).batches());
+            }
+        }
+        return Iterables.concat(batchesList);
+    }
+
+    @Override
+    public AbstractIterator<MutableRecordBatch> batchIterator() {
+        final Iterator<MutableRecordBatch> iterator = batches().iterator();
+        return new AbstractIterator<MutableRecordBatch>() {
+            @Override
+            protected MutableRecordBatch makeNext() {
+                return iterator.hasNext() ? iterator.next() : allDone();
+            }
+        };
+    }
+
+    @Override
+    public ConvertedRecords<MemoryRecords> downConvert(byte toMagic, long firstOffset, Time time) {
+        return MemoryRecords.readableRecords(ByteBufUtils.getNioBuffer(buffer)).downConvert(toMagic, firstOffset, time);
+    }
+
+    @Override
+    public long writeTo(TransferableChannel channel, long position, int length) throws IOException {
+        return channel.write(buffer.nioBuffers(buffer.readerIndex() + Math.toIntExact(position), length));
+    }
+
+    @Override
+    public String toString() {
+        return "ByteBufRecords(size=" + sizeInBytes() + ", numComponents=" + buffer.numComponents() + ")";
+    }
+}
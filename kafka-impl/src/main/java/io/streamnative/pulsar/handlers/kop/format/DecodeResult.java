@@ -29,6 +29,7 @@ import lombok.Getter;
 import lombok.NonNull;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Records;
 
 /**
  * Result of decode in entry formatter.
@@ -36,7 +37,7 @@ import org.apache.kafka.common.record.MemoryRecords;
 public class DecodeResult {
 
     @Getter
-    private MemoryRecords records;
+    private Records records;
     private ByteBuf releasedByteBuf;
     @Getter
     private int conversionCount;
@@ -49,7 +50,7 @@ public class DecodeResult {
         return get(records, null, 0, 0L);
     }
 
-    public static DecodeResult get(MemoryRecords records,
+    public static DecodeResult get(Records records,
                                    ByteBuf releasedByteBuf,
                                    int conversionCount,
                                    long conversionTimeNanos) {
@@ -87,10 +88,20 @@ public class DecodeResult {
         if (releasedByteBuf != null) {
             return releasedByteBuf;
         } else {
-            return Unpooled.wrappedBuffer(records.buffer());
+            // Only MemoryRecords could be created without the released ByteBuf
+            return Unpooled.wrappedBuffer(((MemoryRecords) records).buffer());
         }
     }
 
+    /**
+     * Take the ownership of the ByteBuf, after that {@link DecodeResult#recycle()} won't release it.
+     */
+    public @NonNull ByteBuf takeByteBuf() {
+        final ByteBuf byteBuf = getOrCreateByteBuf();
+        releasedByteBuf = null;
+        return byteBuf;
+    }
+
     public void updateConsumerStats(final TopicPartition topicPartition,
                                     int entrySize,
                                     final String groupId,
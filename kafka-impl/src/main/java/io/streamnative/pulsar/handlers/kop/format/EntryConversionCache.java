@@ -0,0 +1,137 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.format;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.ENTRY_CONVERSION_CACHE_BYTES;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.ENTRY_CONVERSION_CACHE_HITS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.ENTRY_CONVERSION_CACHE_MISSES;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+
+/**
+ * The broker level cache of the converted records of entries, which is shared by all partitions and connections.
+ *
+ * <p>Each entry is keyed by the ledger id, the entry id and the magic value that the records are converted to. The
+ * records are stored in unpooled direct buffers, the least recently used entries are evicted when the total size
+ * exceeds the max bytes.
+ */
+public class EntryConversionCache {
+
+    private final Cache<Key, ByteBuf> cache;
+    private final AtomicLong sizeInBytes = new AtomicLong(0L);
+    private final Counter hits;
+    private final Counter misses;
+
+    public EntryConversionCache(long maxBytes, StatsLogger statsLogger) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, ByteBuf value) -> value.readableBytes())
+                .removalListener(this::onRemoval)
+                .build();
+        this.hits = statsLogger.getCounter(ENTRY_CONVERSION_CACHE_HITS);
+        this.misses = statsLogger.getCounter(ENTRY_CONVERSION_CACHE_MISSES);
+        statsLogger.registerGauge(ENTRY_CONVERSION_CACHE_BYTES, new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return sizeInBytes.get();
+            }
+        });
+    }
+
+    /**
+     * Get the cached records of an entry.
+     *
+     * @return a retained duplicate of the cached records, which should be released by the caller, or null if the
+     *   records are not cached
+     */
+    public ByteBuf get(long ledgerId, long entryId, byte magic) {
+        final ByteBuf records = cache.getIfPresent(new Key(ledgerId, entryId, magic));
+        if (records != null) {
+            try {
+                final ByteBuf duplicate = records.retainedDuplicate();
+                hits.inc();
+                return duplicate;
+            } catch (IllegalReferenceCountException ignored) {
+                // The records have been evicted and released concurrently
+            }
+        }
+        misses.inc();
+        return null;
+    }
+
+    /**
+     * Cache a copy of the converted records of an entry.
+     */
+    public void put(long ledgerId, long entryId, byte magic, ByteBuffer records) {
+        final ByteBuf copy = Unpooled.directBuffer(records.remaining());
+        copy.writeBytes(records.duplicate());
+        put(new Key(ledgerId, entryId, magic), copy);
+    }
+
+    /**
+     * Cache a copy of the converted records of an entry, the reader index of the records is not changed.
+     */
+    public void put(long ledgerId, long entryId, byte magic, ByteBuf records) {
+        final ByteBuf copy = Unpooled.directBuffer(records.readableBytes());
+        copy.writeBytes(records, records.readerIndex(), records.readableBytes());
+        put(new Key(ledgerId, entryId, magic), copy);
+    }
+
+    private void put(Key key, ByteBuf copy) {
+        sizeInBytes.addAndGet(copy.readableBytes());
+        cache.put(key, copy);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    private void onRemoval(RemovalNotification<Key, ByteBuf> notification) {
+        final ByteBuf records = notification.getValue();
+        if (records != null) {
+            sizeInBytes.addAndGet(-records.readableBytes());
+            records.release();
+        }
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class Key {
+
+        private final long ledgerId;
+        private final long entryId;
+        private final byte magic;
+    }
+}
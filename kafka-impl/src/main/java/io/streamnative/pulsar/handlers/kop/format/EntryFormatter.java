@@ -15,8 +15,8 @@ package io.streamnative.pulsar.handlers.kop.format;
 
 import java.util.List;
 import org.apache.bookkeeper.mledger.Entry;
-import org.apache.kafka.common.record.MemoryRecords;
-import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.Records;
 
 /**
  * The formatter for conversion between Kafka records and Bookie entries.
@@ -42,17 +42,17 @@ public interface EntryFormatter {
     DecodeResult decode(List<Entry> entries, byte magic);
 
     /**
-     * Get the number of messages from MemoryRecords.
-     * Since MemoryRecords doesn't provide a way to get the number of messages. We need to iterate over the whole
+     * Get the number of messages from Records.
+     * Since Records doesn't provide a way to get the number of messages. We need to iterate over the whole
      * MemoryRecords object. So we use a helper method to get the number of messages that can be passed to
      * {@link EntryFormatter#encode(EncodeRequest)} and metrics related methods as well.
      *
      * @param records messages with Kafka's format
      * @return the number of messages
      */
-    static int parseNumMessages(final MemoryRecords records) {
+    static int parseNumMessages(final Records records) {
         int numMessages = 0;
-        for (MutableRecordBatch batch : records.batches()) {
+        for (RecordBatch batch : records.batches()) {
             numMessages += (batch.lastOffset() - batch.baseOffset() + 1);
         }
         return numMessages;
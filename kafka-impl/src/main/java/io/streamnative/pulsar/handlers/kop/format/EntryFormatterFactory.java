@@ -17,6 +17,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
 import org.apache.pulsar.broker.service.plugin.EntryFilterWithClassLoader;
+import org.apache.pulsar.client.api.CompressionType;
 
 /**
  * Factory of EntryFormatter.
@@ -34,19 +35,37 @@ public class EntryFormatterFactory {
     public static EntryFormatter create(final KafkaServiceConfiguration kafkaConfig,
                                         final ImmutableMap<String, EntryFilterWithClassLoader> entryfilterMap,
                                         final String format) {
+        return create(kafkaConfig, entryfilterMap, format, null, null);
+    }
+
+    /**
+     * Create the EntryFormatter.
+     *
+     * @param downConversionCache the broker level cache of the down-converted records, it could be null
+     * @param pulsarDecodeCache the broker level cache of the records decoded from Pulsar entries, it could be null
+     */
+    public static EntryFormatter create(final KafkaServiceConfiguration kafkaConfig,
+                                        final ImmutableMap<String, EntryFilterWithClassLoader> entryfilterMap,
+                                        final String format,
+                                        final EntryConversionCache downConversionCache,
+                                        final EntryConversionCache pulsarDecodeCache) {
         try {
             EntryFormat entryFormat = Enum.valueOf(EntryFormat.class, format.toUpperCase());
 
             ImmutableList<EntryFilterWithClassLoader> entryfilters =
                     entryfilterMap == null ? ImmutableList.of() : entryfilterMap.values().asList();
+            final boolean zeroCopyDecode = kafkaConfig.isKopZeroCopyFetchEnabled();
 
             switch (entryFormat) {
                 case PULSAR:
-                    return new PulsarEntryFormatter(entryfilters);
+                    return new PulsarEntryFormatter(entryfilters, zeroCopyDecode, downConversionCache,
+                            pulsarDecodeCache, getPulsarEntryCompressionType(kafkaConfig));
                 case KAFKA:
-                    return new KafkaV1EntryFormatter(entryfilters);
+                    return new KafkaV1EntryFormatter(entryfilters, zeroCopyDecode, downConversionCache,
+                            pulsarDecodeCache);
                 case MIXED_KAFKA:
-                    return new KafkaMixedEntryFormatter(entryfilters);
+                    return new KafkaMixedEntryFormatter(entryfilters, zeroCopyDecode, downConversionCache,
+                            pulsarDecodeCache, kafkaConfig.isKafkaCompressedRecordsStrictValidation());
                 default:
                     throw new Exception("No EntryFormatter for " + entryFormat);
             }
@@ -54,4 +73,13 @@ public class EntryFormatterFactory {
             throw new IllegalArgumentException("Unsupported entry.format '" + format + "': " + e.getMessage());
         }
     }
+
+    private static CompressionType getPulsarEntryCompressionType(final KafkaServiceConfiguration kafkaConfig) {
+        final String compressionType = kafkaConfig.getKopPulsarEntryCompressionType();
+        try {
+            return CompressionType.valueOf(compressionType.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported kopPulsarEntryCompressionType '" + compressionType + "'");
+        }
+    }
 }
@@ -37,8 +37,16 @@ import org.apache.pulsar.common.protocol.Commands;
 @Slf4j
 public class KafkaMixedEntryFormatter extends AbstractEntryFormatter {
 
-    protected KafkaMixedEntryFormatter(ImmutableList<EntryFilterWithClassLoader> entryfilters) {
-        super(entryfilters);
+    // Whether to validate each record of a compressed batch even if only the offsets need to be assigned
+    private final boolean strictValidation;
+
+    protected KafkaMixedEntryFormatter(ImmutableList<EntryFilterWithClassLoader> entryfilters,
+                                       boolean zeroCopyDecode,
+                                       EntryConversionCache downConversionCache,
+                                       EntryConversionCache pulsarDecodeCache,
+                                       boolean strictValidation) {
+        super(entryfilters, zeroCopyDecode, downConversionCache, pulsarDecodeCache);
+        this.strictValidation = strictValidation;
     }
 
     @Override
@@ -60,7 +68,8 @@ public class KafkaMixedEntryFormatter extends AbstractEntryFormatter {
                         false,
                         RecordBatch.MAGIC_VALUE_V2,
                         TimestampType.CREATE_TIME,
-                        Long.MAX_VALUE);
+                        Long.MAX_VALUE,
+                        strictValidation);
 
         MemoryRecords validRecords = validationAndOffsetAssignResult.getRecords();
         int conversionCount = validationAndOffsetAssignResult.getConversionCount();
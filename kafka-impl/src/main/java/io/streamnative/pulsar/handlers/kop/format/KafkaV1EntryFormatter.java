@@ -32,8 +32,11 @@ import org.apache.pulsar.common.protocol.Commands;
 @Slf4j
 public class KafkaV1EntryFormatter extends AbstractEntryFormatter {
 
-    protected KafkaV1EntryFormatter(ImmutableList<EntryFilterWithClassLoader> entryfilters) {
-        super(entryfilters);
+    protected KafkaV1EntryFormatter(ImmutableList<EntryFilterWithClassLoader> entryfilters,
+                                    boolean zeroCopyDecode,
+                                    EntryConversionCache downConversionCache,
+                                    EntryConversionCache pulsarDecodeCache) {
+        super(entryfilters, zeroCopyDecode, downConversionCache, pulsarDecodeCache);
     }
 
     @Override
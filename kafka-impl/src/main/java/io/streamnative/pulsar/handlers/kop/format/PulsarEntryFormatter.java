@@ -16,11 +16,11 @@ package io.streamnative.pulsar.handlers.kop.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import io.netty.buffer.ByteBuf;
-import io.streamnative.pulsar.handlers.kop.utils.PulsarMessageBuilder;
+import io.netty.util.concurrent.FastThreadLocal;
+import java.nio.ByteBuffer;
+import java.util.Base64;
 import java.util.List;
-import java.util.stream.StreamSupport;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.mledger.Entry;
@@ -28,11 +28,14 @@ import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.record.ControlRecordType;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
 import org.apache.pulsar.broker.service.plugin.EntryFilterWithClassLoader;
-import org.apache.pulsar.client.impl.MessageImpl;
+import org.apache.pulsar.client.api.CompressionType;
 import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
 import org.apache.pulsar.common.api.proto.MarkerType;
 import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.apache.pulsar.common.compression.CompressionCodecProvider;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.protocol.Commands.ChecksumType;
 
@@ -46,68 +49,68 @@ public class PulsarEntryFormatter extends AbstractEntryFormatter {
     private static final int INITIAL_BATCH_BUFFER_SIZE = 1024;
     private static final int MAX_MESSAGE_BATCH_SIZE_BYTES = 128 * 1024;
 
-    protected PulsarEntryFormatter(ImmutableList<EntryFilterWithClassLoader> entryfilters) {
-        super(entryfilters);
+    private static final FastThreadLocal<SingleMessageMetadata> LOCAL_SINGLE_MESSAGE_METADATA =
+            new FastThreadLocal<SingleMessageMetadata>() {
+                @Override
+                protected SingleMessageMetadata initialValue() {
+                    return new SingleMessageMetadata();
+                }
+            };
+
+    // The compression type of the batch in each entry
+    private final CompressionType compressionType;
+
+    protected PulsarEntryFormatter(ImmutableList<EntryFilterWithClassLoader> entryfilters,
+                                   boolean zeroCopyDecode,
+                                   EntryConversionCache downConversionCache,
+                                   EntryConversionCache pulsarDecodeCache,
+                                   CompressionType compressionType) {
+        super(entryfilters, zeroCopyDecode, downConversionCache, pulsarDecodeCache);
+        this.compressionType = compressionType;
     }
 
     @Override
     public EncodeResult encode(final EncodeRequest encodeRequest) {
         final MemoryRecords records = encodeRequest.getRecords();
         final int numMessages = encodeRequest.getAppendInfo().numMessages();
-        long currentBatchSizeBytes = 0;
         int numMessagesInBatch = 0;
         long startConversionNanos = MathUtils.nowInNano();
 
-        long sequenceId = -1;
-
         ByteBuf batchedMessageMetadataAndPayload = PulsarByteBufAllocator.DEFAULT
                 .buffer(Math.min(INITIAL_BATCH_BUFFER_SIZE, MAX_MESSAGE_BATCH_SIZE_BYTES));
-        List<MessageImpl<byte[]>> messages = Lists.newArrayListWithExpectedSize(numMessages);
         final MessageMetadata msgMetadata = new MessageMetadata();
+        final SingleMessageMetadata singleMessageMetadata = LOCAL_SINGLE_MESSAGE_METADATA.get();
 
-        records.batches().forEach(recordBatch -> {
-            boolean controlBatch = recordBatch.isControlBatch();
-            StreamSupport.stream(recordBatch.spliterator(), true).forEachOrdered(record -> {
-                MessageImpl<byte[]> message = recordToEntry(record);
-                messages.add(message);
-                if (recordBatch.isTransactional()) {
-                    msgMetadata.setTxnidMostBits(recordBatch.producerId());
-                    msgMetadata.setTxnidLeastBits(recordBatch.producerEpoch());
+        for (RecordBatch recordBatch : records.batches()) {
+            if (recordBatch.isTransactional()) {
+                msgMetadata.setTxnidMostBits(recordBatch.producerId());
+                msgMetadata.setTxnidLeastBits(recordBatch.producerEpoch());
+            }
+            for (Record record : recordBatch) {
+                if (recordBatch.isControlBatch()) {
+                    msgMetadata.setMarkerType(getMarkerType(ControlRecordType.parse(record.key())));
                 }
-                if (controlBatch) {
-                    ControlRecordType controlRecordType = ControlRecordType.parse(record.key());
-                    switch (controlRecordType) {
-                        case ABORT:
-                            msgMetadata.setMarkerType(MarkerType.TXN_ABORT_VALUE);
-                            break;
-                        case COMMIT:
-                            msgMetadata.setMarkerType(MarkerType.TXN_COMMIT_VALUE);
-                            break;
-                        default:
-                            msgMetadata.setMarkerType(MarkerType.UNKNOWN_MARKER_VALUE);
-                            break;
-                    }
+                // The record is serialized into the batch buffer directly without any intermediate message
+                appendRecord(record, singleMessageMetadata, batchedMessageMetadataAndPayload);
+                if (++numMessagesInBatch == 1) {
+                    initBatchMessageMetadata(msgMetadata, record, singleMessageMetadata);
                 }
-            });
-        });
-
-        for (MessageImpl<byte[]> message : messages) {
-            if (++numMessagesInBatch == 1) {
-                // msgMetadata will set publish time here
-                sequenceId = Commands.initBatchMessageMetadata(msgMetadata, message.getMessageBuilder());
-            }
-            currentBatchSizeBytes += message.getDataBuffer().readableBytes();
-            if (log.isTraceEnabled()) {
-                log.trace("recordsToByteBuf , sequenceId: {}, numMessagesInBatch: {}, currentBatchSizeBytes: {} ",
-                        sequenceId, numMessagesInBatch, currentBatchSizeBytes);
             }
-
-            final MessageMetadata msgBuilder = message.getMessageBuilder();
-            batchedMessageMetadataAndPayload = Commands.serializeSingleMessageInBatchWithPayload(msgBuilder,
-                    message.getDataBuffer(), batchedMessageMetadataAndPayload);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("recordsToByteBuf , sequenceId: {}, numMessagesInBatch: {}, batchSizeBytes: {} ",
+                    msgMetadata.getSequenceId(), numMessagesInBatch, batchedMessageMetadataAndPayload.readableBytes());
         }
 
         msgMetadata.setNumMessagesInBatch(numMessagesInBatch);
+        if (compressionType != CompressionType.NONE) {
+            msgMetadata.setCompression(CompressionCodecProvider.convertToWireProtocol(compressionType));
+            msgMetadata.setUncompressedSize(batchedMessageMetadataAndPayload.readableBytes());
+            final ByteBuf compressedPayload = CompressionCodecProvider.getCompressionCodec(compressionType)
+                    .encode(batchedMessageMetadataAndPayload);
+            batchedMessageMetadataAndPayload.release();
+            batchedMessageMetadataAndPayload = compressedPayload;
+        }
 
         ByteBuf buf = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c,
                 msgMetadata,
@@ -124,55 +127,78 @@ public class PulsarEntryFormatter extends AbstractEntryFormatter {
         return super.decode(entries, magic);
     }
 
-    // convert kafka Record to Pulsar Message.
-    // convert kafka Record to Pulsar Message.
+    // convert kafka Record to a single message of Pulsar's batch.
     // called when publish received Kafka Record into Pulsar.
-    private static MessageImpl<byte[]> recordToEntry(Record record) {
-
-        PulsarMessageBuilder builder = PulsarMessageBuilder.newBuilder();
+    private static void appendRecord(final Record record,
+                                     final SingleMessageMetadata singleMessageMetadata,
+                                     final ByteBuf batchBuffer) {
+        singleMessageMetadata.clear();
 
         // key
         if (record.hasKey()) {
-            byte[] key = new byte[record.keySize()];
+            final byte[] key = new byte[record.keySize()];
             record.key().get(key);
-            builder.keyBytes(key);
+            singleMessageMetadata.setPartitionKey(Base64.getEncoder().encodeToString(key));
+            singleMessageMetadata.setPartitionKeyB64Encoded(true);
             // reuse ordering key to avoid converting string < > bytes
-            builder.orderingKey(key);
+            singleMessageMetadata.setOrderingKey(key);
         }
 
-        // value
-        if (record.hasValue()) {
-            byte[] value = new byte[record.valueSize()];
-            record.value().get(value);
-            builder.value(value);
-        } else {
-            builder.value(null);
+        // header
+        for (Header h : record.headers()) {
+            singleMessageMetadata.addProperty()
+                    .setKey(h.key())
+                    .setValue(new String(h.value(), UTF_8));
         }
 
-        // Following fields are required in `Commands.initBatchMessageMetadata`, but since we write to
-        // bookie directly, broker won't make use of them. So here we just set trivial values.
-        builder.getMetadataBuilder().setProducerName("");
-        if (record.sequence() >= 0) {
-            builder.sequenceId(record.sequence());
-        } else {
-            builder.sequenceId(0L);
+        // timestamp
+        if (record.timestamp() > 0) {
+            singleMessageMetadata.setEventTime(record.timestamp());
         }
+        singleMessageMetadata.setSequenceId(Math.max(record.sequence(), 0L));
 
-        // timestamp
-        if (record.timestamp() >= 0) {
-            builder.eventTime(record.timestamp());
-            builder.getMetadataBuilder().setPublishTime(record.timestamp());
-        } else {
-            builder.getMetadataBuilder().setPublishTime(System.currentTimeMillis());
+        // value, which is written from the record's buffer without copying it into an array
+        final ByteBuffer value = record.hasValue() ? record.value() : null;
+        if (value == null) {
+            singleMessageMetadata.setNullValue(true);
         }
+        singleMessageMetadata.setPayloadSize((value != null) ? value.remaining() : 0);
+        batchBuffer.writeInt(singleMessageMetadata.getSerializedSize());
+        singleMessageMetadata.writeTo(batchBuffer);
+        if (value != null) {
+            batchBuffer.writeBytes(value);
+        }
+    }
 
-        // header
-        for (Header h : record.headers()) {
-            builder.property(h.key(),
-                    new String(h.value(), UTF_8));
+    // The same as `Commands.initBatchMessageMetadata` with the first message of the batch
+    private static void initBatchMessageMetadata(final MessageMetadata msgMetadata,
+                                                 final Record firstRecord,
+                                                 final SingleMessageMetadata firstMessageMetadata) {
+        // Following fields are required, but since we write to bookie directly, broker won't make use of them.
+        // So here we just set trivial values.
+        msgMetadata.setProducerName("");
+        msgMetadata.setSequenceId(firstMessageMetadata.getSequenceId());
+        msgMetadata.setPublishTime((firstRecord.timestamp() >= 0)
+                ? firstRecord.timestamp()
+                : System.currentTimeMillis());
+        if (firstMessageMetadata.hasPartitionKey()) {
+            msgMetadata.setPartitionKey(firstMessageMetadata.getPartitionKey());
+            msgMetadata.setPartitionKeyB64Encoded(firstMessageMetadata.isPartitionKeyB64Encoded());
+        }
+        if (firstMessageMetadata.hasOrderingKey()) {
+            msgMetadata.setOrderingKey(firstMessageMetadata.getOrderingKey());
         }
+    }
 
-        return (MessageImpl<byte[]>) builder.getMessage();
+    private static int getMarkerType(final ControlRecordType controlRecordType) {
+        switch (controlRecordType) {
+            case ABORT:
+                return MarkerType.TXN_ABORT_VALUE;
+            case COMMIT:
+                return MarkerType.TXN_COMMIT_VALUE;
+            default:
+                return MarkerType.UNKNOWN_MARKER_VALUE;
+        }
     }
 
 }
@@ -0,0 +1,211 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.security.auth;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.AUTHORIZATION_CACHE_HITS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.AUTHORIZATION_CACHE_MISSES;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.streamnative.pulsar.handlers.kop.security.KafkaPrincipal;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.pulsar.broker.authentication.AuthenticationDataSource;
+import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.metadata.api.Notification;
+
+/**
+ * The broker level cache of the authorization decisions, which is shared by all connections.
+ *
+ * <p>Each decision is keyed by the principal, the action and the resource. The principal is identified by its role,
+ * its tenant spec and the digest of its credential, because the authorization provider could make different decisions
+ * for different credentials of the same role. So the connections that authenticate with the same credential share the
+ * decisions, while the cache doesn't keep the credentials or the connections' authentication data. The principal whose
+ * credential can't be identified is not cached. A decision expires after the TTL and is invalidated when the
+ * policies of its tenant or namespace, which include the permissions, are changed in the configuration metadata
+ * store. Only the successful decisions are cached.
+ */
+@Slf4j
+public class AuthorizationCache {
+
+    private static final String POLICIES_PATH_PREFIX = "/admin/policies/";
+    private static final String NO_CREDENTIAL = "";
+
+    private final Cache<Key, Boolean> cache;
+    // increased by each invalidation, a decision that is loaded across an invalidation is not cached
+    private final AtomicLong generation = new AtomicLong(0L);
+    private final Counter hits;
+    private final Counter misses;
+
+    public AuthorizationCache(long ttlMs, long maxSize, StatsLogger statsLogger) {
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(maxSize)
+                .build();
+        this.hits = statsLogger.getCounter(AUTHORIZATION_CACHE_HITS);
+        this.misses = statsLogger.getCounter(AUTHORIZATION_CACHE_MISSES);
+    }
+
+    /**
+     * Get the cached decision, or load it and cache it if it's not cached.
+     *
+     * @param principal the principal to authorize
+     * @param action the action to authorize, e.g. "produce"
+     * @param resource the resource to authorize
+     * @param loader the loader of the decision
+     * @return the future of the decision
+     */
+    public CompletableFuture<Boolean> get(KafkaPrincipal principal,
+                                          String action,
+                                          Resource resource,
+                                          Supplier<CompletableFuture<Boolean>> loader) {
+        final AuthenticationDataSource authData = principal.getAuthenticationData();
+        final String credentialId = (authData != null) ? credentialIdOf(authData) : NO_CREDENTIAL;
+        if (credentialId == null) {
+            misses.inc();
+            return loader.get();
+        }
+        return get(new Key(principal.getName(), principal.getTenantSpec(), credentialId, action, resource), loader);
+    }
+
+    /**
+     * Get the cached decision of a role without the tenant spec and the authentication data.
+     *
+     * @see #get(KafkaPrincipal, String, Resource, Supplier)
+     */
+    public CompletableFuture<Boolean> get(String role,
+                                          String action,
+                                          Resource resource,
+                                          Supplier<CompletableFuture<Boolean>> loader) {
+        return get(new Key(role, null, NO_CREDENTIAL, action, resource), loader);
+    }
+
+    private CompletableFuture<Boolean> get(Key key, Supplier<CompletableFuture<Boolean>> loader) {
+        final Boolean decision = cache.getIfPresent(key);
+        if (decision != null) {
+            hits.inc();
+            return CompletableFuture.completedFuture(decision);
+        }
+        misses.inc();
+        final long loadGeneration = generation.get();
+        return loader.get().thenApply(loadedDecision -> {
+            if (loadedDecision != null && generation.get() == loadGeneration) {
+                cache.put(key, loadedDecision);
+            }
+            return loadedDecision;
+        });
+    }
+
+    /**
+     * Invalidate the decisions whose resources belong to the tenant or the namespace of the changed policies.
+     */
+    public void onPolicyChanged(Notification notification) {
+        final String path = notification.getPath();
+        if (!path.startsWith(POLICIES_PATH_PREFIX)) {
+            return;
+        }
+        final String tenantOrNamespace = path.substring(POLICIES_PATH_PREFIX.length());
+        if (log.isDebugEnabled()) {
+            log.debug("Invalidate the authorization cache of {} for {}", tenantOrNamespace, notification.getType());
+        }
+        if (tenantOrNamespace.contains("/")) {
+            invalidate(key -> tenantOrNamespace.equals(key.namespace()));
+        } else {
+            invalidate(key -> tenantOrNamespace.equals(key.tenant()));
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    private void invalidate(Predicate<Key> predicate) {
+        generation.incrementAndGet();
+        cache.asMap().keySet().removeIf(predicate);
+    }
+
+    /**
+     * Get the stable identity of the credential in the authentication data, which is the authentication method and
+     * the SHA-256 digest of the credential.
+     *
+     * @return the identity, or null if the authentication data has neither the command data nor the TLS certificate
+     */
+    @VisibleForTesting
+    static String credentialIdOf(AuthenticationDataSource authData) {
+        if (authData.hasDataFromCommand() && authData.getCommandData() != null) {
+            return "command:" + Hashing.sha256().hashString(authData.getCommandData(), StandardCharsets.UTF_8);
+        }
+        if (authData.hasDataFromTls()) {
+            final Certificate[] certificates = authData.getTlsCertificates();
+            if (certificates != null && certificates.length > 0) {
+                try {
+                    return "tls:" + Hashing.sha256().hashBytes(certificates[0].getEncoded());
+                } catch (CertificateEncodingException e) {
+                    log.warn("Failed to encode the TLS certificate: {}", e.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    long size() {
+        return cache.size();
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class Key {
+
+        private final String role;
+        private final String tenantSpec;
+        private final String credentialId;
+        private final String action;
+        private final Resource resource;
+
+        String tenant() {
+            final String namespace = namespace();
+            return (namespace != null) ? namespace.substring(0, namespace.indexOf('/')) : resource.getName();
+        }
+
+        String namespace() {
+            switch (resource.getResourceType()) {
+                case TOPIC:
+                    try {
+                        return TopicName.get(resource.getName()).getNamespace();
+                    } catch (IllegalArgumentException e) {
+                        return null;
+                    }
+                case NAMESPACE:
+                    return resource.getName();
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.security.auth;
+
+import io.streamnative.pulsar.handlers.kop.security.KafkaPrincipal;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The authorizer that caches the decisions of another authorizer in the {@link AuthorizationCache}.
+ */
+public class CachedAuthorizer implements Authorizer {
+
+    private final Authorizer authorizer;
+    private final AuthorizationCache cache;
+
+    public CachedAuthorizer(Authorizer authorizer, AuthorizationCache cache) {
+        this.authorizer = authorizer;
+        this.cache = cache;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> canLookupAsync(KafkaPrincipal principal, Resource resource) {
+        return cache.get(principal, "lookup", resource,
+                () -> authorizer.canLookupAsync(principal, resource));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> canGetTopicList(KafkaPrincipal principal, Resource resource) {
+        return cache.get(principal, "getTopicList", resource,
+                () -> authorizer.canGetTopicList(principal, resource));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> canAccessTenantAsync(KafkaPrincipal principal, Resource resource) {
+        return cache.get(principal, "accessTenant", resource,
+                () -> authorizer.canAccessTenantAsync(principal, resource));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> canCreateTopicAsync(KafkaPrincipal principal, Resource resource) {
+        return cache.get(principal, "createTopic", resource,
+                () -> authorizer.canCreateTopicAsync(principal, resource));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> canDeleteTopicAsync(KafkaPrincipal principal, Resource resource) {
+        return cache.get(principal, "deleteTopic", resource,
+                () -> authorizer.canDeleteTopicAsync(principal, resource));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> canAlterTopicAsync(KafkaPrincipal principal, Resource resource) {
+        return cache.get(principal, "alterTopic", resource,
+                () -> authorizer.canAlterTopicAsync(principal, resource));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> canManageTenantAsync(KafkaPrincipal principal, Resource resource) {
+        return cache.get(principal, "manageTenant", resource,
+                () -> authorizer.canManageTenantAsync(principal, resource));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> canProduceAsync(KafkaPrincipal principal, Resource resource) {
+        return cache.get(principal, "produce", resource,
+                () -> authorizer.canProduceAsync(principal, resource));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> canConsumeAsync(KafkaPrincipal principal, Resource resource) {
+        return cache.get(principal, "consume", resource,
+                () -> authorizer.canConsumeAsync(principal, resource));
+    }
+}
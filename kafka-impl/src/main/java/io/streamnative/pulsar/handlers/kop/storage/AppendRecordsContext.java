@@ -18,9 +18,14 @@ import io.netty.util.Recycler;
 import io.streamnative.pulsar.handlers.kop.KafkaTopicManager;
 import io.streamnative.pulsar.handlers.kop.PendingTopicFutures;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import lombok.Getter;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.Producer;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 
 /**
  * AppendRecordsContext is use for pass parameters to ReplicaManager, to avoid long parameter lists.
@@ -39,6 +44,8 @@ public class AppendRecordsContext {
     private Consumer<Integer> completeSendOperationForThrottling;
     private Map<TopicPartition, PendingTopicFutures> pendingTopicFuturesMap;
     private ChannelHandlerContext ctx;
+    // Only set for the appends of the broker itself, whose topic manager is null
+    private BrokerService brokerService;
 
     private AppendRecordsContext(Recycler.Handle<AppendRecordsContext> recyclerHandle) {
         this.recyclerHandle = recyclerHandle;
@@ -60,11 +67,42 @@ public class AppendRecordsContext {
         return context;
     }
 
+    /**
+     * Get the context of the appends that are issued by the broker itself instead of a connection, e.g. the
+     * transaction markers of the partitions owned by this broker. The topics are only resolved from the topics loaded
+     * by the broker and the appends are not throttled.
+     */
+    public static AppendRecordsContext getForBroker(
+            final BrokerService brokerService,
+            final Map<TopicPartition, PendingTopicFutures> pendingTopicFuturesMap) {
+        AppendRecordsContext context = get(null, __ -> {}, __ -> {}, pendingTopicFuturesMap, null);
+        context.brokerService = brokerService;
+        return context;
+    }
+
+    public CompletableFuture<Optional<PersistentTopic>> getTopic(String fullPartitionName) {
+        if (topicManager != null) {
+            return topicManager.getTopic(fullPartitionName);
+        }
+        return CompletableFuture.completedFuture(brokerService.getTopicReference(fullPartitionName)
+                .filter(topic -> topic instanceof PersistentTopic)
+                .map(topic -> (PersistentTopic) topic));
+    }
+
+    public Optional<Producer> registerProducerInPersistentTopic(String fullPartitionName,
+                                                                PersistentTopic persistentTopic) {
+        if (topicManager != null) {
+            return topicManager.registerProducerInPersistentTopic(fullPartitionName, persistentTopic);
+        }
+        return Optional.empty();
+    }
+
     public void recycle() {
         topicManager = null;
         startSendOperationForThrottling = null;
         completeSendOperationForThrottling = null;
         pendingTopicFuturesMap = null;
+        brokerService = null;
         recyclerHandle.recycle(this);
         ctx = null;
     }
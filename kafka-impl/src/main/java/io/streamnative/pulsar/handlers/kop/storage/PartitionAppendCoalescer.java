@@ -0,0 +1,124 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import io.streamnative.pulsar.handlers.kop.format.EntryFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.pulsar.broker.service.Producer;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+
+/**
+ * Coalesce the appends of a partition so that they can be published as a single entry.
+ *
+ * The appends are buffered until the delay since the first buffered append expires or the total size of the buffered
+ * appends reaches the max bytes, then they are passed to the publisher in the same order they were added.
+ */
+@Slf4j
+class PartitionAppendCoalescer {
+
+    @AllArgsConstructor
+    @Getter
+    static class PendingAppend {
+        private final PersistentTopic persistentTopic;
+        private final EntryFormatter entryFormatter;
+        private final Optional<Producer> producer;
+        private final MemoryRecords records;
+        private final PartitionLog.LogAppendInfo appendInfo;
+        private final CompletableFuture<Long> appendFuture;
+        // It's captured when the append is added because the AppendRecordsContext might be recycled before publishing
+        private final Consumer<Integer> completeSendOperationForThrottling;
+    }
+
+    private final String fullPartitionName;
+    private final long delayMs;
+    private final int maxBytes;
+    private final Consumer<List<PendingAppend>> publisher;
+    private List<PendingAppend> pendingAppends = new ArrayList<>();
+    private int pendingBytes = 0;
+    private ScheduledFuture<?> flushTask = null;
+
+    PartitionAppendCoalescer(final String fullPartitionName,
+                             final long delayMs,
+                             final int maxBytes,
+                             final Consumer<List<PendingAppend>> publisher) {
+        this.fullPartitionName = fullPartitionName;
+        this.delayMs = delayMs;
+        this.maxBytes = maxBytes;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Add an append to the buffer.
+     *
+     * @param pendingAppend the append to add
+     * @param executor the executor to schedule the flush after the delay
+     */
+    synchronized void add(final PendingAppend pendingAppend, final ScheduledExecutorService executor) {
+        final int size = pendingAppend.getRecords().sizeInBytes();
+        if (!pendingAppends.isEmpty() && (pendingBytes + size > maxBytes || !isCompatible(pendingAppend))) {
+            flush();
+        }
+        pendingAppends.add(pendingAppend);
+        pendingBytes += size;
+        if (pendingBytes >= maxBytes) {
+            flush();
+        } else if (flushTask == null) {
+            flushTask = executor.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Pass all buffered appends to the publisher.
+     */
+    synchronized void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (pendingAppends.isEmpty()) {
+            return;
+        }
+        final List<PendingAppend> appends = pendingAppends;
+        pendingAppends = new ArrayList<>();
+        pendingBytes = 0;
+        try {
+            publisher.accept(appends);
+        } catch (Throwable throwable) {
+            log.error("[{}] Failed to publish {} coalesced appends", fullPartitionName, appends.size(), throwable);
+            appends.forEach(append -> append.getAppendFuture().completeExceptionally(throwable));
+        }
+    }
+
+    // The appends of a single entry must be published to the same topic with the same entry format
+    private boolean isCompatible(final PendingAppend pendingAppend) {
+        final PendingAppend firstAppend = pendingAppends.get(0);
+        return firstAppend.getPersistentTopic() == pendingAppend.getPersistentTopic()
+                && firstAppend.getEntryFormatter() == pendingAppend.getEntryFormatter();
+    }
+
+    synchronized int numPendingAppends() {
+        return pendingAppends.size();
+    }
+}
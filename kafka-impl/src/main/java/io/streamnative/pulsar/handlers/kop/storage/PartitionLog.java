@@ -27,23 +27,31 @@ import io.streamnative.pulsar.handlers.kop.MessagePublishContext;
 import io.streamnative.pulsar.handlers.kop.PendingTopicFutures;
 import io.streamnative.pulsar.handlers.kop.RequestStats;
 import io.streamnative.pulsar.handlers.kop.exceptions.MetadataCorruptedException;
+import io.streamnative.pulsar.handlers.kop.format.AbstractEntryFormatter;
 import io.streamnative.pulsar.handlers.kop.format.DecodeResult;
 import io.streamnative.pulsar.handlers.kop.format.EncodeRequest;
 import io.streamnative.pulsar.handlers.kop.format.EncodeResult;
+import io.streamnative.pulsar.handlers.kop.format.EntryConversionCache;
 import io.streamnative.pulsar.handlers.kop.format.EntryFormatter;
 import io.streamnative.pulsar.handlers.kop.format.EntryFormatterFactory;
 import io.streamnative.pulsar.handlers.kop.format.KafkaMixedEntryFormatter;
+import io.streamnative.pulsar.handlers.kop.format.KafkaV1EntryFormatter;
+import io.streamnative.pulsar.handlers.kop.utils.ByteBufUtils;
 import io.streamnative.pulsar.handlers.kop.utils.KopLogValidator;
 import io.streamnative.pulsar.handlers.kop.utils.MessageMetadataUtils;
+import io.streamnative.pulsar.handlers.kop.utils.OffsetFinder;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.StringJoiner;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -77,9 +85,11 @@ import org.apache.kafka.common.record.Records;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchResponse;
 import org.apache.kafka.common.utils.Time;
+import org.apache.pulsar.broker.service.Producer;
 import org.apache.pulsar.broker.service.Topic;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.broker.service.plugin.EntryFilterWithClassLoader;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
 import org.apache.pulsar.common.naming.TopicName;
 
 /**
@@ -100,6 +110,7 @@ class AnalyzeResult {
 public class PartitionLog {
 
     private static final String PID_PREFIX = "KOP-PID-PREFIX";
+    private static final int PRODUCER_STATE_RECOVERY_BATCH_SIZE = 100;
 
     private static final KopLogValidator.CompressionCodec DEFAULT_COMPRESSION =
             new KopLogValidator.CompressionCodec(CompressionType.NONE.name, CompressionType.NONE.id);
@@ -111,9 +122,22 @@ public class PartitionLog {
     private final String fullPartitionName;
     private final AtomicReference<CompletableFuture<EntryFormatter>> entryFormatter = new AtomicReference<>();
     private final ProducerStateManager producerStateManager;
+    private final AtomicReference<PartitionOffsetIndex> offsetIndex = new AtomicReference<>();
+    // The managed ledger whose producer state is recovered and the future of the recovery
+    private volatile Pair<ManagedLedger, CompletableFuture<Void>> producerStateRecovery = null;
+    private final AtomicBoolean persistingProducerState = new AtomicBoolean(false);
+    private volatile long lastProducerStateSnapshotMs = 0L;
+    // The first ledger of the managed ledger when the aborted transactions were truncated last time
+    private volatile long abortedTxnsTruncatedLedgerId = -1L;
 
     private final ImmutableMap<String, EntryFilterWithClassLoader> entryfilterMap;
     private final boolean preciseTopicPublishRateLimitingEnable;
+    // It's null if the coalescing of appends is disabled
+    private final PartitionAppendCoalescer appendCoalescer;
+    // The broker level cache of the down-converted records, it's null if it's disabled
+    private final EntryConversionCache downConversionCache;
+    // The broker level cache of the records decoded from Pulsar entries, it's null if it's disabled
+    private final EntryConversionCache pulsarDecodeCache;
 
     public PartitionLog(KafkaServiceConfiguration kafkaConfig,
                         RequestStats requestStats,
@@ -122,6 +146,19 @@ public class PartitionLog {
                         String fullPartitionName,
                         ImmutableMap<String, EntryFilterWithClassLoader> entryfilterMap,
                         ProducerStateManager producerStateManager) {
+        this(kafkaConfig, requestStats, time, topicPartition, fullPartitionName, entryfilterMap, producerStateManager,
+                null, null);
+    }
+
+    public PartitionLog(KafkaServiceConfiguration kafkaConfig,
+                        RequestStats requestStats,
+                        Time time,
+                        TopicPartition topicPartition,
+                        String fullPartitionName,
+                        ImmutableMap<String, EntryFilterWithClassLoader> entryfilterMap,
+                        ProducerStateManager producerStateManager,
+                        EntryConversionCache downConversionCache,
+                        EntryConversionCache pulsarDecodeCache) {
         this.kafkaConfig = kafkaConfig;
         this.entryfilterMap = entryfilterMap;
         this.requestStats = requestStats;
@@ -129,7 +166,31 @@ public class PartitionLog {
         this.topicPartition = topicPartition;
         this.fullPartitionName = fullPartitionName;
         this.producerStateManager = producerStateManager;
+        this.downConversionCache = downConversionCache;
+        this.pulsarDecodeCache = pulsarDecodeCache;
         this.preciseTopicPublishRateLimitingEnable = kafkaConfig.isPreciseTopicPublishRateLimiterEnable();
+        this.appendCoalescer = (kafkaConfig.getKopAppendCoalesceDelayMs() > 0)
+                ? new PartitionAppendCoalescer(fullPartitionName, kafkaConfig.getKopAppendCoalesceDelayMs(),
+                        kafkaConfig.getKopAppendCoalesceMaxBytes(), this::publishCoalescedAppends)
+                : null;
+    }
+
+    /**
+     * Get the sparse offset index of the managed ledger.
+     *
+     * @return null if the offset index is disabled
+     */
+    public PartitionOffsetIndex getOffsetIndex(final ManagedLedger managedLedger) {
+        final int indexIntervalBytes = kafkaConfig.getKopOffsetIndexIntervalBytes();
+        if (indexIntervalBytes <= 0) {
+            return null;
+        }
+        // The managed ledger could be changed after the topic is reloaded
+        return offsetIndex.updateAndGet(current -> (current != null && current.getManagedLedger() == managedLedger)
+                ? current
+                : new PartitionOffsetIndex((ManagedLedgerImpl) managedLedger, indexIntervalBytes,
+                        kafkaConfig.getKopOffsetIndexMaxEntries(), kafkaConfig.getKopOffsetIndexMaxPersistedEntries(),
+                        kafkaConfig.getKopOffsetIndexPersistIntervalMs()));
     }
 
     private CompletableFuture<EntryFormatter> getEntryFormatter(
@@ -183,7 +244,8 @@ public class PartitionLog {
             log.debug("entryFormat for {} is {} (topicProperties {})", fullPartitionName,
                     entryFormat, topicProperties);
         }
-        return EntryFormatterFactory.create(kafkaConfig, entryfilterMap, entryFormat);
+        return EntryFormatterFactory.create(kafkaConfig, entryfilterMap, entryFormat, downConversionCache,
+                pulsarDecodeCache);
     }
 
     @Data
@@ -363,6 +425,10 @@ public class PartitionLog {
         return producerStateManager.getAbortedIndexList(fetchOffset);
     }
 
+    public List<FetchResponse.AbortedTransaction> getAbortedIndexList(long fetchOffset, long upperBoundOffset) {
+        return producerStateManager.getAbortedIndexList(fetchOffset, upperBoundOffset);
+    }
+
     /**
      * Append this message to pulsar.
      *
@@ -374,7 +440,6 @@ public class PartitionLog {
                                                  final AppendOrigin origin,
                                                  final AppendRecordsContext appendRecordsContext) {
         CompletableFuture<Long> appendFuture = new CompletableFuture<>();
-        KafkaTopicManager topicManager = appendRecordsContext.getTopicManager();
         final long beforeRecordsProcess = time.nanoseconds();
         try {
             final LogAppendInfo appendInfo = analyzeAndValidateRecords(records);
@@ -388,7 +453,7 @@ public class PartitionLog {
 
             // Append Message into pulsar
             final CompletableFuture<Optional<PersistentTopic>> topicFuture =
-                    topicManager.getTopic(fullPartitionName);
+                    appendRecordsContext.getTopic(fullPartitionName);
             if (topicFuture.isCompletedExceptionally()) {
                 topicFuture.exceptionally(e -> {
                     appendFuture.completeExceptionally(e);
@@ -402,6 +467,9 @@ public class PartitionLog {
             }
 
             CompletableFuture<EntryFormatter> entryFormatterHandle = getEntryFormatter(topicFuture);
+            // The producer state must be recovered before the first append after the partition is loaded
+            final CompletableFuture<Optional<PersistentTopic>> recoveredTopicFuture =
+                    topicFuture.thenCompose(this::recoverProducerState);
             final Consumer<Optional<PersistentTopic>> persistentTopicConsumer = persistentTopicOpt -> {
                 if (!persistentTopicOpt.isPresent()) {
                     appendFuture.completeExceptionally(Errors.NOT_LEADER_OR_FOLLOWER.exception());
@@ -418,11 +486,20 @@ public class PartitionLog {
                         final long logEndOffset = MessageMetadataUtils.getLogEndOffset(managedLedger);
                         appendInfo.firstOffset(Optional.of(logEndOffset));
                     }
-                    final EncodeRequest encodeRequest = EncodeRequest.get(validRecords, appendInfo);
-
                     requestStats.getPendingTopicLatencyStats().registerSuccessfulEvent(
                             time.nanoseconds() - beforeRecordsProcess, TimeUnit.NANOSECONDS);
 
+                    if (appendCoalescer != null) {
+                        if (canCoalesce(entryFormatter, validRecords, appendInfo)) {
+                            coalesceAppend(persistentTopicOpt.get(), entryFormatter, validRecords, appendInfo,
+                                    appendFuture, appendRecordsContext);
+                            return;
+                        }
+                        // The buffered appends must be published before this append to keep the order
+                        appendCoalescer.flush();
+                    }
+
+                    final EncodeRequest encodeRequest = EncodeRequest.get(validRecords, appendInfo);
                     long beforeEncodingStarts = time.nanoseconds();
                     final EncodeResult encodeResult = entryFormatter.encode(encodeRequest);
                     encodeRequest.recycle();
@@ -442,7 +519,7 @@ public class PartitionLog {
 
             appendRecordsContext.getPendingTopicFuturesMap()
                     .computeIfAbsent(topicPartition, ignored -> new PendingTopicFutures(requestStats))
-                    .addListener(topicFuture, persistentTopicConsumer, appendFuture::completeExceptionally);
+                    .addListener(recoveredTopicFuture, persistentTopicConsumer, appendFuture::completeExceptionally);
         } catch (Exception exception) {
             log.error("Failed to handle produce request for {}", topicPartition, exception);
             appendFuture.completeExceptionally(exception);
@@ -502,7 +579,8 @@ public class PartitionLog {
                 log.debug("Fetch for {}: remove tcm to get cursor for fetch offset: {} .", topicPartition, offset);
             }
 
-            final CompletableFuture<Pair<ManagedCursor, Long>> cursorFuture = tcm.removeCursorFuture(offset);
+            final CompletableFuture<Pair<ManagedCursor, Long>> cursorFuture =
+                    tcm.removeCursorFuture(offset, getOffsetIndex(tcm.getManagedLedger()));
 
             if (cursorFuture == null) {
                 // tcm is closed, just return a NONE error because the channel may be still active
@@ -545,7 +623,22 @@ public class PartitionLog {
                             limitBytes.addAndGet(-1 * readSize);
                             // Add new offset back to TCM after entries are read successfully
                             tcm.add(cursorOffset.get(), Pair.of(cursor, cursorOffset.get()));
-                            handleEntries(future, entries, partitionData, tcm, cursor, readCommitted, context);
+                            if (readCommitted) {
+                                // The LSO and the aborted transactions depend on the recovered producer state
+                                recoverProducerState(tcm.getManagedLedger()).whenComplete((__, e) -> {
+                                    if (e != null) {
+                                        // Otherwise the records of the aborted transactions might be returned
+                                        log.warn("[{}] Failed to fetch committed records because the producer state"
+                                                + " is not recovered: {}", fullPartitionName, e.getMessage());
+                                        entries.forEach(Entry::release);
+                                        future.complete(ReadRecordsResult.error(Errors.NOT_LEADER_OR_FOLLOWER));
+                                        return;
+                                    }
+                                    handleEntries(future, entries, partitionData, tcm, cursor, readCommitted, context);
+                                });
+                            } else {
+                                handleEntries(future, entries, partitionData, tcm, cursor, readCommitted, context);
+                            }
                         });
             }).exceptionally(ex -> {
                 registerPrepareMetadataFailedEvent(startPrepareMetadataNanos);
@@ -616,6 +709,9 @@ public class PartitionLog {
         final CompletableFuture<String> groupNameFuture = kafkaConfig.isKopEnableGroupLevelConsumerMetrics()
                 ? context.getCurrentConnectedGroupNameAsync() : CompletableFuture.completedFuture(null);
 
+        // The entries are released after decoding, so get the upper bound of the aborted transactions in advance
+        final long upperBoundOffset = readCommitted ? getNextOffset(committedEntries, highWatermark) : highWatermark;
+
         final CompletableFuture<EntryFormatter> entryFormatterHandle =
                 getEntryFormatter(context.getTopicManager().getTopic(fullPartitionName));
 
@@ -641,7 +737,7 @@ public class PartitionLog {
             decodeResult.updateConsumerStats(topicPartition, committedEntries.size(), groupName, requestStats);
             List<FetchResponse.AbortedTransaction> abortedTransactions = null;
             if (readCommitted) {
-                abortedTransactions = this.getAbortedIndexList(partitionData.fetchOffset);
+                abortedTransactions = this.getAbortedIndexList(partitionData.fetchOffset, upperBoundOffset);
             }
             if (log.isDebugEnabled()) {
                 log.debug("Partition {} read entry completed in {} ns",
@@ -671,6 +767,14 @@ public class PartitionLog {
         return magic;
     }
 
+    private static long getNextOffset(List<Entry> entries, long defaultOffset) {
+        try {
+            return MessageMetadataUtils.peekOffsetFromEntry(entries.get(entries.size() - 1)) + 1;
+        } catch (MetadataCorruptedException e) {
+            return defaultOffset;
+        }
+    }
+
     private Position getLastPositionFromEntries(List<Entry> entries) {
         if (entries == null || entries.isEmpty()) {
             return PositionImpl.EARLIEST;
@@ -820,7 +924,6 @@ public class PartitionLog {
         }
 
         appendRecordsContext
-                .getTopicManager()
                 .registerProducerInPersistentTopic(fullPartitionName, persistentTopic)
                 .ifPresent((producer) -> {
                     // collect metrics
@@ -836,27 +939,8 @@ public class PartitionLog {
             appendRecordsContext.getCompleteSendOperationForThrottling().accept(byteBuf.readableBytes());
 
             if (e == null) {
-                requestStats.getMessagePublishStats().registerSuccessfulEvent(
-                        time.nanoseconds() - beforePublish, TimeUnit.NANOSECONDS);
-                final long lastOffset = offset + numMessages - 1;
-
-                AnalyzeResult analyzeResult = analyzeAndValidateProducerState(
-                        encodeResult.getRecords(), Optional.of(offset), AppendOrigin.Client);
-                analyzeResult.updatedProducers().forEach((pid, producerAppendInfo) -> {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Append pid: [{}], appendInfo: [{}], lastOffset: [{}]",
-                                pid, producerAppendInfo, lastOffset);
-                    }
-                    producerStateManager.update(producerAppendInfo);
-                });
-                analyzeResult.completedTxns().forEach(completedTxn -> {
-                    // update to real last offset
-                    completedTxn.lastOffset(lastOffset - 1);
-                    long lastStableOffset = producerStateManager.lastStableOffset(completedTxn);
-                    producerStateManager.updateTxnIndex(completedTxn, lastStableOffset);
-                    producerStateManager.completeTxn(completedTxn);
-                });
-
+                onMessagesPublished(persistentTopic.getManagedLedger(), encodeResult.getRecords(), offset,
+                        numMessages, beforePublish);
                 appendFuture.complete(offset);
             } else {
                 log.error("publishMessages for topic partition: {} failed when write.", fullPartitionName, e);
@@ -868,6 +952,386 @@ public class PartitionLog {
         });
     }
 
+    private void onMessagesPublished(final ManagedLedger managedLedger,
+                                     final MemoryRecords records,
+                                     final long offset,
+                                     final int numMessages,
+                                     final long beforePublish) {
+        requestStats.getMessagePublishStats().registerSuccessfulEvent(
+                time.nanoseconds() - beforePublish, TimeUnit.NANOSECONDS);
+        updateProducerState(records, offset, numMessages, AppendOrigin.Client);
+        maybeTruncateAbortedTxns(managedLedger);
+        maybeTakeProducerStateSnapshot(managedLedger);
+    }
+
+    /**
+     * Only the non-idempotent records of magic v2 in kafka format are coalesced because the base offset of each batch
+     * in a coalesced entry is derived from the record counts of the previous batches when decoding, and an entry
+     * can't be deduplicated by multiple producers.
+     */
+    private boolean canCoalesce(final EntryFormatter entryFormatter,
+                                final MemoryRecords records,
+                                final LogAppendInfo appendInfo) {
+        return entryFormatter instanceof KafkaV1EntryFormatter
+                && !appendInfo.producerId().isPresent()
+                && !appendInfo.isControlBatch()
+                && records.sizeInBytes() < kafkaConfig.getKopAppendCoalesceMaxBytes()
+                && records.hasMatchingMagic(RecordBatch.MAGIC_VALUE_V2);
+    }
+
+    private void coalesceAppend(final PersistentTopic persistentTopic,
+                                final EntryFormatter entryFormatter,
+                                final MemoryRecords records,
+                                final LogAppendInfo appendInfo,
+                                final CompletableFuture<Long> appendFuture,
+                                final AppendRecordsContext appendRecordsContext) {
+        checkAndRecordPublishQuota(persistentTopic, appendInfo.validBytes(),
+                appendInfo.numMessages(), appendRecordsContext);
+        if (persistentTopic.isSystemTopic()) {
+            log.error("Not support producing message to system topic: {}", persistentTopic);
+            appendFuture.completeExceptionally(Errors.INVALID_TOPIC_EXCEPTION.exception());
+            return;
+        }
+        final Optional<Producer> producer = appendRecordsContext
+                .registerProducerInPersistentTopic(fullPartitionName, persistentTopic);
+        appendRecordsContext.getStartSendOperationForThrottling().accept(records.sizeInBytes());
+        final PartitionAppendCoalescer.PendingAppend pendingAppend = new PartitionAppendCoalescer.PendingAppend(
+                persistentTopic, entryFormatter, producer, records, appendInfo, appendFuture,
+                appendRecordsContext.getCompleteSendOperationForThrottling());
+        appendCoalescer.add(pendingAppend, persistentTopic.getBrokerService().executor());
+    }
+
+    /**
+     * Publish the coalesced appends as a single entry. Each append is completed with the base offset of its own
+     * records in the entry.
+     */
+    private void publishCoalescedAppends(final List<PartitionAppendCoalescer.PendingAppend> appends) {
+        final PartitionAppendCoalescer.PendingAppend firstAppend = appends.get(0);
+        final PersistentTopic persistentTopic = firstAppend.getPersistentTopic();
+        final MemoryRecords records;
+        final LogAppendInfo appendInfo;
+        if (appends.size() == 1) {
+            records = firstAppend.getRecords();
+            appendInfo = firstAppend.getAppendInfo();
+        } else {
+            int numBytes = 0;
+            int numMessages = 0;
+            int shallowCount = 0;
+            for (PartitionAppendCoalescer.PendingAppend append : appends) {
+                numBytes += append.getRecords().sizeInBytes();
+                numMessages += append.getAppendInfo().numMessages();
+                shallowCount += append.getAppendInfo().shallowCount();
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(numBytes);
+            appends.forEach(append -> buffer.put(append.getRecords().buffer().duplicate()));
+            buffer.flip();
+            records = MemoryRecords.readableRecords(buffer);
+            final LogAppendInfo firstAppendInfo = firstAppend.getAppendInfo();
+            appendInfo = new LogAppendInfo(firstAppendInfo.firstOffset(), Optional.empty(),
+                    firstAppendInfo.producerEpoch(), numMessages, shallowCount, false, false, numBytes,
+                    firstAppendInfo.firstSequence(), appends.get(appends.size() - 1).getAppendInfo().lastSequence(),
+                    firstAppendInfo.sourceCodec(), firstAppendInfo.targetCodec());
+        }
+
+        final EncodeRequest encodeRequest = EncodeRequest.get(records, appendInfo);
+        final long beforeEncodingStarts = time.nanoseconds();
+        final EncodeResult encodeResult = firstAppend.getEntryFormatter().encode(encodeRequest);
+        encodeRequest.recycle();
+        requestStats.getProduceEncodeStats().registerSuccessfulEvent(
+                time.nanoseconds() - beforeEncodingStarts, TimeUnit.NANOSECONDS);
+        // The producer is shared by all connections of the topic
+        firstAppend.getProducer().ifPresent(producer ->
+                encodeResult.updateProducerStats(topicPartition, requestStats, producer));
+
+        final int numMessages = encodeResult.getNumMessages();
+        final long beforePublish = time.nanoseconds();
+        publishMessage(persistentTopic, encodeResult.getEncodedByteBuf(), appendInfo).whenComplete((offset, e) -> {
+            if (e == null) {
+                onMessagesPublished(persistentTopic.getManagedLedger(), encodeResult.getRecords(), offset,
+                        numMessages, beforePublish);
+            } else {
+                log.error("publishMessages for topic partition: {} failed when write {} coalesced appends.",
+                        fullPartitionName, appends.size(), e);
+                requestStats.getMessagePublishStats().registerFailedEvent(
+                        time.nanoseconds() - beforePublish, TimeUnit.NANOSECONDS);
+            }
+            long baseOffset = (e == null) ? offset : -1L;
+            for (PartitionAppendCoalescer.PendingAppend append : appends) {
+                append.getCompleteSendOperationForThrottling().accept(append.getRecords().sizeInBytes());
+                if (e == null) {
+                    append.getAppendFuture().complete(baseOffset);
+                    baseOffset += append.getAppendInfo().numMessages();
+                } else {
+                    append.getAppendFuture().completeExceptionally(e);
+                }
+            }
+            encodeResult.recycle();
+        });
+    }
+
+    private void updateProducerState(final MemoryRecords records,
+                                     final long offset,
+                                     final int numMessages,
+                                     final AppendOrigin origin) {
+        final long lastOffset = offset + numMessages - 1;
+
+        AnalyzeResult analyzeResult = analyzeAndValidateProducerState(records, Optional.of(offset), origin);
+        analyzeResult.updatedProducers().forEach((pid, producerAppendInfo) -> {
+            if (log.isDebugEnabled()) {
+                log.debug("Append pid: [{}], appendInfo: [{}], lastOffset: [{}]",
+                        pid, producerAppendInfo, lastOffset);
+            }
+            producerStateManager.update(producerAppendInfo);
+        });
+        analyzeResult.completedTxns().forEach(completedTxn -> {
+            // update to real last offset
+            completedTxn.lastOffset(lastOffset - 1);
+            long lastStableOffset = producerStateManager.lastStableOffset(completedTxn);
+            producerStateManager.updateTxnIndex(completedTxn, lastStableOffset);
+            producerStateManager.completeTxn(completedTxn);
+        });
+        producerStateManager.updateMapEndOffset(lastOffset + 1);
+    }
+
+    /**
+     * Remove the aborted transactions that have been deleted by retention. It's only done when the first ledger of the
+     * managed ledger is changed, i.e. some ledgers have been trimmed.
+     */
+    private void maybeTruncateAbortedTxns(final ManagedLedger managedLedger) {
+        final ManagedLedgerImpl managedLedgerImpl = (ManagedLedgerImpl) managedLedger;
+        final Long firstLedgerId = managedLedgerImpl.getLedgersInfo().isEmpty()
+                ? null : managedLedgerImpl.getLedgersInfo().firstKey();
+        if (firstLedgerId == null || firstLedgerId == abortedTxnsTruncatedLedgerId) {
+            return;
+        }
+        abortedTxnsTruncatedLedgerId = firstLedgerId;
+        final PositionImpl firstPosition = OffsetFinder.getFirstValidPosition(managedLedgerImpl);
+        final PositionImpl lastPosition = (PositionImpl) managedLedgerImpl.getLastConfirmedEntry();
+        if (firstPosition == null || firstPosition.compareTo(lastPosition) > 0) {
+            return;
+        }
+        MessageMetadataUtils.getOffsetOfPosition(managedLedgerImpl, firstPosition, false, 0L, false)
+                .thenAccept(logStartOffset -> {
+                    final int numRemoved = producerStateManager.truncateAbortedTxns(logStartOffset);
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Removed {} aborted transactions before the log start offset {}",
+                                fullPartitionName, numRemoved, logStartOffset);
+                    }
+                }).exceptionally(e -> {
+                    log.warn("[{}] Failed to get the log start offset to truncate aborted transactions: {}",
+                            fullPartitionName, e.getMessage());
+                    abortedTxnsTruncatedLedgerId = -1L;
+                    return null;
+                });
+    }
+
+    private void maybeTakeProducerStateSnapshot(final ManagedLedger managedLedger) {
+        final long snapshotIntervalMs = kafkaConfig.getKopProducerStateSnapshotIntervalMs();
+        if (snapshotIntervalMs <= 0 || time.milliseconds() - lastProducerStateSnapshotMs < snapshotIntervalMs
+                || !persistingProducerState.compareAndSet(false, true)) {
+            return;
+        }
+        // Like Kafka, the idle producers expire after the transactional id expiration time, so that they're not
+        // written to the snapshot forever
+        final int numExpiredProducers = producerStateManager.removeExpiredProducers(time.milliseconds(),
+                kafkaConfig.getKafkaTransactionalIdExpirationMs());
+        if (numExpiredProducers > 0 && log.isDebugEnabled()) {
+            log.debug("[{}] Removed {} expired producers", fullPartitionName, numExpiredProducers);
+        }
+        final ByteBuffer snapshot = producerStateManager.maybeTakeSnapshot();
+        if (snapshot == null) {
+            persistingProducerState.set(false);
+            return;
+        }
+        lastProducerStateSnapshotMs = time.milliseconds();
+        final byte[] bytes = new byte[snapshot.remaining()];
+        snapshot.get(bytes);
+        final String value = Base64.getEncoder().encodeToString(bytes);
+        if (value.length() > kafkaConfig.getKopProducerStateSnapshotMaxBytes()) {
+            // The managed ledger's properties are stored in the metadata store, keep the previous snapshot instead
+            persistingProducerState.set(false);
+            log.warn("[{}] Skip the producer state snapshot because its size {} exceeds {} bytes"
+                            + " (kopProducerStateSnapshotMaxBytes)",
+                    fullPartitionName, value.length(), kafkaConfig.getKopProducerStateSnapshotMaxBytes());
+            return;
+        }
+        managedLedger.asyncSetProperty(ProducerStateManager.SNAPSHOT_PROPERTY_KEY,
+                value, new AsyncCallbacks.UpdatePropertiesCallback() {
+                    @Override
+                    public void updatePropertiesComplete(Map<String, String> properties, Object ctx) {
+                        persistingProducerState.set(false);
+                        if (log.isDebugEnabled()) {
+                            log.debug("[{}] Persisted the producer state snapshot ({} bytes)",
+                                    fullPartitionName, bytes.length);
+                        }
+                    }
+
+                    @Override
+                    public void updatePropertiesFailed(ManagedLedgerException exception, Object ctx) {
+                        persistingProducerState.set(false);
+                        log.warn("[{}] Failed to persist the producer state snapshot: {}",
+                                fullPartitionName, exception.getMessage());
+                    }
+                }, null);
+    }
+
+    private CompletableFuture<Optional<PersistentTopic>> recoverProducerState(
+            final Optional<PersistentTopic> persistentTopicOpt) {
+        return persistentTopicOpt
+                .map(persistentTopic -> recoverProducerState(persistentTopic.getManagedLedger())
+                        .thenApply(__ -> persistentTopicOpt))
+                .orElseGet(() -> CompletableFuture.completedFuture(persistentTopicOpt));
+    }
+
+    /**
+     * Recover the producer state from the latest snapshot in the managed ledger's properties and replay the entries
+     * after the snapshot. The recovery only happens once for each managed ledger, i.e. each time the partition is
+     * loaded. If there is no snapshot, the current producer state is kept.
+     */
+    private CompletableFuture<Void> recoverProducerState(final ManagedLedger managedLedger) {
+        if (kafkaConfig.getKopProducerStateSnapshotIntervalMs() <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // It's called for each append and READ_COMMITTED fetch, so only lock when the recovery needs to be started
+        final Pair<ManagedLedger, CompletableFuture<Void>> recovery = producerStateRecovery;
+        if (recovery != null && recovery.getLeft() == managedLedger) {
+            return recovery.getRight();
+        }
+        return startProducerStateRecovery(managedLedger);
+    }
+
+    private synchronized CompletableFuture<Void> startProducerStateRecovery(final ManagedLedger managedLedger) {
+        if (producerStateRecovery != null && producerStateRecovery.getLeft() == managedLedger) {
+            return producerStateRecovery.getRight();
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        producerStateRecovery = Pair.of(managedLedger, future);
+        future.whenComplete((__, e) -> {
+            if (e != null) {
+                log.error("[{}] Failed to recover the producer state", fullPartitionName, e);
+                synchronized (this) {
+                    // Retry the recovery next time
+                    if (producerStateRecovery != null && producerStateRecovery.getRight() == future) {
+                        producerStateRecovery = null;
+                    }
+                }
+            }
+        });
+
+        final String snapshot = managedLedger.getProperties().get(ProducerStateManager.SNAPSHOT_PROPERTY_KEY);
+        if (snapshot == null) {
+            future.complete(null);
+            return future;
+        }
+        final long snapshotOffset;
+        try {
+            snapshotOffset = producerStateManager.loadSnapshot(ByteBuffer.wrap(Base64.getDecoder().decode(snapshot)));
+        } catch (IllegalArgumentException e) {
+            log.warn("[{}] Ignore the invalid producer state snapshot: {}", fullPartitionName, e.getMessage());
+            future.complete(null);
+            return future;
+        }
+        final long startNanos = MathUtils.nowInNano();
+        if (snapshotOffset >= MessageMetadataUtils.getLogEndOffset(managedLedger)) {
+            future.complete(null);
+            return future;
+        }
+        final PartitionOffsetIndex offsetIndex = getOffsetIndex(managedLedger);
+        final CompletableFuture<Position> positionFuture = (offsetIndex != null)
+                ? offsetIndex.asyncFindPosition(snapshotOffset, false)
+                : MessageMetadataUtils.asyncFindPosition(managedLedger, snapshotOffset, false);
+        positionFuture.thenAccept(position -> {
+            if (position == null) {
+                future.complete(null);
+                return;
+            }
+            final String cursorName = "kop-producer-state-recovery-" + UUID.randomUUID();
+            final ManagedCursor cursor;
+            try {
+                // get previous position, because NonDurableCursor is read from next position.
+                cursor = managedLedger.newNonDurableCursor(
+                        ((ManagedLedgerImpl) managedLedger).getPreviousPosition((PositionImpl) position), cursorName);
+            } catch (ManagedLedgerException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            replayEntries(cursor, (PositionImpl) managedLedger.getLastConfirmedEntry(), future);
+            future.whenComplete((__, e) -> {
+                if (e == null) {
+                    log.info("[{}] Recovered the producer state from the snapshot at offset {} in {} ms, "
+                                    + "the map end offset is {}", fullPartitionName, snapshotOffset,
+                            TimeUnit.NANOSECONDS.toMillis(MathUtils.elapsedNanos(startNanos)),
+                            producerStateManager.mapEndOffset());
+                }
+                managedLedger.asyncDeleteCursor(cursorName, new AsyncCallbacks.DeleteCursorCallback() {
+                    @Override
+                    public void deleteCursorComplete(Object ctx) {
+                        // no-op
+                    }
+
+                    @Override
+                    public void deleteCursorFailed(ManagedLedgerException exception, Object ctx) {
+                        log.warn("[{}] Failed to delete cursor {}: {}",
+                                fullPartitionName, cursorName, exception.getMessage());
+                    }
+                }, null);
+            });
+        }).exceptionally(e -> {
+            future.completeExceptionally(e);
+            return null;
+        });
+        return future;
+    }
+
+    private void replayEntries(final ManagedCursor cursor,
+                               final PositionImpl lastPosition,
+                               final CompletableFuture<Void> future) {
+        if (!cursor.hasMoreEntries() || ((PositionImpl) cursor.getReadPosition()).compareTo(lastPosition) > 0) {
+            future.complete(null);
+            return;
+        }
+        cursor.asyncReadEntries(PRODUCER_STATE_RECOVERY_BATCH_SIZE, new AsyncCallbacks.ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                try {
+                    entries.forEach(PartitionLog.this::replayEntry);
+                } finally {
+                    entries.forEach(Entry::release);
+                }
+                if (entries.isEmpty()) {
+                    future.complete(null);
+                } else {
+                    replayEntries(cursor, lastPosition, future);
+                }
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null, lastPosition);
+    }
+
+    private void replayEntry(final Entry entry) {
+        try {
+            final long baseOffset = MessageMetadataUtils.peekBaseOffsetFromEntry(entry);
+            final ByteBuf byteBuf = entry.getDataBuffer().duplicate();
+            final MessageMetadata metadata = MessageMetadataUtils.parseMessageMetadata(byteBuf);
+            final int numMessages = metadata.getNumMessagesInBatch();
+            // The producer state of the Pulsar format entries cannot be recovered because the transactional
+            // information is not stored
+            if (AbstractEntryFormatter.isKafkaEntryFormat(metadata)) {
+                updateProducerState(MemoryRecords.readableRecords(ByteBufUtils.getNioBuffer(byteBuf)),
+                        baseOffset, numMessages, AppendOrigin.Log);
+            } else {
+                producerStateManager.updateMapEndOffset(baseOffset + numMessages);
+            }
+        } catch (MetadataCorruptedException | RuntimeException e) {
+            log.warn("[{}] Skip the entry {} when recovering the producer state: {}",
+                    fullPartitionName, entry.getPosition(), e.getMessage());
+        }
+    }
+
     private void checkAndRecordPublishQuota(Topic topic, int msgSize, int numMessages,
                                               AppendRecordsContext appendRecordsContext) {
         final boolean isPublishRateExceeded;
@@ -931,10 +1395,16 @@ public class PartitionLog {
                         appendInfo.firstSequence(),
                         appendInfo.lastSequence(),
                         appendInfo.numMessages(),
-                        time.nanoseconds()));
+                        time.nanoseconds(),
+                        getOffsetIndex(persistentTopic.getManagedLedger())));
         return offsetFuture;
     }
 
+    @VisibleForTesting
+    public ProducerStateManager getProducerStateManager() {
+        return producerStateManager;
+    }
+
     @VisibleForTesting
     public LogAppendInfo analyzeAndValidateRecords(MemoryRecords records) {
         int numMessages = 0;
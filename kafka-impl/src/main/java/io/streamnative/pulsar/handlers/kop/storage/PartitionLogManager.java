@@ -13,10 +13,15 @@
  */
 package io.streamnative.pulsar.handlers.kop.storage;
 
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CONVERSION_SCOPE;
+
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
 import io.streamnative.pulsar.handlers.kop.RequestStats;
+import io.streamnative.pulsar.handlers.kop.format.EntryConversionCache;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.KopTopic;
 import java.util.Map;
 import lombok.AllArgsConstructor;
@@ -35,6 +40,10 @@ public class PartitionLogManager {
     private final Map<String, PartitionLog> logMap;
     private final Time time;
     private final ImmutableMap<String, EntryFilterWithClassLoader> entryfilterMap;
+    // the broker level cache of the down-converted records, it's null if it's disabled
+    private final EntryConversionCache downConversionCache;
+    // the broker level cache of the records decoded from Pulsar entries, it's null if it's disabled
+    private final EntryConversionCache pulsarDecodeCache;
 
     public PartitionLogManager(KafkaServiceConfiguration kafkaConfig,
                                RequestStats requestStats,
@@ -45,6 +54,21 @@ public class PartitionLogManager {
         this.logMap = Maps.newConcurrentMap();
         this.entryfilterMap = entryfilterMap;
         this.time = time;
+        this.downConversionCache = createConversionCache(kafkaConfig.getKopDownConversionCacheMaxBytes(),
+                requestStats, "down_conversion");
+        this.pulsarDecodeCache = createConversionCache(kafkaConfig.getKopPulsarDecodeCacheMaxBytes(),
+                requestStats, "pulsar_decode");
+    }
+
+    private static EntryConversionCache createConversionCache(long maxBytes,
+                                                              RequestStats requestStats,
+                                                              String conversion) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        final StatsLogger statsLogger =
+                (requestStats != null) ? requestStats.getStatsLogger() : NullStatsLogger.INSTANCE;
+        return new EntryConversionCache(maxBytes, statsLogger.scopeLabel(CONVERSION_SCOPE, conversion));
     }
 
     public PartitionLog getLog(TopicPartition topicPartition, String namespacePrefix) {
@@ -52,7 +76,7 @@ public class PartitionLogManager {
 
         return logMap.computeIfAbsent(kopTopic, key -> {
                 return new PartitionLog(kafkaConfig, requestStats, time, topicPartition, kopTopic, entryfilterMap,
-                        new ProducerStateManager(kopTopic));
+                        new ProducerStateManager(kopTopic), downConversionCache, pulsarDecodeCache);
         });
     }
 
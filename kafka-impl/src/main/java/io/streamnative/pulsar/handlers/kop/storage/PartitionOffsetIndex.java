@@ -0,0 +1,499 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicate;
+import io.streamnative.pulsar.handlers.kop.utils.MessageMetadataUtils;
+import io.streamnative.pulsar.handlers.kop.utils.OffsetFinder;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.mledger.AsyncCallbacks;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo.LedgerInfo;
+import org.apache.kafka.common.utils.ByteUtils;
+
+/**
+ * A sparse index that maps the last offset of an entry to the position of the entry. It's similar to Kafka's
+ * OffsetIndex.
+ *
+ * An index entry is added for the first entry of each ledger and each time at least `indexIntervalBytes` bytes have
+ * been appended since the previous index entry. When looking up the position of an offset, only the entries between
+ * the floor index entry and the ceiling index entry are searched, instead of the whole managed ledger.
+ *
+ * It also maintains a time index like Kafka's TimeIndex, which maps the max publish time of the indexed entries so far
+ * to the last offset of the indexed entry with that publish time. It's used to find the position by timestamp in the
+ * same way.
+ *
+ * The index is persisted in the managed ledger's properties and loaded lazily, so the offsets written by the previous
+ * owner broker can also be looked up quickly. Since the properties are stored in the metadata store, the index is only
+ * persisted when the managed ledger rolls over or `persistIntervalMs` has elapsed since the previous update, and at
+ * most `maxPersistedEntries` evenly spaced index entries are persisted. The time index entries of these index entries
+ * are persisted together in the same property in a compact binary format. The entries that are not indexed are still
+ * found by searching the whole managed ledger.
+ */
+@Slf4j
+public class PartitionOffsetIndex {
+
+    public static final String PROPERTY_KEY = "kop.offset.index";
+
+    private static final byte FORMAT_VERSION = 1;
+
+    @Getter
+    private final ManagedLedgerImpl managedLedger;
+    private final int maxEntries;
+    private final int maxPersistedEntries;
+    private final long persistIntervalMs;
+    // key is the last offset of an entry, value is the position of the entry
+    private final ConcurrentSkipListMap<Long, PositionImpl> index = new ConcurrentSkipListMap<>();
+    // key is the publish time of an indexed entry, value is the key of the entry in `index`
+    private final ConcurrentSkipListMap<Long, Long> timeIndex = new ConcurrentSkipListMap<>();
+    private final AtomicBoolean persisting = new AtomicBoolean(false);
+    private volatile boolean loaded = false;
+
+    // The following fields are only accessed in synchronized methods
+    private long indexIntervalBytes;
+    private long bytesSinceLastIndexEntry = 0L;
+    private long lastIndexedLedgerId = -1L;
+    private long maxTimestamp = -1L;
+    private long lastPersistTimeMs;
+
+    public PartitionOffsetIndex(final ManagedLedgerImpl managedLedger,
+                                final int indexIntervalBytes,
+                                final int maxEntries,
+                                final int maxPersistedEntries,
+                                final long persistIntervalMs) {
+        this.managedLedger = managedLedger;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.maxEntries = Math.max(maxEntries, 1);
+        this.maxPersistedEntries = Math.max(maxPersistedEntries, 2);
+        this.persistIntervalMs = persistIntervalMs;
+        this.lastPersistTimeMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Called when an entry is persisted. It must be called in the order of the entries.
+     *
+     * @param lastOffset the offset of the last message in the entry
+     * @param ledgerId the ledger id of the entry
+     * @param entryId the entry id of the entry
+     * @param entrySize the size in bytes of the entry
+     * @param publishTime the publish time of the entry, a negative value means it's unknown
+     */
+    public synchronized void onAppend(final long lastOffset,
+                                      final long ledgerId,
+                                      final long entryId,
+                                      final int entrySize,
+                                      final long publishTime) {
+        ensureLoaded();
+        bytesSinceLastIndexEntry += entrySize;
+        if (ledgerId == lastIndexedLedgerId && bytesSinceLastIndexEntry < indexIntervalBytes) {
+            return;
+        }
+        final boolean isLedgerRolledOver = lastIndexedLedgerId >= 0 && ledgerId != lastIndexedLedgerId;
+        index.put(lastOffset, PositionImpl.get(ledgerId, entryId));
+        if (publishTime >= 0 && publishTime >= maxTimestamp) {
+            // Overwrite the previous entry of the same timestamp so that the floor entry is the newest one
+            timeIndex.put(publishTime, lastOffset);
+            maxTimestamp = publishTime;
+        }
+        lastIndexedLedgerId = ledgerId;
+        bytesSinceLastIndexEntry = 0L;
+        if (index.size() > maxEntries) {
+            shrink();
+        }
+        // Each update rewrites the managed ledger's metadata in the metadata store, so don't persist it too often
+        final long now = System.currentTimeMillis();
+        if ((isLedgerRolledOver || (persistIntervalMs > 0 && now - lastPersistTimeMs >= persistIntervalMs))
+                && persist()) {
+            lastPersistTimeMs = now;
+        }
+    }
+
+    /**
+     * Find the position of the first entry whose last offset is greater than or equal to the given offset.
+     *
+     * It has the same semantics as {@link MessageMetadataUtils#asyncFindPosition}, which is used as the fallback when
+     * the index cannot narrow down the range to search.
+     */
+    public CompletableFuture<Position> asyncFindPosition(final long offset, final boolean skipMessagesWithoutIndex) {
+        load();
+        final Map.Entry<Long, PositionImpl> floorEntry = index.lowerEntry(offset);
+        if (floorEntry == null) {
+            return MessageMetadataUtils.asyncFindPosition(managedLedger, offset, skipMessagesWithoutIndex);
+        }
+        final Map.Entry<Long, PositionImpl> ceilingEntry = index.ceilingEntry(offset);
+        return asyncFindNewestMatching(
+                new MessageMetadataUtils.FindEntryByOffset(managedLedger, offset, skipMessagesWithoutIndex),
+                floorEntry.getValue(),
+                (ceilingEntry != null) ? ceilingEntry.getValue() : null
+        ).thenCompose(newestPosition -> {
+            final PositionImpl position =
+                    (newestPosition != null) ? managedLedger.getNextValidPosition(newestPosition) : null;
+            return (position != null)
+                    ? CompletableFuture.completedFuture(position)
+                    : MessageMetadataUtils.asyncFindPosition(managedLedger, offset, skipMessagesWithoutIndex);
+        });
+    }
+
+    /**
+     * Find the position of the newest entry whose publish time is less than or equal to the given timestamp.
+     *
+     * It has the same semantics as {@link OffsetFinder#findMessages}, which is used as the fallback when the index
+     * cannot narrow down the range to search. Unlike OffsetFinder, the concurrent lookups are not rejected.
+     *
+     * @return the future of the position, which is completed with null if there is no such entry
+     */
+    public CompletableFuture<Position> asyncFindPositionByTimestamp(final long timestamp) {
+        load();
+        final Map.Entry<Long, Long> floorEntry = timeIndex.floorEntry(timestamp);
+        final PositionImpl floor = (floorEntry != null) ? index.get(floorEntry.getValue()) : null;
+        if (floor == null) {
+            return new OffsetFinder(managedLedger).findMessages(timestamp);
+        }
+        final Map.Entry<Long, Long> ceilingEntry = timeIndex.higherEntry(timestamp);
+        return asyncFindNewestMatching(
+                new OffsetFinder.FindEntryByTimestamp(managedLedger.getName(), timestamp),
+                floor,
+                (ceilingEntry != null) ? index.get(ceilingEntry.getValue()) : null
+        ).thenCompose(position -> (position != null)
+                ? CompletableFuture.completedFuture(position)
+                : new OffsetFinder(managedLedger).findMessages(timestamp));
+    }
+
+    /**
+     * Find the newest entry that matches the condition between two index entries.
+     *
+     * @param condition the condition that the entries before the result match
+     * @param floor the position of an index entry that matches the condition
+     * @param ceiling the position of the next index entry that doesn't match the condition, or null if there is none
+     * @return the future of the position, which is completed with null if the index cannot determine the result
+     */
+    private CompletableFuture<PositionImpl> asyncFindNewestMatching(final Predicate<Entry> condition,
+                                                                    final PositionImpl floor,
+                                                                    @Nullable final PositionImpl ceiling) {
+        final LedgerInfo ledgerInfo = managedLedger.getLedgersInfo().get(floor.getLedgerId());
+        if (ledgerInfo == null) {
+            // The ledger has been deleted by the retention policy, remove the stale index entries
+            removeDeletedLedgers();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final PositionImpl lastConfirmedEntry = (PositionImpl) managedLedger.getLastConfirmedEntry();
+        // Whether the newest matched entry is in the range if all entries in the range match
+        final boolean isUpperBoundKnown;
+        final long lastEntryId;
+        if (ceiling != null && ceiling.getLedgerId() == floor.getLedgerId()) {
+            lastEntryId = ceiling.getEntryId() - 1;
+            isUpperBoundKnown = true;
+        } else if (lastConfirmedEntry.getLedgerId() == floor.getLedgerId()) {
+            lastEntryId = lastConfirmedEntry.getEntryId();
+            isUpperBoundKnown = true;
+        } else {
+            lastEntryId = ledgerInfo.getEntries() - 1;
+            isUpperBoundKnown = false;
+        }
+        if (lastEntryId < floor.getEntryId()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<Long> newestEntryIdFuture = new CompletableFuture<>();
+        findNewestMatching(condition, floor.getLedgerId(), floor.getEntryId(), lastEntryId, newestEntryIdFuture);
+        return newestEntryIdFuture.handle((newestEntryId, e) -> {
+            if (e != null) {
+                log.warn("[{}] Failed to search {} from index: {}", managedLedger.getName(), condition, e.getMessage());
+                return null;
+            }
+            final PositionImpl newestPosition = PositionImpl.get(floor.getLedgerId(), newestEntryId);
+            if (isUpperBoundKnown || newestEntryId < lastEntryId
+                    || (ceiling != null && ceiling.equals(managedLedger.getNextValidPosition(newestPosition)))) {
+                return newestPosition;
+            }
+            // The newest matched entry might be in the following ledgers that are not indexed
+            return null;
+        });
+    }
+
+    /**
+     * Binary search for the newest entry that matches the condition in the range [low, high] of a ledger.
+     *
+     * The entry of `low` must match the condition.
+     */
+    private void findNewestMatching(final Predicate<Entry> condition,
+                                    final long ledgerId,
+                                    final long low,
+                                    final long high,
+                                    final CompletableFuture<Long> future) {
+        if (low >= high) {
+            future.complete(low);
+            return;
+        }
+        final long mid = low + (high - low + 1) / 2;
+        managedLedger.asyncReadEntry(PositionImpl.get(ledgerId, mid), new AsyncCallbacks.ReadEntryCallback() {
+            @Override
+            public void readEntryComplete(Entry entry, Object ctx) {
+                // The entry is released in `apply`
+                if (condition.apply(entry)) {
+                    findNewestMatching(condition, ledgerId, mid, high, future);
+                } else {
+                    findNewestMatching(condition, ledgerId, low, mid - 1, future);
+                }
+            }
+
+            @Override
+            public void readEntryFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null);
+    }
+
+    private void load() {
+        if (!loaded) {
+            synchronized (this) {
+                ensureLoaded();
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        final Map<String, String> properties = managedLedger.getProperties();
+        final String value = properties.get(PROPERTY_KEY);
+        if (value != null) {
+            try {
+                decode(value, index, timeIndex);
+            } catch (IllegalArgumentException e) {
+                log.warn("[{}] Ignore the invalid offset index: {}", managedLedger.getName(), e.getMessage());
+                index.clear();
+                timeIndex.clear();
+            }
+            removeDeletedLedgers();
+            if (!index.isEmpty()) {
+                lastIndexedLedgerId = index.lastEntry().getValue().getLedgerId();
+            }
+            if (!timeIndex.isEmpty()) {
+                maxTimestamp = timeIndex.lastKey();
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Loaded {} offset index entries and {} time index entries",
+                        managedLedger.getName(), index.size(), timeIndex.size());
+            }
+        }
+        loaded = true;
+    }
+
+    private void removeDeletedLedgers() {
+        final NavigableMap<Long, LedgerInfo> ledgers = managedLedger.getLedgersInfo();
+        index.values().removeIf(position -> !ledgers.containsKey(position.getLedgerId()));
+        timeIndex.values().removeIf(offset -> !index.containsKey(offset));
+    }
+
+    private void shrink() {
+        removeDeletedLedgers();
+        if (index.size() <= maxEntries) {
+            return;
+        }
+        // Remove every other index entry and double the interval so that the index covers the whole managed ledger
+        final Iterator<Long> iterator = index.keySet().iterator();
+        boolean remove = false;
+        while (iterator.hasNext()) {
+            iterator.next();
+            if (remove) {
+                iterator.remove();
+            }
+            remove = !remove;
+        }
+        timeIndex.values().removeIf(offset -> !index.containsKey(offset));
+        if (indexIntervalBytes < Integer.MAX_VALUE) {
+            indexIntervalBytes *= 2;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Shrink the offset index to {} entries, the index interval becomes {} bytes",
+                    managedLedger.getName(), index.size(), indexIntervalBytes);
+        }
+    }
+
+    private boolean persist() {
+        if (!persisting.compareAndSet(false, true)) {
+            return false;
+        }
+        removeDeletedLedgers();
+        final NavigableMap<Long, PositionImpl> persistedIndex = getPersistedIndex();
+        final NavigableMap<Long, Long> persistedTimeIndex = new TreeMap<>();
+        timeIndex.forEach((timestamp, offset) -> {
+            if (persistedIndex.containsKey(offset)) {
+                persistedTimeIndex.put(timestamp, offset);
+            }
+        });
+        final Map<String, String> properties =
+                Collections.singletonMap(PROPERTY_KEY, encode(persistedIndex, persistedTimeIndex));
+        managedLedger.asyncSetProperties(properties, new AsyncCallbacks.UpdatePropertiesCallback() {
+            @Override
+            public void updatePropertiesComplete(Map<String, String> properties, Object ctx) {
+                persisting.set(false);
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Persisted the offset index", managedLedger.getName());
+                }
+            }
+
+            @Override
+            public void updatePropertiesFailed(ManagedLedgerException exception, Object ctx) {
+                persisting.set(false);
+                log.warn("[{}] Failed to persist the offset index: {}", managedLedger.getName(),
+                        exception.getMessage());
+            }
+        }, null);
+        return true;
+    }
+
+    /**
+     * Get at most `maxPersistedEntries` evenly spaced index entries, including the first and the last index entries so
+     * that they still cover the whole managed ledger.
+     */
+    @VisibleForTesting
+    NavigableMap<Long, PositionImpl> getPersistedIndex() {
+        final List<Map.Entry<Long, PositionImpl>> entries = new ArrayList<>(index.entrySet());
+        if (entries.size() <= maxPersistedEntries) {
+            return index;
+        }
+        final NavigableMap<Long, PositionImpl> persistedIndex = new TreeMap<>();
+        for (int i = 0; i < maxPersistedEntries; i++) {
+            final Map.Entry<Long, PositionImpl> entry =
+                    entries.get((int) ((long) i * (entries.size() - 1) / (maxPersistedEntries - 1)));
+            persistedIndex.put(entry.getKey(), entry.getValue());
+        }
+        return persistedIndex;
+    }
+
+    @VisibleForTesting
+    NavigableMap<Long, PositionImpl> getIndex() {
+        return index;
+    }
+
+    @VisibleForTesting
+    NavigableMap<Long, Long> getTimeIndex() {
+        return timeIndex;
+    }
+
+    /**
+     * Encode the index and the time index in a compact binary format, which is encoded in base64 because the managed
+     * ledger's properties are strings. The format is:
+     * - the format version (1 byte)
+     * - the number of index entries (unsigned varint)
+     * - for each index entry, the delta of the offset, the delta of the ledger id and the entry id (varlong), the
+     *   entry id is also a delta if the ledger id is the same as the previous entry's
+     * - the number of time index entries (unsigned varint)
+     * - for each time index entry, the delta of the timestamp and the delta of the offset (varlong)
+     */
+    @VisibleForTesting
+    static String encode(final NavigableMap<Long, PositionImpl> index, final NavigableMap<Long, Long> timeIndex) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            ByteUtils.writeUnsignedVarint(index.size(), out);
+            long prevOffset = 0L;
+            long prevLedgerId = 0L;
+            long prevEntryId = 0L;
+            for (Map.Entry<Long, PositionImpl> entry : index.entrySet()) {
+                final long ledgerId = entry.getValue().getLedgerId();
+                final long entryId = entry.getValue().getEntryId();
+                ByteUtils.writeVarlong(entry.getKey() - prevOffset, out);
+                ByteUtils.writeVarlong(ledgerId - prevLedgerId, out);
+                ByteUtils.writeVarlong((ledgerId == prevLedgerId) ? entryId - prevEntryId : entryId, out);
+                prevOffset = entry.getKey();
+                prevLedgerId = ledgerId;
+                prevEntryId = entryId;
+            }
+            ByteUtils.writeUnsignedVarint(timeIndex.size(), out);
+            long prevTimestamp = 0L;
+            prevOffset = 0L;
+            for (Map.Entry<Long, Long> entry : timeIndex.entrySet()) {
+                ByteUtils.writeVarlong(entry.getKey() - prevTimestamp, out);
+                ByteUtils.writeVarlong(entry.getValue() - prevOffset, out);
+                prevTimestamp = entry.getKey();
+                prevOffset = entry.getValue();
+            }
+        } catch (IOException e) {
+            // It never happens because the output is in memory
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Decode the value encoded by {@link #encode} into the index and the time index.
+     */
+    @VisibleForTesting
+    static void decode(final String value,
+                       final Map<Long, PositionImpl> index,
+                       final Map<Long, Long> timeIndex) throws IllegalArgumentException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(value));
+        try {
+            final byte version = buffer.get();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported format version " + version);
+            }
+            final int size = ByteUtils.readUnsignedVarint(buffer);
+            long offset = 0L;
+            long ledgerId = 0L;
+            long entryId = 0L;
+            for (int i = 0; i < size; i++) {
+                offset += ByteUtils.readVarlong(buffer);
+                final long ledgerIdDelta = ByteUtils.readVarlong(buffer);
+                ledgerId += ledgerIdDelta;
+                final long entryIdOrDelta = ByteUtils.readVarlong(buffer);
+                entryId = (ledgerIdDelta == 0) ? entryId + entryIdOrDelta : entryIdOrDelta;
+                index.put(offset, PositionImpl.get(ledgerId, entryId));
+            }
+            final int timeIndexSize = ByteUtils.readUnsignedVarint(buffer);
+            long timestamp = 0L;
+            offset = 0L;
+            for (int i = 0; i < timeIndexSize; i++) {
+                timestamp += ByteUtils.readVarlong(buffer);
+                offset += ByteUtils.readVarlong(buffer);
+                timeIndex.put(timestamp, offset);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The index is truncated");
+        }
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException(buffer.remaining() + " unexpected bytes after the index");
+        }
+    }
+}
@@ -13,9 +13,13 @@
  */
 package io.streamnative.pulsar.handlers.kop.storage;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Maps;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -46,7 +50,7 @@ class AbortedTxn {
     private static final int LastOffsetSize = 8;
     private static final int LastStableOffsetOffset = LastOffsetOffset + LastOffsetSize;
     private static final int LastStableOffsetSize = 8;
-    private static final int TotalSize = LastStableOffsetOffset + LastStableOffsetSize;
+    static final int TotalSize = LastStableOffsetOffset + LastStableOffsetSize;
 
     private static final Short CurrentVersion = 0;
 
@@ -65,6 +69,14 @@ class AbortedTxn {
         buffer.flip();
         return buffer;
     }
+
+    protected static AbortedTxn fromByteBuffer(ByteBuffer buffer) {
+        short version = buffer.getShort();
+        if (version != CurrentVersion) {
+            throw new IllegalArgumentException("Invalid version " + version + " of the aborted transaction");
+        }
+        return new AbortedTxn(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
 }
 
 @Data
@@ -93,16 +105,34 @@ class TxnMetadata {
 
 /**
  * Producer state manager.
+ *
+ * The producer state can be written to a snapshot, which covers all entries whose offsets are less than the map end
+ * offset. After the partition is loaded again, the state is recovered from the snapshot and then only the entries
+ * after the snapshot need to be replayed.
  */
 @Slf4j
 public class ProducerStateManager {
 
+    public static final String SNAPSHOT_PROPERTY_KEY = "kop.producer.state.snapshot";
+
+    private static final short SnapshotVersion = 0;
+    private static final int SnapshotHeaderSize = 2 + 8 + 4;
+    // producerId, producerEpoch, coordinatorEpoch, lastTimestamp, currentTxnFirstOffset
+    private static final int ProducerEntrySize = 8 + 2 + 4 + 8 + 8;
+
     private final String topicPartition;
     private final Map<Long, ProducerStateEntry> producers = Maps.newConcurrentMap();
 
     // ongoing transactions sorted by the first offset of the transaction
     private final TreeMap<Long, TxnMetadata> ongoingTxns = Maps.newTreeMap();
+    // aborted transactions sorted by the last offset of the transaction
     private final List<AbortedTxn> abortedIndexList = new ArrayList<>();
+    // the max number of offsets spanned by an aborted transaction, which bounds the search in abortedIndexList
+    private long maxAbortedTxnSpan = 0L;
+
+    // The offset after the last entry whose producer state has been applied, -1 if it's unknown
+    private long mapEndOffset = -1L;
+    private long lastSnapshotOffset = -1L;
 
     public ProducerStateManager(String topicPartition) {
         this.topicPartition = topicPartition;
@@ -118,7 +148,7 @@ public class ProducerStateManager {
      * That will be done in `completeTxn` below. This is used to compute the LSO that will be appended to the
      * transaction index, but the completion must be done only after successfully appending to the index.
      */
-    public long lastStableOffset(CompletedTxn completedTxn) {
+    public synchronized long lastStableOffset(CompletedTxn completedTxn) {
         for (TxnMetadata txnMetadata : ongoingTxns.values()) {
             if (!completedTxn.producerId().equals(txnMetadata.producerId())) {
                 return txnMetadata.firstOffset();
@@ -127,7 +157,7 @@ public class ProducerStateManager {
         return completedTxn.lastOffset() + 1;
     }
 
-    public Optional<Long> firstUndecidedOffset() {
+    public synchronized Optional<Long> firstUndecidedOffset() {
         Map.Entry<Long, TxnMetadata> entry = ongoingTxns.firstEntry();
         if (entry == null) {
             return Optional.empty();
@@ -135,6 +165,11 @@ public class ProducerStateManager {
         return Optional.of(entry.getValue().firstOffset());
     }
 
+    @VisibleForTesting
+    public Map<Long, ProducerStateEntry> activeProducers() {
+        return new HashMap<>(producers);
+    }
+
     /**
      * Get the last written entry for the given producer id.
      */
@@ -148,7 +183,7 @@ public class ProducerStateManager {
     /**
      * Update the mapping with the given append information.
      */
-    public void update(ProducerAppendInfo appendInfo) {
+    public synchronized void update(ProducerAppendInfo appendInfo) {
         if (log.isDebugEnabled()) {
             log.debug("Updated producer {} state to {}", appendInfo.producerId(), appendInfo);
         }
@@ -173,14 +208,17 @@ public class ProducerStateManager {
         }
     }
 
-    public void updateTxnIndex(CompletedTxn completedTxn, long lastStableOffset) {
+    public synchronized void updateTxnIndex(CompletedTxn completedTxn, long lastStableOffset) {
         if (completedTxn.isAborted()) {
-            abortedIndexList.add(new AbortedTxn(completedTxn.producerId(), completedTxn.firstOffset(),
-                    completedTxn.lastOffset(), lastStableOffset));
+            final AbortedTxn abortedTxn = new AbortedTxn(completedTxn.producerId(), completedTxn.firstOffset(),
+                    completedTxn.lastOffset(), lastStableOffset);
+            // The transactions are completed in order, so it's usually added to the tail
+            abortedIndexList.add(lowerBound(abortedTxn.lastOffset() + 1), abortedTxn);
+            maxAbortedTxnSpan = Math.max(maxAbortedTxnSpan, abortedTxn.lastOffset() - abortedTxn.firstOffset());
         }
     }
 
-    public void completeTxn(CompletedTxn completedTxn) {
+    public synchronized void completeTxn(CompletedTxn completedTxn) {
         TxnMetadata txnMetadata = ongoingTxns.remove(completedTxn.firstOffset());
         if (txnMetadata == null) {
             String msg = String.format("Attempted to complete transaction %s on partition "
@@ -190,9 +228,27 @@ public class ProducerStateManager {
     }
 
     public List<FetchResponse.AbortedTransaction> getAbortedIndexList(long fetchOffset) {
+        return getAbortedIndexList(fetchOffset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get the aborted transactions that overlap the fetched offset range.
+     *
+     * @param fetchOffset the first offset of the fetched range
+     * @param upperBoundOffset the offset after the last offset of the fetched range
+     * @return the aborted transactions whose last offsets are greater than or equal to fetchOffset and whose first
+     *   offsets are less than upperBoundOffset
+     */
+    public synchronized List<FetchResponse.AbortedTransaction> getAbortedIndexList(long fetchOffset,
+                                                                                 long upperBoundOffset) {
         List<FetchResponse.AbortedTransaction> abortedTransactions = new ArrayList<>();
-        for (AbortedTxn abortedTxn : abortedIndexList) {
-            if (abortedTxn.lastOffset() >= fetchOffset) {
+        for (int i = lowerBound(fetchOffset); i < abortedIndexList.size(); i++) {
+            final AbortedTxn abortedTxn = abortedIndexList.get(i);
+            if (abortedTxn.lastOffset() - maxAbortedTxnSpan >= upperBoundOffset) {
+                // The first offsets of this transaction and the following transactions are not less than the bound
+                break;
+            }
+            if (abortedTxn.firstOffset() < upperBoundOffset) {
                 abortedTransactions.add(
                         new FetchResponse.AbortedTransaction(abortedTxn.producerId(), abortedTxn.firstOffset()));
             }
@@ -200,4 +256,143 @@ public class ProducerStateManager {
         return abortedTransactions;
     }
 
+    /**
+     * Remove the aborted transactions whose last offsets are less than the log start offset, i.e. the transactions
+     * that have been deleted by retention.
+     *
+     * @return the number of removed aborted transactions
+     */
+    public synchronized int truncateAbortedTxns(long logStartOffset) {
+        final int numRemoved = lowerBound(logStartOffset);
+        if (numRemoved > 0) {
+            abortedIndexList.subList(0, numRemoved).clear();
+            updateMaxAbortedTxnSpan();
+        }
+        return numRemoved;
+    }
+
+    // Return the index of the first aborted transaction whose last offset is greater than or equal to the offset
+    private int lowerBound(long offset) {
+        int low = 0;
+        int high = abortedIndexList.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (abortedIndexList.get(mid).lastOffset() < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void updateMaxAbortedTxnSpan() {
+        maxAbortedTxnSpan = 0L;
+        for (AbortedTxn abortedTxn : abortedIndexList) {
+            maxAbortedTxnSpan = Math.max(maxAbortedTxnSpan, abortedTxn.lastOffset() - abortedTxn.firstOffset());
+        }
+    }
+
+    public synchronized void updateMapEndOffset(long offset) {
+        mapEndOffset = offset;
+    }
+
+    public synchronized long mapEndOffset() {
+        return mapEndOffset;
+    }
+
+    /**
+     * Remove the producers that have no ongoing transaction and haven't written any entry for
+     * `maxProducerIdExpirationMs` according to their last timestamps.
+     *
+     * @return the number of removed producers
+     */
+    public synchronized int removeExpiredProducers(long currentTimeMs, long maxProducerIdExpirationMs) {
+        final int numProducers = producers.size();
+        producers.values().removeIf(entry -> !entry.currentTxnFirstOffset().isPresent()
+                && currentTimeMs - entry.lastTimestamp() >= maxProducerIdExpirationMs);
+        return numProducers - producers.size();
+    }
+
+    /**
+     * Take a snapshot of the producer state if any entry has been applied since the last snapshot.
+     *
+     * @return the snapshot, or null if the state is empty or not changed
+     */
+    public synchronized ByteBuffer maybeTakeSnapshot() {
+        if (mapEndOffset <= lastSnapshotOffset || (producers.isEmpty() && abortedIndexList.isEmpty())) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(SnapshotHeaderSize + producers.size() * ProducerEntrySize
+                + 4 + abortedIndexList.size() * AbortedTxn.TotalSize);
+        buffer.putShort(SnapshotVersion);
+        buffer.putLong(mapEndOffset);
+        buffer.putInt(producers.size());
+        producers.values().forEach(entry -> {
+            buffer.putLong(entry.producerId());
+            buffer.putShort(entry.producerEpoch());
+            buffer.putInt(entry.coordinatorEpoch());
+            buffer.putLong(entry.lastTimestamp());
+            buffer.putLong(entry.currentTxnFirstOffset().orElse(-1L));
+        });
+        buffer.putInt(abortedIndexList.size());
+        abortedIndexList.forEach(abortedTxn -> buffer.put(abortedTxn.toByteBuffer()));
+        buffer.flip();
+        lastSnapshotOffset = mapEndOffset;
+        return buffer;
+    }
+
+    /**
+     * Replace the producer state with a snapshot. The ongoing transactions are rebuilt from the first offsets of
+     * the producers' current transactions.
+     *
+     * @return the map end offset of the snapshot, from which the following entries should be replayed
+     * @throws IllegalArgumentException if the snapshot is invalid
+     */
+    public synchronized long loadSnapshot(ByteBuffer buffer) throws IllegalArgumentException {
+        final Map<Long, ProducerStateEntry> loadedProducers = Maps.newHashMap();
+        final List<AbortedTxn> loadedAbortedTxns = new ArrayList<>();
+        final long snapshotOffset;
+        try {
+            final short version = buffer.getShort();
+            if (version != SnapshotVersion) {
+                throw new IllegalArgumentException("Invalid version " + version + " of the producer state snapshot");
+            }
+            snapshotOffset = buffer.getLong();
+            final int numProducers = buffer.getInt();
+            for (int i = 0; i < numProducers; i++) {
+                final long producerId = buffer.getLong();
+                final short producerEpoch = buffer.getShort();
+                final int coordinatorEpoch = buffer.getInt();
+                final long lastTimestamp = buffer.getLong();
+                final long currentTxnFirstOffset = buffer.getLong();
+                loadedProducers.put(producerId, new ProducerStateEntry(producerId, producerEpoch, coordinatorEpoch,
+                        lastTimestamp, (currentTxnFirstOffset >= 0)
+                        ? Optional.of(currentTxnFirstOffset) : Optional.empty()));
+            }
+            final int numAbortedTxns = buffer.getInt();
+            for (int i = 0; i < numAbortedTxns; i++) {
+                loadedAbortedTxns.add(AbortedTxn.fromByteBuffer(buffer));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The producer state snapshot is truncated");
+        }
+
+        producers.clear();
+        producers.putAll(loadedProducers);
+        ongoingTxns.clear();
+        producers.values().forEach(entry -> entry.currentTxnFirstOffset().ifPresent(firstOffset ->
+                ongoingTxns.put(firstOffset, new TxnMetadata(entry.producerId(), firstOffset))));
+        abortedIndexList.clear();
+        abortedIndexList.addAll(loadedAbortedTxns);
+        abortedIndexList.sort(Comparator.comparing(AbortedTxn::lastOffset));
+        updateMaxAbortedTxnSpan();
+        mapEndOffset = snapshotOffset;
+        lastSnapshotOffset = snapshotOffset;
+        if (log.isDebugEnabled()) {
+            log.debug("{} Loaded the producer state snapshot at offset {} with {} producers and {} aborted txns",
+                    topicPartition, snapshotOffset, producers.size(), abortedIndexList.size());
+        }
+        return snapshotOffset;
+    }
 }
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.streamnative.pulsar.handlers.kop.format.ByteBufRecords;
+import java.nio.ByteBuffer;
+import org.apache.kafka.common.protocol.Writable;
+import org.apache.kafka.common.record.BaseRecords;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+
+/**
+ * A {@link Writable} that writes a Kafka message into a {@link CompositeByteBuf}.
+ *
+ * It's similar to Kafka's SendBuilder: the primitive fields are written to a single buffer whose initial capacity is
+ * the message size excluding the records, while the records are added as separate components without being copied.
+ */
+public class CompositeByteBufAccessor implements Writable {
+
+    private static final ByteBufAllocator ALLOCATOR = PulsarByteBufAllocator.DEFAULT;
+
+    private final CompositeByteBuf compositeByteBuf;
+    private final ByteBuf buffer;
+    // The writer index of `buffer` that has already been added to `compositeByteBuf`
+    private int flushedIndex = 0;
+
+    public CompositeByteBufAccessor(int sizeExcludingZeroCopy) {
+        // The default max number of components is 16, exceeding it would consolidate (copy) the components
+        this.compositeByteBuf = ALLOCATOR.compositeBuffer(Integer.MAX_VALUE);
+        this.buffer = ALLOCATOR.buffer(sizeExcludingZeroCopy);
+    }
+
+    @Override
+    public void writeByte(byte val) {
+        buffer.writeByte(val);
+    }
+
+    @Override
+    public void writeShort(short val) {
+        buffer.writeShort(val);
+    }
+
+    @Override
+    public void writeInt(int val) {
+        buffer.writeInt(val);
+    }
+
+    @Override
+    public void writeLong(long val) {
+        buffer.writeLong(val);
+    }
+
+    @Override
+    public void writeDouble(double val) {
+        buffer.writeDouble(val);
+    }
+
+    @Override
+    public void writeByteArray(byte[] arr) {
+        buffer.writeBytes(arr);
+    }
+
+    @Override
+    public void writeUnsignedVarint(int i) {
+        while ((i & 0xffffff80) != 0L) {
+            buffer.writeByte((i & 0x7f) | 0x80);
+            i >>>= 7;
+        }
+        buffer.writeByte(i);
+    }
+
+    @Override
+    public void writeByteBuffer(ByteBuffer buf) {
+        // The bytes fields are counted in the size excluding zero copy, so they're copied
+        buffer.writeBytes(buf.duplicate());
+    }
+
+    @Override
+    public void writeVarint(int i) {
+        writeUnsignedVarint((i << 1) ^ (i >> 31));
+    }
+
+    @Override
+    public void writeVarlong(long i) {
+        long v = (i << 1) ^ (i >> 63);
+        while ((v & 0xffffffffffffff80L) != 0L) {
+            buffer.writeByte(((int) v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        buffer.writeByte((byte) v);
+    }
+
+    @Override
+    public void writeRecords(BaseRecords records) {
+        if (records instanceof ByteBufRecords) {
+            flushPendingBuffer();
+            compositeByteBuf.addComponent(true, ((ByteBufRecords) records).getBuffer().retainedDuplicate());
+        } else if (records instanceof MemoryRecords) {
+            flushPendingBuffer();
+            compositeByteBuf.addComponent(true, Unpooled.wrappedBuffer(((MemoryRecords) records).buffer()));
+        } else {
+            throw new UnsupportedOperationException("Unsupported record type " + records.getClass());
+        }
+    }
+
+    private void flushPendingBuffer() {
+        final int writerIndex = buffer.writerIndex();
+        if (writerIndex > flushedIndex) {
+            compositeByteBuf.addComponent(true, buffer.retainedSlice(flushedIndex, writerIndex - flushedIndex));
+            flushedIndex = writerIndex;
+        }
+    }
+
+    /**
+     * Build the result buffer, the caller is responsible for releasing it.
+     *
+     * @return the buffer that contains the whole message
+     */
+    public ByteBuf build() {
+        flushPendingBuffer();
+        buffer.release();
+        return compositeByteBuf;
+    }
+}
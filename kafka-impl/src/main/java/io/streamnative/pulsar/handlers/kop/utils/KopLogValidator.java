@@ -59,6 +59,33 @@ public class KopLogValidator {
                                                                  byte magic,
                                                                  TimestampType timestampType,
                                                                  long timestampDiffMaxMs) {
+        return validateMessagesAndAssignOffsets(records, offsetCounter, now, sourceCodec, targetCodec, compactedTopic,
+                magic, timestampType, timestampDiffMaxMs, true);
+    }
+
+    /**
+     * The same as {@link #validateMessagesAndAssignOffsets(MemoryRecords, LongRef, long, CompressionCodec,
+     * CompressionCodec, boolean, byte, TimestampType, long)}, except that when strictValidation is false, a compressed
+     * magic v2 batch whose records don't need record-level validation is validated by its header only, and the
+     * offsets are assigned by rewriting the header without decompressing the records.
+     */
+    public static ValidationAndOffsetAssignResult validateMessagesAndAssignOffsets(MemoryRecords records,
+                                                                 LongRef offsetCounter,
+                                                                 long now,
+                                                                 CompressionCodec sourceCodec,
+                                                                 CompressionCodec targetCodec,
+                                                                 boolean compactedTopic,
+                                                                 byte magic,
+                                                                 TimestampType timestampType,
+                                                                 long timestampDiffMaxMs,
+                                                                 boolean strictValidation) {
+        if (!strictValidation) {
+            final MutableRecordBatch batch = getSingleBatchForHeaderOnlyAssignment(records, sourceCodec,
+                    targetCodec, compactedTopic, magic, timestampType, timestampDiffMaxMs);
+            if (batch != null) {
+                return assignOffsetsCompressedInHeader(records, batch, offsetCounter, now, magic, timestampType);
+            }
+        }
         if (sourceCodec.codec() == CompressionType.NONE.id
                 && targetCodec.codec() == CompressionType.NONE.id) {
             // check the magic value
@@ -93,6 +120,67 @@ public class KopLogValidator {
         }
     }
 
+    /**
+     * Get the batch whose offsets could be assigned by rewriting its header, i.e. the records are a single compressed
+     * magic v2 batch that doesn't need recompression, and there is no record-level validation:
+     * 1. The topic is not compacted, so the keys are not required
+     * 2. The timestamps are not checked against the broker's time
+     *
+     * @return null if the records don't match these conditions
+     */
+    private static MutableRecordBatch getSingleBatchForHeaderOnlyAssignment(MemoryRecords records,
+                                                                          CompressionCodec sourceCodec,
+                                                                          CompressionCodec targetCodec,
+                                                                          boolean compactedTopic,
+                                                                          byte toMagic,
+                                                                          TimestampType timestampType,
+                                                                          long timestampDiffMaxMs) {
+        if (compactedTopic
+                || toMagic < RecordBatch.MAGIC_VALUE_V2
+                || sourceCodec.codec() == CompressionType.NONE.id
+                || sourceCodec.codec() != targetCodec.codec()
+                || (timestampType == TimestampType.CREATE_TIME && timestampDiffMaxMs != Long.MAX_VALUE)) {
+            return null;
+        }
+        // Only the headers are read while iterating the batches
+        final Iterator<MutableRecordBatch> batchIterator = records.batches().iterator();
+        if (!batchIterator.hasNext()) {
+            return null;
+        }
+        final MutableRecordBatch batch = batchIterator.next();
+        if (batchIterator.hasNext()
+                || batch.magic() < RecordBatch.MAGIC_VALUE_V2
+                || batch.compressionType().id != sourceCodec.codec()) {
+            return null;
+        }
+        return batch;
+    }
+
+    private static ValidationAndOffsetAssignResult assignOffsetsCompressedInHeader(MemoryRecords records,
+                                                                                   MutableRecordBatch batch,
+                                                                                   LongRef offsetCounter,
+                                                                                   long now,
+                                                                                   byte toMagic,
+                                                                                   TimestampType timestampType) {
+        validateBatch(batch, toMagic);
+        if (batch.timestampType() == TimestampType.LOG_APPEND_TIME) {
+            throw new InvalidTimestampException(String.format("Invalid timestamp type in batch %s. Producer should"
+                    + " not set timestamp type to LogAppendTime.", batch));
+        }
+
+        // The batch is validated by CRC before, and the count is consistent with the offset range, so the base offset
+        // is also updated by the last offset
+        batch.setLastOffset(offsetCounter.addAndGet(batch.countOrNull()) - 1);
+        if (timestampType == TimestampType.LOG_APPEND_TIME) {
+            batch.setMaxTimestamp(TimestampType.LOG_APPEND_TIME, now);
+        } else {
+            batch.setMaxTimestamp(timestampType, batch.maxTimestamp());
+        }
+        batch.setPartitionLeaderEpoch(RecordBatch.NO_PARTITION_LEADER_EPOCH);
+
+        return ValidationAndOffsetAssignResult.get(records, 0, 0L);
+    }
+
     private static ValidationAndOffsetAssignResult convertAndAssignOffsetsNonCompressed(MemoryRecords records,
                                                                                         LongRef offsetCounter,
                                                                                         boolean compactedTopic,
@@ -173,8 +173,11 @@ public class MessageMetadataUtils {
                 offset, skipMessagesWithoutIndex));
     }
 
+    /**
+     * The predicate that matches the entries whose offsets are all less than the given offset.
+     */
     @AllArgsConstructor
-    private static class FindEntryByOffset implements Predicate<Entry> {
+    public static class FindEntryByOffset implements Predicate<Entry> {
         private final ManagedLedger managedLedger;
         private final long offset;
         private final boolean skipMessagesWithoutIndex;
@@ -22,7 +22,10 @@ import io.streamnative.pulsar.handlers.kop.exceptions.MetadataCorruptedException
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import javax.annotation.Nullable;
+import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.FindEntryCallback;
@@ -61,19 +64,8 @@ public class OffsetFinder implements AsyncCallbacks.FindEntryCallback {
                 log.debug("[{}] Starting message position find at timestamp {}", managedLedger.getName(), timestamp);
             }
 
-            asyncFindNewestMatching(ManagedCursor.FindPositionConstraint.SearchAllAvailableEntries, entry -> {
-                if (entry == null) {
-                    return false;
-                }
-                try {
-                    return MessageMetadataUtils.getPublishTime(entry.getDataBuffer()) <= timestamp;
-                } catch (MetadataCorruptedException e) {
-                    log.error("[{}] Error deserialize message for message position find", managedLedger.getName(), e);
-                } finally {
-                    entry.release();
-                }
-                return false;
-            }, this, callback);
+            asyncFindNewestMatching(ManagedCursor.FindPositionConstraint.SearchAllAvailableEntries,
+                    new FindEntryByTimestamp(managedLedger.getName(), timestamp), this, callback);
         } else {
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Ignore message position find scheduled task, last find is still running",
@@ -86,6 +78,27 @@ public class OffsetFinder implements AsyncCallbacks.FindEntryCallback {
         }
     }
 
+    /**
+     * The future version of {@link #findMessages(long, AsyncCallbacks.FindEntryCallback)}.
+     *
+     * @return the future of the position, which is completed with null if no position is found
+     */
+    public CompletableFuture<Position> findMessages(final long timestamp) {
+        final CompletableFuture<Position> future = new CompletableFuture<>();
+        findMessages(timestamp, new AsyncCallbacks.FindEntryCallback() {
+            @Override
+            public void findEntryComplete(Position position, Object ctx) {
+                future.complete(position);
+            }
+
+            @Override
+            public void findEntryFailed(ManagedLedgerException exception, Optional<Position> position, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        });
+        return future;
+    }
+
     @Override
     public void findEntryComplete(Position position, Object ctx) {
         checkArgument(ctx instanceof AsyncCallbacks.FindEntryCallback);
@@ -154,4 +167,34 @@ public class OffsetFinder implements AsyncCallbacks.FindEntryCallback {
             return validPosition;
         }
     }
+
+    /**
+     * The predicate that matches the entries whose publish time is less than or equal to the given timestamp.
+     */
+    @AllArgsConstructor
+    public static class FindEntryByTimestamp implements Predicate<Entry> {
+
+        private final String name;
+        private final long timestamp;
+
+        @Override
+        public boolean apply(@Nullable Entry entry) {
+            if (entry == null) {
+                return false;
+            }
+            try {
+                return MessageMetadataUtils.getPublishTime(entry.getDataBuffer()) <= timestamp;
+            } catch (MetadataCorruptedException e) {
+                log.error("[{}] Error deserialize message for message position find", name, e);
+            } finally {
+                entry.release();
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "FindEntryByTimestamp{ " + timestamp + "}";
+        }
+    }
 }
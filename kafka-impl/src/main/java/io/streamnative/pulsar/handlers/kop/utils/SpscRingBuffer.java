@@ -0,0 +1,113 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free ring buffer with a single producer and a single consumer.
+ * <p>
+ * {@link #offer(Object)} must only be called by the producer thread, while {@link #peek()} and {@link #poll()} must
+ * only be called by the consumer thread. The producer and the consumer could be different threads at different
+ * times as long as the calls of each side don't overlap. {@link #size()} and {@link #isFull()} could be called by any
+ * thread, but the result is only exact on the producer side for {@link #isFull()}.
+ */
+public class SpscRingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    // the index of the next element to write, which is only updated by the producer
+    private final AtomicLong producerIndex = new AtomicLong(0L);
+    // the index of the next element to read, which is only updated by the consumer
+    private final AtomicLong consumerIndex = new AtomicLong(0L);
+
+    public SpscRingBuffer(int capacity) {
+        checkArgument(capacity > 0, "capacity should be positive");
+        checkArgument(capacity <= (1 << 30), "capacity is too large");
+        this.capacity = capacity;
+        final int length = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = length - 1;
+        this.elements = new AtomicReferenceArray<>(length);
+    }
+
+    /**
+     * Add an element to the tail.
+     *
+     * @return false if the ring buffer is full
+     */
+    public boolean offer(E element) {
+        checkArgument(element != null, "element should not be null");
+        final long index = producerIndex.get();
+        if (index - consumerIndex.get() >= capacity) {
+            return false;
+        }
+        elements.lazySet((int) (index & mask), element);
+        // The element is visible to the consumer once the producer index is published
+        producerIndex.lazySet(index + 1);
+        return true;
+    }
+
+    /**
+     * Get the head element without removing it.
+     *
+     * @return null if the ring buffer is empty
+     */
+    public E peek() {
+        final long index = consumerIndex.get();
+        if (index >= producerIndex.get()) {
+            return null;
+        }
+        return elements.get((int) (index & mask));
+    }
+
+    /**
+     * Remove the head element.
+     *
+     * @return null if the ring buffer is empty
+     */
+    public E poll() {
+        final long index = consumerIndex.get();
+        if (index >= producerIndex.get()) {
+            return null;
+        }
+        final int offset = (int) (index & mask);
+        final E element = elements.get(offset);
+        elements.lazySet(offset, null);
+        // The slot could be reused by the producer once the consumer index is published
+        consumerIndex.lazySet(index + 1);
+        return element;
+    }
+
+    public int size() {
+        // Read the consumer index first so that the size is never negative
+        final long consumed = consumerIndex.get();
+        return (int) Math.max(0L, Math.min(capacity, producerIndex.get() - consumed));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() >= capacity;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -17,6 +17,9 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static io.streamnative.pulsar.handlers.kop.utils.CoreUtils.inReadLock;
 import static io.streamnative.pulsar.handlers.kop.utils.CoreUtils.inWriteLock;
 
+import io.streamnative.pulsar.handlers.kop.KopServerStats;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.ShutdownableThread;
 import io.streamnative.pulsar.handlers.kop.utils.timer.SystemTimer;
 import io.streamnative.pulsar.handlers.kop.utils.timer.Timer;
@@ -31,6 +34,8 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
 
 /**
  * A helper purgatory class for bookkeeping delayed operations with a timeout, and expiring timed out operations.
@@ -52,6 +57,8 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
         private int purgeInterval = 1000;
         private boolean reaperEnabled = true;
         private boolean timerEnabled = true;
+        private int shards = DEFAULT_SHARDS;
+        private StatsLogger statsLogger = null;
 
         private Builder() {}
 
@@ -80,6 +87,16 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
             return this;
         }
 
+        public Builder<T> shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        public Builder<T> statsLogger(StatsLogger statsLogger) {
+            this.statsLogger = statsLogger;
+            return this;
+        }
+
         public DelayedOperationPurgatory<T> build() {
             boolean ownTimer;
             if (null == timer) {
@@ -94,11 +111,15 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
                 ownTimer,
                 purgeInterval,
                 reaperEnabled,
-                timerEnabled
+                timerEnabled,
+                shards,
+                statsLogger
             );
         }
     }
 
+    public static final int DEFAULT_SHARDS = 16;
+
     private final String purgatoryName;
     private final boolean ownTimer;
     private final Timer timeoutTimer;
@@ -106,10 +127,8 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
     private final boolean reaperEnabled;
     private final boolean timerEnabled;
 
-    /* a list of operation watching keys */
-    private final ConcurrentMap<Object, Watchers> watchersForKey;
-
-    private final ReentrantReadWriteLock removeWatchersLock = new ReentrantReadWriteLock();
+    /* the shards of the operation watching keys, each shard has its own lock */
+    private final List<WatcherList> watcherLists;
 
     // the number of estimated total operations in the purgatory
     private final AtomicInteger estimatedTotalOperations = new AtomicInteger(0);
@@ -125,6 +144,20 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
         boolean reaperEnabled,
         boolean timerEnabled
     ) {
+        this(purgatoryName, timeoutTimer, ownTimer, purgeInterval, reaperEnabled, timerEnabled, DEFAULT_SHARDS, null);
+    }
+
+    public DelayedOperationPurgatory(
+        String purgatoryName,
+        Timer timeoutTimer,
+        boolean ownTimer,
+        int purgeInterval,
+        boolean reaperEnabled,
+        boolean timerEnabled,
+        int shards,
+        StatsLogger statsLogger
+    ) {
+        checkArgument(shards > 0, "The number of shards must be positive");
         this.purgatoryName = purgatoryName;
         this.timeoutTimer = timeoutTimer;
         this.ownTimer = ownTimer;
@@ -132,7 +165,10 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
         this.reaperEnabled = reaperEnabled;
         this.timerEnabled = timerEnabled;
 
-        this.watchersForKey = new ConcurrentHashMap<>();
+        this.watcherLists = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            watcherLists.add(newWatcherList(i, statsLogger));
+        }
         this.expirationReaper = new ShutdownableThread(
             String.format("ExpirationReaper-%s", purgatoryName)
         ) {
@@ -220,9 +256,10 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
      * @return the number of completed operations during this process
      */
     public int checkAndComplete(Object key) {
+        final WatcherList watcherList = watcherList(key);
         Watchers watchers = inReadLock(
-            removeWatchersLock,
-            () -> watchersForKey.get(key));
+            watcherList.removeWatchersLock,
+            () -> watcherList.watchersForKey.get(key));
         if (null == watchers) {
             return 0;
         } else {
@@ -236,7 +273,11 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
      * even when it has been completed, this number may be larger than the number of real operations watched
      */
     public int watched() {
-        return allWatchers().stream().mapToInt(Watchers::countWatched).sum();
+        int watched = 0;
+        for (WatcherList watcherList : watcherLists) {
+            watched += watcherList.watched();
+        }
+        return watched;
     }
 
     /**
@@ -250,8 +291,9 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
      * Cancel watching on any delayed operations for the given key. Note the operation will not be completed
      */
     public List<T> cancelForKey(Object key) {
-        return inWriteLock(removeWatchersLock, () -> {
-            Watchers watchers = watchersForKey.remove(key);
+        final WatcherList watcherList = watcherList(key);
+        return inWriteLock(watcherList.removeWatchersLock, () -> {
+            Watchers watchers = watcherList.watchersForKey.remove(key);
             if (watchers != null) {
                 return watchers.cancel();
             } else {
@@ -259,12 +301,12 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
             }
         });
     }
+
     /*
-     * Return all the current watcher lists,
-     * note that the returned watchers may be removed from the list by other threads
+     * Return the shard of the given key
      */
-    private Collection<Watchers> allWatchers() {
-        return inReadLock(removeWatchersLock, () -> watchersForKey.values());
+    private WatcherList watcherList(Object key) {
+        return watcherLists.get(Math.floorMod(key.hashCode(), watcherLists.size()));
     }
 
     /*
@@ -272,8 +314,9 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
      * grab the removeWatchersLock to avoid the operation being added to a removed watcher list
      */
     private void watchForOperation(Object key, T operation) {
-        inReadLock(removeWatchersLock, () -> {
-            watchersForKey.computeIfAbsent(key, (k) -> new Watchers(k))
+        final WatcherList watcherList = watcherList(key);
+        inReadLock(watcherList.removeWatchersLock, () -> {
+            watcherList.watchersForKey.computeIfAbsent(key, (k) -> new Watchers(k))
                 .watch(operation);
             return null;
         });
@@ -283,19 +326,54 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
      * Remove the key from watcher lists if its list is empty.
      */
     private void removeKeyIfEmpty(Object key, Watchers watchers) {
-        inWriteLock(removeWatchersLock, () -> {
+        final WatcherList watcherList = watcherList(key);
+        inWriteLock(watcherList.removeWatchersLock, () -> {
             // if the current key is no longer correlated to the watchers to remove, skip
-            if (watchersForKey.get(key) != watchers) {
+            if (watcherList.watchersForKey.get(key) != watchers) {
                 return null;
             }
 
             if (watchers != null && watchers.isEmpty()) {
-                watchersForKey.remove(key);
+                watcherList.watchersForKey.remove(key);
             }
             return null;
         });
     }
 
+    private WatcherList newWatcherList(int shard, StatsLogger statsLogger) {
+        if (statsLogger == null) {
+            return new WatcherList(NullStatsLogger.INSTANCE.getCounter(KopServerStats.PURGATORY_PURGED_OPERATIONS));
+        }
+        final StatsLogger shardStatsLogger = statsLogger
+                .scopeLabel(KopServerStats.PURGATORY_SCOPE, purgatoryName)
+                .scopeLabel(KopServerStats.SHARD_SCOPE, String.valueOf(shard));
+        final WatcherList watcherList =
+                new WatcherList(shardStatsLogger.getCounter(KopServerStats.PURGATORY_PURGED_OPERATIONS));
+        shardStatsLogger.registerGauge(KopServerStats.PURGATORY_WATCHED_OPERATIONS, new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return watcherList.watched();
+            }
+        });
+        shardStatsLogger.registerGauge(KopServerStats.PURGATORY_WATCHED_KEYS, new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return watcherList.watchersForKey.size();
+            }
+        });
+        return watcherList;
+    }
+
     /**
      * Shutdown the expire reaper thread.
      */
@@ -313,6 +391,43 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
         }
     }
 
+    /**
+     * A shard of the watcher lists. The keys of different shards are protected by different locks so that the
+     * operations on different keys don't contend for the same lock.
+     */
+    private class WatcherList {
+
+        /* a list of operation watching keys */
+        private final ConcurrentMap<Object, Watchers> watchersForKey = new ConcurrentHashMap<>();
+
+        private final ReentrantReadWriteLock removeWatchersLock = new ReentrantReadWriteLock();
+
+        private final Counter purgedOperations;
+
+        WatcherList(Counter purgedOperations) {
+            this.purgedOperations = purgedOperations;
+        }
+
+        /*
+         * Return all the current watcher lists of this shard,
+         * note that the returned watchers may be removed from the list by other threads
+         */
+        Collection<Watchers> allWatchers() {
+            return inReadLock(removeWatchersLock, () -> watchersForKey.values());
+        }
+
+        int watched() {
+            return allWatchers().stream().mapToInt(Watchers::countWatched).sum();
+        }
+
+        // purge the completed operations of this shard, it only blocks the operations on the keys of this shard
+        int purgeCompleted() {
+            final int purged = allWatchers().stream().mapToInt(Watchers::purgeCompleted).sum();
+            purgedOperations.add(purged);
+            return purged;
+        }
+    }
+
     /**
      * A linked list of watched delayed operations based on some key.
      */
@@ -409,7 +524,11 @@ public class DelayedOperationPurgatory<T extends DelayedOperation> {
             if (log.isDebugEnabled()) {
                 log.debug("{} Begin purging watch lists", purgatoryName);
             }
-            int purged = allWatchers().stream().mapToInt(Watchers::purgeCompleted).sum();
+            // purge the shards one by one so that only the keys of the shard being purged are blocked
+            int purged = 0;
+            for (WatcherList watcherList : watcherLists) {
+                purged += watcherList.purgeCompleted();
+            }
             if (log.isDebugEnabled()) {
                 log.debug("{} Purged {} elements from watch lists.", purgatoryName, purged);
             }
@@ -15,8 +15,12 @@ package org.apache.kafka.common.requests;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.streamnative.pulsar.handlers.kop.utils.CompositeByteBufAccessor;
 import java.nio.ByteBuffer;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.apache.kafka.common.protocol.MessageSizeAccumulator;
+import org.apache.kafka.common.protocol.ObjectSerializationCache;
 
 /**
  * Provide util classes to access protected fields in kafka structures.
@@ -37,6 +41,32 @@ public class KopResponseUtils {
         return Unpooled.wrappedBuffer(response.serializeWithHeader(responseHeader, version));
     }
 
+    /**
+     * Serialize a kafka response into a composite byte buf without copying the records.
+     *
+     * The records are referenced by the returned buffer, so they must not be released until the buffer is written.
+     *
+     * @param version
+     * @param responseHeader
+     * @param response
+     * @return
+     */
+    public static ByteBuf serializeResponseWithoutCopy(short version,
+                                                       ResponseHeader responseHeader,
+                                                       AbstractResponse response) {
+        final ObjectSerializationCache cache = new ObjectSerializationCache();
+        final MessageSizeAccumulator messageSize = new MessageSizeAccumulator();
+        final ApiMessage headerData = responseHeader.data();
+        final ApiMessage responseData = response.data();
+        headerData.addSize(messageSize, cache, responseHeader.headerVersion());
+        responseData.addSize(messageSize, cache, version);
+
+        final CompositeByteBufAccessor writable = new CompositeByteBufAccessor(messageSize.sizeExcludingZeroCopy());
+        headerData.write(writable, cache, responseHeader.headerVersion());
+        responseData.write(writable, cache, version);
+        return writable.build();
+    }
+
     public static ByteBuffer serializeRequest(RequestHeader requestHeader, AbstractRequest request) {
         return RequestUtils.serialize(requestHeader.data(), requestHeader.headerVersion(),
                 request.data(), request.version());
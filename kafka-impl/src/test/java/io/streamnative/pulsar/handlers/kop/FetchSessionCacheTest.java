@@ -0,0 +1,162 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.requests.FetchMetadata;
+import org.apache.kafka.common.requests.FetchRequest;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link FetchSessionCache}.
+ */
+public class FetchSessionCacheTest {
+
+    private static final TopicPartition TP0 = new TopicPartition("topic", 0);
+    private static final TopicPartition TP1 = new TopicPartition("topic", 1);
+    private static final Object OWNER = new Object();
+
+    private static FetchRequest newRequest(FetchMetadata metadata,
+                                           List<TopicPartition> partitions,
+                                           List<TopicPartition> toForget) {
+        final Map<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        partitions.forEach(topicPartition -> fetchData.put(topicPartition,
+                new FetchRequest.PartitionData(0L, 0L, 1024, Optional.empty())));
+        return FetchRequest.Builder.forConsumer(100, 1, fetchData)
+                .metadata(metadata)
+                .toForget(toForget)
+                .build(ApiKeys.FETCH.latestVersion());
+    }
+
+    private static LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> newResponseData(
+            long highWatermark0, long highWatermark1) {
+        final LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> responseData =
+                new LinkedHashMap<>();
+        responseData.put(TP0, new FetchResponse.PartitionData<>(Errors.NONE, highWatermark0, highWatermark0, 0L,
+                null, MemoryRecords.EMPTY));
+        responseData.put(TP1, new FetchResponse.PartitionData<>(Errors.NONE, highWatermark1, highWatermark1, 0L,
+                null, MemoryRecords.EMPTY));
+        return responseData;
+    }
+
+    private static int createSession(FetchSessionCache cache, Object owner) {
+        final FetchSessionCache.FetchContext context =
+                cache.newContext(newRequest(FetchMetadata.INITIAL, List.of(TP0, TP1), List.of()), owner);
+        assertEquals(context.partitionsToFetch().keySet(), Set.of(TP0, TP1));
+        assertFalse(context.isAuthorized(TP0));
+        final FetchResponse<Records> response =
+                context.updateAndGenerateResponse(newResponseData(10L, 10L), Set.of(TP0, TP1), 0);
+        assertEquals(response.responseData().keySet(), Set.of(TP0, TP1));
+        return response.sessionId();
+    }
+
+    @Test
+    public void testDisabled() {
+        final FetchSessionCache cache = new FetchSessionCache(0);
+        final FetchSessionCache.FetchContext context =
+                cache.newContext(newRequest(FetchMetadata.INITIAL, List.of(TP0, TP1), List.of()), OWNER);
+        final FetchResponse<Records> response =
+                context.updateAndGenerateResponse(newResponseData(10L, 10L), Set.of(TP0, TP1), 0);
+        assertEquals(response.sessionId(), FetchMetadata.INVALID_SESSION_ID);
+        assertEquals(response.responseData().size(), 2);
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testIncrementalFetch() {
+        final FetchSessionCache cache = new FetchSessionCache(10);
+        final int sessionId = createSession(cache, OWNER);
+        assertNotEquals(sessionId, FetchMetadata.INVALID_SESSION_ID);
+        assertTrue(cache.contains(sessionId));
+
+        // The partitions are fetched from the session without authorization
+        final FetchMetadata metadata = FetchMetadata.newIncremental(sessionId);
+        FetchSessionCache.FetchContext context = cache.newContext(newRequest(metadata, List.of(), List.of()), OWNER);
+        assertEquals(context.error(), Errors.NONE);
+        assertEquals(context.partitionsToFetch().keySet(), Set.of(TP0, TP1));
+        assertTrue(context.isAuthorized(TP0));
+        assertTrue(context.isAuthorized(TP1));
+
+        // Only the changed partitions are returned
+        FetchResponse<Records> response =
+                context.updateAndGenerateResponse(newResponseData(10L, 20L), Set.of(TP0, TP1), 0);
+        assertEquals(response.sessionId(), sessionId);
+        assertEquals(response.responseData().keySet(), Set.of(TP1));
+
+        // The same epoch cannot be used again
+        assertEquals(cache.newContext(newRequest(metadata, List.of(), List.of()), OWNER).error(),
+                Errors.INVALID_FETCH_SESSION_EPOCH);
+        // The session cannot be used by another connection
+        assertEquals(cache.newContext(newRequest(metadata.nextIncremental(), List.of(), List.of()), new Object())
+                .error(), Errors.FETCH_SESSION_ID_NOT_FOUND);
+
+        // Forget a partition
+        context = cache.newContext(newRequest(metadata.nextIncremental(), List.of(), List.of(TP0)), OWNER);
+        assertEquals(context.partitionsToFetch().keySet(), Set.of(TP1));
+        final LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> responseData =
+                newResponseData(10L, 20L);
+        responseData.remove(TP0);
+        response = context.updateAndGenerateResponse(responseData, Set.of(TP1), 0);
+        assertTrue(response.responseData().isEmpty());
+
+        // A full fetch request closes the session
+        cache.newContext(newRequest(metadata.nextCloseExisting(), List.of(TP0), List.of()), OWNER);
+        assertFalse(cache.contains(sessionId));
+    }
+
+    @Test
+    public void testUnauthorizedPartition() {
+        final FetchSessionCache cache = new FetchSessionCache(10);
+        final FetchSessionCache.FetchContext context =
+                cache.newContext(newRequest(FetchMetadata.INITIAL, List.of(TP0, TP1), List.of()), OWNER);
+        final int sessionId = context.updateAndGenerateResponse(newResponseData(10L, 10L), Set.of(TP0), 0)
+                .sessionId();
+
+        final FetchSessionCache.FetchContext incrementalContext = cache.newContext(
+                newRequest(FetchMetadata.newIncremental(sessionId), List.of(), List.of()), OWNER);
+        assertTrue(incrementalContext.isAuthorized(TP0));
+        assertFalse(incrementalContext.isAuthorized(TP1));
+    }
+
+    @Test
+    public void testEviction() {
+        final FetchSessionCache cache = new FetchSessionCache(1);
+        final int sessionId1 = createSession(cache, OWNER);
+        final Object owner2 = new Object();
+        final int sessionId2 = createSession(cache, owner2);
+        assertFalse(cache.contains(sessionId1));
+        assertTrue(cache.contains(sessionId2));
+        assertEquals(cache.getNumEvictions().sum(), 1L);
+        assertEquals(cache.newContext(newRequest(FetchMetadata.newIncremental(sessionId1), List.of(), List.of()),
+                OWNER).error(), Errors.FETCH_SESSION_ID_NOT_FOUND);
+
+        cache.removeByOwner(owner2);
+        assertEquals(cache.size(), 0);
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.kafka.common.message.ApiVersionsResponseData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.requests.AbstractResponse;
+import org.apache.kafka.common.requests.ApiVersionsRequest;
+import org.apache.kafka.common.requests.ApiVersionsResponse;
+import org.apache.kafka.common.requests.KopResponseUtils;
+import org.apache.kafka.common.requests.RequestHeader;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link KafkaCommandDecoder}.
+ */
+public class KafkaCommandDecoderTest {
+
+    private static final short API_VERSION = ApiKeys.API_VERSIONS.latestVersion();
+
+    private final AtomicInteger numFlushes = new AtomicInteger(0);
+    private final List<CompletableFuture<AbstractResponse>> responseFutures = new ArrayList<>();
+    private EmbeddedChannel channel;
+
+    private void setupChannel(int maxQueuedRequests) {
+        final KafkaServiceConfiguration config = new KafkaServiceConfiguration();
+        config.setMaxQueuedRequests(maxQueuedRequests);
+        config.setSendResponseOnEventLoop(true);
+        final KafkaCommandDecoder decoder = mock(KafkaCommandDecoder.class, withSettings()
+                .useConstructor(RequestStats.NULL_INSTANCE, config, (OrderedScheduler) null)
+                .defaultAnswer(CALLS_REAL_METHODS));
+        doReturn(true).when(decoder).hasAuthenticated();
+        doAnswer(invocation -> {
+            responseFutures.add(invocation.getArgument(1));
+            return null;
+        }).when(decoder).handleApiVersionsRequest(any(), any());
+
+        final ChannelOutboundHandlerAdapter flushCounter = new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void flush(ChannelHandlerContext ctx) throws Exception {
+                numFlushes.incrementAndGet();
+                super.flush(ctx);
+            }
+        };
+        channel = new EmbeddedChannel(flushCounter, decoder);
+    }
+
+    @BeforeMethod
+    public void reset() {
+        numFlushes.set(0);
+        responseFutures.clear();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void cleanup() {
+        if (channel != null) {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testWriteResponsesInOrder() {
+        setupChannel(100);
+        for (int i = 0; i < 4; i++) {
+            channel.writeInbound(newApiVersionsRequest(i));
+        }
+        assertEquals(responseFutures.size(), 4);
+
+        // The responses that complete before the first one wait for it
+        completeResponse(3);
+        completeResponse(1);
+        completeResponse(2);
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        assertEquals(numFlushes.get(), 0);
+
+        // The pipelined responses are written in the request order with a single flush
+        completeResponse(0);
+        channel.runPendingTasks();
+        assertEquals(readCorrelationIds(), List.of(0, 1, 2, 3));
+        assertEquals(numFlushes.get(), 1);
+    }
+
+    @Test(timeOut = 30000)
+    public void testPauseReadWhenRequestQueueIsFull() {
+        setupChannel(2);
+        channel.writeInbound(newApiVersionsRequest(0));
+        assertTrue(channel.config().isAutoRead());
+        channel.writeInbound(newApiVersionsRequest(1));
+        assertFalse(channel.config().isAutoRead());
+
+        // The request that is read before the auto read takes effect is kept instead of blocking the event loop
+        channel.writeInbound(newApiVersionsRequest(2));
+        assertEquals(responseFutures.size(), 2);
+
+        // The pending request is handled once a response is written, then the queue is full again
+        completeResponse(0);
+        channel.runPendingTasks();
+        assertEquals(responseFutures.size(), 3);
+        assertFalse(channel.config().isAutoRead());
+
+        completeResponse(1);
+        completeResponse(2);
+        channel.runPendingTasks();
+        assertTrue(channel.config().isAutoRead());
+        assertEquals(readCorrelationIds(), List.of(0, 1, 2));
+
+        channel.writeInbound(newApiVersionsRequest(3));
+        assertEquals(responseFutures.size(), 4);
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    private static ByteBuf newApiVersionsRequest(int correlationId) {
+        final RequestHeader header = new RequestHeader(ApiKeys.API_VERSIONS, API_VERSION, "client", correlationId);
+        return Unpooled.wrappedBuffer(KopResponseUtils.serializeRequest(header,
+                new ApiVersionsRequest.Builder().build(API_VERSION)));
+    }
+
+    private void completeResponse(int index) {
+        responseFutures.get(index).complete(new ApiVersionsResponse(new ApiVersionsResponseData()));
+    }
+
+    private List<Integer> readCorrelationIds() {
+        final List<Integer> correlationIds = new ArrayList<>();
+        ByteBuf buffer;
+        while ((buffer = channel.readOutbound()) != null) {
+            // The response header starts with the correlation id
+            correlationIds.add(buffer.getInt(buffer.readerIndex()));
+            buffer.release();
+        }
+        return correlationIds;
+    }
+}
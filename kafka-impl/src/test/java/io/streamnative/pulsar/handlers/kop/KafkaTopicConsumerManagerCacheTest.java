@@ -0,0 +1,74 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link KafkaTopicConsumerManagerCache}.
+ */
+public class KafkaTopicConsumerManagerCacheTest {
+
+    private static final String TOPIC = "persistent://public/default/topic-partition-0";
+    private static final SocketAddress ADDRESS_1 = InetSocketAddress.createUnresolved("localhost", 10001);
+    private static final SocketAddress ADDRESS_2 = InetSocketAddress.createUnresolved("localhost", 10002);
+
+    @Test
+    public void testNotShared() {
+        final KafkaTopicConsumerManagerCache cache = new KafkaTopicConsumerManagerCache(false);
+        final KafkaTopicConsumerManager tcm1 = mock(KafkaTopicConsumerManager.class);
+        final KafkaTopicConsumerManager tcm2 = mock(KafkaTopicConsumerManager.class);
+        assertSame(cache.computeIfAbsent(TOPIC, ADDRESS_1, () -> CompletableFuture.completedFuture(tcm1)).join(),
+                tcm1);
+        assertSame(cache.computeIfAbsent(TOPIC, ADDRESS_2, () -> CompletableFuture.completedFuture(tcm2)).join(),
+                tcm2);
+        assertEquals(cache.getCount(), 2);
+
+        cache.removeAndCloseByAddress(ADDRESS_1);
+        verify(tcm1).close();
+        verify(tcm2, never()).close();
+        assertEquals(cache.getCount(), 1);
+    }
+
+    @Test
+    public void testShared() {
+        final KafkaTopicConsumerManagerCache cache = new KafkaTopicConsumerManagerCache(true);
+        final KafkaTopicConsumerManager tcm1 = mock(KafkaTopicConsumerManager.class);
+        final KafkaTopicConsumerManager tcm2 = mock(KafkaTopicConsumerManager.class);
+        assertSame(cache.computeIfAbsent(TOPIC, ADDRESS_1, () -> CompletableFuture.completedFuture(tcm1)).join(),
+                tcm1);
+        // The TCM created by another connection is reused
+        assertSame(cache.computeIfAbsent(TOPIC, ADDRESS_2, () -> CompletableFuture.completedFuture(tcm2)).join(),
+                tcm1);
+        assertEquals(cache.getCount(), 1);
+
+        // The shared TCM is not closed when a connection is closed
+        cache.removeAndCloseByAddress(ADDRESS_1);
+        verify(tcm1, never()).close();
+        assertEquals(cache.getCount(), 1);
+
+        cache.removeAndCloseByTopic(TOPIC);
+        verify(tcm1).close();
+        assertEquals(cache.getCount(), 0);
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.kafka.common.errors.InvalidPartitionsException;
+import org.apache.kafka.common.errors.PolicyViolationException;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.namespace.NamespaceService;
+import org.apache.pulsar.broker.resources.NamespaceResources;
+import org.apache.pulsar.broker.resources.PulsarResources;
+import org.apache.pulsar.broker.resources.TopicResources;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.common.naming.NamespaceName;
+import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.common.partition.PartitionedTopicMetadata;
+import org.apache.pulsar.common.policies.data.AutoTopicCreationOverride;
+import org.apache.pulsar.common.policies.data.Policies;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.pulsar.metadata.api.MetadataStoreException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link PartitionedTopicService}.
+ */
+public class PartitionedTopicServiceTest {
+
+    private static final TopicName TOPIC = TopicName.get("persistent://public/default/my-topic");
+
+    private ServiceConfiguration config;
+    private BrokerService brokerService;
+    private NamespaceService namespaceService;
+    private NamespaceResources namespaceResources;
+    private NamespaceResources.PartitionedTopicResources partitionedTopicResources;
+    private TopicResources topicResources;
+    private PartitionedTopicService service;
+
+    @BeforeMethod
+    public void setup() {
+        final PulsarService pulsar = mock(PulsarService.class);
+        config = new ServiceConfiguration();
+        brokerService = mock(BrokerService.class);
+        namespaceService = mock(NamespaceService.class);
+        final PulsarResources pulsarResources = mock(PulsarResources.class);
+        namespaceResources = mock(NamespaceResources.class);
+        partitionedTopicResources = mock(NamespaceResources.PartitionedTopicResources.class);
+        topicResources = mock(TopicResources.class);
+        when(pulsar.getBrokerService()).thenReturn(brokerService);
+        when(pulsar.getNamespaceService()).thenReturn(namespaceService);
+        when(pulsar.getPulsarResources()).thenReturn(pulsarResources);
+        when(pulsar.getConfiguration()).thenReturn(config);
+        when(pulsarResources.getNamespaceResources()).thenReturn(namespaceResources);
+        when(pulsarResources.getTopicResources()).thenReturn(topicResources);
+        when(namespaceResources.getPartitionedTopicResources()).thenReturn(partitionedTopicResources);
+        service = new PartitionedTopicService(pulsar);
+    }
+
+    @Test
+    public void testGetNumPartitions() throws Exception {
+        when(brokerService.fetchPartitionedTopicMetadataAsync(TOPIC))
+                .thenReturn(CompletableFuture.completedFuture(new PartitionedTopicMetadata(3)));
+        assertEquals(service.getNumPartitionsAsync(TOPIC).get(), Optional.of(3));
+        verify(namespaceService, never()).checkTopicExists(any());
+
+        when(brokerService.fetchPartitionedTopicMetadataAsync(TOPIC))
+                .thenReturn(CompletableFuture.completedFuture(new PartitionedTopicMetadata(0)));
+        when(namespaceService.checkTopicExists(TOPIC)).thenReturn(CompletableFuture.completedFuture(true));
+        assertEquals(service.getNumPartitionsAsync(TOPIC).get(), Optional.of(0));
+        when(namespaceService.checkTopicExists(TOPIC)).thenReturn(CompletableFuture.completedFuture(false));
+        assertEquals(service.getNumPartitionsAsync(TOPIC).get(), Optional.empty());
+    }
+
+    @Test
+    public void testCoalesceLookups() throws Exception {
+        final CompletableFuture<PartitionedTopicMetadata> metadataFuture = new CompletableFuture<>();
+        when(brokerService.fetchPartitionedTopicMetadataAsync(TOPIC)).thenReturn(metadataFuture);
+        final CompletableFuture<Optional<Integer>> future1 = service.getNumPartitionsAsync(TOPIC);
+        final CompletableFuture<Optional<Integer>> future2 = service.getNumPartitionsAsync(TOPIC);
+        assertSame(future1, future2);
+        assertEquals(service.numPendingLookups(), 1);
+        verify(brokerService, times(1)).fetchPartitionedTopicMetadataAsync(TOPIC);
+
+        metadataFuture.complete(new PartitionedTopicMetadata(2));
+        assertEquals(future1.get(), Optional.of(2));
+        assertEquals(service.numPendingLookups(), 0);
+    }
+
+    @Test
+    public void testAllowAutoTopicCreation() throws Exception {
+        final NamespaceName namespace = TOPIC.getNamespaceObject();
+        final Policies policies = new Policies();
+        when(namespaceResources.getPoliciesAsync(namespace))
+                .thenReturn(CompletableFuture.completedFuture(Optional.of(policies)));
+        assertTrue(service.isAllowAutoTopicCreationAsync(namespace, true).get());
+
+        policies.autoTopicCreationOverride = AutoTopicCreationOverride.builder()
+                .allowAutoTopicCreation(false).topicType("partitioned").defaultNumPartitions(1).build();
+        assertFalse(service.isAllowAutoTopicCreationAsync(namespace, true).get());
+
+        when(namespaceResources.getPoliciesAsync(namespace))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        try {
+            service.isAllowAutoTopicCreationAsync(namespace, true).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MetadataStoreException.NotFoundException);
+        }
+    }
+
+    @Test
+    public void testCreatePartitionedTopic() throws Exception {
+        when(namespaceResources.getPoliciesAsync(TOPIC.getNamespaceObject()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.of(new Policies())));
+        when(topicResources.persistentTopicExists(TOPIC)).thenReturn(CompletableFuture.completedFuture(false));
+        when(partitionedTopicResources.createPartitionedTopicAsync(any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        when(topicResources.createPersistentTopicAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+        // the partition that already exists is ignored
+        when(topicResources.createPersistentTopicAsync(TOPIC.getPartition(1))).thenReturn(
+                FutureUtil.failedFuture(new MetadataStoreException.AlreadyExistsException("exists")));
+
+        service.createPartitionedTopicAsync(TOPIC, 3).get();
+        verify(partitionedTopicResources, times(1)).createPartitionedTopicAsync(any(), any());
+        for (int i = 0; i < 3; i++) {
+            verify(topicResources, times(1)).createPersistentTopicAsync(TOPIC.getPartition(i));
+        }
+
+        when(partitionedTopicResources.createPartitionedTopicAsync(any(), any())).thenReturn(
+                FutureUtil.failedFuture(new MetadataStoreException.AlreadyExistsException("exists")));
+        assertCreateFailed(3, TopicExistsException.class);
+
+        when(topicResources.persistentTopicExists(TOPIC)).thenReturn(CompletableFuture.completedFuture(true));
+        assertCreateFailed(3, TopicExistsException.class);
+
+        assertCreateFailed(0, InvalidPartitionsException.class);
+    }
+
+    @Test
+    public void testMaxTopicsPerNamespace() throws Exception {
+        final Policies policies = new Policies();
+        when(namespaceResources.getPoliciesAsync(TOPIC.getNamespaceObject()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.of(policies)));
+        when(topicResources.persistentTopicExists(TOPIC)).thenReturn(CompletableFuture.completedFuture(false));
+        when(partitionedTopicResources.createPartitionedTopicAsync(any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        when(topicResources.createPersistentTopicAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(namespaceService.getListOfPersistentTopics(TOPIC.getNamespaceObject()))
+                .thenReturn(CompletableFuture.completedFuture(Arrays.asList(
+                        "persistent://public/default/other-partition-0",
+                        "persistent://public/default/other-partition-1")));
+
+        // the broker's limit is used if the namespace policies don't override it
+        config.setMaxTopicsPerNamespace(4);
+        assertCreateFailed(3, PolicyViolationException.class);
+        service.createPartitionedTopicAsync(TOPIC, 2).get();
+
+        policies.max_topics_per_namespace = 3;
+        assertCreateFailed(2, PolicyViolationException.class);
+        service.createPartitionedTopicAsync(TOPIC, 1).get();
+        verify(partitionedTopicResources, times(2)).createPartitionedTopicAsync(any(), any());
+
+        // the limit of the namespace policies is disabled by 0 as well
+        policies.max_topics_per_namespace = 0;
+        service.createPartitionedTopicAsync(TOPIC, 16).get();
+        verify(partitionedTopicResources, times(3)).createPartitionedTopicAsync(any(), any());
+    }
+
+    private void assertCreateFailed(int numPartitions, Class<? extends Throwable> exceptionClass) {
+        try {
+            service.createPartitionedTopicAsync(TOPIC, numPartitions).get();
+            fail();
+        } catch (InterruptedException | ExecutionException e) {
+            assertTrue(exceptionClass.isInstance(e.getCause()), "Unexpected exception: " + e.getCause());
+        }
+    }
+}
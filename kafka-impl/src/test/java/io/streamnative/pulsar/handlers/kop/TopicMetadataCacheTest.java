@@ -0,0 +1,148 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static org.apache.kafka.common.requests.MetadataResponse.PartitionMetadata;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import io.streamnative.pulsar.handlers.kop.utils.KafkaResponseUtils;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.pulsar.metadata.api.Notification;
+import org.apache.pulsar.metadata.api.NotificationType;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link TopicMetadataCache}.
+ */
+public class TopicMetadataCacheTest {
+
+    private static final String TOPIC = "persistent://public/default/my-topic";
+
+    private final AtomicInteger numLoads = new AtomicInteger(0);
+    private TopicMetadataCache cache;
+
+    @BeforeMethod
+    public void setup() {
+        numLoads.set(0);
+        cache = new TopicMetadataCache(60000L, 1000L);
+    }
+
+    private Supplier<CompletableFuture<Integer>> partitionsLoader(int numPartitions) {
+        return () -> {
+            numLoads.incrementAndGet();
+            return CompletableFuture.completedFuture(numPartitions);
+        };
+    }
+
+    private Supplier<CompletableFuture<PartitionMetadata>> leaderLoader(String partition, Errors error) {
+        return () -> {
+            numLoads.incrementAndGet();
+            final TopicPartition topicPartition = new TopicPartition(partition, 0);
+            final KafkaResponseUtils.BrokerLookupResult result = (error == Errors.NONE)
+                    ? KafkaResponseUtils.newMetadataPartition(topicPartition, new Node(1, "localhost", 9092))
+                    : KafkaResponseUtils.newMetadataPartition(error, topicPartition);
+            return CompletableFuture.completedFuture(result.toPartitionMetadata());
+        };
+    }
+
+    private void cacheLeaders(int numPartitions) throws Exception {
+        for (int i = 0; i < numPartitions; i++) {
+            final String partition = TOPIC + "-partition-" + i;
+            cache.getLeader(partition, "PLAINTEXT", leaderLoader(partition, Errors.NONE)).get();
+        }
+    }
+
+    @Test
+    public void testCacheNumPartitions() throws Exception {
+        assertEquals(cache.getNumPartitions(TOPIC, partitionsLoader(3)).get().intValue(), 3);
+        assertEquals(cache.getNumPartitions(TOPIC, partitionsLoader(3)).get().intValue(), 3);
+        assertEquals(numLoads.get(), 1);
+
+        // the errors are not cached
+        final String otherTopic = TOPIC + "-other";
+        cache.getNumPartitions(otherTopic, partitionsLoader(TopicAndMetadata.INVALID_PARTITIONS)).get();
+        assertEquals(cache.getNumPartitions(otherTopic, partitionsLoader(0)).get().intValue(), 0);
+        assertEquals(numLoads.get(), 3);
+        assertEquals(cache.numCachedTopics(), 2);
+    }
+
+    @Test
+    public void testCacheLeaders() throws Exception {
+        final String partition = TOPIC + "-partition-0";
+        final PartitionMetadata metadata = cache.getLeader(partition, "PLAINTEXT",
+                leaderLoader(partition, Errors.NONE)).get();
+        assertSame(cache.getLeader(partition, "PLAINTEXT", leaderLoader(partition, Errors.NONE)).get(), metadata);
+        assertEquals(numLoads.get(), 1);
+
+        // each listener has its own leader
+        cache.getLeader(partition, null, leaderLoader(partition, Errors.NONE)).get();
+        assertEquals(numLoads.get(), 2);
+        assertEquals(cache.numCachedPartitions(), 1);
+
+        // the errors are not cached
+        final String otherPartition = TOPIC + "-partition-1";
+        cache.getLeader(otherPartition, "PLAINTEXT", leaderLoader(otherPartition, Errors.NOT_LEADER_OR_FOLLOWER))
+                .get();
+        assertEquals(cache.numCachedPartitions(), 1);
+
+        cache.invalidateLeader(partition);
+        assertEquals(cache.numCachedPartitions(), 0);
+    }
+
+    @Test
+    public void testInvalidateByPartitionedTopicChange() throws Exception {
+        cache.getNumPartitions(TOPIC, partitionsLoader(3)).get();
+        cacheLeaders(3);
+        cache.getNumPartitions(TOPIC + "-other", partitionsLoader(1)).get();
+        assertEquals(cache.numCachedTopics(), 2);
+        assertEquals(cache.numCachedPartitions(), 3);
+
+        cache.onMetadataChanged(new Notification(NotificationType.Modified,
+                "/admin/partitioned-topics/public/default/persistent/my-topic"));
+        assertEquals(cache.numCachedTopics(), 1);
+        assertEquals(cache.numCachedPartitions(), 0);
+    }
+
+    @Test
+    public void testInvalidateByOwnershipChange() throws Exception {
+        cacheLeaders(2);
+        cache.getNumPartitions(TOPIC, partitionsLoader(2)).get();
+
+        cache.onMetadataChanged(new Notification(NotificationType.Deleted,
+                "/namespace/public/other/0x00000000_0x40000000"));
+        assertEquals(cache.numCachedPartitions(), 2);
+        cache.onMetadataChanged(new Notification(NotificationType.Deleted,
+                "/namespace/public/default/0x00000000_0x40000000"));
+        assertEquals(cache.numCachedPartitions(), 0);
+        // the number of partitions is not affected by the ownership
+        assertEquals(cache.numCachedTopics(), 1);
+    }
+
+    @Test
+    public void testInvalidateDuringLoad() throws Exception {
+        final CompletableFuture<Integer> loadFuture = new CompletableFuture<>();
+        final CompletableFuture<Integer> future = cache.getNumPartitions(TOPIC, () -> loadFuture);
+        cache.invalidateTopic(TOPIC + "-partition-0");
+        loadFuture.complete(3);
+        assertEquals(future.get().intValue(), 3);
+        assertEquals(cache.numCachedTopics(), 0);
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link GroupMetadataSnapshot}.
+ */
+public class GroupMetadataSnapshotTest {
+
+    @Test
+    public void testPropertyRoundTrip() {
+        final GroupMetadataSnapshot snapshot =
+                new GroupMetadataSnapshot(PositionImpl.get(10L, 20L), PositionImpl.get(10L, 25L));
+        assertEquals(snapshot.toProperty(), "0:10:20:10:25");
+        assertEquals(GroupMetadataSnapshot.fromProperty(snapshot.toProperty()), snapshot);
+    }
+
+    @Test
+    public void testInvalidProperty() {
+        expectThrows(IllegalArgumentException.class, () -> GroupMetadataSnapshot.fromProperty(""));
+        expectThrows(IllegalArgumentException.class, () -> GroupMetadataSnapshot.fromProperty("0:1:2:3"));
+        expectThrows(IllegalArgumentException.class, () -> GroupMetadataSnapshot.fromProperty("0:1:2:3:x"));
+        // unknown version
+        expectThrows(IllegalArgumentException.class, () -> GroupMetadataSnapshot.fromProperty("1:1:2:3:4"));
+    }
+
+    @Test
+    public void testParseEntry() {
+        final OffsetsTopicLocalWriter writer = new OffsetsTopicLocalWriter(mock(BrokerService.class));
+        final ByteBuf entry = writer.serialize(GroupMetadataSnapshot.SNAPSHOT_KEY,
+                ByteBuffer.wrap("snapshot".getBytes()), 0L);
+        final ByteBuffer value = GroupMetadataSnapshot.parseEntry(entry);
+        entry.release();
+        assertEquals(new String(value.array(), value.position(), value.remaining()), "snapshot");
+
+        final ByteBuf otherEntry = writer.serialize("key".getBytes(), ByteBuffer.wrap("value".getBytes()), 0L);
+        expectThrows(IllegalArgumentException.class, () -> GroupMetadataSnapshot.parseEntry(otherEntry));
+        otherEntry.release();
+
+        assertTrue(GroupMetadataSnapshot.isSnapshotKey(GroupMetadataSnapshot.SNAPSHOT_KEY.clone()));
+        assertFalse(GroupMetadataSnapshot.isSnapshotKey(null));
+    }
+}
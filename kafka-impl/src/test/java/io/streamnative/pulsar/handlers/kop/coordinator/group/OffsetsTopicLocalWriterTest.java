@@ -0,0 +1,228 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.BrokerServiceException;
+import org.apache.pulsar.broker.service.Topic;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.BatchMessageIdImpl;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link OffsetsTopicLocalWriter}.
+ */
+public class OffsetsTopicLocalWriterTest {
+
+    private static final String PARTITION_NAME = "persistent://public/__kafka/__consumer_offsets-partition-1";
+
+    private final List<byte[]> publishedMessages = Collections.synchronizedList(new ArrayList<>());
+    private final List<Topic.PublishContext> publishContexts = Collections.synchronizedList(new ArrayList<>());
+    private EventLoopGroup executor;
+    private BrokerService brokerService;
+    private OffsetsTopicLocalWriter writer;
+
+    @BeforeClass
+    public void setupExecutor() {
+        executor = new DefaultEventLoopGroup(1);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void cleanup() {
+        executor.shutdownGracefully();
+    }
+
+    @BeforeMethod
+    public void setup() {
+        publishedMessages.clear();
+        publishContexts.clear();
+        brokerService = mock(BrokerService.class);
+        when(brokerService.executor()).thenReturn(executor);
+        when(brokerService.getTopicReference(any())).thenReturn(Optional.empty());
+
+        final PersistentTopic persistentTopic = mock(PersistentTopic.class);
+        doAnswer(invocation -> {
+            final ByteBuf buf = invocation.getArgument(0);
+            final byte[] bytes = new byte[buf.readableBytes()];
+            buf.getBytes(buf.readerIndex(), bytes);
+            publishedMessages.add(bytes);
+            publishContexts.add(invocation.getArgument(1));
+            return null;
+        }).when(persistentTopic).publishMessage(any(), any());
+        when(brokerService.getTopicReference(PARTITION_NAME)).thenReturn(Optional.of(persistentTopic));
+
+        writer = new OffsetsTopicLocalWriter(brokerService);
+    }
+
+    @Test
+    public void testWriteToRemotePartition() {
+        assertFalse(writer.write(PARTITION_NAME + "-remote", 0, "key".getBytes(), ByteBuffer.allocate(1), 0L)
+                .isPresent());
+        assertTrue(publishedMessages.isEmpty());
+    }
+
+    @Test
+    public void testWriteWithShortTopicName() {
+        assertTrue(writer.write("public/__kafka/__consumer_offsets-partition-1", 1, "key".getBytes(),
+                ByteBuffer.allocate(1), 0L).isPresent());
+        assertEquals(publishedMessages.size(), 1);
+    }
+
+    @Test
+    public void testWriteToLocalPartition() throws Exception {
+        final ByteBuffer value = ByteBuffer.wrap("value".getBytes());
+        final Optional<CompletableFuture<MessageId>> optFuture =
+                writer.write(PARTITION_NAME, 1, "key".getBytes(), value, 100L);
+        assertTrue(optFuture.isPresent());
+        // the value is not consumed so that it can be sent by the producer if the local write failed
+        assertEquals(value.remaining(), "value".length());
+
+        assertEquals(publishedMessages.size(), 1);
+        final ByteBuf buf = Unpooled.wrappedBuffer(publishedMessages.get(0));
+        final MessageMetadata metadata = Commands.parseMessageMetadata(buf);
+        assertTrue(metadata.isPartitionKeyB64Encoded());
+        assertEquals(metadata.getPartitionKey(), Base64.getEncoder().encodeToString("key".getBytes()));
+        assertEquals(metadata.getEventTime(), 100L);
+        assertEquals(metadata.getSequenceId(), 0L);
+        final byte[] payload = new byte[buf.readableBytes()];
+        buf.readBytes(payload);
+        assertEquals(new String(payload), "value");
+
+        assertFalse(optFuture.get().isDone());
+        publishContexts.get(0).completed(null, 10L, 20L);
+        assertEquals(optFuture.get().get(), new MessageIdImpl(10L, 20L, 1));
+    }
+
+    @Test
+    public void testWriteFailed() throws Exception {
+        final CompletableFuture<MessageId> future =
+                writer.write(PARTITION_NAME, 1, "key".getBytes(), ByteBuffer.allocate(1), 0L).orElseThrow();
+        final Exception exception = new BrokerServiceException.TopicFencedException("fenced");
+        publishContexts.get(0).completed(exception, -1L, -1L);
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            assertTrue(OffsetsTopicLocalWriter.isTopicUnavailable(e.getCause()));
+        }
+        assertTrue(future.isCompletedExceptionally());
+        assertFalse(OffsetsTopicLocalWriter.isTopicUnavailable(new RuntimeException()));
+    }
+
+    @Test
+    public void testBatchOnMaxBytes() throws Exception {
+        final OffsetsTopicLocalWriter batchWriter =
+                new OffsetsTopicLocalWriter(brokerService, 60000L, 21, NullStatsLogger.INSTANCE);
+        final List<CompletableFuture<MessageId>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final ByteBuffer value = ByteBuffer.wrap(("value-" + i).getBytes());
+            futures.add(batchWriter.write(PARTITION_NAME, 1, ("key-" + i).getBytes(), value, i).orElseThrow());
+        }
+        // Each value is 7 bytes, the batch is written once the 3rd message is added because the max bytes is reached
+        assertEquals(batchWriter.numPendingMessages(PARTITION_NAME), 0);
+        assertEquals(publishedMessages.size(), 1);
+
+        final ByteBuf buf = Unpooled.wrappedBuffer(publishedMessages.get(0));
+        final MessageMetadata metadata = Commands.parseMessageMetadata(buf);
+        assertEquals(metadata.getNumMessagesInBatch(), 3);
+        for (int i = 0; i < 3; i++) {
+            final SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+            final ByteBuf payload = Commands.deSerializeSingleMessageInBatch(buf, singleMessageMetadata, i, 3);
+            // Each message keeps its own key so that the compaction works
+            assertEquals(singleMessageMetadata.getPartitionKey(),
+                    Base64.getEncoder().encodeToString(("key-" + i).getBytes()));
+            assertEquals(singleMessageMetadata.getEventTime(), i);
+            final byte[] bytes = new byte[payload.readableBytes()];
+            payload.readBytes(bytes);
+            assertEquals(new String(bytes), "value-" + i);
+            payload.release();
+        }
+
+        publishContexts.get(0).completed(null, 10L, 20L);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(futures.get(i).get(), new BatchMessageIdImpl(10L, 20L, 1, i));
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testBatchOnDelay() throws Exception {
+        final OffsetsTopicLocalWriter batchWriter =
+                new OffsetsTopicLocalWriter(brokerService, 100L, 1024 * 1024, NullStatsLogger.INSTANCE);
+        final CompletableFuture<MessageId> future1 = batchWriter.write(
+                PARTITION_NAME, 1, "key-0".getBytes(), ByteBuffer.allocate(1), 0L).orElseThrow();
+        final CompletableFuture<MessageId> future2 = batchWriter.write(
+                PARTITION_NAME, 1, "key-1".getBytes(), ByteBuffer.allocate(1), 0L).orElseThrow();
+        assertEquals(batchWriter.numPendingMessages(PARTITION_NAME), 2);
+
+        while (batchWriter.numPendingMessages(PARTITION_NAME) > 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(publishContexts.size(), 1);
+        final Exception exception = new BrokerServiceException.TopicClosedException(new RuntimeException());
+        publishContexts.get(0).completed(exception, -1L, -1L);
+        assertTrue(future1.isCompletedExceptionally());
+        assertTrue(future2.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testWriteUnbatched() throws Exception {
+        final OffsetsTopicLocalWriter batchWriter =
+                new OffsetsTopicLocalWriter(brokerService, 60000L, 1024 * 1024, NullStatsLogger.INSTANCE);
+        final CompletableFuture<MessageId> future1 = batchWriter.write(
+                PARTITION_NAME, 1, "key-0".getBytes(), ByteBuffer.allocate(1), 0L).orElseThrow();
+        final CompletableFuture<MessageId> future2 = batchWriter.writeUnbatched(
+                PARTITION_NAME, 1, "key-1".getBytes(), ByteBuffer.allocate(1), 0L).orElseThrow();
+        // The buffered message is written before the unbatched message
+        assertEquals(batchWriter.numPendingMessages(PARTITION_NAME), 0);
+        assertEquals(publishedMessages.size(), 2);
+        for (int i = 0; i < 2; i++) {
+            final MessageMetadata metadata = Commands.parseMessageMetadata(
+                    Unpooled.wrappedBuffer(publishedMessages.get(i)));
+            assertFalse(metadata.hasNumMessagesInBatch());
+            assertEquals(metadata.getPartitionKey(), Base64.getEncoder().encodeToString(("key-" + i).getBytes()));
+        }
+        publishContexts.get(0).completed(null, 10L, 20L);
+        publishContexts.get(1).completed(null, 10L, 21L);
+        assertEquals(future1.get(), new MessageIdImpl(10L, 20L, 1));
+        assertEquals(future2.get(), new MessageIdImpl(10L, 21L, 1));
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.requests.AbstractResponse;
+import org.apache.kafka.common.requests.TransactionResult;
+import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link TransactionMarkerChannelHandler}.
+ */
+public class TransactionMarkerChannelHandlerTest {
+
+    private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("broker-0", 9092);
+
+    @Test(timeOut = 30000)
+    public void testRequestTimeout() throws Exception {
+        final TransactionMarkerChannelManager manager = mock(TransactionMarkerChannelManager.class);
+        when(manager.getKafkaConfig()).thenReturn(new KafkaServiceConfiguration());
+        final TransactionMarkerChannelHandler handler = new TransactionMarkerChannelHandler(manager);
+        final EmbeddedChannel channel = new EmbeddedChannel(handler) {
+            @Override
+            protected SocketAddress remoteAddress0() {
+                return ADDRESS;
+            }
+        };
+
+        final CompletableFuture<AbstractResponse> future = handler.enqueueWriteTxnMarkers(
+                Collections.singletonList(new TxnMarkerEntry(1L, (short) 0, 0, TransactionResult.COMMIT,
+                        Collections.singletonList(new TopicPartition("topic", 0)))),
+                __ -> {},
+                1000L);
+        final ByteBuf request = channel.readOutbound();
+        request.release();
+
+        channel.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        channel.runScheduledPendingTasks();
+        assertFalse(future.isDone());
+
+        // The broker doesn't respond, the request fails and the channel is closed to fail the other requests
+        channel.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        channel.runScheduledPendingTasks();
+        assertTrue(future.isCompletedExceptionally());
+        final ExecutionException e = expectThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof TimeoutException);
+        assertFalse(channel.isOpen());
+        verify(manager).channelFailed(ADDRESS, handler);
+    }
+}
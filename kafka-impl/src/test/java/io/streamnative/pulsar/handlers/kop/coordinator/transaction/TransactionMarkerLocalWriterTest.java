@@ -0,0 +1,168 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.kop.PendingTopicFutures;
+import io.streamnative.pulsar.handlers.kop.storage.AppendRecordsContext;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionLog;
+import io.streamnative.pulsar.handlers.kop.storage.ReplicaManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.ControlRecordType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.requests.ProduceResponse;
+import org.apache.kafka.common.requests.TransactionResult;
+import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry;
+import org.apache.kafka.common.requests.WriteTxnMarkersResponse;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link TransactionMarkerLocalWriter}.
+ */
+public class TransactionMarkerLocalWriterTest {
+
+    private static final String NAMESPACE_PREFIX = "public/default";
+    private static final String METADATA_NAMESPACE = "__kafka";
+
+    private BrokerService brokerService;
+    private ReplicaManager replicaManager;
+    private TransactionMarkerLocalWriter writer;
+
+    @BeforeMethod
+    public void setup() {
+        brokerService = mock(BrokerService.class);
+        when(brokerService.getTopicReference(anyString())).thenReturn(Optional.empty());
+        replicaManager = mock(ReplicaManager.class);
+        writer = new TransactionMarkerLocalWriter(brokerService, () -> replicaManager, METADATA_NAMESPACE, 30000L);
+    }
+
+    @Test
+    public void testCanWrite() {
+        final TopicPartition localPartition = new TopicPartition("local", 0);
+        final String localPartitionName = "persistent://public/default/local-partition-0";
+        when(brokerService.getTopicReference(localPartitionName))
+                .thenReturn(Optional.of(mock(PersistentTopic.class)));
+        assertTrue(writer.canWrite(localPartition, localPartitionName));
+        assertFalse(writer.canWrite(new TopicPartition("remote", 0),
+                "persistent://public/default/remote-partition-0"));
+
+        // The markers of the offsets topic are always sent by the requests
+        final String offsetsPartitionName = "persistent://public/__kafka/__consumer_offsets-partition-0";
+        when(brokerService.getTopicReference(offsetsPartitionName))
+                .thenReturn(Optional.of(mock(PersistentTopic.class)));
+        assertFalse(writer.canWrite(new TopicPartition("persistent://public/__kafka/__consumer_offsets", 0),
+                offsetsPartitionName));
+
+        // The replica manager is not created yet
+        final TransactionMarkerLocalWriter writerWithoutReplicaManager =
+                new TransactionMarkerLocalWriter(brokerService, () -> null, METADATA_NAMESPACE, 30000L);
+        assertFalse(writerWithoutReplicaManager.canWrite(localPartition, localPartitionName));
+    }
+
+    @Test
+    public void testWriteTxnMarkers() throws Exception {
+        final TopicPartition tp0 = new TopicPartition("topic", 0);
+        final TopicPartition tp1 = new TopicPartition("topic", 1);
+        final TopicPartition tp2 = new TopicPartition("topic", 2);
+        final List<Map<TopicPartition, MemoryRecords>> appendedRecords =
+                Collections.synchronizedList(new ArrayList<>());
+        final Set<Map<TopicPartition, PendingTopicFutures>> pendingTopicFuturesMaps =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+        doAnswer(invocation -> {
+            final Map<TopicPartition, MemoryRecords> records = invocation.getArgument(3);
+            appendedRecords.add(records);
+            final AppendRecordsContext appendRecordsContext = invocation.getArgument(5);
+            pendingTopicFuturesMaps.add(appendRecordsContext.getPendingTopicFuturesMap());
+            if (records.containsKey(tp2)) {
+                final CompletableFuture<Map<TopicPartition, ProduceResponse.PartitionResponse>> future =
+                        new CompletableFuture<>();
+                future.completeExceptionally(new RuntimeException("failed to append"));
+                return future;
+            }
+            final Map<TopicPartition, ProduceResponse.PartitionResponse> responses = new HashMap<>();
+            records.keySet().forEach(topicPartition -> responses.put(topicPartition, topicPartition.equals(tp1)
+                    ? new ProduceResponse.PartitionResponse(Errors.NOT_LEADER_OR_FOLLOWER)
+                    : new ProduceResponse.PartitionResponse(Errors.NONE, 0L, -1L, -1L)));
+            return CompletableFuture.completedFuture(responses);
+        }).when(replicaManager).appendRecords(anyLong(), anyBoolean(), eq(NAMESPACE_PREFIX), any(),
+                eq(PartitionLog.AppendOrigin.Coordinator), any());
+
+        final WriteTxnMarkersResponse response = writer.writeTxnMarkers(Arrays.asList(
+                new TxnMarkerEntry(1L, (short) 0, 0, TransactionResult.COMMIT, Arrays.asList(tp0, tp1)),
+                new TxnMarkerEntry(2L, (short) 0, 0, TransactionResult.ABORT, Collections.singletonList(tp2))
+        ), NAMESPACE_PREFIX).get();
+
+        assertEquals(appendedRecords.size(), 2);
+        final Map<Long, Map<TopicPartition, Errors>> errors = response.errorsByProducerId();
+        assertEquals(errors.size(), 2);
+        assertEquals(errors.get(1L).get(tp0), Errors.NONE);
+        assertEquals(errors.get(1L).get(tp1), Errors.NOT_LEADER_OR_FOLLOWER);
+        assertEquals(errors.get(2L).get(tp2), Errors.KAFKA_STORAGE_ERROR);
+
+        // Each call has its own pending futures map, which is not kept by the writer
+        writer.writeTxnMarkers(Collections.singletonList(
+                new TxnMarkerEntry(3L, (short) 0, 0, TransactionResult.COMMIT, Collections.singletonList(tp0))
+        ), NAMESPACE_PREFIX).get();
+        assertEquals(appendedRecords.size(), 3);
+        assertEquals(pendingTopicFuturesMaps.size(), 2);
+    }
+
+    @Test
+    public void testGenerateTxnMarkerRecords() {
+        final TopicPartition tp0 = new TopicPartition("topic", 0);
+        final TopicPartition tp1 = new TopicPartition("topic", 1);
+        final Map<TopicPartition, MemoryRecords> records = TransactionMarkerLocalWriter.generateTxnMarkerRecords(
+                new TxnMarkerEntry(1L, (short) 2, 3, TransactionResult.ABORT, Arrays.asList(tp0, tp1)));
+        assertEquals(records.keySet(), new HashSet<>(Arrays.asList(tp0, tp1)));
+        records.values().forEach(memoryRecords -> {
+            final AtomicReference<MutableRecordBatch> batchRef = new AtomicReference<>();
+            memoryRecords.batches().forEach(batchRef::set);
+            final MutableRecordBatch batch = batchRef.get();
+            assertTrue(batch.isControlBatch());
+            assertEquals(batch.producerId(), 1L);
+            assertEquals(batch.producerEpoch(), (short) 2);
+            final Record record = batch.iterator().next();
+            assertEquals(ControlRecordType.parse(record.key()), ControlRecordType.ABORT);
+        });
+    }
+}
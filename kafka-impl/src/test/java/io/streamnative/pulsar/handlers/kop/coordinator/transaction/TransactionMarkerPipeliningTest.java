@@ -0,0 +1,166 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
+import io.streamnative.pulsar.handlers.kop.KopBrokerLookupManager;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import lombok.AllArgsConstructor;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.requests.AbstractResponse;
+import org.apache.kafka.common.requests.TransactionResult;
+import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for the pipelining of the transaction markers in {@link TransactionMarkerChannelManager}.
+ */
+public class TransactionMarkerPipeliningTest {
+
+    private static final String NAMESPACE_PREFIX = "public/default";
+    private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("broker-0", 9092);
+
+    private final List<SentRequest> sentRequests = Collections.synchronizedList(new ArrayList<>());
+    private TransactionMarkerChannelManager manager;
+
+    @AllArgsConstructor
+    private static class SentRequest {
+        private final List<TxnMarkerEntry> entries;
+        private final CompletableFuture<AbstractResponse> future;
+    }
+
+    private void setupManager(int maxInFlightRequests, int maxEntriesPerRequest) throws Exception {
+        final KafkaServiceConfiguration conf = new KafkaServiceConfiguration();
+        conf.setKafkaTxnMarkerMaxInFlightRequestsPerBroker(maxInFlightRequests);
+        conf.setKafkaTxnMarkerMaxEntriesPerRequest(maxEntriesPerRequest);
+
+        final TransactionStateManager txnStateManager = mock(TransactionStateManager.class);
+        when(txnStateManager.partitionFor(any())).thenReturn(0);
+        final KopBrokerLookupManager kopBrokerLookupManager = mock(KopBrokerLookupManager.class);
+        when(kopBrokerLookupManager.isTopicExists(anyString())).thenReturn(CompletableFuture.completedFuture(true));
+        when(kopBrokerLookupManager.findBroker(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.of(ADDRESS)));
+
+        // The scheduler is mocked so that the markers are only sent when they are queued or a request completes
+        manager = spy(new TransactionMarkerChannelManager("public", conf, txnStateManager, kopBrokerLookupManager,
+                false, NAMESPACE_PREFIX, mock(ScheduledExecutorService.class)));
+        final TransactionMarkerChannelHandler handler = mock(TransactionMarkerChannelHandler.class);
+        when(handler.enqueueWriteTxnMarkers(anyList(), any(), anyLong())).thenAnswer(invocation -> {
+            final CompletableFuture<AbstractResponse> future = new CompletableFuture<>();
+            sentRequests.add(new SentRequest(invocation.getArgument(0), future));
+            return future;
+        });
+        doReturn(CompletableFuture.completedFuture(handler)).when(manager).getChannel(ADDRESS);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        if (manager != null) {
+            manager.close();
+            manager = null;
+        }
+        sentRequests.clear();
+    }
+
+    private void addMarkers(int numTransactions) {
+        for (int i = 0; i < numTransactions; i++) {
+            manager.addTxnMarkersToBrokerQueue("txn-" + i, (long) i, (short) 0, TransactionResult.COMMIT, 0,
+                    Collections.singleton(new TopicPartition("topic", 0)), NAMESPACE_PREFIX);
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testMaxInFlightRequests() throws Exception {
+        setupManager(2, 1000);
+        addMarkers(5);
+
+        // Only 2 requests are sent, the other markers are queued until a request completes
+        assertEquals(sentRequests.size(), 2);
+        assertEquals(manager.getNumInFlightRequests(ADDRESS), 2);
+        assertEquals(manager.getNumQueuedMarkers(ADDRESS), 3);
+
+        // The slot is released when the request succeeds, then all the queued markers are sent in one request
+        sentRequests.get(0).future.complete(null);
+        assertEquals(sentRequests.size(), 3);
+        assertEquals(sentRequests.get(2).entries.size(), 3);
+        assertEquals(manager.getNumInFlightRequests(ADDRESS), 2);
+        assertEquals(manager.getNumQueuedMarkers(ADDRESS), 0);
+
+        sentRequests.get(1).future.complete(null);
+        sentRequests.get(2).future.complete(null);
+        assertEquals(sentRequests.size(), 3);
+        assertEquals(manager.getNumInFlightRequests(ADDRESS), 0);
+    }
+
+    @Test(timeOut = 30000)
+    public void testRequeueMarkersOnFailure() throws Exception {
+        setupManager(1, 1000);
+        addMarkers(3);
+        assertEquals(sentRequests.size(), 1);
+        assertEquals(manager.getNumQueuedMarkers(ADDRESS), 2);
+
+        // The failed markers are queued for the unknown broker so that the partition owners are looked up again
+        sentRequests.get(0).future.completeExceptionally(new IOException("The txn marker channel is inactive"));
+        assertEquals(manager.getNumQueuedMarkersForUnknownBroker(), 1);
+        // The slot is released, so the queued markers are sent
+        assertEquals(sentRequests.size(), 2);
+        assertEquals(sentRequests.get(1).entries.size(), 2);
+        assertEquals(manager.getNumInFlightRequests(ADDRESS), 1);
+        assertEquals(manager.getNumQueuedMarkers(ADDRESS), 0);
+
+        sentRequests.get(1).future.complete(null);
+        assertEquals(manager.getNumInFlightRequests(ADDRESS), 0);
+    }
+
+    @Test(timeOut = 30000)
+    public void testMaxEntriesPerRequest() throws Exception {
+        setupManager(1, 2);
+        addMarkers(5);
+        assertEquals(sentRequests.size(), 1);
+        assertEquals(manager.getNumQueuedMarkers(ADDRESS), 4);
+
+        // Each request contains at most 2 markers
+        for (int i = 0; i < 3; i++) {
+            sentRequests.get(i).future.complete(null);
+        }
+        assertEquals(sentRequests.size(), 3);
+        assertEquals(sentRequests.get(1).entries.size(), 2);
+        assertEquals(sentRequests.get(2).entries.size(), 2);
+        assertEquals(manager.getNumQueuedMarkers(ADDRESS), 0);
+        assertEquals(manager.getNumInFlightRequests(ADDRESS), 0);
+
+        final List<Long> producerIds = new ArrayList<>();
+        sentRequests.forEach(request -> request.entries.forEach(entry -> producerIds.add(entry.producerId())));
+        producerIds.sort(Long::compare);
+        assertEquals(producerIds, List.of(0L, 1L, 2L, 3L, 4L));
+    }
+}
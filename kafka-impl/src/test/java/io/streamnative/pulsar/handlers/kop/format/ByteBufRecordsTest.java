@@ -0,0 +1,107 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.format;
+
+import static org.testng.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.apache.kafka.common.requests.KopResponseUtils;
+import org.apache.kafka.common.requests.ResponseHeader;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link ByteBufRecords}.
+ */
+public class ByteBufRecordsTest {
+
+    private static MemoryRecords newRecords(long baseOffset, int numRecords) {
+        final MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024),
+                RecordBatch.CURRENT_MAGIC_VALUE, CompressionType.NONE, TimestampType.CREATE_TIME, baseOffset);
+        for (int i = 0; i < numRecords; i++) {
+            builder.append(0L, ("key-" + i).getBytes(), ("value-" + i).getBytes());
+        }
+        return builder.build();
+    }
+
+    private static ByteBufRecords newByteBufRecords(List<MemoryRecords> recordsList) {
+        final CompositeByteBuf buffer = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+        recordsList.forEach(records -> buffer.addComponent(true, Unpooled.wrappedBuffer(records.buffer())));
+        return new ByteBufRecords(buffer);
+    }
+
+    @Test
+    public void testBatches() {
+        final List<MemoryRecords> recordsList = new ArrayList<>();
+        recordsList.add(newRecords(0L, 3));
+        recordsList.add(newRecords(3L, 2));
+        recordsList.add(newRecords(5L, 5));
+        final ByteBufRecords records = newByteBufRecords(recordsList);
+
+        assertEquals(records.sizeInBytes(), recordsList.stream().mapToInt(MemoryRecords::sizeInBytes).sum());
+        assertEquals(EntryFormatter.parseNumMessages(records), 10);
+        final List<Long> baseOffsets = new ArrayList<>();
+        records.batches().forEach(batch -> baseOffsets.add(batch.baseOffset()));
+        assertEquals(baseOffsets, List.of(0L, 3L, 5L));
+        records.getBuffer().release();
+    }
+
+    @Test
+    public void testSerializeFetchResponseWithoutCopy() {
+        final List<MemoryRecords> recordsList = new ArrayList<>();
+        recordsList.add(newRecords(0L, 3));
+        recordsList.add(newRecords(3L, 4));
+        final ByteBufRecords byteBufRecords = newByteBufRecords(recordsList);
+
+        final ByteBuffer mergedBuffer = ByteBuffer.allocate(byteBufRecords.sizeInBytes());
+        recordsList.forEach(records -> mergedBuffer.put(records.buffer()));
+        mergedBuffer.flip();
+        final MemoryRecords memoryRecords = MemoryRecords.readableRecords(mergedBuffer);
+
+        final short version = ApiKeys.FETCH.latestVersion();
+        final ResponseHeader header = new ResponseHeader(1, ApiKeys.FETCH.responseHeaderVersion(version));
+        final ByteBuf expected = KopResponseUtils.serializeResponse(version, header, newFetchResponse(memoryRecords));
+        final ByteBuf actual =
+                KopResponseUtils.serializeResponseWithoutCopy(version, header, newFetchResponse(byteBufRecords));
+        assertEquals(ByteBufUtil.getBytes(actual), ByteBufUtil.getBytes(expected));
+
+        expected.release();
+        actual.release();
+        byteBufRecords.getBuffer().release();
+    }
+
+    private static FetchResponse<Records> newFetchResponse(Records records) {
+        final LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> responseData =
+                new LinkedHashMap<>();
+        responseData.put(new TopicPartition("test", 0),
+                new FetchResponse.PartitionData<>(Errors.NONE, 7L, 7L, 0L, null, records));
+        return new FetchResponse<>(Errors.NONE, responseData, 0, 0);
+    }
+}
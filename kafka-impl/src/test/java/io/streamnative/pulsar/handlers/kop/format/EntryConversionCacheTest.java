@@ -0,0 +1,93 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.format;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import java.nio.ByteBuffer;
+import org.apache.kafka.common.record.RecordBatch;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link EntryConversionCache}.
+ */
+public class EntryConversionCacheTest {
+
+    private static final byte MAGIC = RecordBatch.MAGIC_VALUE_V1;
+
+    @Test
+    public void testGetAndPut() {
+        final EntryConversionCache cache = new EntryConversionCache(1024, NullStatsLogger.INSTANCE);
+        assertNull(cache.get(1L, 0L, MAGIC));
+
+        final ByteBuffer records = ByteBuffer.wrap("records".getBytes());
+        cache.put(1L, 0L, MAGIC, records);
+        // The records are copied and not consumed
+        assertEquals(records.remaining(), "records".length());
+        assertEquals(cache.sizeInBytes(), "records".length());
+
+        final ByteBuf cached = cache.get(1L, 0L, MAGIC);
+        assertNotNull(cached);
+        assertEquals(toString(cached), "records");
+        cached.release();
+        // Different magic values of the same entry are cached separately
+        assertNull(cache.get(1L, 0L, RecordBatch.MAGIC_VALUE_V0));
+        assertNull(cache.get(1L, 1L, MAGIC));
+
+        cache.invalidateAll();
+        assertNull(cache.get(1L, 0L, MAGIC));
+        assertEquals(cache.sizeInBytes(), 0);
+    }
+
+    @Test
+    public void testEvictByBytes() {
+        final int maxBytes = 1024 * 1024;
+        final EntryConversionCache cache = new EntryConversionCache(maxBytes, NullStatsLogger.INSTANCE);
+        for (long entryId = 0; entryId < 40; entryId++) {
+            cache.put(1L, entryId, MAGIC, ByteBuffer.allocate(64 * 1024));
+        }
+        assertTrue(cache.sizeInBytes() <= maxBytes);
+        // The latest entry is still cached
+        final ByteBuf cached = cache.get(1L, 39L, MAGIC);
+        assertNotNull(cached);
+        cached.release();
+        assertNull(cache.get(1L, 0L, MAGIC));
+    }
+
+    @Test
+    public void testRetainedAfterEviction() {
+        final EntryConversionCache cache = new EntryConversionCache(1024, NullStatsLogger.INSTANCE);
+        cache.put(1L, 0L, MAGIC, ByteBuffer.wrap("records".getBytes()));
+        final ByteBuf cached = cache.get(1L, 0L, MAGIC);
+        assertNotNull(cached);
+
+        cache.invalidateAll();
+        // The records are still readable until the reader releases them
+        assertEquals(cached.refCnt(), 1);
+        assertEquals(toString(cached), "records");
+        cached.release();
+        assertEquals(cached.refCnt(), 0);
+    }
+
+    private static String toString(ByteBuf buf) {
+        final byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        return new String(bytes);
+    }
+}
@@ -19,7 +19,10 @@ import static org.apache.kafka.common.record.Records.LOG_OVERHEAD;
 import static org.mockito.Mockito.mock;
 
 import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
 import io.streamnative.pulsar.handlers.kop.storage.PartitionLog;
 import io.streamnative.pulsar.handlers.kop.storage.ProducerStateManager;
 import java.io.DataOutputStream;
@@ -27,9 +30,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.header.Header;
@@ -50,7 +55,9 @@ import org.apache.kafka.common.utils.Time;
 import org.apache.pulsar.broker.service.plugin.EntryFilter;
 import org.apache.pulsar.broker.service.plugin.EntryFilterWithClassLoader;
 import org.apache.pulsar.broker.service.plugin.FilterContext;
+import org.apache.pulsar.common.api.proto.BrokerEntryMetadata;
 import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -199,6 +206,180 @@ public class EntryFormatterTest {
                         builder.build().values().asList()), EntryFilter.FilterResult.ACCEPT);
     }
 
+    @Test(dataProvider = "compressionTypesAndMagic")
+    public void testDecodeMultipleBatches(CompressionType compressionType, byte magic) {
+        init();
+        if (magic != RecordBatch.MAGIC_VALUE_V2) {
+            return;
+        }
+        // Coalesce two batches into a single entry
+        final MemoryRecords records1 = prepareRecords(compressionType, magic);
+        final MemoryRecords records2 = prepareRecords(compressionType, magic);
+        final ByteBuffer buffer = ByteBuffer.allocate(records1.sizeInBytes() + records2.sizeInBytes());
+        buffer.put(records1.buffer().duplicate());
+        buffer.put(records2.buffer().duplicate());
+        buffer.flip();
+        final MemoryRecords records = MemoryRecords.readableRecords(buffer);
+        final PartitionLog.LogAppendInfo appendInfo = PARTITION_LOG.analyzeAndValidateRecords(records);
+        Assert.assertEquals(appendInfo.numMessages(), NUM_MESSAGES * 2);
+        final EncodeResult encodeResult = kafkaV1Formatter.encode(EncodeRequest.get(records, appendInfo));
+
+        final long startOffset = 100L;
+        for (byte fetchMagic : new byte[]{ RecordBatch.MAGIC_VALUE_V2, RecordBatch.MAGIC_VALUE_V1 }) {
+            final BrokerEntryMetadata brokerEntryMetadata = new BrokerEntryMetadata()
+                    .setIndex(startOffset + NUM_MESSAGES * 2 - 1);
+            final ByteBuf buf = Unpooled.buffer();
+            buf.writeShort(Commands.magicBrokerEntryMetadata);
+            buf.writeInt(brokerEntryMetadata.getSerializedSize());
+            brokerEntryMetadata.writeTo(buf);
+            buf.writeBytes(encodeResult.getEncodedByteBuf().duplicate());
+            final Entry entry = EntryImpl.create(0L, 0L, buf);
+            buf.release();
+
+            final DecodeResult decodeResult = kafkaV1Formatter.decode(Collections.singletonList(entry), fetchMagic);
+            long expectedOffset = startOffset;
+            for (RecordBatch batch : decodeResult.getRecords().batches()) {
+                for (Record record : batch) {
+                    Assert.assertEquals(record.offset(), expectedOffset);
+                    expectedOffset++;
+                }
+            }
+            Assert.assertEquals(expectedOffset, startOffset + NUM_MESSAGES * 2);
+            decodeResult.recycle();
+        }
+        encodeResult.recycle();
+    }
+
+    @Test
+    public void testDecodeWithDownConversionCache() {
+        init();
+        final EntryConversionCache cache = new EntryConversionCache(1024 * 1024, NullStatsLogger.INSTANCE);
+        final EntryFormatter formatter = EntryFormatterFactory.create(KafkaV1ServiceConfiguration, null,
+                KafkaV1ServiceConfiguration.getEntryFormat(), cache, null);
+        final MemoryRecords records = prepareRecords(CompressionType.NONE, RecordBatch.MAGIC_VALUE_V2);
+        final PartitionLog.LogAppendInfo appendInfo = PARTITION_LOG.analyzeAndValidateRecords(records);
+        final EncodeResult encodeResult = formatter.encode(EncodeRequest.get(records, appendInfo));
+
+        final long startOffset = 100L;
+        for (int i = 0; i < 2; i++) {
+            final BrokerEntryMetadata brokerEntryMetadata = new BrokerEntryMetadata()
+                    .setIndex(startOffset + NUM_MESSAGES - 1);
+            final ByteBuf buf = Unpooled.buffer();
+            buf.writeShort(Commands.magicBrokerEntryMetadata);
+            buf.writeInt(brokerEntryMetadata.getSerializedSize());
+            brokerEntryMetadata.writeTo(buf);
+            buf.writeBytes(encodeResult.getEncodedByteBuf().duplicate());
+            final Entry entry = EntryImpl.create(1L, 2L, buf);
+            buf.release();
+
+            final DecodeResult decodeResult =
+                    formatter.decode(Collections.singletonList(entry), RecordBatch.MAGIC_VALUE_V1);
+            // Only the first decode converts the records, the second one reads them from the cache
+            Assert.assertEquals(decodeResult.getConversionCount(), (i == 0) ? NUM_MESSAGES : 0);
+            Assert.assertTrue(cache.sizeInBytes() > 0);
+            long expectedOffset = startOffset;
+            for (RecordBatch batch : decodeResult.getRecords().batches()) {
+                Assert.assertEquals(batch.magic(), RecordBatch.MAGIC_VALUE_V1);
+                for (Record record : batch) {
+                    Assert.assertEquals(record.offset(), expectedOffset);
+                    expectedOffset++;
+                }
+            }
+            Assert.assertEquals(expectedOffset, startOffset + NUM_MESSAGES);
+            decodeResult.recycle();
+        }
+        encodeResult.recycle();
+        cache.invalidateAll();
+        Assert.assertEquals(cache.sizeInBytes(), 0);
+    }
+
+    @Test
+    public void testDecodeWithPulsarDecodeCache() {
+        init();
+        final EntryConversionCache cache = new EntryConversionCache(1024 * 1024, NullStatsLogger.INSTANCE);
+        final EntryFormatter formatter = EntryFormatterFactory.create(pulsarServiceConfiguration, null,
+                pulsarServiceConfiguration.getEntryFormat(), null, cache);
+        final MemoryRecords records = prepareRecords(CompressionType.NONE, RecordBatch.MAGIC_VALUE_V2);
+        final PartitionLog.LogAppendInfo appendInfo = PARTITION_LOG.analyzeAndValidateRecords(records);
+        final EncodeResult encodeResult = formatter.encode(EncodeRequest.get(records, appendInfo));
+
+        final long startOffset = 100L;
+        for (int i = 0; i < 2; i++) {
+            final BrokerEntryMetadata brokerEntryMetadata = new BrokerEntryMetadata()
+                    .setIndex(startOffset + NUM_MESSAGES - 1);
+            final ByteBuf buf = Unpooled.buffer();
+            buf.writeShort(Commands.magicBrokerEntryMetadata);
+            buf.writeInt(brokerEntryMetadata.getSerializedSize());
+            brokerEntryMetadata.writeTo(buf);
+            buf.writeBytes(encodeResult.getEncodedByteBuf().duplicate());
+            final Entry entry = EntryImpl.create(1L, 2L, buf);
+            buf.release();
+
+            final DecodeResult decodeResult =
+                    formatter.decode(Collections.singletonList(entry), RecordBatch.MAGIC_VALUE_V2);
+            // Only the first decode converts the Pulsar entry, the second one reads the records from the cache
+            Assert.assertEquals(decodeResult.getConversionCount(), (i == 0) ? NUM_MESSAGES : 0);
+            Assert.assertTrue(cache.sizeInBytes() > 0);
+            long expectedOffset = startOffset;
+            for (RecordBatch batch : decodeResult.getRecords().batches()) {
+                for (Record record : batch) {
+                    Assert.assertEquals(record.offset(), expectedOffset);
+                    expectedOffset++;
+                }
+            }
+            Assert.assertEquals(expectedOffset, startOffset + NUM_MESSAGES);
+            decodeResult.recycle();
+        }
+        encodeResult.recycle();
+        cache.invalidateAll();
+        Assert.assertEquals(cache.sizeInBytes(), 0);
+    }
+
+    @Test(dataProvider = "pulsarEntryCompressionTypes")
+    public void testPulsarEntryCompression(String pulsarEntryCompressionType) {
+        final KafkaServiceConfiguration conf = new KafkaServiceConfiguration();
+        conf.setKopPulsarEntryCompressionType(pulsarEntryCompressionType);
+        final EntryFormatter formatter = EntryFormatterFactory.create(conf, null, "pulsar");
+        final MemoryRecords records = prepareRecords(CompressionType.NONE, RecordBatch.MAGIC_VALUE_V2);
+        final PartitionLog.LogAppendInfo appendInfo = PARTITION_LOG.analyzeAndValidateRecords(records);
+        final EncodeResult encodeResult = formatter.encode(EncodeRequest.get(records, appendInfo));
+        final ByteBuf encodedBuf = encodeResult.getEncodedByteBuf().duplicate();
+        final MessageMetadata metadata = Commands.parseMessageMetadata(encodedBuf);
+        Assert.assertEquals(metadata.getNumMessagesInBatch(), NUM_MESSAGES);
+        Assert.assertEquals(metadata.getCompression().name(), pulsarEntryCompressionType.toUpperCase());
+
+        final long startOffset = 100L;
+        final BrokerEntryMetadata brokerEntryMetadata = new BrokerEntryMetadata()
+                .setIndex(startOffset + NUM_MESSAGES - 1);
+        final ByteBuf buf = Unpooled.buffer();
+        buf.writeShort(Commands.magicBrokerEntryMetadata);
+        buf.writeInt(brokerEntryMetadata.getSerializedSize());
+        brokerEntryMetadata.writeTo(buf);
+        buf.writeBytes(encodeResult.getEncodedByteBuf().duplicate());
+        final Entry entry = EntryImpl.create(0L, 0L, buf);
+        buf.release();
+
+        final DecodeResult decodeResult =
+                formatter.decode(Collections.singletonList(entry), RecordBatch.CURRENT_MAGIC_VALUE);
+        final Iterator<Record> originalRecords = records.records().iterator();
+        long expectedOffset = startOffset;
+        for (Record record : decodeResult.getRecords().records()) {
+            final Record originalRecord = originalRecords.next();
+            Assert.assertEquals(record.offset(), expectedOffset++);
+            Assert.assertEquals(record.key(), originalRecord.key());
+            Assert.assertEquals(record.value(), originalRecord.value());
+            Assert.assertEquals(record.headers(), originalRecord.headers());
+        }
+        Assert.assertFalse(originalRecords.hasNext());
+        decodeResult.recycle();
+        encodeResult.recycle();
+    }
+
+    @DataProvider(name = "pulsarEntryCompressionTypes")
+    public static Object[][] pulsarEntryCompressionTypes() {
+        return new Object[][] { { "none" }, { "lz4" }, { "zlib" }, { "zstd" }, { "snappy" } };
+    }
+
     private static void checkWrongOffset(MemoryRecords records,
                                          CompressionType compressionType,
                                          byte magic) {
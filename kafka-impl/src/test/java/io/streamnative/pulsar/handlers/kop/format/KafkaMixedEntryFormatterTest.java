@@ -14,12 +14,17 @@
 package io.streamnative.pulsar.handlers.kop.format;
 
 import io.streamnative.pulsar.handlers.kop.utils.KopLogValidator;
+import io.streamnative.pulsar.handlers.kop.utils.LongRef;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.InvalidRecordException;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.SimpleRecord;
 import org.apache.kafka.common.record.TimestampType;
 import org.testng.Assert;
@@ -71,6 +76,48 @@ public class KafkaMixedEntryFormatterTest {
                 checkRecordsCodec("lz4", records).name());
     }
 
+    @Test
+    public void testAssignOffsetsOfCompressedBatchInHeader() {
+        final MemoryRecords records = newMemoryRecordsBuilder(CompressionType.LZ4, RecordBatch.MAGIC_VALUE_V2);
+        final KopLogValidator.CompressionCodec sourceCodec = KopLogValidator.getSourceCodec(records);
+        // The target codec is the same as the source codec but it's a different instance
+        final KopLogValidator.CompressionCodec targetCodec = checkRecordsCodec("lz4", records);
+        final LongRef offsetCounter = new LongRef(100L);
+
+        final ValidationAndOffsetAssignResult result = KopLogValidator.validateMessagesAndAssignOffsets(records,
+                offsetCounter, System.currentTimeMillis(), sourceCodec, targetCodec, false,
+                RecordBatch.MAGIC_VALUE_V2, TimestampType.CREATE_TIME, Long.MAX_VALUE, false);
+        // The records are updated in place without conversion
+        Assert.assertSame(result.getRecords(), records);
+        Assert.assertEquals(result.getConversionCount(), 0);
+        result.recycle();
+
+        Assert.assertEquals(offsetCounter.value(), 110L);
+        final MutableRecordBatch batch = records.batches().iterator().next();
+        Assert.assertEquals(batch.baseOffset(), 100L);
+        Assert.assertEquals(batch.lastOffset(), 109L);
+        Assert.assertEquals(batch.compressionType(), CompressionType.LZ4);
+        batch.ensureValid();
+        long expectedOffset = 100L;
+        for (Record record : batch) {
+            Assert.assertEquals(record.offset(), expectedOffset++);
+        }
+    }
+
+    @Test
+    public void testValidateRecordsOfCompressedBatchForCompactedTopic() {
+        final MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024),
+                RecordBatch.MAGIC_VALUE_V2, CompressionType.LZ4, TimestampType.CREATE_TIME, 0L);
+        builder.append(new SimpleRecord(System.currentTimeMillis(), null, "value".getBytes()));
+        final MemoryRecords records = builder.build();
+        final KopLogValidator.CompressionCodec sourceCodec = KopLogValidator.getSourceCodec(records);
+
+        // The keys are required by the compacted topic, so the records are still validated
+        Assert.assertThrows(InvalidRecordException.class, () -> KopLogValidator.validateMessagesAndAssignOffsets(
+                records, new LongRef(0L), System.currentTimeMillis(), sourceCodec, sourceCodec, true,
+                RecordBatch.MAGIC_VALUE_V2, TimestampType.CREATE_TIME, Long.MAX_VALUE, false));
+    }
+
     private KopLogValidator.CompressionCodec checkRecordsCodec(
             final String brokerCompressionType,
             final MemoryRecords records) {
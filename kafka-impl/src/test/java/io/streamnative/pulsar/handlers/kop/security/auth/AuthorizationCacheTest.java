@@ -0,0 +1,174 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.security.auth;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.kop.security.KafkaPrincipal;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.pulsar.broker.authentication.AuthenticationDataCommand;
+import org.apache.pulsar.broker.authentication.AuthenticationDataSource;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.pulsar.metadata.api.Notification;
+import org.apache.pulsar.metadata.api.NotificationType;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link AuthorizationCache}.
+ */
+public class AuthorizationCacheTest {
+
+    private static final Resource TOPIC = Resource.of(ResourceType.TOPIC, "persistent://public/default/topic");
+    private static final Resource NAMESPACE = Resource.of(ResourceType.NAMESPACE, "public/default");
+    private static final Resource TENANT = Resource.of(ResourceType.TENANT, "public");
+
+    private final AtomicInteger numLoads = new AtomicInteger(0);
+    private AuthorizationCache cache;
+
+    @BeforeMethod
+    public void setup() {
+        numLoads.set(0);
+        cache = new AuthorizationCache(60000L, 100L, NullStatsLogger.INSTANCE);
+    }
+
+    private Supplier<CompletableFuture<Boolean>> loader(boolean decision) {
+        return () -> {
+            numLoads.incrementAndGet();
+            return CompletableFuture.completedFuture(decision);
+        };
+    }
+
+    private static Notification policyChanged(String tenantOrNamespace) {
+        return new Notification(NotificationType.Modified, "/admin/policies/" + tenantOrNamespace);
+    }
+
+    @Test
+    public void testCacheDecisions() throws Exception {
+        assertTrue(cache.get("role", "produce", TOPIC, loader(true)).get());
+        assertTrue(cache.get("role", "produce", TOPIC, loader(true)).get());
+        assertEquals(numLoads.get(), 1);
+
+        // the decisions are cached by the role, the action and the resource
+        assertFalse(cache.get("role", "consume", TOPIC, loader(false)).get());
+        assertFalse(cache.get("other-role", "produce", TOPIC, loader(false)).get());
+        assertFalse(cache.get("other-role", "produce", TOPIC, loader(true)).get());
+        assertEquals(numLoads.get(), 3);
+        assertEquals(cache.size(), 3);
+    }
+
+    @Test
+    public void testCacheDecisionsByPrincipal() throws Exception {
+        final AuthenticationDataSource allowedAuthData = new AuthenticationDataCommand("allowed-token");
+        final AuthenticationDataSource deniedAuthData = new AuthenticationDataCommand("denied-token");
+        final Authorizer authorizer = mock(Authorizer.class);
+        when(authorizer.canProduceAsync(any(), any())).thenAnswer(invocation -> {
+            numLoads.incrementAndGet();
+            final KafkaPrincipal principal = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(
+                    "allowed-token".equals(principal.getAuthenticationData().getCommandData())
+                            && "public".equals(principal.getTenantSpec()));
+        });
+        final CachedAuthorizer cachedAuthorizer = new CachedAuthorizer(authorizer, cache);
+
+        // The principals share the role but have different authentication data
+        final KafkaPrincipal allowedPrincipal =
+                new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "role", "public", allowedAuthData);
+        final KafkaPrincipal deniedPrincipal =
+                new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "role", "public", deniedAuthData);
+        assertTrue(cachedAuthorizer.canProduceAsync(allowedPrincipal, TOPIC).get());
+        assertFalse(cachedAuthorizer.canProduceAsync(deniedPrincipal, TOPIC).get());
+        assertTrue(cachedAuthorizer.canProduceAsync(allowedPrincipal, TOPIC).get());
+        assertFalse(cachedAuthorizer.canProduceAsync(deniedPrincipal, TOPIC).get());
+        assertEquals(numLoads.get(), 2);
+
+        // The connections that authenticate with the same credential share the decisions
+        final KafkaPrincipal otherConnectionPrincipal = new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "role",
+                "public", new AuthenticationDataCommand("allowed-token"));
+        assertTrue(cachedAuthorizer.canProduceAsync(otherConnectionPrincipal, TOPIC).get());
+        assertEquals(numLoads.get(), 2);
+
+        // The principal of another tenant spec doesn't reuse the decision
+        final KafkaPrincipal otherTenantPrincipal =
+                new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "role", "other", allowedAuthData);
+        assertFalse(cachedAuthorizer.canProduceAsync(otherTenantPrincipal, TOPIC).get());
+        assertEquals(numLoads.get(), 3);
+        assertEquals(cache.size(), 3);
+    }
+
+    @Test
+    public void testUnidentifiedCredentialNotCached() throws Exception {
+        // The authentication data has neither the command data nor the TLS certificate
+        final KafkaPrincipal principal = new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "role", "public",
+                mock(AuthenticationDataSource.class));
+        assertNull(AuthorizationCache.credentialIdOf(principal.getAuthenticationData()));
+        assertTrue(cache.get(principal, "produce", TOPIC, loader(true)).get());
+        assertTrue(cache.get(principal, "produce", TOPIC, loader(true)).get());
+        assertEquals(numLoads.get(), 2);
+        assertEquals(cache.size(), 0);
+
+        assertEquals(AuthorizationCache.credentialIdOf(new AuthenticationDataCommand("token")),
+                AuthorizationCache.credentialIdOf(new AuthenticationDataCommand("token")));
+        assertNotEquals(AuthorizationCache.credentialIdOf(new AuthenticationDataCommand("token")),
+                AuthorizationCache.credentialIdOf(new AuthenticationDataCommand("other-token")));
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        final CompletableFuture<Boolean> future = cache.get("role", "produce", TOPIC,
+                () -> FutureUtil.failedFuture(new RuntimeException("failed")));
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(cache.size(), 0);
+        assertTrue(cache.get("role", "produce", TOPIC, loader(true)).get());
+        assertEquals(numLoads.get(), 1);
+    }
+
+    @Test
+    public void testInvalidateByPolicyChange() throws Exception {
+        cache.get("role", "produce", TOPIC, loader(true)).get();
+        cache.get("role", "getTopicList", NAMESPACE, loader(true)).get();
+        cache.get("role", "accessTenant", TENANT, loader(true)).get();
+        cache.get("role", "produce", Resource.of(ResourceType.TOPIC, "persistent://public/other/topic"),
+                loader(true)).get();
+        assertEquals(cache.size(), 4);
+
+        cache.onPolicyChanged(new Notification(NotificationType.Modified, "/admin/partitioned-topics/public"));
+        assertEquals(cache.size(), 4);
+        cache.onPolicyChanged(policyChanged("public/default"));
+        assertEquals(cache.size(), 2);
+        cache.onPolicyChanged(policyChanged("public"));
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testInvalidateDuringLoad() throws Exception {
+        final CompletableFuture<Boolean> loadFuture = new CompletableFuture<>();
+        final CompletableFuture<Boolean> future = cache.get("role", "produce", TOPIC, () -> loadFuture);
+        cache.onPolicyChanged(policyChanged("public/default"));
+        loadFuture.complete(true);
+        assertTrue(future.get());
+        // the decision might be loaded with the old policies
+        assertEquals(cache.size(), 0);
+    }
+}
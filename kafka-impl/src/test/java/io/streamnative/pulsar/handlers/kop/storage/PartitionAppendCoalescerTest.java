@@ -0,0 +1,125 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link PartitionAppendCoalescer}.
+ */
+public class PartitionAppendCoalescerTest {
+
+    private static final MemoryRecords RECORDS =
+            MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("value".getBytes()));
+
+    private final List<List<PartitionAppendCoalescer.PendingAppend>> publishedAppends = new ArrayList<>();
+    private ScheduledExecutorService executor;
+
+    @BeforeClass
+    public void setup() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void cleanup() {
+        executor.shutdown();
+    }
+
+    private PartitionAppendCoalescer newCoalescer(long delayMs, int maxBytes) {
+        publishedAppends.clear();
+        return new PartitionAppendCoalescer("test", delayMs, maxBytes, appends -> {
+            synchronized (publishedAppends) {
+                publishedAppends.add(appends);
+            }
+            appends.forEach(append -> append.getAppendFuture().complete(0L));
+        });
+    }
+
+    private static PartitionAppendCoalescer.PendingAppend newAppend(PersistentTopic persistentTopic) {
+        return new PartitionAppendCoalescer.PendingAppend(persistentTopic, null, Optional.empty(), RECORDS, null,
+                new CompletableFuture<>(), ignored -> {});
+    }
+
+    @Test(timeOut = 10000)
+    public void testFlushOnMaxBytes() {
+        final PartitionAppendCoalescer coalescer = newCoalescer(60000L, RECORDS.sizeInBytes() * 2);
+        final PersistentTopic persistentTopic = mock(PersistentTopic.class);
+        final PartitionAppendCoalescer.PendingAppend append1 = newAppend(persistentTopic);
+        final PartitionAppendCoalescer.PendingAppend append2 = newAppend(persistentTopic);
+        final PartitionAppendCoalescer.PendingAppend append3 = newAppend(persistentTopic);
+
+        coalescer.add(append1, executor);
+        assertTrue(publishedAppends.isEmpty());
+        coalescer.add(append2, executor);
+        coalescer.add(append3, executor);
+        assertEquals(publishedAppends.size(), 1);
+        assertEquals(publishedAppends.get(0), List.of(append1, append2));
+        assertEquals(coalescer.numPendingAppends(), 1);
+
+        coalescer.flush();
+        assertEquals(publishedAppends.size(), 2);
+        assertEquals(publishedAppends.get(1), List.of(append3));
+        assertEquals(coalescer.numPendingAppends(), 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void testFlushAfterDelay() throws Exception {
+        final PartitionAppendCoalescer coalescer = newCoalescer(10L, Integer.MAX_VALUE);
+        final PersistentTopic persistentTopic = mock(PersistentTopic.class);
+        final PartitionAppendCoalescer.PendingAppend append1 = newAppend(persistentTopic);
+        final PartitionAppendCoalescer.PendingAppend append2 = newAppend(persistentTopic);
+
+        coalescer.add(append1, executor);
+        coalescer.add(append2, executor);
+        append1.getAppendFuture().get(5, TimeUnit.SECONDS);
+        append2.getAppendFuture().get(5, TimeUnit.SECONDS);
+        synchronized (publishedAppends) {
+            assertEquals(publishedAppends.size(), 1);
+            assertEquals(publishedAppends.get(0).size(), 2);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testFlushOnTopicChange() {
+        final PartitionAppendCoalescer coalescer = newCoalescer(60000L, Integer.MAX_VALUE);
+        final PartitionAppendCoalescer.PendingAppend append1 = newAppend(mock(PersistentTopic.class));
+        final PartitionAppendCoalescer.PendingAppend append2 = newAppend(mock(PersistentTopic.class));
+
+        coalescer.add(append1, executor);
+        coalescer.add(append2, executor);
+        assertEquals(publishedAppends.size(), 1);
+        assertEquals(publishedAppends.get(0).size(), 1);
+        assertSame(publishedAppends.get(0).get(0), append1);
+        coalescer.flush();
+        assertSame(publishedAppends.get(1).get(0), append2);
+    }
+}
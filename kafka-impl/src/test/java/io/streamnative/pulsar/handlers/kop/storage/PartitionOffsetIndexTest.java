@@ -0,0 +1,344 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.mledger.AsyncCallbacks;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo.LedgerInfo;
+import org.apache.pulsar.common.api.proto.BrokerEntryMetadata;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link PartitionOffsetIndex}.
+ */
+public class PartitionOffsetIndexTest {
+
+    // Ledger 1 has 100 entries and ledger 2 has 50 entries, each entry has 2 messages and 100 bytes.
+    // The publish time of the N-th entry is N * 10.
+    private static final int NUM_ENTRIES_LEDGER_1 = 100;
+    private static final int NUM_ENTRIES_LEDGER_2 = 50;
+    private static final int ENTRY_SIZE = 100;
+    private static final int INDEX_INTERVAL = ENTRY_SIZE * 5;
+    private static final PositionImpl FALLBACK_POSITION = PositionImpl.get(100L, 100L);
+
+    private final Map<String, String> properties = new HashMap<>();
+    private final AtomicInteger numReads = new AtomicInteger(0);
+    private ManagedLedgerImpl managedLedger;
+
+    private static long lastOffset(long ledgerId, long entryId) {
+        return (ledgerId == 1L) ? (entryId * 2 + 1) : (NUM_ENTRIES_LEDGER_1 * 2 + entryId * 2 + 1);
+    }
+
+    private static long publishTime(long ledgerId, long entryId) {
+        return ((ledgerId == 1L) ? entryId : (NUM_ENTRIES_LEDGER_1 + entryId)) * 10;
+    }
+
+    @BeforeMethod
+    public void setup() {
+        properties.clear();
+        numReads.set(0);
+        managedLedger = mock(ManagedLedgerImpl.class);
+        when(managedLedger.getName()).thenReturn("test");
+        when(managedLedger.getProperties()).thenReturn(properties);
+        final NavigableMap<Long, LedgerInfo> ledgers = new TreeMap<>();
+        ledgers.put(1L, LedgerInfo.newBuilder().setLedgerId(1L).setEntries(NUM_ENTRIES_LEDGER_1).build());
+        ledgers.put(2L, LedgerInfo.newBuilder().setLedgerId(2L).build());
+        when(managedLedger.getLedgersInfo()).thenReturn(ledgers);
+        when(managedLedger.getLastConfirmedEntry()).thenReturn(PositionImpl.get(2L, NUM_ENTRIES_LEDGER_2 - 1));
+        when(managedLedger.getNextValidPosition(any())).thenAnswer(invocation -> {
+            final PositionImpl position = invocation.getArgument(0);
+            if (position.getLedgerId() == 1L && position.getEntryId() == NUM_ENTRIES_LEDGER_1 - 1) {
+                return PositionImpl.get(2L, 0L);
+            }
+            return position.getNext();
+        });
+        when(managedLedger.asyncFindPosition(any()))
+                .thenReturn(CompletableFuture.completedFuture(FALLBACK_POSITION));
+        doAnswer(invocation -> {
+            final PositionImpl position = invocation.getArgument(0);
+            final AsyncCallbacks.ReadEntryCallback callback = invocation.getArgument(1);
+            numReads.incrementAndGet();
+            final BrokerEntryMetadata brokerEntryMetadata = new BrokerEntryMetadata()
+                    .setIndex(lastOffset(position.getLedgerId(), position.getEntryId()));
+            final ByteBuf buf = Unpooled.buffer();
+            buf.writeShort(Commands.magicBrokerEntryMetadata);
+            buf.writeInt(brokerEntryMetadata.getSerializedSize());
+            brokerEntryMetadata.writeTo(buf);
+            final MessageMetadata metadata = new MessageMetadata()
+                    .setProducerName("producer")
+                    .setSequenceId(0L)
+                    .setPublishTime(publishTime(position.getLedgerId(), position.getEntryId()));
+            final ByteBuf metadataAndPayload =
+                    Commands.serializeMetadataAndPayload(Commands.ChecksumType.None, metadata, Unpooled.EMPTY_BUFFER);
+            buf.writeBytes(metadataAndPayload);
+            metadataAndPayload.release();
+            final EntryImpl entry = EntryImpl.create(position.getLedgerId(), position.getEntryId(), buf);
+            buf.release();
+            callback.readEntryComplete(entry, invocation.getArgument(2));
+            return null;
+        }).when(managedLedger).asyncReadEntry(any(PositionImpl.class), any(), any());
+    }
+
+    private PartitionOffsetIndex newOffsetIndex(int indexIntervalBytes, int maxEntries) {
+        // Only persist the index when the managed ledger rolls over
+        return new PartitionOffsetIndex(managedLedger, indexIntervalBytes, maxEntries, 128, 0L);
+    }
+
+    private void appendAll(PartitionOffsetIndex offsetIndex) {
+        for (long entryId = 0; entryId < NUM_ENTRIES_LEDGER_1; entryId++) {
+            offsetIndex.onAppend(lastOffset(1L, entryId), 1L, entryId, ENTRY_SIZE, publishTime(1L, entryId));
+        }
+        for (long entryId = 0; entryId < NUM_ENTRIES_LEDGER_2; entryId++) {
+            offsetIndex.onAppend(lastOffset(2L, entryId), 2L, entryId, ENTRY_SIZE, publishTime(2L, entryId));
+        }
+    }
+
+    @Test
+    public void testOnAppend() {
+        final PartitionOffsetIndex offsetIndex = newOffsetIndex(INDEX_INTERVAL, 1024);
+        appendAll(offsetIndex);
+
+        final NavigableMap<Long, PositionImpl> expectedIndex = new TreeMap<>();
+        final NavigableMap<Long, Long> expectedTimeIndex = new TreeMap<>();
+        for (long entryId = 0; entryId < NUM_ENTRIES_LEDGER_1; entryId += 5) {
+            expectedIndex.put(lastOffset(1L, entryId), PositionImpl.get(1L, entryId));
+            expectedTimeIndex.put(publishTime(1L, entryId), lastOffset(1L, entryId));
+        }
+        for (long entryId = 0; entryId < NUM_ENTRIES_LEDGER_2; entryId += 5) {
+            expectedIndex.put(lastOffset(2L, entryId), PositionImpl.get(2L, entryId));
+            expectedTimeIndex.put(publishTime(2L, entryId), lastOffset(2L, entryId));
+        }
+        assertEquals(offsetIndex.getIndex(), expectedIndex);
+        assertEquals(offsetIndex.getTimeIndex(), expectedTimeIndex);
+
+        // The entry whose publish time is less than the max publish time is not added to the time index
+        offsetIndex.onAppend(lastOffset(2L, NUM_ENTRIES_LEDGER_2), 3L, 0L, ENTRY_SIZE, 0L);
+        assertEquals(offsetIndex.getIndex().lastEntry().getValue(), PositionImpl.get(3L, 0L));
+        assertEquals(offsetIndex.getTimeIndex(), expectedTimeIndex);
+
+        // The index is persisted when the managed ledger rolls over to ledger 2. The persistence for ledger 3 is
+        // skipped because the previous update is not completed.
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<Map<String, String>> propertiesCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(managedLedger).asyncSetProperties(propertiesCaptor.capture(), any(), any());
+        properties.putAll(propertiesCaptor.getValue());
+        final PartitionOffsetIndex loadedIndex = newOffsetIndex(INDEX_INTERVAL, 1024);
+        loadedIndex.asyncFindPosition(0L, false).join();
+        assertEquals(loadedIndex.getIndex(), expectedIndex.headMap(lastOffset(2L, 0L), true));
+        assertEquals(loadedIndex.getTimeIndex(), expectedTimeIndex.headMap(publishTime(2L, 0L), true));
+    }
+
+    @Test
+    public void testPersist() throws Exception {
+        final AtomicInteger numUpdates = new AtomicInteger(0);
+        doAnswer(invocation -> {
+            numUpdates.incrementAndGet();
+            properties.putAll(invocation.getArgument(0));
+            final AsyncCallbacks.UpdatePropertiesCallback callback = invocation.getArgument(1);
+            callback.updatePropertiesComplete(properties, invocation.getArgument(2));
+            return null;
+        }).when(managedLedger).asyncSetProperties(any(), any(), any());
+
+        // The index is only persisted when the managed ledger rolls over in an hour
+        final PartitionOffsetIndex offsetIndex =
+                new PartitionOffsetIndex(managedLedger, ENTRY_SIZE, 1024, 8, 3600_000L);
+        appendAll(offsetIndex);
+        assertEquals(numUpdates.get(), 1);
+        final PartitionOffsetIndex loadedIndex = newOffsetIndex(ENTRY_SIZE, 1024);
+        loadedIndex.asyncFindPosition(0L, false).join();
+        // 8 evenly spaced index entries from the first entry of ledger 1 to the first entry of ledger 2 are persisted
+        assertEquals(loadedIndex.getIndex().size(), 8);
+        assertEquals(loadedIndex.getIndex().firstEntry().getValue(), PositionImpl.get(1L, 0L));
+        assertEquals(loadedIndex.getIndex().lastEntry().getValue(), PositionImpl.get(2L, 0L));
+        loadedIndex.getIndex().forEach((offset, position) ->
+                assertEquals(offsetIndex.getIndex().get(offset), position));
+        assertTrue(loadedIndex.getTimeIndex().size() > 1);
+        loadedIndex.getTimeIndex().values().forEach(offset ->
+                assertTrue(loadedIndex.getIndex().containsKey(offset)));
+
+        // The index is persisted once the interval has elapsed
+        properties.clear();
+        numUpdates.set(0);
+        final PartitionOffsetIndex periodicIndex = new PartitionOffsetIndex(managedLedger, ENTRY_SIZE, 1024, 8, 1L);
+        appendAll(periodicIndex);
+        Thread.sleep(10);
+        periodicIndex.onAppend(lastOffset(2L, NUM_ENTRIES_LEDGER_2), 2L, NUM_ENTRIES_LEDGER_2, ENTRY_SIZE, 0L);
+        assertTrue(numUpdates.get() >= 2);
+        final PartitionOffsetIndex reloadedIndex = newOffsetIndex(ENTRY_SIZE, 1024);
+        reloadedIndex.asyncFindPosition(0L, false).join();
+        assertEquals(reloadedIndex.getIndex(), periodicIndex.getPersistedIndex());
+        assertEquals(reloadedIndex.getIndex().lastEntry().getValue(), PositionImpl.get(2L, NUM_ENTRIES_LEDGER_2));
+    }
+
+    @Test
+    public void testShrink() {
+        final PartitionOffsetIndex offsetIndex = newOffsetIndex(ENTRY_SIZE, 8);
+        appendAll(offsetIndex);
+        assertTrue(offsetIndex.getIndex().size() <= 8);
+        // The index still covers the whole managed ledger
+        assertEquals(offsetIndex.getIndex().firstEntry().getValue(), PositionImpl.get(1L, 0L));
+        // The time index only refers to the existing index entries
+        assertTrue(offsetIndex.getTimeIndex().size() > 1);
+        offsetIndex.getTimeIndex().values().forEach(offset -> assertTrue(offsetIndex.getIndex().containsKey(offset)));
+    }
+
+    @Test
+    public void testFindPosition() {
+        final PartitionOffsetIndex offsetIndex = newOffsetIndex(INDEX_INTERVAL, 1024);
+        appendAll(offsetIndex);
+
+        // floor and ceiling are in the same ledger
+        assertFindPosition(offsetIndex, 55L, PositionImpl.get(1L, 27L));
+        // ceiling is in the next ledger
+        assertFindPosition(offsetIndex, 195L, PositionImpl.get(1L, 97L));
+        assertFindPosition(offsetIndex, 200L, PositionImpl.get(2L, 0L));
+        // floor and ceiling are in the current ledger
+        assertFindPosition(offsetIndex, 290L, PositionImpl.get(2L, 45L));
+        // no ceiling
+        assertFindPosition(offsetIndex, 295L, PositionImpl.get(2L, 47L));
+        assertFindPosition(offsetIndex, lastOffset(2L, NUM_ENTRIES_LEDGER_2 - 1) + 1,
+                PositionImpl.get(2L, NUM_ENTRIES_LEDGER_2));
+        // no floor
+        assertFindPosition(offsetIndex, 0L, FALLBACK_POSITION);
+    }
+
+    private void assertFindPosition(PartitionOffsetIndex offsetIndex, long offset, Position expectedPosition) {
+        numReads.set(0);
+        assertEquals(offsetIndex.asyncFindPosition(offset, false).join(), expectedPosition);
+        // There are at most 5 entries between two adjacent index entries
+        assertTrue(numReads.get() <= 3);
+    }
+
+    @Test
+    public void testFindPositionByTimestamp() {
+        final PartitionOffsetIndex offsetIndex = newOffsetIndex(INDEX_INTERVAL, 1024);
+        appendAll(offsetIndex);
+
+        assertFindPositionByTimestamp(offsetIndex, 0L, PositionImpl.get(1L, 0L));
+        // floor and ceiling are in the same ledger
+        assertFindPositionByTimestamp(offsetIndex, 275L, PositionImpl.get(1L, 27L));
+        assertFindPositionByTimestamp(offsetIndex, 270L, PositionImpl.get(1L, 27L));
+        // ceiling is in the next ledger
+        assertFindPositionByTimestamp(offsetIndex, 985L, PositionImpl.get(1L, 98L));
+        assertFindPositionByTimestamp(offsetIndex, 995L, PositionImpl.get(1L, 99L));
+        assertFindPositionByTimestamp(offsetIndex, 1000L, PositionImpl.get(2L, 0L));
+        // no ceiling
+        assertFindPositionByTimestamp(offsetIndex, 1475L, PositionImpl.get(2L, 47L));
+        assertFindPositionByTimestamp(offsetIndex, Long.MAX_VALUE, PositionImpl.get(2L, NUM_ENTRIES_LEDGER_2 - 1));
+
+        // no floor, fall back to OffsetFinder, which fails because the mocked managed ledger has no first position
+        assertTrue(offsetIndex.asyncFindPositionByTimestamp(-1L).isCompletedExceptionally());
+    }
+
+    private void assertFindPositionByTimestamp(PartitionOffsetIndex offsetIndex, long timestamp,
+                                               Position expectedPosition) {
+        numReads.set(0);
+        assertEquals(offsetIndex.asyncFindPositionByTimestamp(timestamp).join(), expectedPosition);
+        assertTrue(numReads.get() <= 3);
+    }
+
+    @Test
+    public void testDeletedLedger() {
+        final PartitionOffsetIndex offsetIndex = newOffsetIndex(INDEX_INTERVAL, 1024);
+        appendAll(offsetIndex);
+        managedLedger.getLedgersInfo().remove(1L);
+
+        assertEquals(offsetIndex.asyncFindPosition(55L, false).join(), FALLBACK_POSITION);
+        assertEquals(offsetIndex.getIndex().firstEntry().getValue(), PositionImpl.get(2L, 0L));
+        assertEquals(offsetIndex.getTimeIndex().firstKey().longValue(), publishTime(2L, 0L));
+    }
+
+    @Test
+    public void testSerialization() {
+        final NavigableMap<Long, PositionImpl> index = new TreeMap<>();
+        final NavigableMap<Long, Long> timeIndex = new TreeMap<>();
+        assertSerialization(index, timeIndex);
+        index.put(1L, PositionImpl.get(0L, 10L));
+        index.put(100L, PositionImpl.get(1L, 0L));
+        index.put(200L, PositionImpl.get(1L, 50L));
+        index.put(300L, PositionImpl.get(3L, 0L));
+        assertSerialization(index, timeIndex);
+        timeIndex.put(1000L, 1L);
+        timeIndex.put(2000L, 200L);
+        timeIndex.put(2001L, 300L);
+        assertSerialization(index, timeIndex);
+
+        // Each index entry and its time index entry take about 16 bytes after the base64 encoding, except that the
+        // first entries are not deltas
+        index.clear();
+        timeIndex.clear();
+        for (long i = 0; i < 128; i++) {
+            final long offset = 100_000_000L + i * 10_000L;
+            index.put(offset, PositionImpl.get(1_000_000L + i / 16, (i % 16) * 1_000L));
+            timeIndex.put(1_700_000_000_000L + i * 60_000L, offset);
+        }
+        final String value = PartitionOffsetIndex.encode(index, timeIndex);
+        assertTrue(value.length() <= 128 * 16 + 32, "length: " + value.length());
+        assertSerialization(index, timeIndex);
+
+        expectThrows(IllegalArgumentException.class,
+                () -> PartitionOffsetIndex.decode("1:1:0", new TreeMap<>(), new TreeMap<>()));
+        final byte[] bytes = Base64.getDecoder().decode(value);
+        // truncated
+        expectThrows(IllegalArgumentException.class, () -> PartitionOffsetIndex.decode(
+                Base64.getEncoder().encodeToString(Arrays.copyOf(bytes, bytes.length - 1)),
+                new TreeMap<>(), new TreeMap<>()));
+        // unknown version
+        bytes[0] = 2;
+        expectThrows(IllegalArgumentException.class, () -> PartitionOffsetIndex.decode(
+                Base64.getEncoder().encodeToString(bytes), new TreeMap<>(), new TreeMap<>()));
+
+        // The invalid index is ignored
+        properties.put(PartitionOffsetIndex.PROPERTY_KEY, "invalid");
+        final PartitionOffsetIndex offsetIndex = newOffsetIndex(ENTRY_SIZE, 1024);
+        offsetIndex.onAppend(1L, 1L, 0L, ENTRY_SIZE, 0L);
+        assertEquals(offsetIndex.getIndex().size(), 1);
+        verify(managedLedger).getProperties();
+    }
+
+    private static void assertSerialization(NavigableMap<Long, PositionImpl> index,
+                                            NavigableMap<Long, Long> timeIndex) {
+        final NavigableMap<Long, PositionImpl> decodedIndex = new TreeMap<>();
+        final NavigableMap<Long, Long> decodedTimeIndex = new TreeMap<>();
+        PartitionOffsetIndex.decode(PartitionOffsetIndex.encode(index, timeIndex), decodedIndex, decodedTimeIndex);
+        assertEquals(decodedIndex, index);
+        assertEquals(decodedTimeIndex, timeIndex);
+    }
+}
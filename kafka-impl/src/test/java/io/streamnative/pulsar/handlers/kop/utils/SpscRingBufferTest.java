@@ -0,0 +1,82 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link SpscRingBuffer}.
+ */
+public class SpscRingBufferTest {
+
+    @Test
+    public void testOfferAndPoll() {
+        // The capacity is not a power of two, the ring buffer should still be bounded by it
+        final SpscRingBuffer<Integer> ringBuffer = new SpscRingBuffer<>(3);
+        assertTrue(ringBuffer.isEmpty());
+        assertNull(ringBuffer.peek());
+        assertNull(ringBuffer.poll());
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(ringBuffer.offer(round * 3 + i));
+            }
+            assertTrue(ringBuffer.isFull());
+            assertEquals(ringBuffer.size(), 3);
+            assertFalse(ringBuffer.offer(-1));
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals(ringBuffer.peek().intValue(), round * 3 + i);
+                assertEquals(ringBuffer.poll().intValue(), round * 3 + i);
+                assertFalse(ringBuffer.isFull());
+            }
+            assertTrue(ringBuffer.isEmpty());
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testConcurrentProducerAndConsumer() throws Exception {
+        final int numElements = 1000000;
+        final SpscRingBuffer<Integer> ringBuffer = new SpscRingBuffer<>(100);
+        final Thread producer = new Thread(() -> {
+            for (int i = 0; i < numElements; i++) {
+                while (!ringBuffer.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        final List<Integer> mismatches = new ArrayList<>();
+        for (int i = 0; i < numElements; i++) {
+            Integer element;
+            while ((element = ringBuffer.poll()) == null) {
+                Thread.yield();
+            }
+            if (element != i) {
+                mismatches.add(element);
+            }
+        }
+        producer.join();
+        assertTrue(mismatches.isEmpty(), "Unexpected elements: " + mismatches);
+        assertTrue(ringBuffer.isEmpty());
+    }
+}
@@ -253,6 +253,33 @@ public class DelayedOperationTest {
             1, purgatory.watched());
     }
 
+    @Test
+    public void testSingleShard() {
+        final DelayedOperationPurgatory<MockDelayedOperation> singleShardPurgatory =
+            DelayedOperationPurgatory.<MockDelayedOperation>builder()
+                .purgatoryName("single-shard")
+                .shards(1)
+                .build();
+        try {
+            MockDelayedOperation r1 = new MockDelayedOperation(100000L);
+            MockDelayedOperation r2 = new MockDelayedOperation(100000L);
+            singleShardPurgatory.tryCompleteElseWatch(r1, Lists.newArrayList("test1", "test2"));
+            singleShardPurgatory.tryCompleteElseWatch(r2, Lists.newArrayList("test2", "test3"));
+            assertEquals(4, singleShardPurgatory.watched());
+
+            r1.completable = true;
+            assertEquals(1, singleShardPurgatory.checkAndComplete("test1"));
+            // the completed operation is still watched by "test2" until the key is checked or purged
+            assertEquals(3, singleShardPurgatory.watched());
+            assertEquals(0, singleShardPurgatory.checkAndComplete("test2"));
+            assertEquals(2, singleShardPurgatory.watched());
+            assertEquals(Lists.newArrayList(r2), singleShardPurgatory.cancelForKey("test2"));
+            assertEquals(1, singleShardPurgatory.watched());
+        } finally {
+            singleShardPurgatory.shutdown();
+        }
+    }
+
     @Test
     public void shouldCancelForKeyReturningCancelledOperations() {
         purgatory.tryCompleteElseWatch(new MockDelayedOperation(10000L), Lists.newArrayList("key"));
@@ -0,0 +1,107 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.streamnative.pulsar.handlers.kop.format.DecodeResult;
+import io.streamnative.pulsar.handlers.kop.format.EncodeRequest;
+import io.streamnative.pulsar.handlers.kop.format.EncodeResult;
+import io.streamnative.pulsar.handlers.kop.format.EntryFormatter;
+import io.streamnative.pulsar.handlers.kop.format.EntryFormatterFactory;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionLog;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for {@link EntryFormatter#encode(EncodeRequest)} and {@link EntryFormatter#decode}, i.e. the conversion
+ * between the records of Kafka and the entries of BookKeeper in the produce and fetch paths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntryFormatterBenchmark extends RecordsState {
+
+    @Param({"pulsar", "kafka", "mixed_kafka"})
+    private String entryFormat;
+
+    // The magic of the fetch request, the records are down converted if it's less than the magic of the records
+    @Param({"2"})
+    private byte fetchMagic;
+
+    @Param({"false", "true"})
+    private boolean zeroCopyDecode;
+
+    private EntryFormatter entryFormatter;
+    private MemoryRecords records;
+    private PartitionLog.LogAppendInfo appendInfo;
+    private ByteBuf entryBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        kafkaConfig.setEntryFormat(entryFormat);
+        kafkaConfig.setKopZeroCopyFetchEnabled(zeroCopyDecode);
+        entryFormatter = EntryFormatterFactory.create(kafkaConfig, null, entryFormat);
+        records = newRecords();
+        appendInfo = newPartitionLog().analyzeAndValidateRecords(records);
+
+        final EncodeResult encodeResult = encode();
+        entryBuffer = addBrokerEntryMetadata(encodeResult.getEncodedByteBuf(), appendInfo.numMessages() - 1);
+        encodeResult.recycle();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        entryBuffer.release();
+    }
+
+    private EncodeResult encode() {
+        final EncodeRequest encodeRequest = EncodeRequest.get(duplicate(records), appendInfo);
+        final EncodeResult encodeResult = entryFormatter.encode(encodeRequest);
+        encodeRequest.recycle();
+        return encodeResult;
+    }
+
+    @Benchmark
+    public int encodeRecords() {
+        final EncodeResult encodeResult = encode();
+        final int size = encodeResult.getEncodedByteBuf().readableBytes();
+        encodeResult.recycle();
+        return size;
+    }
+
+    @Benchmark
+    public int decodeEntry() {
+        // The entry shares the buffer but has its own reader index, it's released after decoding
+        final EntryImpl entry = EntryImpl.create(0L, 0L, entryBuffer.duplicate());
+        final DecodeResult decodeResult = entryFormatter.decode(Collections.singletonList(entry), fetchMagic);
+        final int size = decodeResult.getRecords().sizeInBytes();
+        decodeResult.recycle();
+        return size;
+    }
+}
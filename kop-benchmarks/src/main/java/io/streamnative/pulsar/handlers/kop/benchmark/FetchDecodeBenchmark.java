@@ -0,0 +1,99 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.streamnative.pulsar.handlers.kop.exceptions.MetadataCorruptedException;
+import io.streamnative.pulsar.handlers.kop.format.DecodeResult;
+import io.streamnative.pulsar.handlers.kop.format.EncodeRequest;
+import io.streamnative.pulsar.handlers.kop.format.EncodeResult;
+import io.streamnative.pulsar.handlers.kop.format.EntryFormatter;
+import io.streamnative.pulsar.handlers.kop.format.EntryFormatterFactory;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionLog;
+import io.streamnative.pulsar.handlers.kop.utils.ByteBufUtils;
+import io.streamnative.pulsar.handlers.kop.utils.MessageMetadataUtils;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for the steps of decoding an entry in the fetch path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FetchDecodeBenchmark extends RecordsState {
+
+    // The magic of the fetch request, the records are down converted if it's less than the magic of the records
+    @Param({"2"})
+    private byte fetchMagic;
+
+    // The entry produced by Pulsar clients, i.e. in the pulsar format
+    private ByteBuf pulsarEntryBuffer;
+    private EntryImpl pulsarEntry;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final MemoryRecords records = newRecords();
+        final PartitionLog.LogAppendInfo appendInfo = newPartitionLog().analyzeAndValidateRecords(records);
+        final EntryFormatter pulsarFormatter = EntryFormatterFactory.create(kafkaConfig, null, "pulsar");
+        final EncodeRequest encodeRequest = EncodeRequest.get(records, appendInfo);
+        final EncodeResult encodeResult = pulsarFormatter.encode(encodeRequest);
+        encodeRequest.recycle();
+
+        pulsarEntryBuffer = encodeResult.getEncodedByteBuf().copy();
+        final ByteBuf entryBuffer =
+                addBrokerEntryMetadata(encodeResult.getEncodedByteBuf(), appendInfo.numMessages() - 1);
+        pulsarEntry = EntryImpl.create(0L, 0L, entryBuffer);
+        entryBuffer.release();
+        encodeResult.recycle();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        pulsarEntryBuffer.release();
+        pulsarEntry.release();
+    }
+
+    @Benchmark
+    public long peekBaseOffsetFromEntry() throws MetadataCorruptedException {
+        return MessageMetadataUtils.peekBaseOffsetFromEntry(pulsarEntry);
+    }
+
+    @Benchmark
+    public int decodePulsarEntryToKafkaRecords() throws MetadataCorruptedException, IOException {
+        final ByteBuf payload = pulsarEntryBuffer.duplicate();
+        final MessageMetadata metadata = MessageMetadataUtils.parseMessageMetadata(payload);
+        final DecodeResult decodeResult = ByteBufUtils.decodePulsarEntryToKafkaRecords(
+                metadata, payload, 0L, fetchMagic);
+        final int size = decodeResult.getRecords().sizeInBytes();
+        decodeResult.recycle();
+        return size;
+    }
+}
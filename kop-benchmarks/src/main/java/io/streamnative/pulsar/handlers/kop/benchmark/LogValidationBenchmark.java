@@ -0,0 +1,84 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.benchmark;
+
+import io.streamnative.pulsar.handlers.kop.format.ValidationAndOffsetAssignResult;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionLog;
+import io.streamnative.pulsar.handlers.kop.utils.KopLogValidator;
+import io.streamnative.pulsar.handlers.kop.utils.LongRef;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for the validation of the records in the produce path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogValidationBenchmark extends RecordsState {
+
+    // The compression type of the broker, "none" means the compression type of the producer is retained
+    @Param({"none"})
+    private String brokerCompression;
+
+    private PartitionLog partitionLog;
+    private MemoryRecords records;
+    private KopLogValidator.CompressionCodec sourceCodec;
+    private KopLogValidator.CompressionCodec targetCodec;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        kafkaConfig.setKafkaCompressionType(brokerCompression);
+        partitionLog = newPartitionLog();
+        records = newRecords();
+        sourceCodec = KopLogValidator.getSourceCodec(records);
+        targetCodec = KopLogValidator.getTargetCodec(sourceCodec, brokerCompression);
+    }
+
+    @Benchmark
+    public PartitionLog.LogAppendInfo analyzeAndValidateRecords() {
+        return partitionLog.analyzeAndValidateRecords(duplicate(records));
+    }
+
+    @Benchmark
+    public int validateMessagesAndAssignOffsets() {
+        final ValidationAndOffsetAssignResult result = KopLogValidator.validateMessagesAndAssignOffsets(
+                duplicate(records),
+                new LongRef(0L),
+                System.currentTimeMillis(),
+                sourceCodec,
+                targetCodec,
+                false,
+                RecordBatch.MAGIC_VALUE_V2,
+                TimestampType.CREATE_TIME,
+                Long.MAX_VALUE);
+        final int size = result.getRecords().sizeInBytes();
+        result.recycle();
+        return size;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionLog;
+import io.streamnative.pulsar.handlers.kop.storage.ProducerStateManager;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.Time;
+import org.apache.pulsar.common.api.proto.BrokerEntryMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The common parameters of the benchmarks, which describe the records of a produce request.
+ */
+@State(Scope.Benchmark)
+public abstract class RecordsState {
+
+    private static final String TOPIC = "benchmark";
+    // Use a fixed seed so that the records are the same in each run
+    private static final long SEED = 0L;
+
+    @Param({"1", "100", "1000"})
+    protected int batchSize;
+
+    @Param({"100", "1024"})
+    protected int recordSize;
+
+    @Param({"none", "lz4", "zstd"})
+    protected String compression;
+
+    @Param({"2"})
+    protected byte magic;
+
+    protected final KafkaServiceConfiguration kafkaConfig = new KafkaServiceConfiguration();
+
+    protected PartitionLog newPartitionLog() {
+        return new PartitionLog(kafkaConfig, null, Time.SYSTEM, new TopicPartition(TOPIC, 0), TOPIC, null,
+                new ProducerStateManager(TOPIC));
+    }
+
+    /**
+     * Build the records whose base offset is 0, like the records of a produce request.
+     */
+    protected MemoryRecords newRecords() {
+        final CompressionType compressionType = CompressionType.forName(compression);
+        final Random random = new Random(SEED);
+        final MemoryRecordsBuilder builder = MemoryRecords.builder(
+                ByteBuffer.allocate(batchSize * (recordSize + 64) + 1024), magic, compressionType,
+                TimestampType.CREATE_TIME, 0L);
+        final long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < batchSize; i++) {
+            final byte[] value = new byte[recordSize];
+            // Use the printable characters so that the records can be compressed like the real world data
+            for (int j = 0; j < recordSize; j++) {
+                value[j] = (byte) ('a' + random.nextInt(26));
+            }
+            builder.append(timestamp, ("key-" + i).getBytes(), value);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Duplicate the records so that the benchmark won't modify the original buffer.
+     */
+    protected static MemoryRecords duplicate(final MemoryRecords records) {
+        return MemoryRecords.readableRecords(records.buffer().duplicate());
+    }
+
+    /**
+     * Prepend the BrokerEntryMetadata to the encoded entry like what the broker does before writing to bookies.
+     */
+    protected static ByteBuf addBrokerEntryMetadata(final ByteBuf encodedByteBuf, final long lastOffset) {
+        final BrokerEntryMetadata brokerEntryMetadata = new BrokerEntryMetadata()
+                .setBrokerTimestamp(System.currentTimeMillis())
+                .setIndex(lastOffset);
+        final ByteBuf buf = Unpooled.buffer();
+        buf.writeShort(Commands.magicBrokerEntryMetadata);
+        buf.writeInt(brokerEntryMetadata.getSerializedSize());
+        brokerEntryMetadata.writeTo(buf);
+        buf.writeBytes(encodedByteBuf, encodedByteBuf.readerIndex(), encodedByteBuf.readableBytes());
+        return buf;
+    }
+}
@@ -27,6 +27,7 @@ import static org.mockito.Mockito.spy;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
@@ -53,6 +54,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -77,6 +79,7 @@ import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.OffsetFetchResponse;
 import org.apache.kafka.common.requests.OffsetFetchResponse.PartitionData;
 import org.apache.kafka.common.utils.Time;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.client.admin.PulsarAdminException;
 import org.apache.pulsar.client.api.Consumer;
 import org.apache.pulsar.client.api.Message;
@@ -87,6 +90,7 @@ import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.api.ReaderBuilder;
 import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.api.SubscriptionInitialPosition;
+import org.apache.pulsar.common.naming.TopicName;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeClass;
@@ -1919,4 +1923,134 @@ public class GroupMetadataManagerTest extends KopProtocolHandlerTestBase {
             OffsetFetchResponse.INVALID_OFFSET,
             cachedOffsets.get(topicPartition2).offset);
     }
+
+    @Test
+    public void testPartitionAffineExecutor() throws Exception {
+        final OrderedScheduler multiThreadScheduler = OrderedScheduler.newSchedulerBuilder()
+                .name("test-multi-thread-scheduler")
+                .numThreads(numOffsetsPartitions)
+                .build();
+        final GroupMetadataManager manager = new GroupMetadataManager(
+                offsetConfig,
+                producerBuilder,
+                readerBuilder,
+                multiThreadScheduler,
+                NAMESPACE_PREFIX,
+                Time.SYSTEM
+        );
+        try {
+            // the groups of the same partition share the same executor
+            assertSame(manager.executorFor(groupId), manager.executorFor(manager.partitionFor(groupId)));
+            assertNotSame(manager.executorFor(0), manager.executorFor(1));
+
+            // a blocked partition doesn't block the other partitions
+            final CountDownLatch blockLatch = new CountDownLatch(1);
+            final CompletableFuture<Void> blockedFuture = CompletableFuture.runAsync(() -> {
+                try {
+                    blockLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, manager.executorFor(0));
+            CompletableFuture.runAsync(() -> {}, manager.executorFor(1)).get(3, TimeUnit.SECONDS);
+            assertFalse(blockedFuture.isDone());
+
+            // the tasks of the same partition are executed in order
+            final List<Integer> executedTasks = Collections.synchronizedList(new ArrayList<>());
+            final List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                final int index = i;
+                futures.add(CompletableFuture.runAsync(() -> executedTasks.add(index), manager.executorFor(0)));
+            }
+            blockLatch.countDown();
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(3, TimeUnit.SECONDS);
+            assertEquals(executedTasks, Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadFromSnapshot() throws Exception {
+        final OffsetConfig snapshotOffsetConfig = OffsetConfig.builder()
+                .offsetsTopicName(offsetConfig.offsetsTopicName())
+                .offsetsTopicNumPartitions(numOffsetsPartitions)
+                .groupMetadataSnapshotIntervalMs(TimeUnit.HOURS.toMillis(1))
+                .build();
+        final OffsetsTopicLocalWriter localWriter = new OffsetsTopicLocalWriter(pulsar.getBrokerService());
+        final GroupMetadataManager manager = new GroupMetadataManager(snapshotOffsetConfig, producerBuilder,
+                readerBuilder, scheduler, NAMESPACE_PREFIX, Time.SYSTEM, localWriter);
+        manager.addPartitionOwnership(groupPartitionId);
+        final GroupMetadata group = new GroupMetadata(groupId, Empty);
+        manager.addGroup(group);
+
+        final TopicPartition tp0 = new TopicPartition("foo", 0);
+        final TopicPartition tp1 = new TopicPartition("foo", 1);
+        manager.storeOffsets(group, "", ImmutableMap.of(tp0, OffsetAndMetadata.apply(10L))).get();
+        manager.takeSnapshot(groupPartitionId).get();
+        final PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService()
+                .getTopicReference(TopicName.get(manager.getTopicPartitionName(groupPartitionId)).toString())
+                .orElseThrow();
+        assertTrue(persistentTopic.getManagedLedger().getProperties()
+                .containsKey(GroupMetadataSnapshot.PROPERTY_KEY));
+        // the messages after the snapshot are replayed
+        manager.storeOffsets(group, "", ImmutableMap.of(
+                tp0, OffsetAndMetadata.apply(20L), tp1, OffsetAndMetadata.apply(30L))).get();
+        manager.shutdown();
+
+        // load from the snapshot, and replay the whole partition with the snapshot skipped
+        for (long snapshotIntervalMs : new long[]{ snapshotOffsetConfig.groupMetadataSnapshotIntervalMs(), 0L }) {
+            final OffsetConfig loadOffsetConfig = OffsetConfig.builder()
+                    .offsetsTopicName(offsetConfig.offsetsTopicName())
+                    .offsetsTopicNumPartitions(numOffsetsPartitions)
+                    .groupMetadataSnapshotIntervalMs(snapshotIntervalMs)
+                    .build();
+            final GroupMetadataManager loadManager = new GroupMetadataManager(loadOffsetConfig, producerBuilder,
+                    readerBuilder, scheduler, NAMESPACE_PREFIX, Time.SYSTEM, localWriter);
+            try {
+                final CompletableFuture<GroupMetadata> onLoadedFuture = new CompletableFuture<>();
+                loadManager.scheduleLoadGroupAndOffsets(groupPartitionId, onLoadedFuture::complete).get();
+                final GroupMetadata loadedGroup = onLoadedFuture.get();
+                assertEquals(loadedGroup.allOffsets().size(), 2);
+                assertEquals(loadedGroup.offset(tp0, NAMESPACE_PREFIX).map(OffsetAndMetadata::offset),
+                        Optional.of(20L));
+                assertEquals(loadedGroup.offset(tp1, NAMESPACE_PREFIX).map(OffsetAndMetadata::offset),
+                        Optional.of(30L));
+            } finally {
+                loadManager.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testSkipSnapshotLargerThanMaxMessageSize() throws Exception {
+        final OffsetConfig snapshotOffsetConfig = OffsetConfig.builder()
+                .offsetsTopicName(offsetConfig.offsetsTopicName())
+                .offsetsTopicNumPartitions(numOffsetsPartitions)
+                .groupMetadataSnapshotIntervalMs(TimeUnit.HOURS.toMillis(1))
+                .maxMessageSize(1)
+                .build();
+        final OffsetsTopicLocalWriter localWriter = new OffsetsTopicLocalWriter(pulsar.getBrokerService());
+        final GroupMetadataManager manager = new GroupMetadataManager(snapshotOffsetConfig, producerBuilder,
+                readerBuilder, scheduler, NAMESPACE_PREFIX, Time.SYSTEM, localWriter);
+        try {
+            manager.addPartitionOwnership(groupPartitionId);
+            final GroupMetadata group = new GroupMetadata(groupId, Empty);
+            manager.addGroup(group);
+            manager.storeOffsets(group, "", ImmutableMap.of(new TopicPartition("foo", 0),
+                    OffsetAndMetadata.apply(10L))).get();
+            final PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService()
+                    .getTopicReference(TopicName.get(manager.getTopicPartitionName(groupPartitionId)).toString())
+                    .orElseThrow();
+            final String previousSnapshot =
+                    persistentTopic.getManagedLedger().getProperties().get(GroupMetadataSnapshot.PROPERTY_KEY);
+
+            // the snapshot is larger than the configured maxMessageSize, so it's not written
+            manager.takeSnapshot(groupPartitionId).get();
+            assertEquals(persistentTopic.getManagedLedger().getProperties().get(GroupMetadataSnapshot.PROPERTY_KEY),
+                    previousSnapshot);
+        } finally {
+            manager.shutdown();
+        }
+    }
 }
@@ -14,11 +14,16 @@
 package io.streamnative.pulsar.handlers.kop.storage;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertThrows;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import io.streamnative.pulsar.handlers.kop.KopProtocolHandlerTestBase;
 import io.streamnative.pulsar.handlers.kop.utils.timer.MockTime;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
@@ -245,6 +250,99 @@ public class ProducerStateManagerTest extends KopProtocolHandlerTestBase {
         assertEquals(Optional.empty(), stateManager.lastEntry(producerId).get().currentTxnFirstOffset());
     }
 
+    @Test(timeOut = defaultTestTimeout)
+    public void testSnapshot() {
+        short epoch = 0;
+        // nothing to snapshot
+        assertNull(stateManager.maybeTakeSnapshot());
+
+        long producerId2 = producerId + 1;
+        append(stateManager, producerId, epoch, 10L, time.milliseconds(), true);
+        appendEndTxnMarker(stateManager, producerId, epoch, ControlRecordType.ABORT, 20L, 0, time.milliseconds())
+                .ifPresent(completedTxn -> stateManager.updateTxnIndex(completedTxn, 21L));
+        append(stateManager, producerId2, epoch, 30L, time.milliseconds(), true);
+        stateManager.updateMapEndOffset(31L);
+
+        final ByteBuffer snapshot = stateManager.maybeTakeSnapshot();
+        assertNotNull(snapshot);
+        // the state is not changed since the last snapshot
+        assertNull(stateManager.maybeTakeSnapshot());
+
+        final ProducerStateManager loadedStateManager = new ProducerStateManager(partition.toString());
+        assertEquals(loadedStateManager.loadSnapshot(snapshot.duplicate()), 31L);
+        assertEquals(loadedStateManager.mapEndOffset(), 31L);
+        assertEquals(loadedStateManager.firstUndecidedOffset(), Optional.of(30L));
+        assertEquals(loadedStateManager.lastEntry(producerId), stateManager.lastEntry(producerId));
+        assertEquals(loadedStateManager.lastEntry(producerId2), stateManager.lastEntry(producerId2));
+        assertEquals(loadedStateManager.getAbortedIndexList(0L).size(), 1);
+        assertEquals(loadedStateManager.getAbortedIndexList(0L).get(0).producerId, producerId.longValue());
+        assertEquals(loadedStateManager.getAbortedIndexList(0L).get(0).firstOffset, 10L);
+
+        // the loaded state is updated as usual
+        appendEndTxnMarker(loadedStateManager, producerId2, epoch, ControlRecordType.COMMIT, 40L, 0,
+                time.milliseconds());
+        assertEquals(loadedStateManager.firstUndecidedOffset(), Optional.empty());
+
+        final ByteBuffer truncatedSnapshot = snapshot.duplicate();
+        truncatedSnapshot.limit(truncatedSnapshot.limit() - 1);
+        assertThrows(IllegalArgumentException.class, () -> loadedStateManager.loadSnapshot(truncatedSnapshot));
+    }
+
+    @Test(timeOut = defaultTestTimeout)
+    public void testRemoveExpiredProducers() {
+        short epoch = 0;
+        long producerId2 = producerId + 1;
+        append(stateManager, producerId, epoch, 0L, 100L, false);
+        // the producer with an ongoing transaction never expires
+        append(stateManager, producerId2, epoch, 1L, 100L, true);
+        stateManager.updateMapEndOffset(2L);
+
+        assertEquals(stateManager.removeExpiredProducers(1099L, 1000L), 0);
+        assertEquals(stateManager.removeExpiredProducers(1100L, 1000L), 1);
+        assertFalse(stateManager.lastEntry(producerId).isPresent());
+        assertTrue(stateManager.lastEntry(producerId2).isPresent());
+
+        // the expired producers are not written to the snapshot
+        final ProducerStateManager loadedStateManager = new ProducerStateManager(partition.toString());
+        assertEquals(loadedStateManager.loadSnapshot(stateManager.maybeTakeSnapshot()), 2L);
+        assertFalse(loadedStateManager.lastEntry(producerId).isPresent());
+        assertEquals(loadedStateManager.lastEntry(producerId2), stateManager.lastEntry(producerId2));
+    }
+
+    @Test(timeOut = defaultTestTimeout)
+    public void testAbortedIndexLookup() {
+        short epoch = 0;
+        long producerId2 = producerId + 1;
+        long producerId3 = producerId + 2;
+        // aborted transactions: [0, 10], [5, 30], [40, 50]
+        append(stateManager, producerId, epoch, 0L, time.milliseconds(), true);
+        append(stateManager, producerId2, epoch, 5L, time.milliseconds(), true);
+        appendEndTxnMarker(stateManager, producerId, epoch, ControlRecordType.ABORT, 10L, 0, time.milliseconds())
+                .ifPresent(completedTxn -> stateManager.updateTxnIndex(completedTxn, 5L));
+        appendEndTxnMarker(stateManager, producerId2, epoch, ControlRecordType.ABORT, 30L, 0, time.milliseconds())
+                .ifPresent(completedTxn -> stateManager.updateTxnIndex(completedTxn, 31L));
+        append(stateManager, producerId3, epoch, 40L, time.milliseconds(), true);
+        appendEndTxnMarker(stateManager, producerId3, epoch, ControlRecordType.ABORT, 50L, 0, time.milliseconds())
+                .ifPresent(completedTxn -> stateManager.updateTxnIndex(completedTxn, 51L));
+
+        assertEquals(stateManager.getAbortedIndexList(0L).size(), 3);
+        assertEquals(stateManager.getAbortedIndexList(0L, 5L).size(), 1);
+        assertEquals(stateManager.getAbortedIndexList(0L, 6L).size(), 2);
+        assertEquals(stateManager.getAbortedIndexList(11L, 20L).size(), 1);
+        assertEquals(stateManager.getAbortedIndexList(11L, 20L).get(0).producerId, producerId2);
+        assertTrue(stateManager.getAbortedIndexList(31L, 40L).isEmpty());
+        assertEquals(stateManager.getAbortedIndexList(31L, 41L).get(0).producerId, producerId3);
+        assertTrue(stateManager.getAbortedIndexList(51L).isEmpty());
+
+        // the aborted transactions before the log start offset are removed
+        assertEquals(stateManager.truncateAbortedTxns(0L), 0);
+        assertEquals(stateManager.truncateAbortedTxns(11L), 1);
+        assertEquals(stateManager.getAbortedIndexList(0L).size(), 2);
+        assertEquals(stateManager.getAbortedIndexList(0L, 6L).size(), 1);
+        assertEquals(stateManager.truncateAbortedTxns(51L), 2);
+        assertTrue(stateManager.getAbortedIndexList(0L).isEmpty());
+    }
+
     private Optional<CompletedTxn> appendEndTxnMarker(ProducerStateManager mapping,
                                                                            Long producerId,
                                                                            Short producerEpoch,
@@ -0,0 +1,162 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+
+import io.streamnative.pulsar.handlers.kop.KopProtocolHandlerTestBase;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import lombok.Cleanup;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.awaitility.Awaitility;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Test for the recovery of the producer state from the snapshot after the partition is reloaded.
+ */
+@Slf4j
+public class ProducerStateRecoveryTest extends KopProtocolHandlerTestBase {
+
+    private static final long SNAPSHOT_INTERVAL_MS = 5000L;
+    private static final String NAMESPACE_PREFIX = "public/default";
+
+    @BeforeClass
+    @Override
+    protected void setup() throws Exception {
+        this.conf.setKafkaTransactionCoordinatorEnabled(true);
+        this.conf.setBrokerDeduplicationEnabled(true);
+        this.conf.setKopProducerStateSnapshotIntervalMs(SNAPSHOT_INTERVAL_MS);
+        super.internalSetup();
+        log.info("success internal setup");
+    }
+
+    @AfterClass
+    @Override
+    protected void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    @Test(timeOut = 60000)
+    public void testRecoverAfterReload() throws Exception {
+        final String topic = "test-recover-producer-state";
+        final String partitionName = "persistent://" + NAMESPACE_PREFIX + "/" + topic + "-partition-0";
+        final TopicPartition topicPartition = new TopicPartition(topic, 0);
+        admin.topics().createPartitionedTopic(topic, 1);
+
+        final Properties txnProducerProps = newKafkaProducerProperties();
+        txnProducerProps.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, "txn-recover-producer-state");
+        @Cleanup
+        final KafkaProducer<String, String> txnProducer = new KafkaProducer<>(txnProducerProps);
+        final Properties idempotentProducerProps = newKafkaProducerProperties();
+        idempotentProducerProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        @Cleanup
+        final KafkaProducer<String, String> idempotentProducer = new KafkaProducer<>(idempotentProducerProps);
+
+        // The first append takes a snapshot, then no snapshot is taken until the interval elapses
+        txnProducer.initTransactions();
+        txnProducer.beginTransaction();
+        txnProducer.send(new ProducerRecord<>(topic, "abort-0")).get();
+        txnProducer.send(new ProducerRecord<>(topic, "abort-1")).get();
+        txnProducer.abortTransaction();
+        txnProducer.beginTransaction();
+        txnProducer.send(new ProducerRecord<>(topic, "commit-0")).get();
+        txnProducer.commitTransaction();
+        idempotentProducer.send(new ProducerRecord<>(topic, "idempotent-0")).get();
+        final PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService()
+                .getTopicIfExists(partitionName).get().orElseThrow();
+        Awaitility.await().untilAsserted(() -> assertNotNull(getSnapshot(persistentTopic)));
+        final String firstSnapshot = getSnapshot(persistentTopic);
+
+        Thread.sleep(SNAPSHOT_INTERVAL_MS);
+        idempotentProducer.send(new ProducerRecord<>(topic, "idempotent-1")).get();
+        Awaitility.await().untilAsserted(() -> assertNotEquals(getSnapshot(persistentTopic), firstSnapshot));
+        final String snapshot = getSnapshot(persistentTopic);
+
+        // The tail after the snapshot, which must be replayed after the reload
+        txnProducer.beginTransaction();
+        final long ongoingTxnOffset = txnProducer.send(new ProducerRecord<>(topic, "ongoing-0")).get().offset();
+        idempotentProducer.send(new ProducerRecord<>(topic, "idempotent-2")).get();
+        assertEquals(getSnapshot(persistentTopic), snapshot);
+
+        final PartitionLog partitionLog =
+                getProtocolHandler().getReplicaManager().getPartitionLog(topicPartition, NAMESPACE_PREFIX);
+        final Map<Long, ProducerStateEntry> producers =
+                partitionLog.getProducerStateManager().activeProducers();
+        assertEquals(producers.size(), 2);
+        final List<FetchResponse.AbortedTransaction> abortedTxns = partitionLog.getAbortedIndexList(0L);
+        assertEquals(abortedTxns.size(), 1);
+        assertEquals(partitionLog.firstUndecidedOffset(), Optional.of(ongoingTxnOffset));
+
+        admin.topics().unload(partitionName);
+        Awaitility.await().untilAsserted(() -> assertNotSame(
+                getProtocolHandler().getReplicaManager().getPartitionLog(topicPartition, NAMESPACE_PREFIX),
+                partitionLog));
+
+        // The READ_COMMITTED fetch recovers the producer state from the snapshot and the tail, so the records of the
+        // aborted transaction are filtered and the records after the ongoing transaction are not returned
+        final Properties consumerProps = newKafkaConsumerProperties("group-recover-producer-state");
+        consumerProps.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        @Cleanup
+        final KafkaConsumer<String, String> consumer = new KafkaConsumer<>(consumerProps);
+        consumer.subscribe(Collections.singleton(topic));
+        assertEquals(receiveValues(consumer, 3), List.of("commit-0", "idempotent-0", "idempotent-1"));
+
+        final PartitionLog reloadedPartitionLog =
+                getProtocolHandler().getReplicaManager().getPartitionLog(topicPartition, NAMESPACE_PREFIX);
+        assertEquals(reloadedPartitionLog.getProducerStateManager().activeProducers(), producers);
+        assertEquals(reloadedPartitionLog.getAbortedIndexList(0L), abortedTxns);
+        assertEquals(reloadedPartitionLog.firstUndecidedOffset(), Optional.of(ongoingTxnOffset));
+
+        // The producers continue with their sequences and epochs, no record is duplicated
+        idempotentProducer.send(new ProducerRecord<>(topic, "idempotent-3")).get();
+        txnProducer.commitTransaction();
+        assertEquals(receiveValues(consumer, 3), List.of("ongoing-0", "idempotent-2", "idempotent-3"));
+        assertEquals(reloadedPartitionLog.firstUndecidedOffset(), Optional.empty());
+        assertEquals(consumer.poll(Duration.ofSeconds(1)).count(), 0);
+    }
+
+    private static String getSnapshot(final PersistentTopic persistentTopic) {
+        return persistentTopic.getManagedLedger().getProperties().get(ProducerStateManager.SNAPSHOT_PROPERTY_KEY);
+    }
+
+    private static List<String> receiveValues(final KafkaConsumer<String, String> consumer, final int numRecords) {
+        final List<String> values = new ArrayList<>();
+        while (values.size() < numRecords) {
+            for (ConsumerRecord<String, String> record : consumer.poll(Duration.ofSeconds(1))) {
+                values.add(record.value());
+            }
+        }
+        return values;
+    }
+}